@@ -12,6 +12,7 @@
  */
 package org.sonatype.nexus.internal.event;
 
+import java.lang.annotation.Annotation;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
@@ -23,6 +24,7 @@ import javax.inject.Singleton;
 
 import org.sonatype.goodies.lifecycle.LifecycleSupport;
 import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.common.event.DeferredEventWork;
 import org.sonatype.nexus.common.event.EventAware;
 import org.sonatype.nexus.common.event.EventAware.Asynchronous;
 import org.sonatype.nexus.common.event.EventBus;
@@ -67,6 +69,8 @@ public class EventManagerImpl
 
   private final AsyncEventBus asyncBus;
 
+  private final Iterable<? extends BeanEntry<Annotation, DeferredEventWork>> deferredWork;
+
   @Inject
   public EventManagerImpl(final BeanLocator beanLocator,
                           final EventBus eventBus)
@@ -86,6 +90,8 @@ public class EventManagerImpl
     );
 
     this.asyncBus = new AsyncEventBus("event-async", NexusExecutorService.forCurrentSubject(threadPool));
+
+    this.deferredWork = beanLocator.locate(Key.get(DeferredEventWork.class));
   }
 
   /**
@@ -154,14 +160,23 @@ public class EventManagerImpl
   }
 
   /**
-   * Used by UTs and ITs only, to "wait for calm period", when all the async event inspectors finished.
+   * Used by UTs and ITs only, to "wait for calm period", when all the async event inspectors finished, as well as any
+   * {@link DeferredEventWork} they queued.
    */
   @Override
   @VisibleForTesting
   @ManagedAttribute
   public boolean isCalmPeriod() {
     // "calm period" is when we have no queued nor active threads
-    return threadPool.getQueue().isEmpty() && threadPool.getActiveCount() == 0;
+    if (!threadPool.getQueue().isEmpty() || threadPool.getActiveCount() != 0) {
+      return false;
+    }
+    for (BeanEntry<Annotation, DeferredEventWork> entry : deferredWork) {
+      if (!entry.getValue().isCalmPeriod()) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -87,6 +87,11 @@ public class CPrivilegeEntityAdapter
     return new CPrivilege();
   }
 
+  @Override
+  public boolean sendEvents() {
+    return true;
+  }
+
   @Override
   protected void readFields(final ODocument document, final CPrivilege entity) throws Exception {
     entity.setId(document.<String>field(P_ID, OType.STRING));
@@ -85,6 +85,11 @@ public class CRoleEntityAdapter
     return new CRole();
   }
 
+  @Override
+  public boolean sendEvents() {
+    return true;
+  }
+
   @Override
   protected void readFields(final ODocument document, final CRole entity) throws Exception {
     entity.setId(document.<String>field(P_ID, OType.STRING));
@@ -88,6 +88,11 @@ public class CUserEntityAdapter
     return new CUser();
   }
 
+  @Override
+  public boolean sendEvents() {
+    return true;
+  }
+
   @Override
   protected void readFields(final ODocument document, final CUser entity) throws Exception {
     entity.setId(document.<String>field(P_ID, OType.STRING));
@@ -79,6 +79,11 @@ public class CUserRoleMappingEntityAdapter
     return new CUserRoleMapping();
   }
 
+  @Override
+  public boolean sendEvents() {
+    return true;
+  }
+
   @Override
   protected void readFields(final ODocument document, final CUserRoleMapping entity) throws Exception {
     entity.setUserId(document.<String>field(P_USER_ID, OType.STRING));
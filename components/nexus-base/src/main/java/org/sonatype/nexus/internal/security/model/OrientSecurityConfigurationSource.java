@@ -13,18 +13,27 @@
 package org.sonatype.nexus.internal.security.model;
 
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.sonatype.goodies.common.Mutex;
 import org.sonatype.goodies.lifecycle.LifecycleSupport;
 import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.common.event.EventAware;
+import org.sonatype.nexus.common.event.EventBus;
 import org.sonatype.nexus.orient.DatabaseInstance;
+import org.sonatype.nexus.orient.entity.EntityEvent;
+import org.sonatype.nexus.security.authz.AuthorizationConfigurationChanged;
 import org.sonatype.nexus.security.config.CPrivilege;
 import org.sonatype.nexus.security.config.CRole;
 import org.sonatype.nexus.security.config.CUser;
@@ -37,7 +46,10 @@ import org.sonatype.nexus.security.user.NoSuchRoleMappingException;
 import org.sonatype.nexus.security.user.UserManager;
 import org.sonatype.nexus.security.user.UserNotFoundException;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
 import com.orientechnologies.orient.core.record.impl.ODocument;
@@ -49,6 +61,11 @@ import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.STORAGE;
 /**
  * Default {@link SecurityConfigurationSource} implementation using Orient db as store.
  *
+ * Reads are answered from an immutable in-memory snapshot of the database, loaded at start. Writes are committed to the
+ * database first and then replace the snapshot. Changes committed to the database elsewhere, for example by another
+ * node, are picked up from the {@link EntityEvent}s of their transactions, which mark the snapshot stale until the
+ * next read reloads it.
+ *
  * @since 3.0
  */
 @Named
@@ -56,7 +73,7 @@ import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.STORAGE;
 @Singleton
 public class OrientSecurityConfigurationSource
     extends LifecycleSupport
-    implements SecurityConfigurationSource
+    implements SecurityConfigurationSource, EventAware
 {
   /**
    * Security database.
@@ -76,6 +93,23 @@ public class OrientSecurityConfigurationSource
 
   private final CUserRoleMappingEntityAdapter userRoleMappingEntityAdapter;
 
+  private final EventBus eventBus;
+
+  /**
+   * Serializes writes, so snapshots are replaced in the same order the database was changed.
+   */
+  private final Mutex writeLock = new Mutex();
+
+  /**
+   * Contents of the database as of the last change.
+   */
+  private volatile Snapshot snapshot;
+
+  /**
+   * Set once security entities were changed through the database, until the snapshot is reloaded.
+   */
+  private final AtomicBoolean stale = new AtomicBoolean();
+
   /**
    * The configuration.
    */
@@ -87,7 +121,8 @@ public class OrientSecurityConfigurationSource
                                            final CUserEntityAdapter userEntityAdapter,
                                            final CRoleEntityAdapter roleEntityAdapter,
                                            final CPrivilegeEntityAdapter privilegeEntityAdapter,
-                                           final CUserRoleMappingEntityAdapter userRoleMappingEntityAdapter)
+                                           final CUserRoleMappingEntityAdapter userRoleMappingEntityAdapter,
+                                           final EventBus eventBus)
   {
     this.databaseInstance = checkNotNull(databaseInstance);
     this.securityDefaults = checkNotNull(defaults);
@@ -95,6 +130,7 @@ public class OrientSecurityConfigurationSource
     this.roleEntityAdapter = checkNotNull(roleEntityAdapter);
     this.privilegeEntityAdapter = checkNotNull(privilegeEntityAdapter);
     this.userRoleMappingEntityAdapter = checkNotNull(userRoleMappingEntityAdapter);
+    this.eventBus = checkNotNull(eventBus);
   }
 
   @Override
@@ -155,9 +191,17 @@ public class OrientSecurityConfigurationSource
           }
         }
       });
+
+      stale.set(false);
+      snapshot = load(db);
     }
   }
 
+  @Override
+  protected void doStop() {
+    snapshot = null;
+  }
+
   @Override
   public SecurityConfiguration getConfiguration() {
     return configuration;
@@ -169,6 +213,28 @@ public class OrientSecurityConfigurationSource
     return getConfiguration();
   }
 
+  /**
+   * Marks the snapshot stale when security entities were changed through the database, for example by another node,
+   * and tells authorization caches to drop what they derived from it. A transaction sends an event per entity, so the
+   * snapshot is only reloaded by the next read, and caches are told once until then. Events of writes made through
+   * this source are received on the writing thread while it holds the write lock, and are skipped as the write
+   * replaces the snapshot.
+   *
+   * @since 3.1
+   */
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final EntityEvent event) {
+    Class<?> type = event.getEntityType();
+    if (CUser.class.equals(type) || CRole.class.equals(type) || CPrivilege.class.equals(type)
+        || CUserRoleMapping.class.equals(type)) {
+      if (isStarted() && !Thread.holdsLock(writeLock) && stale.compareAndSet(false, true)) {
+        log.debug("Security configuration changed by: {}", event);
+        eventBus.post(new AuthorizationConfigurationChanged());
+      }
+    }
+  }
+
   /**
    * Open a database connection using the pool.
    */
@@ -177,6 +243,110 @@ public class OrientSecurityConfigurationSource
     return databaseInstance.get().acquire();
   }
 
+  /**
+   * Returns the snapshot, first reloading it if stale.
+   */
+  private Snapshot snapshot() {
+    ensureStarted();
+    if (stale.get()) {
+      synchronized (writeLock) {
+        // cleared before loading, so changes committed while loading mark the snapshot stale again
+        if (stale.compareAndSet(true, false)) {
+          log.debug("Reloading security configuration");
+          try (ODatabaseDocumentTx db = openDb()) {
+            snapshot = load(db);
+          }
+          catch (RuntimeException e) {
+            stale.set(true);
+            throw e;
+          }
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  private Snapshot load(final ODatabaseDocumentTx db) {
+    Map<String, CUser> users = new LinkedHashMap<>();
+    for (CUser user : userEntityAdapter.browse.execute(db)) {
+      users.put(user.getId(), user);
+    }
+    Map<String, CRole> roles = new LinkedHashMap<>();
+    for (CRole role : roleEntityAdapter.browse.execute(db)) {
+      roles.put(role.getId(), role);
+    }
+    Map<String, CPrivilege> privileges = new LinkedHashMap<>();
+    for (CPrivilege privilege : privilegeEntityAdapter.browse.execute(db)) {
+      privileges.put(privilege.getId(), privilege);
+    }
+    Map<String, CUserRoleMapping> mappings = new LinkedHashMap<>();
+    for (CUserRoleMapping mapping : userRoleMappingEntityAdapter.browse.execute(db)) {
+      mappings.put(mappingKey(mapping.getUserId(), mapping.getSource()), mapping);
+    }
+    log.debug("Loaded {} users, {} roles, {} privileges and {} user/role mappings",
+        users.size(), roles.size(), privileges.size(), mappings.size());
+    return new Snapshot(users, roles, privileges, mappings);
+  }
+
+  private static String mappingKey(final String userId, final String source) {
+    return userId + "|" + source;
+  }
+
+  /**
+   * Immutable contents of the security database. Entities handed out are copies, as callers may modify them.
+   */
+  private static class Snapshot
+  {
+    private final Map<String, CUser> users;
+
+    private final Map<String, CRole> roles;
+
+    private final Map<String, CPrivilege> privileges;
+
+    private final Map<String, CUserRoleMapping> mappings;
+
+    private Snapshot(final Map<String, CUser> users,
+                     final Map<String, CRole> roles,
+                     final Map<String, CPrivilege> privileges,
+                     final Map<String, CUserRoleMapping> mappings)
+    {
+      this.users = ImmutableMap.copyOf(users);
+      this.roles = ImmutableMap.copyOf(roles);
+      this.privileges = ImmutableMap.copyOf(privileges);
+      this.mappings = ImmutableMap.copyOf(mappings);
+    }
+
+    private Snapshot withUser(final String id, @Nullable final CUser user) {
+      return new Snapshot(replace(users, id, user), roles, privileges, mappings);
+    }
+
+    private Snapshot withRole(final String id, @Nullable final CRole role) {
+      return new Snapshot(users, replace(roles, id, role), privileges, mappings);
+    }
+
+    private Snapshot withPrivilege(final String id, @Nullable final CPrivilege privilege) {
+      return new Snapshot(users, roles, replace(privileges, id, privilege), mappings);
+    }
+
+    private Snapshot withMapping(final String key, @Nullable final CUserRoleMapping mapping) {
+      return new Snapshot(users, roles, privileges, replace(mappings, key, mapping));
+    }
+
+    /**
+     * Returns a copy of the given map with the given key replaced, or removed when the value is {@code null}.
+     */
+    private static <T> Map<String, T> replace(final Map<String, T> map, final String key, @Nullable final T value) {
+      Map<String, T> copy = new LinkedHashMap<>(map);
+      if (value != null) {
+        copy.put(key, value);
+      }
+      else {
+        copy.remove(key);
+      }
+      return copy;
+    }
+  }
+
   private class OrientSecurityConfiguration
       implements SecurityConfiguration
   {
@@ -192,9 +362,11 @@ public class OrientSecurityConfigurationSource
     public List<CUser> getUsers() {
       log.trace("Retrieving all users");
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return Lists.newArrayList(userEntityAdapter.browse.execute(db));
+      List<CUser> users = Lists.newArrayList();
+      for (CUser user : snapshot().users.values()) {
+        users.add(user.clone());
       }
+      return users;
     }
 
     @Override
@@ -202,9 +374,8 @@ public class OrientSecurityConfigurationSource
       checkNotNull(id);
       log.trace("Retrieving user: {}", id);
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return userEntityAdapter.read.execute(db, id);
-      }
+      CUser user = snapshot().users.get(id);
+      return user != null ? user.clone() : null;
     }
 
     @Override
@@ -213,8 +384,13 @@ public class OrientSecurityConfigurationSource
       checkNotNull(user.getId());
       log.trace("Adding user: {}", user.getId());
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        userEntityAdapter.addEntity(db, user);
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          ODocument document = userEntityAdapter.addEntity(db, user);
+          db.commit();
+          snapshot = snapshot().withUser(user.getId(), userEntityAdapter.readEntity(document));
+        }
         addUserRoleMapping(mapping(user.getId(), roles));
       }
     }
@@ -225,15 +401,23 @@ public class OrientSecurityConfigurationSource
       checkNotNull(user.getId());
       log.trace("Updating user: {}", user.getId());
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        ODocument document = userEntityAdapter.readDocument(db, user.getId());
-        if (document == null) {
-          throw new UserNotFoundException(user.getId());
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          ODocument document = userEntityAdapter.readDocument(db, user.getId());
+          if (document == null) {
+            throw new UserNotFoundException(user.getId());
+          }
+          if (user.getVersion() != null && !Objects.equals(user.getVersion(), valueOf(document.getVersion()))) {
+            throw concurrentlyModified("User", user.getId());
+          }
+          document = userEntityAdapter.writeEntity(document, user);
+          db.commit();
+          snapshot = snapshot().withUser(user.getId(), userEntityAdapter.readEntity(document));
         }
-        if (user.getVersion() != null && !Objects.equals(user.getVersion(), valueOf(document.getVersion()))) {
+        catch (OConcurrentModificationException e) {
           throw concurrentlyModified("User", user.getId());
         }
-        userEntityAdapter.writeEntity(document, user);
 
         CUserRoleMapping mapping = mapping(user.getId(), roles);
         try {
@@ -243,9 +427,6 @@ public class OrientSecurityConfigurationSource
           addUserRoleMapping(mapping);
         }
       }
-      catch (OConcurrentModificationException e) {
-        throw concurrentlyModified("User", user.getId());
-      }
     }
 
     @Override
@@ -253,15 +434,20 @@ public class OrientSecurityConfigurationSource
       checkNotNull(id);
       log.trace("Removing user: {}", id);
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        if (userEntityAdapter.delete.execute(db, id)) {
-          removeUserRoleMapping(id, UserManager.DEFAULT_SOURCE);
-          return true;
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          if (!userEntityAdapter.delete.execute(db, id)) {
+            return false;
+          }
+          db.commit();
+          snapshot = snapshot().withUser(id, null);
         }
-        return false;
-      }
-      catch (OConcurrentModificationException e) {
-        throw concurrentlyModified("User", id);
+        catch (OConcurrentModificationException e) {
+          throw concurrentlyModified("User", id);
+        }
+        removeUserRoleMapping(id, UserManager.DEFAULT_SOURCE);
+        return true;
       }
     }
 
@@ -273,9 +459,11 @@ public class OrientSecurityConfigurationSource
     public List<CPrivilege> getPrivileges() {
       log.trace("Retrieving all privileges");
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return Lists.newArrayList(privilegeEntityAdapter.browse.execute(db));
+      List<CPrivilege> privileges = Lists.newArrayList();
+      for (CPrivilege privilege : snapshot().privileges.values()) {
+        privileges.add(privilege.clone());
       }
+      return privileges;
     }
 
     @Override
@@ -283,9 +471,8 @@ public class OrientSecurityConfigurationSource
       checkNotNull(id);
       log.trace("Retrieving privilege {}", id);
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return privilegeEntityAdapter.read.execute(db, id);
-      }
+      CPrivilege privilege = snapshot().privileges.get(id);
+      return privilege != null ? privilege.clone() : null;
     }
 
     @Override
@@ -294,8 +481,13 @@ public class OrientSecurityConfigurationSource
       checkNotNull(privilege.getId());
       log.trace("Adding privilege: {}", privilege.getId());
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        privilegeEntityAdapter.addEntity(db, privilege);
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          ODocument document = privilegeEntityAdapter.addEntity(db, privilege);
+          db.commit();
+          snapshot = snapshot().withPrivilege(privilege.getId(), privilegeEntityAdapter.readEntity(document));
+        }
       }
     }
 
@@ -305,18 +497,24 @@ public class OrientSecurityConfigurationSource
       checkNotNull(privilege.getId());
       log.trace("Updating privilege: {}", privilege.getId());
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        ODocument document = privilegeEntityAdapter.readDocument(db, privilege.getId());
-        if (document == null) {
-          throw new NoSuchPrivilegeException(privilege.getId());
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          ODocument document = privilegeEntityAdapter.readDocument(db, privilege.getId());
+          if (document == null) {
+            throw new NoSuchPrivilegeException(privilege.getId());
+          }
+          if (privilege.getVersion() != null
+              && !Objects.equals(privilege.getVersion(), valueOf(document.getVersion()))) {
+            throw concurrentlyModified("Privilege", privilege.getId());
+          }
+          document = privilegeEntityAdapter.writeEntity(document, privilege);
+          db.commit();
+          snapshot = snapshot().withPrivilege(privilege.getId(), privilegeEntityAdapter.readEntity(document));
         }
-        if (privilege.getVersion() != null && !Objects.equals(privilege.getVersion(), valueOf(document.getVersion()))) {
+        catch (OConcurrentModificationException e) {
           throw concurrentlyModified("Privilege", privilege.getId());
         }
-        privilegeEntityAdapter.writeEntity(document, privilege);
-      }
-      catch (OConcurrentModificationException e) {
-        throw concurrentlyModified("Privilege", privilege.getId());
       }
     }
 
@@ -325,11 +523,19 @@ public class OrientSecurityConfigurationSource
       checkNotNull(id);
       log.trace("Removing privilege: {}", id);
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return privilegeEntityAdapter.delete.execute(db, id);
-      }
-      catch (OConcurrentModificationException e) {
-        throw concurrentlyModified("Privilege", id);
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          if (privilegeEntityAdapter.delete.execute(db, id)) {
+            db.commit();
+            snapshot = snapshot().withPrivilege(id, null);
+            return true;
+          }
+          return false;
+        }
+        catch (OConcurrentModificationException e) {
+          throw concurrentlyModified("Privilege", id);
+        }
       }
     }
 
@@ -341,9 +547,11 @@ public class OrientSecurityConfigurationSource
     public List<CRole> getRoles() {
       log.trace("Retrieving all roles");
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return Lists.newArrayList(roleEntityAdapter.browse.execute(db));
+      List<CRole> roles = Lists.newArrayList();
+      for (CRole role : snapshot().roles.values()) {
+        roles.add(role.clone());
       }
+      return roles;
     }
 
     @Override
@@ -351,9 +559,8 @@ public class OrientSecurityConfigurationSource
       checkNotNull(id);
       log.trace("Retrieving role: {}", id);
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return roleEntityAdapter.read.execute(db, id);
-      }
+      CRole role = snapshot().roles.get(id);
+      return role != null ? role.clone() : null;
     }
 
     @Override
@@ -362,8 +569,13 @@ public class OrientSecurityConfigurationSource
       checkNotNull(role.getId());
       log.trace("Adding role: {}", role.getId());
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        roleEntityAdapter.addEntity(db, role);
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          ODocument document = roleEntityAdapter.addEntity(db, role);
+          db.commit();
+          snapshot = snapshot().withRole(role.getId(), roleEntityAdapter.readEntity(document));
+        }
       }
     }
 
@@ -373,18 +585,23 @@ public class OrientSecurityConfigurationSource
       checkNotNull(role.getId());
       log.trace("Updating role: {}", role.getId());
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        ODocument document = roleEntityAdapter.readDocument(db, role.getId());
-        if (document == null) {
-          throw new NoSuchRoleException(role.getId());
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          ODocument document = roleEntityAdapter.readDocument(db, role.getId());
+          if (document == null) {
+            throw new NoSuchRoleException(role.getId());
+          }
+          if (role.getVersion() != null && !Objects.equals(role.getVersion(), valueOf(document.getVersion()))) {
+            throw concurrentlyModified("Role", role.getId());
+          }
+          document = roleEntityAdapter.writeEntity(document, role);
+          db.commit();
+          snapshot = snapshot().withRole(role.getId(), roleEntityAdapter.readEntity(document));
         }
-        if (role.getVersion() != null && !Objects.equals(role.getVersion(), valueOf(document.getVersion()))) {
+        catch (OConcurrentModificationException e) {
           throw concurrentlyModified("Role", role.getId());
         }
-        roleEntityAdapter.writeEntity(document, role);
-      }
-      catch (OConcurrentModificationException e) {
-        throw concurrentlyModified("Role", role.getId());
       }
     }
 
@@ -393,11 +610,19 @@ public class OrientSecurityConfigurationSource
       checkNotNull(id);
       log.trace("Removing role: {}", id);
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return roleEntityAdapter.delete.execute(db, id);
-      }
-      catch (OConcurrentModificationException e) {
-        throw concurrentlyModified("Role", id);
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          if (roleEntityAdapter.delete.execute(db, id)) {
+            db.commit();
+            snapshot = snapshot().withRole(id, null);
+            return true;
+          }
+          return false;
+        }
+        catch (OConcurrentModificationException e) {
+          throw concurrentlyModified("Role", id);
+        }
       }
     }
 
@@ -417,9 +642,11 @@ public class OrientSecurityConfigurationSource
     public List<CUserRoleMapping> getUserRoleMappings() {
       log.trace("Retrieving all user/role mappings");
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return Lists.newArrayList(userRoleMappingEntityAdapter.browse.execute(db));
+      List<CUserRoleMapping> mappings = Lists.newArrayList();
+      for (CUserRoleMapping mapping : snapshot().mappings.values()) {
+        mappings.add(mapping.clone());
       }
+      return mappings;
     }
 
     @Override
@@ -428,9 +655,8 @@ public class OrientSecurityConfigurationSource
       checkNotNull(source);
       log.trace("Retrieving user/role mappings of: {}/{}", userId, source);
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return userRoleMappingEntityAdapter.read(db, userId, source);
-      }
+      CUserRoleMapping mapping = snapshot().mappings.get(mappingKey(userId, source));
+      return mapping != null ? mapping.clone() : null;
     }
 
     @Override
@@ -440,8 +666,14 @@ public class OrientSecurityConfigurationSource
       checkNotNull(mapping.getSource());
       log.trace("Adding user/role mappings for: {}/{}", mapping.getUserId(), mapping.getSource());
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        userRoleMappingEntityAdapter.addEntity(db, mapping);
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          ODocument document = userRoleMappingEntityAdapter.addEntity(db, mapping);
+          db.commit();
+          snapshot = snapshot().withMapping(mappingKey(mapping.getUserId(), mapping.getSource()),
+              userRoleMappingEntityAdapter.readEntity(document));
+        }
       }
     }
 
@@ -452,18 +684,24 @@ public class OrientSecurityConfigurationSource
       checkNotNull(mapping.getSource());
       log.trace("Updating user/role mappings for: {}/{}", mapping.getUserId(), mapping.getSource());
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        ODocument document = userRoleMappingEntityAdapter.readDocument(db, mapping.getUserId(), mapping.getSource());
-        if (document == null) {
-          throw new NoSuchRoleMappingException(mapping.getUserId());
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          ODocument document = userRoleMappingEntityAdapter.readDocument(db, mapping.getUserId(), mapping.getSource());
+          if (document == null) {
+            throw new NoSuchRoleMappingException(mapping.getUserId());
+          }
+          if (mapping.getVersion() != null && !Objects.equals(mapping.getVersion(), valueOf(document.getVersion()))) {
+            throw concurrentlyModified("User-role mapping", mapping.getUserId());
+          }
+          document = userRoleMappingEntityAdapter.writeEntity(document, mapping);
+          db.commit();
+          snapshot = snapshot().withMapping(mappingKey(mapping.getUserId(), mapping.getSource()),
+              userRoleMappingEntityAdapter.readEntity(document));
         }
-        if (mapping.getVersion() != null && !Objects.equals(mapping.getVersion(), valueOf(document.getVersion()))) {
+        catch (OConcurrentModificationException e) {
           throw concurrentlyModified("User-role mapping", mapping.getUserId());
         }
-        userRoleMappingEntityAdapter.writeEntity(document, mapping);
-      }
-      catch (OConcurrentModificationException e) {
-        throw concurrentlyModified("User-role mapping", mapping.getUserId());
       }
     }
 
@@ -473,11 +711,19 @@ public class OrientSecurityConfigurationSource
       checkNotNull(source);
       log.trace("Removing user/role mappings for: {}/{}", userId, source);
 
-      try (ODatabaseDocumentTx db = openDb()) {
-        return userRoleMappingEntityAdapter.delete(db, userId, source);
-      }
-      catch (OConcurrentModificationException e) {
-        throw concurrentlyModified("User-role mapping", userId);
+      synchronized (writeLock) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          db.begin();
+          if (userRoleMappingEntityAdapter.delete(db, userId, source)) {
+            db.commit();
+            snapshot = snapshot().withMapping(mappingKey(userId, source), null);
+            return true;
+          }
+          return false;
+        }
+        catch (OConcurrentModificationException e) {
+          throw concurrentlyModified("User-role mapping", userId);
+        }
       }
     }
   }
@@ -16,6 +16,7 @@ import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 
 import org.sonatype.goodies.testsupport.TestSupport
+import org.sonatype.nexus.common.event.EventBus
 import org.sonatype.nexus.orient.MemoryDatabaseManager
 import org.sonatype.nexus.orient.MinimalDatabaseServer
 import org.sonatype.nexus.security.config.CPrivilege
@@ -35,6 +36,7 @@ import org.slf4j.LoggerFactory
 
 import static org.hamcrest.MatcherAssert.assertThat
 import static org.hamcrest.Matchers.hasSize
+import static org.mockito.Mockito.mock
 
 /**
  * Parallel security cleanup UTs.
@@ -73,7 +75,8 @@ extends TestSupport
         new CUserEntityAdapter(),
         new CRoleEntityAdapter(),
         new CPrivilegeEntityAdapter(),
-        new CUserRoleMappingEntityAdapter()
+        new CUserRoleMappingEntityAdapter(),
+        mock(EventBus)
     )
     source.start()
     source.loadConfiguration()
@@ -0,0 +1,230 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.internal.security.model
+
+import org.sonatype.goodies.testsupport.TestSupport
+import org.sonatype.nexus.common.event.EventBus
+import org.sonatype.nexus.common.event.EventBusImpl
+import org.sonatype.nexus.internal.orient.EntityHook
+import org.sonatype.nexus.orient.MemoryDatabaseManager
+import org.sonatype.nexus.orient.MinimalDatabaseServer
+import org.sonatype.nexus.orient.entity.EntityEvent
+import org.sonatype.nexus.security.authz.AuthorizationConfigurationChanged
+import org.sonatype.nexus.security.config.CRole
+import org.sonatype.nexus.security.config.CUser
+import org.sonatype.nexus.security.config.SecurityConfiguration
+import org.sonatype.nexus.security.config.StaticSecurityConfigurationSource
+
+import com.google.common.eventbus.Subscribe
+import com.google.inject.util.Providers
+import com.orientechnologies.orient.core.Orient
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.contains
+import static org.hamcrest.Matchers.empty
+import static org.hamcrest.Matchers.hasSize
+import static org.hamcrest.Matchers.is
+import static org.hamcrest.Matchers.nullValue
+import static org.mockito.Mockito.mock
+import static org.mockito.Mockito.when
+
+/**
+ * Tests for {@link OrientSecurityConfigurationSource}.
+ */
+class OrientSecurityConfigurationSourceTest
+    extends TestSupport
+{
+  private MinimalDatabaseServer databaseServer
+
+  private MemoryDatabaseManager databaseManager
+
+  private CRoleEntityAdapter roleEntityAdapter
+
+  private EntityHook entityHook
+
+  private List<AuthorizationConfigurationChanged> authorizationChanges = []
+
+  private OrientSecurityConfigurationSource source
+
+  private SecurityConfiguration configuration
+
+  @Before
+  void prepare() {
+    databaseServer = new MinimalDatabaseServer()
+    databaseServer.start()
+    databaseManager = new MemoryDatabaseManager()
+    databaseManager.start()
+    roleEntityAdapter = new CRoleEntityAdapter()
+    CUserEntityAdapter userEntityAdapter = new CUserEntityAdapter()
+    CPrivilegeEntityAdapter privilegeEntityAdapter = new CPrivilegeEntityAdapter()
+    CUserRoleMappingEntityAdapter userRoleMappingEntityAdapter = new CUserRoleMappingEntityAdapter()
+
+    EventBus eventBus = new EventBusImpl('reentrant')
+    // sends entity events of committed transactions, as the database server does
+    entityHook = new EntityHook(eventBus,
+        [userEntityAdapter, roleEntityAdapter, privilegeEntityAdapter, userRoleMappingEntityAdapter])
+    Orient.instance().addDbLifecycleListener(entityHook)
+
+    source = new OrientSecurityConfigurationSource(
+        Providers.of(databaseManager.instance('security')),
+        new StaticSecurityConfigurationSource(),
+        userEntityAdapter,
+        roleEntityAdapter,
+        privilegeEntityAdapter,
+        userRoleMappingEntityAdapter,
+        eventBus
+    )
+    eventBus.register(source)
+    eventBus.register(new Object() {
+      @Subscribe
+      void on(final AuthorizationConfigurationChanged event) {
+        authorizationChanges << event
+      }
+    })
+    source.start()
+    configuration = source.loadConfiguration()
+  }
+
+  @After
+  void shutdown() {
+    if (source) {
+      source.stop()
+    }
+    if (databaseManager) {
+      databaseManager.stop()
+    }
+    if (databaseServer) {
+      databaseServer.stop()
+    }
+    if (entityHook) {
+      Orient.instance().removeDbLifecycleListener(entityHook)
+    }
+  }
+
+  @Test
+  void 'reads see writes and current versions'() {
+    configuration.addRole(new CRole(id: 'test', name: 'test'))
+
+    CRole role = configuration.getRole('test')
+    role.addPrivilege('first')
+    configuration.updateRole(role)
+
+    // a stale version would fail this update
+    role = configuration.getRole('test')
+    role.addPrivilege('second')
+    configuration.updateRole(role)
+
+    assertThat(configuration.getRole('test').privileges, is(['first', 'second'] as Set))
+    assertThat(configuration.roles*.id, contains('test'))
+
+    assertThat(configuration.removeRole('test'), is(true))
+    assertThat(configuration.getRole('test'), nullValue())
+    assertThat(configuration.roles, empty())
+  }
+
+  @Test
+  void 'returned entities are copies'() {
+    configuration.addUser(new CUser(id: 'user', password: 'secret', status: 'active', email: 'user@example.com'),
+        ['role'] as Set)
+
+    configuration.getUser('user').email = 'changed@example.com'
+    configuration.getUserRoleMapping('user', 'default').addRole('other')
+
+    assertThat(configuration.getUser('user').email, is('user@example.com'))
+    assertThat(configuration.getUserRoleMapping('user', 'default').roles, is(['role'] as Set))
+  }
+
+  @Test
+  void 'entity events reload snapshot'() {
+    ODatabaseDocumentTx db = databaseManager.instance('security').acquire()
+    try {
+      roleEntityAdapter.addEntity(db, new CRole(id: 'external', name: 'external'))
+    }
+    finally {
+      db.close()
+    }
+
+    // snapshot does not touch the database
+    assertThat(configuration.getRole('external'), nullValue())
+
+    EntityEvent event = mock(EntityEvent)
+    when(event.getEntityType()).thenReturn(CRole)
+    source.on(event)
+
+    assertThat(configuration.getRole('external').name, is('external'))
+  }
+
+  @Test
+  void 'writes through another connection reload snapshot'() {
+    ODatabaseDocumentTx db = databaseManager.instance('security').acquire()
+    try {
+      db.begin()
+      roleEntityAdapter.addEntity(db, new CRole(id: 'external', name: 'external'))
+      db.commit()
+    }
+    finally {
+      db.close()
+    }
+
+    assertThat(configuration.getRole('external').name, is('external'))
+    assertThat(authorizationChanges, hasSize(1))
+  }
+
+  @Test
+  void 'transaction through another connection is picked up once'() {
+    ODatabaseDocumentTx db = databaseManager.instance('security').acquire()
+    try {
+      db.begin()
+      roleEntityAdapter.addEntity(db, new CRole(id: 'first', name: 'first'))
+      roleEntityAdapter.addEntity(db, new CRole(id: 'second', name: 'second'))
+      roleEntityAdapter.addEntity(db, new CRole(id: 'third', name: 'third'))
+      db.commit()
+    }
+    finally {
+      db.close()
+    }
+
+    assertThat(authorizationChanges, hasSize(1))
+    assertThat(configuration.getRole('first').name, is('first'))
+    assertThat(configuration.getRole('third').name, is('third'))
+
+    // reloaded snapshot is current, so later changes are reported again
+    db = databaseManager.instance('security').acquire()
+    try {
+      db.begin()
+      roleEntityAdapter.addEntity(db, new CRole(id: 'fourth', name: 'fourth'))
+      db.commit()
+    }
+    finally {
+      db.close()
+    }
+
+    assertThat(authorizationChanges, hasSize(2))
+    assertThat(configuration.getRole('fourth').name, is('fourth'))
+  }
+
+  @Test
+  void 'own writes do not reload snapshot'() {
+    configuration.addRole(new CRole(id: 'test', name: 'test'))
+    configuration.addUser(new CUser(id: 'user', password: 'secret', status: 'active', email: 'user@example.com'),
+        ['test'] as Set)
+
+    assertThat(configuration.getRole('test').name, is('test'))
+    assertThat(configuration.getUserRoleMapping('user', 'default').roles, is(['test'] as Set))
+    assertThat(authorizationChanges, empty())
+  }
+}
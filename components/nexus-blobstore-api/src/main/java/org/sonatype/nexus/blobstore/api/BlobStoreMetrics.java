@@ -35,4 +35,31 @@ public interface BlobStoreMetrics
    * may return a value set by a policy rather than some hard storage limit.
    */
   long getAvailableSpace();
+
+  /**
+   * Get the number of soft-deleted blobs that compaction has reclaimed. Defaults to {@code 0}, for blob stores which do not track it.
+   *
+   * @since 3.1
+   */
+  default long getReclaimedBlobCount() {
+    return 0;
+  }
+
+  /**
+   * Get the number of bytes of blob content that compaction has reclaimed. Defaults to {@code 0}, for blob stores which do not track it.
+   *
+   * @since 3.1
+   */
+  default long getReclaimedSize() {
+    return 0;
+  }
+
+  /**
+   * Get the number of soft-deleted blobs waiting to be reclaimed by compaction. Defaults to {@code 0}, for blob stores which do not track it.
+   *
+   * @since 3.1
+   */
+  default long getPendingDeletionCount() {
+    return 0;
+  }
 }
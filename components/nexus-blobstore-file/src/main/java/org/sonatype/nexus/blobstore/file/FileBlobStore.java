@@ -15,11 +15,24 @@ package org.sonatype.nexus.blobstore.file;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -37,18 +50,28 @@ import org.sonatype.nexus.blobstore.api.BlobStoreConfiguration;
 import org.sonatype.nexus.blobstore.api.BlobStoreException;
 import org.sonatype.nexus.blobstore.api.BlobStoreListener;
 import org.sonatype.nexus.blobstore.api.BlobStoreMetrics;
+import org.sonatype.nexus.blobstore.api.FileBackedBlob;
 import org.sonatype.nexus.blobstore.file.FileOperations.StreamMetrics;
 import org.sonatype.nexus.blobstore.file.internal.BlobAttributes;
+import org.sonatype.nexus.blobstore.file.internal.BlobAttributesLog;
 import org.sonatype.nexus.blobstore.file.internal.BlobStoreMetricsStore;
 import org.sonatype.nexus.common.app.ApplicationDirectories;
 import org.sonatype.nexus.common.collect.AutoClosableIterable;
 import org.sonatype.nexus.common.io.DirectoryHelper;
 import org.sonatype.nexus.common.property.PropertiesFile;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.thread.NexusThreadFactory;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.RateLimiter;
 import com.squareup.tape.QueueFile;
 import org.joda.time.DateTime;
 
@@ -81,6 +104,14 @@ public class FileBlobStore
   @VisibleForTesting
   public static final String PATH_KEY = "path";
 
+  /**
+   * Blob store attribute choosing the layout of the store, {@link #TYPE_V1} unless set to {@link #TYPE_V2}. Setting it
+   * to {@link #TYPE_V2} on a file/1 store migrates it; a file/2 store is never migrated back.
+   *
+   * @since 3.1
+   */
+  public static final String LAYOUT_KEY = "layout";
+
   @VisibleForTesting
   public static final String METADATA_FILENAME = "metadata.properties";
 
@@ -90,9 +121,52 @@ public class FileBlobStore
   @VisibleForTesting
   public static final String TYPE_V1 = "file/1";
 
+  /**
+   * Layout keeping blob attributes in a packed {@link BlobAttributesLog} instead of one properties file per blob.
+   *
+   * @since 3.1
+   */
+  @VisibleForTesting
+  public static final String TYPE_V2 = "file/2";
+
+  /**
+   * Metadata key present while a file/1 store is being migrated to file/2.
+   */
+  @VisibleForTesting
+  public static final String MIGRATING_KEY = "migrating";
+
+  @VisibleForTesting
+  public static final String ATTRIBUTES_LOG_FILENAME = "attributes.log";
+
   @VisibleForTesting
   public static final String DELETIONS_FILENAME = "deletions.index";
 
+  /**
+   * Journal of the batches of deletions being compacted.
+   *
+   * @since 3.1
+   */
+  @VisibleForTesting
+  public static final String COMPACTING_FILENAME = "deletions.compacting";
+
+  private static final int COMPACT_WORKERS = SystemPropertiesHelper
+      .getInteger(FileBlobStore.class.getName() + ".compactWorkers", 4);
+
+  private static final int COMPACT_BATCH_SIZE = SystemPropertiesHelper
+      .getInteger(FileBlobStore.class.getName() + ".compactBatchSize", 100);
+
+  /**
+   * Maximum hard deletions per second when compacting, or 0 for no limit.
+   */
+  private static final int COMPACT_DELETIONS_PER_SECOND = SystemPropertiesHelper
+      .getInteger(FileBlobStore.class.getName() + ".compactDeletionsPerSecond", 0);
+
+  /**
+   * Maximum bytes reclaimed per second when compacting, or 0 for no limit.
+   */
+  private static final long COMPACT_BYTES_PER_SECOND = SystemPropertiesHelper
+      .getLong(FileBlobStore.class.getName() + ".compactBytesPerSecond", 0);
+
   private Path contentDir;
 
   private final LocationStrategy locationStrategy;
@@ -111,6 +185,26 @@ public class FileBlobStore
 
   private QueueFile deletedBlobIndex;
 
+  private QueueFile compactingBlobIndex;
+
+  /**
+   * Present when using the file/2 layout.
+   */
+  @Nullable
+  private BlobAttributesLog attributesLog;
+
+  /**
+   * Whether attribute files of the file/1 layout may still be present.
+   */
+  private volatile boolean migrating;
+
+  private ExecutorService migrationExecutor;
+
+  /**
+   * Stops the migration, which is not interrupted as that would close the attributes log channel.
+   */
+  private volatile boolean migrationCancelled;
+
   @Inject
   public FileBlobStore(final LocationStrategy locationStrategy,
                        final FileOperations fileOperations,
@@ -140,32 +234,71 @@ public class FileBlobStore
   protected void doStart() throws Exception {
     Path storageDir = getAbsoluteBlobDir();
 
+    String layout = getConfiguredLayout();
+    checkState(TYPE_V1.equals(layout) || TYPE_V2.equals(layout), "Unsupported blob store layout: %s", layout);
+    boolean packedAttributes = TYPE_V2.equals(layout);
+
     // ensure blobstore is supported
     PropertiesFile metadata = new PropertiesFile(storageDir.resolve(METADATA_FILENAME).toFile());
+    String type;
     if (metadata.getFile().exists()) {
       metadata.load();
-      String type = metadata.getProperty(TYPE_KEY);
-      checkState(TYPE_V1.equals(type), "Unsupported blob store type/version: %s in %s", type, metadata.getFile());
+      type = metadata.getProperty(TYPE_KEY);
+      checkState(TYPE_V1.equals(type) || TYPE_V2.equals(type), "Unsupported blob store type/version: %s in %s", type,
+          metadata.getFile());
+      if (TYPE_V1.equals(type) && packedAttributes) {
+        log.info("Migrating blob store {} from {} to {} layout", storageDir, TYPE_V1, TYPE_V2);
+        type = TYPE_V2;
+        metadata.setProperty(TYPE_KEY, type);
+        metadata.setProperty(MIGRATING_KEY, Boolean.TRUE.toString());
+        metadata.store();
+      }
     }
     else {
       // assumes new blobstore, write out type
-      metadata.setProperty(TYPE_KEY, TYPE_V1);
+      type = packedAttributes ? TYPE_V2 : TYPE_V1;
+      metadata.setProperty(TYPE_KEY, type);
       metadata.store();
     }
     liveBlobs = CacheBuilder.newBuilder().weakValues().build(from(FileBlob::new));
+    if (TYPE_V2.equals(type)) {
+      attributesLog = new BlobAttributesLog(storageDir.resolve(ATTRIBUTES_LOG_FILENAME));
+      attributesLog.open();
+      migrating = metadata.containsKey(MIGRATING_KEY);
+    }
     deletedBlobIndex = new QueueFile(storageDir.resolve(DELETIONS_FILENAME).toFile());
+    compactingBlobIndex = new QueueFile(storageDir.resolve(COMPACTING_FILENAME).toFile());
     storeMetrics.setStorageDir(storageDir);
     storeMetrics.start();
+    updatePendingDeletionCount();
+
+    if (migrating) {
+      migrationCancelled = false;
+      migrationExecutor = Executors.newSingleThreadExecutor(new NexusThreadFactory("blobstore-migration", "blobstore"));
+      migrationExecutor.submit(() -> migrateAttributes(metadata));
+    }
   }
 
   @Override
   protected void doStop() throws Exception {
+    if (migrationExecutor != null) {
+      migrationCancelled = true;
+      migrationExecutor.shutdown();
+      migrationExecutor.awaitTermination(1, TimeUnit.MINUTES);
+      migrationExecutor = null;
+    }
     liveBlobs = null;
     try {
       deletedBlobIndex.close();
+      compactingBlobIndex.close();
+      if (attributesLog != null) {
+        attributesLog.close();
+      }
     }
     finally {
       deletedBlobIndex = null;
+      compactingBlobIndex = null;
+      attributesLog = null;
       storeMetrics.stop();
     }
   }
@@ -238,9 +371,9 @@ public class FileBlobStore
         listener.blobCreated(blob, "Blob: " + blobId + " written to: " + blobPath);
       }
 
-      // Write the blob attribute file
+      // Write the blob attributes
       BlobAttributes blobAttributes = new BlobAttributes(attributePath, headers, metrics);
-      blobAttributes.store();
+      storeAttributes(blobId, blobAttributes);
 
       storeMetrics.recordAddition(blobAttributes.getMetrics().getContentSize());
 
@@ -268,9 +401,8 @@ public class FileBlobStore
       Lock lock = blob.lock();
       try {
         if (blob.isStale()) {
-          BlobAttributes blobAttributes = new BlobAttributes(attributePath(blobId));
-          boolean loaded = blobAttributes.load();
-          if (!loaded) {
+          BlobAttributes blobAttributes = loadAttributes(blobId);
+          if (blobAttributes == null) {
             log.debug("Attempt to access non-existent blob {}", blobId);
             return null;
           }
@@ -307,11 +439,8 @@ public class FileBlobStore
 
     Lock lock = blob.lock();
     try {
-      Path attribPath = attributePath(blobId);
-      BlobAttributes blobAttributes = new BlobAttributes(attribPath);
-
-      boolean loaded = blobAttributes.load();
-      if (!loaded) {
+      BlobAttributes blobAttributes = loadAttributes(blobId);
+      if (blobAttributes == null) {
         // This could happen under some concurrent situations (two threads try to delete the same blob)
         // but it can also occur if the deleted index refers to a manually-deleted blob.
         log.warn("Attempt to mark-for-delete non-existent blob {}", blobId);
@@ -323,11 +452,12 @@ public class FileBlobStore
       }
 
       blobAttributes.setDeleted(true);
-      blobAttributes.store();
+      storeAttributes(blobId, blobAttributes);
 
       // record blob for hard-deletion when the next compact task runs
       deletedBlobIndex.add(blobId.toString().getBytes(Charsets.UTF_8));
       blob.markStale();
+      updatePendingDeletionCount();
 
       // TODO: should we only update the size when doing a hard delete?
       storeMetrics.recordDeletion(blobAttributes.getMetrics().getContentSize());
@@ -347,7 +477,7 @@ public class FileBlobStore
     checkNotNull(blobId);
 
     try {
-      delete(attributePath(blobId));
+      deleteAttributes(blobId);
 
       Path blobPath = contentPath(blobId);
       boolean blobDeleted = delete(blobPath);
@@ -368,39 +498,255 @@ public class FileBlobStore
     }
   }
 
+  /**
+   * Loads the blob's attributes from the attributes log or file, depending on the layout.
+   *
+   * @return {@code null} if the blob has no attributes
+   */
+  @Nullable
+  private BlobAttributes loadAttributes(final BlobId blobId) throws IOException {
+    if (attributesLog != null) {
+      BlobAttributes blobAttributes = attributesLog.get(blobId);
+      if (blobAttributes != null || !migrating) {
+        return blobAttributes;
+      }
+    }
+    BlobAttributes blobAttributes = new BlobAttributes(attributePath(blobId));
+    return blobAttributes.load() ? blobAttributes : null;
+  }
+
+  private void storeAttributes(final BlobId blobId, final BlobAttributes blobAttributes) throws IOException {
+    if (attributesLog != null) {
+      attributesLog.put(blobId, blobAttributes);
+    }
+    else {
+      blobAttributes.store();
+    }
+  }
+
+  private void deleteAttributes(final BlobId blobId) throws IOException {
+    if (attributesLog != null) {
+      attributesLog.remove(blobId);
+      if (migrating) {
+        deleteQuietly(attributePath(blobId));
+      }
+    }
+    else {
+      delete(attributePath(blobId));
+    }
+  }
+
+  /**
+   * Moves the attribute files of the file/1 layout into the attributes log, while the store is in use. Attributes
+   * already in the log are newer, so their files are just deleted. Resumes where it left off when stopped.
+   */
+  private void migrateAttributes(final PropertiesFile metadata) {
+    AtomicLong migrated = new AtomicLong();
+    try {
+      Files.walkFileTree(contentDir, new SimpleFileVisitor<Path>()
+      {
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+          if (migrationCancelled) {
+            return FileVisitResult.TERMINATE;
+          }
+          String filename = file.getFileName().toString();
+          if (filename.endsWith(BLOB_ATTRIBUTE_SUFFIX)) {
+            BlobId blobId = new BlobId(filename.substring(0, filename.length() - BLOB_ATTRIBUTE_SUFFIX.length()));
+            migrateAttributes(blobId, file);
+            migrated.incrementAndGet();
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      if (migrationCancelled) {
+        log.info("Stopped migration of blob store {} after {} blobs", getConfiguredBlobStorePath(), migrated);
+        return;
+      }
+      metadata.remove(MIGRATING_KEY);
+      metadata.store();
+      migrating = false;
+      log.info("Migrated blob store {} to {} layout, moved attributes of {} blobs", getConfiguredBlobStorePath(),
+          TYPE_V2, migrated);
+    }
+    catch (Exception e) {
+      log.error("Failed migration of blob store {}, will resume on restart", getConfiguredBlobStorePath(), e);
+    }
+  }
+
+  private void migrateAttributes(final BlobId blobId, final Path attributePath) throws IOException {
+    Lock lock = liveBlobs.getUnchecked(blobId).lock();
+    try {
+      if (!attributesLog.contains(blobId)) {
+        BlobAttributes blobAttributes = new BlobAttributes(attributePath);
+        if (blobAttributes.load()) {
+          attributesLog.put(blobId, blobAttributes);
+        }
+      }
+      deleteQuietly(attributePath);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
   @Override
   public BlobStoreMetrics getMetrics() {
     return storeMetrics.getMetrics();
   }
 
+  /**
+   * Hard deletes the blobs in the deletions index that are no longer in use, in batches spread across
+   * {@code compactWorkers} threads and throttled to the configured deletions and bytes per second, if any.
+   *
+   * Batches taken from the deletions index are journaled until completed, so that compaction resumes where it left
+   * off after a restart.
+   */
   @Override
   public void compact() {
+    RateLimiter deletionRateLimiter = COMPACT_DELETIONS_PER_SECOND > 0
+        ? RateLimiter.create(COMPACT_DELETIONS_PER_SECOND) : null;
+    RateLimiter bytesRateLimiter = COMPACT_BYTES_PER_SECOND > 0 ? RateLimiter.create(COMPACT_BYTES_PER_SECOND) : null;
+    ExecutorService workers = Executors.newFixedThreadPool(COMPACT_WORKERS,
+        new NexusThreadFactory("blobstore-compact", "blobstore"));
     try {
+      // complete batches interrupted by a restart
+      List<BlobId> interrupted = new ArrayList<>();
+      compactingBlobIndex.forEach((in, length) -> {
+        byte[] bytes = new byte[length];
+        ByteStreams.readFully(in, bytes);
+        for (String blobId : Splitter.on('\n').omitEmptyStrings().split(new String(bytes, Charsets.UTF_8))) {
+          interrupted.add(new BlobId(blobId));
+        }
+      });
+      if (!interrupted.isEmpty()) {
+        log.info("Resuming compaction of {} blobs in {}", interrupted.size(), getConfiguredBlobStorePath());
+        compactBatches(workers, Lists.partition(interrupted, COMPACT_BATCH_SIZE), deletionRateLimiter,
+            bytesRateLimiter);
+        compactingBlobIndex.clear();
+      }
+
       // only process each blob once (in-use blobs may be re-added to the index)
-      for (int i = 0, numBlobs = deletedBlobIndex.size(); i < numBlobs; i++) {
-        synchronized (deletedBlobIndex) {
-          byte[] bytes = deletedBlobIndex.peek();
-          if (bytes == null) {
-            return;
-          }
-          deletedBlobIndex.remove();
-          BlobId blobId = new BlobId(new String(bytes, Charsets.UTF_8));
-          FileBlob blob = liveBlobs.getIfPresent(blobId);
-          if (blob == null || blob.isStale()) {
-            // not in use, so it's safe to delete the file
-            deleteHard(blobId);
-          }
-          else {
-            // still in use, so move it to end of the queue
-            deletedBlobIndex.add(bytes);
+      int remaining = deletedBlobIndex.size();
+      while (remaining > 0) {
+        List<List<BlobId>> batches = new ArrayList<>(COMPACT_WORKERS);
+        for (int i = 0; i < COMPACT_WORKERS && remaining > 0; i++) {
+          List<BlobId> batch = takeBatch(Math.min(COMPACT_BATCH_SIZE, remaining));
+          if (batch.isEmpty()) {
+            remaining = 0;
+            break;
           }
+          remaining -= batch.size();
+          batches.add(batch);
         }
+        if (batches.isEmpty()) {
+          break;
+        }
+        compactBatches(workers, batches, deletionRateLimiter, bytesRateLimiter);
+        compactingBlobIndex.clear();
+        updatePendingDeletionCount();
+      }
+
+      if (attributesLog != null && attributesLog.needsCompaction()) {
+        attributesLog.compact();
       }
     }
     catch (IOException e) {
       log.warn("Problem maintaining deletions index for: {}", getConfiguredBlobStorePath());
       throw new BlobStoreException(e, null);
     }
+    finally {
+      workers.shutdown();
+      updatePendingDeletionCount();
+    }
+  }
+
+  /**
+   * Takes up to the given number of blob ids off the deletions index, and journals them as a single batch.
+   */
+  private List<BlobId> takeBatch(final int max) throws IOException {
+    List<BlobId> batch = new ArrayList<>(max);
+    synchronized (deletedBlobIndex) {
+      for (int i = 0; i < max; i++) {
+        byte[] bytes = deletedBlobIndex.peek();
+        if (bytes == null) {
+          break;
+        }
+        deletedBlobIndex.remove();
+        batch.add(new BlobId(new String(bytes, Charsets.UTF_8)));
+      }
+    }
+    if (!batch.isEmpty()) {
+      compactingBlobIndex.add(Joiner.on('\n').join(batch).getBytes(Charsets.UTF_8));
+    }
+    return batch;
+  }
+
+  private void compactBatches(final ExecutorService workers,
+                              final List<List<BlobId>> batches,
+                              @Nullable final RateLimiter deletionRateLimiter,
+                              @Nullable final RateLimiter bytesRateLimiter) throws IOException
+  {
+    List<Future<?>> futures = new ArrayList<>(batches.size());
+    for (List<BlobId> batch : batches) {
+      futures.add(workers.submit(() -> {
+        for (BlobId blobId : batch) {
+          if (deletionRateLimiter != null) {
+            deletionRateLimiter.acquire();
+          }
+          long reclaimed = reclaim(blobId);
+          if (bytesRateLimiter != null && reclaimed > 0) {
+            bytesRateLimiter.acquire((int) Math.min(reclaimed, Integer.MAX_VALUE));
+          }
+        }
+        return null;
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted compacting " + getConfiguredBlobStorePath());
+    }
+    catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Hard deletes the blob, unless it is still in use, in which case it goes back to the end of the deletions index.
+   *
+   * @return the number of bytes reclaimed
+   */
+  private long reclaim(final BlobId blobId) throws IOException {
+    FileBlob blob = liveBlobs.getIfPresent(blobId);
+    if (blob != null && !blob.isStale()) {
+      // still in use, so move it to end of the queue
+      synchronized (deletedBlobIndex) {
+        deletedBlobIndex.add(blobId.toString().getBytes(Charsets.UTF_8));
+      }
+      return 0;
+    }
+
+    // not in use, so it's safe to delete the file
+    BlobAttributes blobAttributes = loadAttributes(blobId);
+    deleteHard(blobId);
+    if (blobAttributes == null) {
+      // already reclaimed before a restart interrupted its batch, so do not count it twice
+      log.debug("Blob {} already reclaimed", blobId);
+      return 0;
+    }
+    long size = blobAttributes.getMetrics().getContentSize();
+    storeMetrics.recordReclaim(size);
+    return size;
+  }
+
+  private void updatePendingDeletionCount() {
+    storeMetrics.setPendingDeletionCount(deletedBlobIndex.size());
   }
 
   @Override
@@ -474,6 +820,10 @@ public class FileBlobStore
     return Paths.get(blobStoreConfiguration.attributes(CONFIG_KEY).require(PATH_KEY).toString());
   }
 
+  private String getConfiguredLayout() {
+    return blobStoreConfiguration.attributes(CONFIG_KEY).get(LAYOUT_KEY, String.class, TYPE_V1);
+  }
+
   /**
    * Delete files known to be part of the FileBlobStore implementation if the content directory is empty.
    */
@@ -485,6 +835,8 @@ public class FileBlobStore
         deleteQuietly(blobDir.resolve("metrics.properties"));
         deleteQuietly(blobDir.resolve("metadata.properties"));
         deleteQuietly(blobDir.resolve("deletions.index"));
+        deleteQuietly(blobDir.resolve(COMPACTING_FILENAME));
+        deleteQuietly(blobDir.resolve(ATTRIBUTES_LOG_FILENAME));
         if (!fileOperations.deleteEmptyDirectory(blobDir)) {
           log.warn("Unable to delete non-empty blob store directory {}", blobDir);
         }
@@ -530,7 +882,7 @@ public class FileBlobStore
   }
 
   class FileBlob
-      implements Blob
+      implements FileBackedBlob
   {
     private final BlobId blobId;
 
@@ -584,6 +936,18 @@ public class FileBlobStore
       }
     }
 
+    @Override
+    public FileChannel openFileChannel() {
+      Path contentPath = contentPath(blobId);
+      try {
+        checkExists(contentPath, blobId);
+        return fileOperations.openChannel(contentPath);
+      }
+      catch (IOException e) {
+        throw new BlobStoreException(e, blobId);
+      }
+    }
+
     @Override
     public BlobMetrics getMetrics() {
       return metrics;
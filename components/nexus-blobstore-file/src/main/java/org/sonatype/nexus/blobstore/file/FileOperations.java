@@ -14,6 +14,7 @@ package org.sonatype.nexus.blobstore.file;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 
 /**
@@ -73,6 +74,13 @@ public interface FileOperations
 
   InputStream openInputStream(Path path) throws IOException;
 
+  /**
+   * Opens a read-only channel to the file.
+   *
+   * @since 3.1
+   */
+  FileChannel openChannel(Path path) throws IOException;
+
   /**
    * Returns true if the file existed before deletion, false otherwise.
    */
@@ -15,6 +15,7 @@ package org.sonatype.nexus.blobstore.file;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -102,6 +103,12 @@ public class SimpleFileOperations
     return Files.newInputStream(path, StandardOpenOption.READ);
   }
 
+  @Override
+  public FileChannel openChannel(final Path path) throws IOException {
+    checkNotNull(path);
+    return FileChannel.open(path, StandardOpenOption.READ);
+  }
+
   @Override
   public boolean delete(final Path path) throws IOException {
     checkNotNull(path);
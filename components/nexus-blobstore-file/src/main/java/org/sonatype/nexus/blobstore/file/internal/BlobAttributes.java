@@ -20,15 +20,18 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 
+import javax.annotation.Nullable;
+
 import org.sonatype.nexus.blobstore.api.BlobMetrics;
 import org.sonatype.nexus.common.property.PropertiesFile;
 
 import org.joda.time.DateTime;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
- * A data holder for the content of each blob's .attribs file.
+ * A data holder for the content of each blob's .attribs file, or its record in the {@link BlobAttributesLog}.
  *
  * @since 3.0
  */
@@ -50,6 +53,7 @@ public class BlobAttributes
 
   private boolean deleted = false;
 
+  @Nullable
   private final PropertiesFile propertiesFile;
 
   public BlobAttributes(final Path path)
@@ -58,6 +62,11 @@ public class BlobAttributes
     this.propertiesFile = new PropertiesFile(path.toFile());
   }
 
+  private BlobAttributes(final Properties properties) {
+    this.propertiesFile = null;
+    readFrom(properties);
+  }
+
   public BlobAttributes(final Path path, final Map<String, String> headers, final BlobMetrics metrics) {
     this(path);
     this.headers = checkNotNull(headers);
@@ -84,6 +93,7 @@ public class BlobAttributes
    * Returns {@code false} if the attribute file is not found.
    */
   public boolean load() throws IOException {
+      checkState(propertiesFile != null, "Not file backed");
       if (!Files.exists(propertiesFile.getFile().toPath())) {
         return false;
       }
@@ -93,10 +103,19 @@ public class BlobAttributes
   }
 
   public void store() throws IOException {
+    checkState(propertiesFile != null, "Not file backed");
     writeTo(propertiesFile);
     propertiesFile.store();
   }
 
+  static BlobAttributes fromProperties(final Properties properties) {
+    return new BlobAttributes(properties);
+  }
+
+  Properties toProperties() {
+    return writeTo(new Properties());
+  }
+
   private void readFrom(Properties properties) {
     headers = new HashMap<>();
     for (Entry<Object, Object> property : properties.entrySet()) {
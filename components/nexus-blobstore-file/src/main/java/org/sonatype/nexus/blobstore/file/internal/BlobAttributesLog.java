@@ -0,0 +1,481 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.goodies.common.Locks;
+import org.sonatype.nexus.blobstore.api.BlobId;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Packed, append-only log of {@link BlobAttributes}, used by the "file/2" blob store layout instead of one properties
+ * file per blob. The latest record of each blob is located through a {@link BlobLocationIndex}, built by reading
+ * through the log when it is opened. The index is held off-heap, taking 16 to 32 bytes of direct memory per blob,
+ * which counts against {@code -XX:MaxDirectMemorySize}: in the order of 1GB for 50 million blobs.
+ *
+ * Each record is {@code [int length][int crc32][byte op][utf blobId]} followed, for {@link #put} records, by the
+ * attributes as {@code [int count]} UTF key/value pairs. Marking a blob deleted appends a new version of its record;
+ * {@link #remove removing} it appends a tombstone. Superseded records are reclaimed by {@link #compact()}.
+ *
+ * Appends are forced to disk before they return, unless disabled with {@code forceWrites}, in which case attributes
+ * written shortly before a crash may be lost. A torn record at the end of the log, as left behind by a crash, is
+ * truncated when the log is opened. Any other bad record fails opening the log, rather than dropping attributes.
+ *
+ * @since 3.1
+ */
+public class BlobAttributesLog
+    extends ComponentSupport
+    implements Closeable
+{
+  private static final byte OP_PUT = 1;
+
+  private static final byte OP_REMOVE = 2;
+
+  private static final int HEADER_SIZE = 8;
+
+  /**
+   * Records are located by offset and length packed into a single long, limiting records to 16MB.
+   */
+  private static final int LENGTH_BITS = 24;
+
+  private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+
+  /**
+   * Compaction is only worthwhile once superseded records exceed this many bytes.
+   */
+  private static final long MIN_COMPACTION_GARBAGE = 16 * 1024 * 1024;
+
+  private static final boolean FORCE_WRITES = SystemPropertiesHelper
+      .getBoolean(BlobAttributesLog.class.getName() + ".forceWrites", true);
+
+  private final Path path;
+
+  /**
+   * Shared by reads and appends, which use positional I/O, exclusive for {@link #compact()} and {@link #close()}.
+   */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private FileChannel channel;
+
+  private BlobLocationIndex index = new BlobLocationIndex();
+
+  private long size;
+
+  private long garbage;
+
+  public BlobAttributesLog(final Path path) {
+    this.path = checkNotNull(path);
+  }
+
+  /**
+   * Opens the log, creating it if needed, and builds the index of its records.
+   */
+  public void open() throws IOException {
+    Lock lock = Locks.write(this.lock);
+    try {
+      checkState(channel == null, "Already open");
+      channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+        load();
+      }
+      catch (IOException | RuntimeException e) {
+        channel.close();
+        channel = null;
+        throw e;
+      }
+      log.debug("Opened blob attributes log {} with {} records", path, index.size());
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Builds the index of the records, truncating a torn record at the end of the log. Any other bad record fails, as
+   * dropping it or the records following it would silently lose attributes.
+   */
+  private void load() throws IOException {
+    index = new BlobLocationIndex();
+    size = 0;
+    garbage = 0;
+
+    long end = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (size < end) {
+      if (end - size < HEADER_SIZE) {
+        break;
+      }
+      header.clear();
+      if (!readFully(header, size)) {
+        break;
+      }
+      int length = header.getInt(0);
+      if (length <= 0) {
+        if (isZeroFilled(size, end)) {
+          // space allocated for an append that never made it to disk
+          break;
+        }
+        throw corrupt(size, "invalid record length " + length);
+      }
+      if (size + HEADER_SIZE + length > end) {
+        break;
+      }
+      ByteBuffer body = ByteBuffer.allocate(length);
+      if (!readFully(body, size + HEADER_SIZE)) {
+        break;
+      }
+      if (crc(body.array()) != header.getInt(4)) {
+        if (size + HEADER_SIZE + length == end) {
+          break;
+        }
+        throw corrupt(size, "checksum mismatch");
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+      byte op = in.readByte();
+      String blobId = in.readUTF();
+      index(blobId, op, location(size, HEADER_SIZE + length));
+      size += HEADER_SIZE + length;
+    }
+
+    if (size < end) {
+      log.warn("Truncating {} torn bytes at the end of blob attributes log {}", end - size, path);
+      channel.truncate(size);
+      channel.force(true);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    Lock lock = Locks.write(this.lock);
+    try {
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+      // releases the direct memory of the index
+      index = new BlobLocationIndex();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of blobs with attributes in the log.
+   */
+  public int count() {
+    Lock lock = Locks.read(this.lock);
+    try {
+      return index.size();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean contains(final BlobId blobId) throws IOException {
+    Lock lock = Locks.read(this.lock);
+    try {
+      String key = blobId.asUniqueString();
+      return index.get(BlobLocationIndex.hash(key), new RecordMatcher(key)) != 0;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the blob's attributes, or {@code null} if the log has none.
+   */
+  @Nullable
+  public BlobAttributes get(final BlobId blobId) throws IOException {
+    Lock lock = Locks.read(this.lock);
+    try {
+      String key = blobId.asUniqueString();
+      RecordMatcher matcher = new RecordMatcher(key);
+      if (index.get(BlobLocationIndex.hash(key), matcher) == 0) {
+        return null;
+      }
+      ByteBuffer record = matcher.record;
+      DataInputStream in = new DataInputStream(
+          new ByteArrayInputStream(record.array(), HEADER_SIZE, record.capacity() - HEADER_SIZE));
+      in.readByte();
+      in.readUTF();
+      Properties properties = new Properties();
+      for (int i = in.readInt(); i > 0; i--) {
+        properties.setProperty(in.readUTF(), in.readUTF());
+      }
+      return BlobAttributes.fromProperties(properties);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Appends the blob's attributes, superseding any previous ones.
+   */
+  public void put(final BlobId blobId, final BlobAttributes attributes) throws IOException {
+    Properties properties = attributes.toProperties();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(OP_PUT);
+    out.writeUTF(blobId.asUniqueString());
+    out.writeInt(properties.size());
+    for (String key : properties.stringPropertyNames()) {
+      out.writeUTF(key);
+      out.writeUTF(properties.getProperty(key));
+    }
+    append(blobId, OP_PUT, bytes.toByteArray());
+  }
+
+  /**
+   * Appends a tombstone for the blob's attributes, if the log has any.
+   */
+  public void remove(final BlobId blobId) throws IOException {
+    if (!contains(blobId)) {
+      return;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(OP_REMOVE);
+    out.writeUTF(blobId.asUniqueString());
+    append(blobId, OP_REMOVE, bytes.toByteArray());
+  }
+
+  private void append(final BlobId blobId, final byte op, final byte[] body) throws IOException {
+    checkState(HEADER_SIZE + body.length <= LENGTH_MASK, "Blob attributes too large: %s", blobId);
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + body.length);
+    record.putInt(body.length).putInt(crc(body)).put(body).flip();
+
+    Lock lock = Locks.read(this.lock);
+    try {
+      checkState(channel != null, "Not open");
+      synchronized (this) {
+        long position = size;
+        while (record.hasRemaining()) {
+          position += channel.write(record, position);
+        }
+        long location = location(size, record.capacity());
+        size = position;
+
+        index(blobId.asUniqueString(), op, location);
+      }
+      if (FORCE_WRITES) {
+        // outside the append monitor, so concurrent appends can share a sync
+        channel.force(false);
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Points the index at a record appended to the log, accounting for the records it supersedes.
+   */
+  private void index(final String blobId, final byte op, final long location) throws IOException {
+    int hash = BlobLocationIndex.hash(blobId);
+    RecordMatcher matcher = new RecordMatcher(blobId);
+    long previous = op == OP_PUT ? index.put(hash, location, matcher) : index.remove(hash, matcher);
+    garbage += previous & LENGTH_MASK;
+    if (op == OP_REMOVE) {
+      garbage += location & LENGTH_MASK;
+    }
+  }
+
+  /**
+   * Returns {@code true} if superseded records take up more than half of the log.
+   */
+  public synchronized boolean needsCompaction() {
+    return garbage > MIN_COMPACTION_GARBAGE && garbage > size / 2;
+  }
+
+  /**
+   * Rewrites the log with only the latest record of each blob. Blocks reads and appends while in progress.
+   *
+   * The compacted log is written and forced to disk next to the log, then atomically moved over it. Should that
+   * fail, the log is left as it was.
+   */
+  public void compact() throws IOException {
+    Lock lock = Locks.write(this.lock);
+    try {
+      checkState(channel != null, "Not open");
+      log.info("Compacting blob attributes log {}, reclaiming {} of {} bytes", path, garbage, size);
+
+      Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+      BlobLocationIndex relocated = new BlobLocationIndex();
+      long compactedSize = 0;
+      try {
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+          for (int slot = 0; slot < index.capacity(); slot++) {
+            long location = index.locationAt(slot);
+            if (location == 0) {
+              continue;
+            }
+            long length = location & LENGTH_MASK;
+            long offset = location >>> LENGTH_BITS;
+            for (long copied = 0; copied < length; ) {
+              long transferred = channel.transferTo(offset + copied, length - copied, target);
+              if (transferred <= 0) {
+                throw new EOFException("Blob attributes log " + path + " is truncated");
+              }
+              copied += transferred;
+            }
+            relocated.add(index.hashAt(slot), location(compactedSize, length));
+            compactedSize += length;
+          }
+          target.force(true);
+        }
+
+        // some platforms cannot replace a file that is still open
+        channel.close();
+        channel = null;
+        replace(compacted);
+      }
+      catch (IOException | RuntimeException e) {
+        log.warn("Failed to compact blob attributes log {}, keeping it as is", path, e);
+        Files.deleteIfExists(compacted);
+        if (channel == null) {
+          channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        throw e;
+      }
+
+      channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      index = relocated;
+      size = compactedSize;
+      garbage = 0;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Atomically replaces the log with the compacted one, and syncs the directory so the replacement survives a crash.
+   */
+  @VisibleForTesting
+  void replace(final Path compacted) throws IOException {
+    Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    try (FileChannel directory = FileChannel.open(path.getParent(), StandardOpenOption.READ)) {
+      directory.force(true);
+    }
+    catch (IOException e) {
+      // not supported on all platforms
+      log.debug("Could not sync directory of {}", path, e);
+    }
+  }
+
+  /**
+   * Matches records of a blob, keeping the one matched.
+   */
+  private class RecordMatcher
+      implements BlobLocationIndex.Matcher
+  {
+    private final String blobId;
+
+    private ByteBuffer record;
+
+    RecordMatcher(final String blobId) {
+      this.blobId = blobId;
+    }
+
+    @Override
+    public boolean matches(final long location) throws IOException {
+      ByteBuffer candidate = ByteBuffer.allocate((int) (location & LENGTH_MASK));
+      if (!readFully(candidate, location >>> LENGTH_BITS)) {
+        throw new EOFException("Blob attributes log " + path + " is truncated");
+      }
+      DataInputStream in = new DataInputStream(
+          new ByteArrayInputStream(candidate.array(), HEADER_SIZE, candidate.capacity() - HEADER_SIZE));
+      in.readByte();
+      if (blobId.equals(in.readUTF())) {
+        record = candidate;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private IOException corrupt(final long offset, final String reason) {
+    return new IOException("Blob attributes log " + path + " is corrupt at offset " + offset + ": " + reason);
+  }
+
+  /**
+   * Returns {@code true} if the log only holds zeros from the given position on.
+   */
+  private boolean isZeroFilled(final long position, final long end) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    for (long offset = position; offset < end; ) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - offset));
+      if (!readFully(buffer, offset)) {
+        return false;
+      }
+      for (int i = 0; i < buffer.limit(); i++) {
+        if (buffer.get(i) != 0) {
+          return false;
+        }
+      }
+      offset += buffer.limit();
+    }
+    return true;
+  }
+
+  private boolean readFully(final ByteBuffer buffer, final long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long location(final long offset, final long length) {
+    return offset << LENGTH_BITS | length;
+  }
+
+  private static int crc(final byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.sonatype.goodies.common.Locks;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Compact hash table locating the latest record of each blob in a {@link BlobAttributesLog}, held off-heap.
+ *
+ * Each slot takes 12 bytes of direct memory: the packed location of the record and a 32-bit hash of the blob id,
+ * rather than the blob id itself. Entries with the same hash are told apart by a {@link Matcher} reading the blob id
+ * back from the log, which outside of updates to the same blob is rare. The table doubles once three quarters full,
+ * so N blobs take between 16 and 32 bytes each, half as much again while resizing.
+ *
+ * Slots are probed linearly, and removals shift the following entries back instead of leaving tombstones. Lookups run
+ * concurrently; mutations are serialized, and only exclude lookups while slots are written.
+ *
+ * @since 3.1
+ */
+final class BlobLocationIndex
+{
+  /**
+   * Checks whether the record at a location is the one of the blob being looked up.
+   */
+  interface Matcher
+  {
+    boolean matches(long location) throws IOException;
+  }
+
+  private static final int SLOT_SIZE = 12;
+
+  private static final int MIN_CAPACITY_BITS = 10;
+
+  private static final int MAX_CAPACITY_BITS = 30;
+
+  /**
+   * Slots are spread over buffers of at most this many slots, as a single direct buffer is limited to 2GB.
+   */
+  private static final int MAX_SEGMENT_BITS = 16;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private ByteBuffer[] segments;
+
+  private int segmentBits;
+
+  private int mask;
+
+  private int size;
+
+  BlobLocationIndex() {
+    allocate(MIN_CAPACITY_BITS);
+  }
+
+  /**
+   * Hashes a blob id, spreading the bits of {@link String#hashCode()} which is cached by the string.
+   */
+  static int hash(final String blobId) {
+    int h = blobId.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  int size() {
+    Lock lock = Locks.read(this.lock);
+    try {
+      return size;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the location of the matching entry, or {@code 0} if there is none.
+   */
+  long get(final int hash, final Matcher matcher) throws IOException {
+    Lock lock = Locks.read(this.lock);
+    try {
+      int slot = find(hash, matcher);
+      return slot < 0 ? 0 : locationAt(slot);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sets the location of the matching entry, adding one if there is none, and returns its previous location or
+   * {@code 0}.
+   */
+  synchronized long put(final int hash, final long location, final Matcher matcher) throws IOException {
+    checkArgument(location != 0, "Invalid location");
+    int slot = findLocked(hash, matcher);
+    Lock lock = Locks.write(this.lock);
+    try {
+      if (slot >= 0) {
+        long previous = locationAt(slot);
+        setSlot(slot, hash, location);
+        return previous;
+      }
+      insert(hash, location);
+      return 0;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Adds an entry known to be absent, without matching any existing ones.
+   */
+  synchronized void add(final int hash, final long location) {
+    checkArgument(location != 0, "Invalid location");
+    Lock lock = Locks.write(this.lock);
+    try {
+      insert(hash, location);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the matching entry and returns its location, or {@code 0} if there is none.
+   */
+  synchronized long remove(final int hash, final Matcher matcher) throws IOException {
+    int slot = findLocked(hash, matcher);
+    if (slot < 0) {
+      return 0;
+    }
+    Lock lock = Locks.write(this.lock);
+    try {
+      long previous = locationAt(slot);
+      delete(slot);
+      size--;
+      return previous;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of slots, for iterating over them with {@link #locationAt} and {@link #hashAt} while no
+   * mutations take place.
+   */
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Returns the location held by the slot, or {@code 0} if it is empty.
+   */
+  long locationAt(final int slot) {
+    return segments[slot >>> segmentBits].getLong(offset(slot));
+  }
+
+  int hashAt(final int slot) {
+    return segments[slot >>> segmentBits].getInt(offset(slot) + 8);
+  }
+
+  private int findLocked(final int hash, final Matcher matcher) throws IOException {
+    // mutations are serialized, so the slot cannot move once the read lock is released
+    Lock lock = Locks.read(this.lock);
+    try {
+      return find(hash, matcher);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the slot of the matching entry, or a negative value if there is none.
+   */
+  private int find(final int hash, final Matcher matcher) throws IOException {
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      long location = locationAt(slot);
+      if (location == 0) {
+        return -1;
+      }
+      if (hashAt(slot) == hash && matcher.matches(location)) {
+        return slot;
+      }
+    }
+  }
+
+  private void insert(final int hash, final long location) {
+    if (size >= capacity() - (capacity() >>> 2)) {
+      resize();
+    }
+    int slot = hash & mask;
+    while (locationAt(slot) != 0) {
+      slot = (slot + 1) & mask;
+    }
+    setSlot(slot, hash, location);
+    size++;
+  }
+
+  /**
+   * Empties the slot, moving back following entries which would no longer be reachable from their home slot.
+   */
+  private void delete(final int slot) {
+    int hole = slot;
+    for (int next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+      long location = locationAt(next);
+      if (location == 0) {
+        break;
+      }
+      int hash = hashAt(next);
+      if (((next - (hash & mask)) & mask) >= ((next - hole) & mask)) {
+        setSlot(hole, hash, location);
+        hole = next;
+      }
+    }
+    setSlot(hole, 0, 0);
+  }
+
+  private void resize() {
+    int capacityBits = Integer.numberOfTrailingZeros(capacity()) + 1;
+    checkState(capacityBits <= MAX_CAPACITY_BITS, "Too many blobs: %s", size);
+    ByteBuffer[] oldSegments = segments;
+    int oldSegmentBits = segmentBits;
+    allocate(capacityBits);
+    size = 0;
+    for (ByteBuffer segment : oldSegments) {
+      for (int i = 0; i < 1 << oldSegmentBits; i++) {
+        long location = segment.getLong(i * SLOT_SIZE);
+        if (location != 0) {
+          insert(segment.getInt(i * SLOT_SIZE + 8), location);
+        }
+      }
+    }
+  }
+
+  private void allocate(final int capacityBits) {
+    segmentBits = Math.min(capacityBits, MAX_SEGMENT_BITS);
+    segments = new ByteBuffer[1 << (capacityBits - segmentBits)];
+    for (int i = 0; i < segments.length; i++) {
+      // zero filled, that is all slots empty
+      segments[i] = ByteBuffer.allocateDirect(SLOT_SIZE << segmentBits);
+    }
+    mask = (1 << capacityBits) - 1;
+  }
+
+  private void setSlot(final int slot, final int hash, final long location) {
+    ByteBuffer segment = segments[slot >>> segmentBits];
+    int offset = offset(slot);
+    segment.putLong(offset, location);
+    segment.putInt(offset + 8, hash);
+  }
+
+  private int offset(final int slot) {
+    return (slot & ((1 << segmentBits) - 1)) * SLOT_SIZE;
+  }
+}
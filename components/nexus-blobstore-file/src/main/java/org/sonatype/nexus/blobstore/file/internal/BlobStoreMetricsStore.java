@@ -41,4 +41,18 @@ public interface BlobStoreMetricsStore
    * Indicate that a blob of the given size has been removed.
    */
   void recordDeletion(long size);
+
+  /**
+   * Indicate that compaction has reclaimed a soft-deleted blob of the given size.
+   *
+   * @since 3.1
+   */
+  void recordReclaim(long size);
+
+  /**
+   * Set the number of soft-deleted blobs waiting to be reclaimed.
+   *
+   * @since 3.1
+   */
+  void setPendingDeletionCount(long count);
 }
@@ -54,6 +54,12 @@ public class BlobStoreMetricsStoreImpl
   @VisibleForTesting
   static final String BLOB_COUNT_PROP_NAME = "blobCount";
 
+  @VisibleForTesting
+  static final String RECLAIMED_SIZE_PROP_NAME = "reclaimedSize";
+
+  @VisibleForTesting
+  static final String RECLAIMED_BLOB_COUNT_PROP_NAME = "reclaimedBlobCount";
+
   private static final int METRICS_FLUSH_PERIOD_SECONDS = 2;
 
   private final PeriodicJobService jobService;
@@ -62,6 +68,15 @@ public class BlobStoreMetricsStoreImpl
 
   private AtomicLong totalSize;
 
+  private AtomicLong reclaimedBlobCount;
+
+  private AtomicLong reclaimedSize;
+
+  /**
+   * Not persisted, as the blob store recalculates it from its deletions index on start.
+   */
+  private final AtomicLong pendingDeletionCount = new AtomicLong();
+
   private AtomicBoolean dirty;
 
   private PeriodicJob metricsWritingJob;
@@ -81,6 +96,8 @@ public class BlobStoreMetricsStoreImpl
   protected void doStart() throws Exception {
     blobCount = new AtomicLong();
     totalSize = new AtomicLong();
+    reclaimedBlobCount = new AtomicLong();
+    reclaimedSize = new AtomicLong();
     dirty = new AtomicBoolean();
 
     metricsDataFile = storageDirectory.resolve(METRICS_FILENAME);
@@ -117,6 +134,8 @@ public class BlobStoreMetricsStoreImpl
 
     blobCount = null;
     totalSize = null;
+    reclaimedBlobCount = null;
+    reclaimedSize = null;
     dirty = null;
 
     propertiesFile = null;
@@ -153,6 +172,21 @@ public class BlobStoreMetricsStoreImpl
           throw Throwables.propagate(e);
         }
       }
+
+      @Override
+      public long getReclaimedBlobCount() {
+        return reclaimedBlobCount.get();
+      }
+
+      @Override
+      public long getReclaimedSize() {
+        return reclaimedSize.get();
+      }
+
+      @Override
+      public long getPendingDeletionCount() {
+        return pendingDeletionCount.get();
+      }
     };
   }
 
@@ -170,9 +204,23 @@ public class BlobStoreMetricsStoreImpl
     dirty.set(true);
   }
 
+  @Override
+  public void recordReclaim(final long size) {
+    reclaimedBlobCount.incrementAndGet();
+    reclaimedSize.addAndGet(size);
+    dirty.set(true);
+  }
+
+  @Override
+  public void setPendingDeletionCount(final long count) {
+    pendingDeletionCount.set(count);
+  }
+
   private void updateProperties() {
     propertiesFile.setProperty(TOTAL_SIZE_PROP_NAME, totalSize.toString());
     propertiesFile.setProperty(BLOB_COUNT_PROP_NAME, blobCount.toString());
+    propertiesFile.setProperty(RECLAIMED_SIZE_PROP_NAME, reclaimedSize.toString());
+    propertiesFile.setProperty(RECLAIMED_BLOB_COUNT_PROP_NAME, reclaimedBlobCount.toString());
   }
 
   private void readProperties() {
@@ -185,5 +233,15 @@ public class BlobStoreMetricsStoreImpl
     if (count != null) {
       blobCount.set(Long.parseLong(count));
     }
+
+    String reclaimed = propertiesFile.getProperty(RECLAIMED_SIZE_PROP_NAME);
+    if (reclaimed != null) {
+      reclaimedSize.set(Long.parseLong(reclaimed));
+    }
+
+    String reclaimedCount = propertiesFile.getProperty(RECLAIMED_BLOB_COUNT_PROP_NAME);
+    if (reclaimedCount != null) {
+      reclaimedBlobCount.set(Long.parseLong(reclaimedCount));
+    }
   }
 }
@@ -15,28 +15,34 @@ package org.sonatype.nexus.blobstore.file;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import org.sonatype.goodies.testsupport.TestSupport;
 import org.sonatype.nexus.blobstore.api.Blob;
 import org.sonatype.nexus.blobstore.api.BlobMetrics;
 import org.sonatype.nexus.blobstore.api.BlobStoreConfiguration;
 import org.sonatype.nexus.blobstore.api.BlobStoreMetrics;
-import org.sonatype.nexus.blobstore.file.internal.BlobStoreMetricsStore;
 import org.sonatype.nexus.blobstore.file.internal.BlobStoreMetricsStoreImpl;
 import org.sonatype.nexus.common.app.ApplicationDirectories;
 import org.sonatype.nexus.common.io.DirectoryHelper;
+import org.sonatype.nexus.common.property.PropertiesFile;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
+import com.squareup.tape.QueueFile;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import static com.jayway.awaitility.Awaitility.await;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
@@ -67,27 +73,34 @@ public class FileBlobStoreIT
 
   private PeriodicJobServiceImpl jobService;
 
-  private BlobStoreMetricsStore metricsStore;
+  private ApplicationDirectories applicationDirectories;
+
+  private BlobStoreConfiguration config;
 
   @Before
   public void setUp() throws Exception {
-    ApplicationDirectories applicationDirectories = mock(ApplicationDirectories.class);
+    applicationDirectories = mock(ApplicationDirectories.class);
     blobStoreDirectory = util.createTempDir().toPath();
     when(applicationDirectories.getWorkDirectory(anyString())).thenReturn(blobStoreDirectory.toFile());
 
     jobService = new PeriodicJobServiceImpl();
     jobService.start();
 
-    metricsStore = new BlobStoreMetricsStoreImpl(jobService);
-
-    final BlobStoreConfiguration config = new BlobStoreConfiguration();
+    config = new BlobStoreConfiguration();
     config.attributes(FileBlobStore.CONFIG_KEY).set(FileBlobStore.PATH_KEY, blobStoreDirectory.toString());
-    underTest = new FileBlobStore(new VolumeChapterLocationStrategy(),
+    underTest = newBlobStore(false);
+  }
+
+  private FileBlobStore newBlobStore(final boolean packedAttributes) throws Exception {
+    FileBlobStore blobStore = new FileBlobStore(new VolumeChapterLocationStrategy(),
         new SimpleFileOperations(),
         applicationDirectories,
-        metricsStore);
-    underTest.init(config);
-    underTest.start();
+        new BlobStoreMetricsStoreImpl(jobService));
+    config.attributes(FileBlobStore.CONFIG_KEY)
+        .set(FileBlobStore.LAYOUT_KEY, packedAttributes ? FileBlobStore.TYPE_V2 : FileBlobStore.TYPE_V1);
+    blobStore.init(config);
+    blobStore.start();
+    return blobStore;
   }
 
   @After
@@ -231,4 +244,125 @@ public class FileBlobStoreIT
 
     underTest = null; // The store is stopped, no cleanup required
   }
+
+  @Test
+  public void packedAttributesLayout() throws Exception {
+    // start over with a new store
+    underTest.stop();
+    Files.delete(blobStoreDirectory.resolve(FileBlobStore.METADATA_FILENAME));
+    underTest = newBlobStore(true);
+
+    final byte[] content = new byte[TEST_DATA_LENGTH];
+    new Random().nextBytes(content);
+    final Blob blob = underTest.create(new ByteArrayInputStream(content), TEST_HEADERS);
+
+    assertThat(metadata().getProperty(FileBlobStore.TYPE_KEY), is(FileBlobStore.TYPE_V2));
+    assertThat(Files.exists(attributePath(blob)), is(false));
+
+    // reload attributes from the log
+    underTest.stop();
+    underTest = newBlobStore(true);
+    final Blob reloaded = underTest.get(blob.getId());
+    assertThat(reloaded.getHeaders(), is(equalTo(TEST_HEADERS)));
+    assertThat(reloaded.getMetrics().getContentSize(), is(equalTo((long) TEST_DATA_LENGTH)));
+    assertThat(extractContent(reloaded), is(equalTo(content)));
+
+    assertThat(underTest.delete(blob.getId()), is(true));
+    assertThat(underTest.get(blob.getId()), is(nullValue()));
+    assertThat(underTest.delete(blob.getId()), is(false));
+  }
+
+  @Test
+  public void migratesToPackedAttributesOnline() throws Exception {
+    final byte[] content = new byte[TEST_DATA_LENGTH];
+    new Random().nextBytes(content);
+    final List<Blob> blobs = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      blobs.add(underTest.create(new ByteArrayInputStream(content), TEST_HEADERS));
+    }
+    underTest.delete(blobs.get(0).getId());
+
+    underTest.stop();
+    underTest = newBlobStore(true);
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> !metadata().containsKey(FileBlobStore.MIGRATING_KEY));
+    assertThat(metadata().getProperty(FileBlobStore.TYPE_KEY), is(FileBlobStore.TYPE_V2));
+
+    assertThat(underTest.get(blobs.get(0).getId()), is(nullValue()));
+    for (Blob blob : blobs.subList(1, blobs.size())) {
+      assertThat(Files.exists(attributePath(blob)), is(false));
+      assertThat(extractContent(underTest.get(blob.getId())), is(equalTo(content)));
+    }
+  }
+
+  @Test
+  public void compactReclaimsDeletedBlobsInParallel() throws Exception {
+    final byte[] content = new byte[TEST_DATA_LENGTH];
+    new Random().nextBytes(content);
+    final List<Blob> blobs = new ArrayList<>();
+    for (int i = 0; i < 250; i++) {
+      blobs.add(underTest.create(new ByteArrayInputStream(content), TEST_HEADERS));
+    }
+    for (Blob blob : blobs) {
+      underTest.delete(blob.getId());
+    }
+    assertThat(underTest.getMetrics().getPendingDeletionCount(), is(250L));
+
+    underTest.compact();
+
+    final BlobStoreMetrics storeMetrics = underTest.getMetrics();
+    assertThat(storeMetrics.getPendingDeletionCount(), is(0L));
+    assertThat(storeMetrics.getReclaimedBlobCount(), is(250L));
+    assertThat(storeMetrics.getReclaimedSize(), is(250L * TEST_DATA_LENGTH));
+    for (Blob blob : blobs) {
+      assertThat(Files.exists(attributePath(blob)), is(false));
+    }
+  }
+
+  @Test
+  public void compactResumesInterruptedBatches() throws Exception {
+    final byte[] content = new byte[TEST_DATA_LENGTH];
+    new Random().nextBytes(content);
+    final List<String> blobIds = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Blob blob = underTest.create(new ByteArrayInputStream(content), TEST_HEADERS);
+      underTest.delete(blob.getId());
+      blobIds.add(blob.getId().toString());
+    }
+    underTest.stop();
+
+    // simulate a crash after journaling the batch, but before removing it from the deletions index
+    QueueFile compacting = new QueueFile(blobStoreDirectory.resolve(FileBlobStore.COMPACTING_FILENAME).toFile());
+    compacting.add(String.join("\n", blobIds).getBytes(StandardCharsets.UTF_8));
+    compacting.close();
+
+    underTest = newBlobStore(false);
+    final long reclaimedBefore = underTest.getMetrics().getReclaimedBlobCount();
+    underTest.compact();
+
+    // each blob is reclaimed exactly once, whether found in the journal or in the deletions index
+    final BlobStoreMetrics storeMetrics = underTest.getMetrics();
+    assertThat(storeMetrics.getReclaimedBlobCount() - reclaimedBefore, is(3L));
+    assertThat(storeMetrics.getPendingDeletionCount(), is(0L));
+
+    compacting = new QueueFile(blobStoreDirectory.resolve(FileBlobStore.COMPACTING_FILENAME).toFile());
+    try {
+      assertThat(compacting.isEmpty(), is(true));
+    }
+    finally {
+      compacting.close();
+    }
+  }
+
+  private PropertiesFile metadata() throws IOException {
+    PropertiesFile metadata = new PropertiesFile(
+        blobStoreDirectory.resolve(FileBlobStore.METADATA_FILENAME).toFile());
+    metadata.load();
+    return metadata;
+  }
+
+  private Path attributePath(final Blob blob) {
+    return blobStoreDirectory.resolve("content")
+        .resolve(new VolumeChapterLocationStrategy().location(blob.getId()) + FileBlobStore.BLOB_ATTRIBUTE_SUFFIX);
+  }
 }
@@ -0,0 +1,226 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.blobstore.api.BlobId;
+import org.sonatype.nexus.blobstore.api.BlobMetrics;
+
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link BlobAttributesLog}.
+ */
+public class BlobAttributesLogTest
+    extends TestSupport
+{
+  private static final BlobId BLOB_ID = new BlobId("blob");
+
+  private Path path;
+
+  private BlobAttributesLog underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    path = util.createTempDir().toPath().resolve("attributes.log");
+    underTest = new BlobAttributesLog(path);
+    underTest.open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    underTest.close();
+  }
+
+  @Test
+  public void putAndGet() throws Exception {
+    underTest.put(BLOB_ID, attributes("a", 1L));
+
+    BlobAttributes attributes = underTest.get(BLOB_ID);
+    assertThat(attributes.getHeaders(), is(equalTo(ImmutableMap.of("name", "a"))));
+    assertThat(attributes.getMetrics().getContentSize(), is(1L));
+    assertThat(attributes.isDeleted(), is(false));
+    assertThat(underTest.get(new BlobId("other")), is(nullValue()));
+  }
+
+  @Test
+  public void blobsWithTheSameHashAreToldApart() throws Exception {
+    // same String.hashCode
+    BlobId first = new BlobId("Aa");
+    BlobId second = new BlobId("BB");
+    underTest.put(first, attributes("a", 1L));
+    underTest.put(second, attributes("b", 2L));
+    underTest.remove(first);
+
+    underTest.close();
+    underTest = new BlobAttributesLog(path);
+    underTest.open();
+
+    assertThat(underTest.count(), is(1));
+    assertThat(underTest.contains(first), is(false));
+    assertThat(underTest.get(second).getHeaders(), is(equalTo(ImmutableMap.of("name", "b"))));
+  }
+
+  @Test
+  public void latestRecordWinsAfterReopen() throws Exception {
+    underTest.put(BLOB_ID, attributes("a", 1L));
+    BlobAttributes deleted = attributes("a", 1L);
+    deleted.setDeleted(true);
+    underTest.put(BLOB_ID, deleted);
+    underTest.put(new BlobId("removed"), attributes("b", 2L));
+    underTest.remove(new BlobId("removed"));
+
+    underTest.close();
+    underTest.open();
+
+    assertThat(underTest.count(), is(1));
+    assertThat(underTest.get(BLOB_ID).isDeleted(), is(true));
+    assertThat(underTest.contains(new BlobId("removed")), is(false));
+  }
+
+  @Test
+  public void tornRecordIsTruncated() throws Exception {
+    underTest.put(BLOB_ID, attributes("a", 1L));
+    underTest.close();
+    long size = Files.size(path);
+
+    // simulate a crash half way through appending a record
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 100, 1, 2, 3 }));
+    }
+
+    underTest.open();
+    assertThat(Files.size(path), is(size));
+    assertThat(underTest.get(BLOB_ID).getMetrics().getContentSize(), is(1L));
+
+    underTest.put(new BlobId("next"), attributes("b", 2L));
+    underTest.close();
+    underTest.open();
+    assertThat(underTest.count(), is(2));
+  }
+
+  @Test
+  public void zeroFilledTailIsTruncated() throws Exception {
+    underTest.put(BLOB_ID, attributes("a", 1L));
+    underTest.close();
+    long size = Files.size(path);
+
+    // simulate a crash after the file grew but before the record reached the disk
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.allocate(100));
+    }
+
+    underTest.open();
+    assertThat(Files.size(path), is(size));
+    assertThat(underTest.count(), is(1));
+  }
+
+  @Test
+  public void corruptRecordBeforeTheEndFailsOpening() throws Exception {
+    underTest.put(BLOB_ID, attributes("a", 1L));
+    underTest.put(new BlobId("next"), attributes("b", 2L));
+    underTest.close();
+    long size = Files.size(path);
+
+    // flip a byte in the body of the first record
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer b = ByteBuffer.allocate(1);
+      channel.read(b, 12);
+      b.put(0, (byte) (b.get(0) ^ 0xff)).rewind();
+      channel.write(b, 12);
+    }
+
+    try {
+      underTest.open();
+      fail("Corrupt log opened");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage().contains("corrupt at offset 0"), is(true));
+    }
+    assertThat(Files.size(path), is(size));
+  }
+
+  @Test
+  public void compactionKeepsLatestRecords() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      underTest.put(BLOB_ID, attributes("a", i));
+      underTest.put(new BlobId("removed-" + i), attributes("b", i));
+      underTest.remove(new BlobId("removed-" + i));
+    }
+    long size = Files.size(path);
+
+    underTest.compact();
+
+    assertThat(Files.size(path), lessThan(size / 100));
+    assertThat(underTest.count(), is(1));
+    assertThat(underTest.get(BLOB_ID).getMetrics().getContentSize(), is(99L));
+
+    underTest.close();
+    underTest.open();
+    assertThat(underTest.get(BLOB_ID).getMetrics().getContentSize(), is(99L));
+  }
+
+  @Test
+  public void failedCompactionKeepsLog() throws Exception {
+    underTest.close();
+    underTest = new BlobAttributesLog(path)
+    {
+      @Override
+      void replace(final Path compacted) throws IOException {
+        throw new IOException("move failed");
+      }
+    };
+    underTest.open();
+    for (int i = 0; i < 10; i++) {
+      underTest.put(BLOB_ID, attributes("a", i));
+    }
+    long size = Files.size(path);
+
+    try {
+      underTest.compact();
+      fail("Compaction succeeded");
+    }
+    catch (IOException e) {
+      // expected
+    }
+
+    assertThat(Files.size(path), is(size));
+    assertThat(Files.exists(path.resolveSibling("attributes.log.compact")), is(false));
+    assertThat(underTest.get(BLOB_ID).getMetrics().getContentSize(), is(9L));
+    underTest.put(new BlobId("next"), attributes("b", 2L));
+    assertThat(underTest.get(new BlobId("next")).getMetrics().getContentSize(), is(2L));
+  }
+
+  private BlobAttributes attributes(final String name, final long size) {
+    return new BlobAttributes(path.resolveSibling("unused.properties"), ImmutableMap.of("name", name),
+        new BlobMetrics(new DateTime(), "sha1", size));
+  }
+}
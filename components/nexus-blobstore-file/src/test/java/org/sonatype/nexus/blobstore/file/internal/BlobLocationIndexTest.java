@@ -0,0 +1,83 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.blobstore.file.internal.BlobLocationIndex.Matcher;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link BlobLocationIndex}.
+ */
+public class BlobLocationIndexTest
+    extends TestSupport
+{
+  private final BlobLocationIndex underTest = new BlobLocationIndex();
+
+  /**
+   * Blob ids of the locations added, standing in for the log.
+   */
+  private final Map<Long, String> records = new HashMap<>();
+
+  @Test
+  public void agreesWithMapThroughCollisionsRemovalsAndResizes() throws Exception {
+    Map<String, Long> expected = new HashMap<>();
+    Random random = new Random(1);
+    for (long location = 1; location <= 200_000; location++) {
+      String blobId = "blob" + random.nextInt(20_000);
+      if (random.nextInt(3) == 0) {
+        assertThat(underTest.remove(hash(blobId), matcher(blobId)), is(orZero(expected.remove(blobId))));
+      }
+      else {
+        records.put(location, blobId);
+        assertThat(underTest.put(hash(blobId), location, matcher(blobId)), is(orZero(expected.put(blobId, location))));
+      }
+    }
+
+    assertThat(underTest.size(), is(expected.size()));
+    for (int i = 0; i < 20_000; i++) {
+      String blobId = "blob" + i;
+      assertThat(underTest.get(hash(blobId), matcher(blobId)), is(orZero(expected.get(blobId))));
+    }
+    int occupied = 0;
+    for (int slot = 0; slot < underTest.capacity(); slot++) {
+      if (underTest.locationAt(slot) != 0) {
+        occupied++;
+      }
+    }
+    assertThat(occupied, is(expected.size()));
+  }
+
+  /**
+   * Gives groups of four blob ids the same hash, so they can only be told apart by matching.
+   */
+  private static int hash(final String blobId) {
+    return BlobLocationIndex.hash(String.valueOf(Integer.parseInt(blobId.substring(4)) / 4));
+  }
+
+  private Matcher matcher(final String blobId) {
+    return location -> blobId.equals(records.get(location));
+  }
+
+  private static long orZero(final Long location) {
+    return location == null ? 0 : location;
+  }
+}
@@ -14,6 +14,8 @@ package org.sonatype.nexus.internal.blobstore;
 
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -27,11 +29,13 @@ import org.sonatype.nexus.blobstore.api.BlobStoreConfigurationStore;
 import org.sonatype.nexus.blobstore.api.BlobStoreCreatedEvent;
 import org.sonatype.nexus.blobstore.api.BlobStoreDeletedEvent;
 import org.sonatype.nexus.blobstore.api.BlobStoreManager;
+import org.sonatype.nexus.blobstore.api.BlobStoreMetrics;
 import org.sonatype.nexus.blobstore.file.FileBlobStore;
 import org.sonatype.nexus.blobstore.file.PeriodicJobService;
 import org.sonatype.nexus.common.event.EventBus;
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.common.stateguard.StateGuardLifecycleSupport;
+import org.sonatype.nexus.jmx.reflect.ManagedAttribute;
 import org.sonatype.nexus.jmx.reflect.ManagedObject;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -56,7 +60,7 @@ public class BlobStoreManagerImpl
 {
   private final EventBus eventBus;
 
-  private final Map<String, BlobStore> stores = Maps.newHashMap();
+  private final Map<String, BlobStore> stores = Maps.newConcurrentMap();
 
   private final BlobStoreConfigurationStore store;
 
@@ -205,4 +209,50 @@ public class BlobStoreManagerImpl
     log.debug("Untracking: {}", name);
     stores.remove(name);
   }
+
+  @ManagedAttribute(description = "Approximate number of blobs, by blob store")
+  public Map<String, Long> getBlobCounts() {
+    return metrics(BlobStoreMetrics::getBlobCount);
+  }
+
+  @ManagedAttribute(description = "Approximate storage used in bytes, by blob store")
+  public Map<String, Long> getTotalSizes() {
+    return metrics(BlobStoreMetrics::getTotalSize);
+  }
+
+  @ManagedAttribute(description = "Estimated space available in bytes, by blob store")
+  public Map<String, Long> getAvailableSpaces() {
+    return metrics(BlobStoreMetrics::getAvailableSpace);
+  }
+
+  @ManagedAttribute(description = "Number of deleted blobs compacted, by blob store")
+  public Map<String, Long> getReclaimedBlobCounts() {
+    return metrics(BlobStoreMetrics::getReclaimedBlobCount);
+  }
+
+  @ManagedAttribute(description = "Bytes reclaimed by compaction, by blob store")
+  public Map<String, Long> getReclaimedSizes() {
+    return metrics(BlobStoreMetrics::getReclaimedSize);
+  }
+
+  @ManagedAttribute(description = "Number of deleted blobs awaiting compaction, by blob store")
+  public Map<String, Long> getPendingDeletionCounts() {
+    return metrics(BlobStoreMetrics::getPendingDeletionCount);
+  }
+
+  /**
+   * Returns the given metric of each blob store, leaving out those failing to provide it.
+   */
+  private Map<String, Long> metrics(final ToLongFunction<BlobStoreMetrics> metric) {
+    Map<String, Long> metrics = new TreeMap<>();
+    for (Map.Entry<String, BlobStore> entry : stores.entrySet()) {
+      try {
+        metrics.put(entry.getKey(), metric.applyAsLong(entry.getValue().getMetrics()));
+      }
+      catch (Exception e) {
+        log.warn("Unable to get metrics of blob store {}", entry.getKey(), e);
+      }
+    }
+    return metrics;
+  }
 }
@@ -17,6 +17,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.List;
 
 import javax.annotation.Nullable;
 import javax.inject.Named;
@@ -29,7 +30,9 @@ import org.sonatype.nexus.orient.entity.IterableEntityAdapter;
 import org.sonatype.nexus.orient.entity.action.BrowseEntitiesByPropertyAction;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OClass.INDEX_TYPE;
 import com.orientechnologies.orient.core.metadata.schema.OType;
@@ -74,6 +77,11 @@ public class ApiKeyEntityAdapter
       .property(P_PRIMARY_PRINCIPAL)
       .build();
 
+  private static final String I_PRINCIPAL = new OIndexNameBuilder()
+      .type(DB_CLASS)
+      .property(P_PRIMARY_PRINCIPAL)
+      .build();
+
   public ApiKeyEntityAdapter() {
     super(DB_CLASS);
   }
@@ -100,6 +108,25 @@ public class ApiKeyEntityAdapter
         .setNotNull(true);
     type.createIndex(I_APIKEY, INDEX_TYPE.UNIQUE, P_DOMAIN, P_APIKEY);
     type.createIndex(I_PRIMARY_PRINCIPAL, INDEX_TYPE.UNIQUE, P_DOMAIN, P_PRIMARY_PRINCIPAL);
+    type.createIndex(I_PRINCIPAL, INDEX_TYPE.NOTUNIQUE, P_PRIMARY_PRINCIPAL);
+  }
+
+  @Override
+  public void register(final ODatabaseDocumentTx db, @Nullable final Runnable initializer) {
+    super.register(db, initializer);
+    // every lookup must be answered by an index, databases created before 3.1 lack the principal index
+    OClass type = getSchemaType();
+    if (type.getClassIndex(I_APIKEY) == null) {
+      log.warn("Creating missing index: {}", I_APIKEY);
+      type.createIndex(I_APIKEY, INDEX_TYPE.UNIQUE, P_DOMAIN, P_APIKEY);
+    }
+    if (type.getClassIndex(I_PRIMARY_PRINCIPAL) == null) {
+      log.warn("Creating missing index: {}", I_PRIMARY_PRINCIPAL);
+      type.createIndex(I_PRIMARY_PRINCIPAL, INDEX_TYPE.UNIQUE, P_DOMAIN, P_PRIMARY_PRINCIPAL);
+    }
+    if (type.getClassIndex(I_PRINCIPAL) == null) {
+      type.createIndex(I_PRINCIPAL, INDEX_TYPE.NOTUNIQUE, P_PRIMARY_PRINCIPAL);
+    }
   }
 
   @Override
@@ -107,6 +134,11 @@ public class ApiKeyEntityAdapter
     return new ApiKey();
   }
 
+  @Override
+  public boolean sendEvents() {
+    return true;
+  }
+
   @Override
   protected void readFields(final ODocument document, final ApiKey entity) {
     String domain = document.field(P_DOMAIN, OType.STRING);
@@ -180,4 +212,47 @@ public class ApiKeyEntityAdapter
 
     return readEntity(resultSet.iterator().next());
   }
+
+  private static final String SELECT_BY_PRIMARY_PRINCIPAL =
+      String.format("SELECT FROM %s WHERE %s=? AND %s=?", DB_CLASS, P_DOMAIN, P_PRIMARY_PRINCIPAL);
+
+  /**
+   * @since 3.1
+   */
+  @Nullable
+  public ApiKey findByPrimaryPrincipal(final ODatabaseDocumentTx db, final String domain, final String principal) {
+    checkNotNull(domain);
+    checkNotNull(principal);
+
+    final OResultSet<ODocument> resultSet = db
+        .command(new OSQLSynchQuery<ODocument>(SELECT_BY_PRIMARY_PRINCIPAL))
+        .execute(domain, principal);
+
+    if (resultSet.isEmpty()) {
+      return null;
+    }
+
+    return readEntity(resultSet.iterator().next());
+  }
+
+  private static final String BROWSE_PAGE = "SELECT FROM %s WHERE @rid > ? ORDER BY @rid LIMIT %d";
+
+  /**
+   * Browses the entities following the given record in record order, up to the given limit.
+   *
+   * @since 3.1
+   */
+  public List<ApiKey> browsePage(final ODatabaseDocumentTx db, final ORID after, final int limit) {
+    checkNotNull(after);
+
+    final List<ODocument> documents = db
+        .command(new OSQLSynchQuery<ODocument>(String.format(BROWSE_PAGE, DB_CLASS, limit)))
+        .execute(after);
+
+    final List<ApiKey> entities = Lists.newArrayListWithCapacity(documents.size());
+    for (ODocument document : documents) {
+      entities.add(readEntity(document));
+    }
+    return entities;
+  }
 }
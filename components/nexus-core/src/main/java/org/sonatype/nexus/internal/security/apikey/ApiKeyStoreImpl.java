@@ -12,9 +12,12 @@
  */
 package org.sonatype.nexus.internal.security.apikey;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -24,19 +27,29 @@ import javax.inject.Singleton;
 
 import org.sonatype.nexus.common.app.ManagedLifecycle;
 import org.sonatype.nexus.common.event.EventAware;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.common.stateguard.StateGuardLifecycleSupport;
 import org.sonatype.nexus.orient.DatabaseInstance;
+import org.sonatype.nexus.orient.entity.EntityEvent;
+import org.sonatype.nexus.scheduling.CancelableHelper;
 import org.sonatype.nexus.security.UserPrincipalsExpired;
 import org.sonatype.nexus.security.UserPrincipalsHelper;
 import org.sonatype.nexus.security.authc.apikey.ApiKeyFactory;
 import org.sonatype.nexus.security.authc.apikey.ApiKeyStore;
 import org.sonatype.nexus.security.user.UserNotFoundException;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
-import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.google.common.hash.Hashing;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.SimplePrincipalCollection;
 
@@ -47,6 +60,11 @@ import static org.sonatype.nexus.common.stateguard.StateGuardLifecycleSupport.St
 /**
  * OrientDB impl of {@link ApiKeyStore}.
  *
+ * Lookups are read through an in-memory cache, keyed by domain and a hash of the API-Key or by domain and primary
+ * principal. Unknown API-Keys are also remembered, for a short while. Writes are committed in transactions so their
+ * {@link EntityEvent}s drop cached entries on every node; known API-Keys also expire after a minute in case an event
+ * is missed. Callers get their own copy of cached principals.
+ *
  * @since 3.0
  */
 @Named
@@ -56,6 +74,24 @@ public class ApiKeyStoreImpl
     extends StateGuardLifecycleSupport
     implements ApiKeyStore, EventAware
 {
+  private static final int CACHE_SIZE = SystemPropertiesHelper
+      .getInteger(ApiKeyStoreImpl.class.getName() + ".cacheSize", 10000);
+
+  /**
+   * Seconds to cache known API-Keys for.
+   */
+  private static final int CACHE_TTL = SystemPropertiesHelper
+      .getInteger(ApiKeyStoreImpl.class.getName() + ".cacheTtl", 60);
+
+  /**
+   * Seconds to remember unknown API-Keys for.
+   */
+  private static final int NEGATIVE_CACHE_TTL = SystemPropertiesHelper
+      .getInteger(ApiKeyStoreImpl.class.getName() + ".negativeCacheTtl", 10);
+
+  private static final int PURGE_PAGE_SIZE = SystemPropertiesHelper
+      .getInteger(ApiKeyStoreImpl.class.getName() + ".purgePageSize", 1000);
+
   private final Provider<DatabaseInstance> databaseInstance;
 
   private final ApiKeyEntityAdapter entityAdapter;
@@ -66,18 +102,63 @@ public class ApiKeyStoreImpl
 
   private final DefaultApiKeyFactory defaultApiKeyFactory;
 
+  private final int purgePageSize;
+
+  /**
+   * Domain and API-Key hash to principals.
+   */
+  private final Cache<String, PrincipalCollection> principalsByApiKey = CacheBuilder.newBuilder()
+      .maximumSize(CACHE_SIZE)
+      .expireAfterWrite(CACHE_TTL, TimeUnit.SECONDS)
+      .build();
+
+  /**
+   * Domain and API-Key hash of unknown API-Keys.
+   */
+  private final Cache<String, Boolean> unknownApiKeys = CacheBuilder.newBuilder()
+      .maximumSize(CACHE_SIZE)
+      .expireAfterWrite(NEGATIVE_CACHE_TTL, TimeUnit.SECONDS)
+      .build();
+
+  /**
+   * Domain and primary principal to API-Key.
+   */
+  private final Cache<String, char[]> apiKeysByPrincipal = CacheBuilder.newBuilder()
+      .maximumSize(CACHE_SIZE)
+      .expireAfterWrite(CACHE_TTL, TimeUnit.SECONDS)
+      .build();
+
+  /**
+   * Guards the generation, which tells lookups racing a deletion not to cache what they read.
+   */
+  private final Object cacheLock = new Object();
+
+  private long generation;
+
   @Inject
   public ApiKeyStoreImpl(@Named("security") final Provider<DatabaseInstance> databaseInstance,
                          final ApiKeyEntityAdapter entityAdapter,
                          final UserPrincipalsHelper principalsHelper,
                          final Map<String, ApiKeyFactory> apiKeyFactories,
                          final DefaultApiKeyFactory defaultApiKeyFactory)
+  {
+    this(databaseInstance, entityAdapter, principalsHelper, apiKeyFactories, defaultApiKeyFactory, PURGE_PAGE_SIZE);
+  }
+
+  @VisibleForTesting
+  ApiKeyStoreImpl(final Provider<DatabaseInstance> databaseInstance,
+                  final ApiKeyEntityAdapter entityAdapter,
+                  final UserPrincipalsHelper principalsHelper,
+                  final Map<String, ApiKeyFactory> apiKeyFactories,
+                  final DefaultApiKeyFactory defaultApiKeyFactory,
+                  final int purgePageSize)
   {
     this.databaseInstance = checkNotNull(databaseInstance);
     this.entityAdapter = checkNotNull(entityAdapter);
     this.principalsHelper = checkNotNull(principalsHelper);
     this.apiKeyFactories = checkNotNull(apiKeyFactories);
     this.defaultApiKeyFactory = checkNotNull(defaultApiKeyFactory);
+    this.purgePageSize = purgePageSize;
   }
 
   @Override
@@ -87,6 +168,11 @@ public class ApiKeyStoreImpl
     }
   }
 
+  @Override
+  protected void doStop() throws Exception {
+    invalidateAll();
+  }
+
   @Override
   @Guarded(by = STARTED)
   public char[] createApiKey(final String domain, final PrincipalCollection principals) {
@@ -98,8 +184,11 @@ public class ApiKeyStoreImpl
     entity.setApiKey(apiKeyCharArray);
     entity.setPrincipals(principals);
     try (ODatabaseDocumentTx db = openDb()) {
+      db.begin();
       entityAdapter.addEntity(db, entity);
+      db.commit();
     }
+    invalidate(entity);
     return apiKeyCharArray;
   }
 
@@ -107,72 +196,149 @@ public class ApiKeyStoreImpl
   @Override
   @Guarded(by = STARTED)
   public char[] getApiKey(final String domain, final PrincipalCollection principals) {
+    checkNotNull(domain);
+    final String principal = checkNotNull(principals).getPrimaryPrincipal().toString();
+    final String cacheKey = principalKey(domain, principal);
+
+    char[] apiKey = apiKeysByPrincipal.getIfPresent(cacheKey);
+    if (apiKey != null) {
+      return apiKey.clone();
+    }
+
+    final long readGeneration = generation();
+    final ApiKey entity;
     try (ODatabaseDocumentTx db = openDb()) {
-      for (ApiKey entity : findByPrimaryPrincipal(db, principals)) {
-        if (entity.getDomain().equals(domain)) {
-          return entity.getApiKey();
-        }
-      }
+      entity = entityAdapter.findByPrimaryPrincipal(db, domain, principal);
     }
-    return null;
+    if (entity == null) {
+      return null;
+    }
+    cache(readGeneration, entity);
+    return entity.getApiKey().clone();
   }
 
   @Nullable
   @Override
   @Guarded(by = STARTED)
   public PrincipalCollection getPrincipals(final String domain, final char[] apiKey) {
+    checkNotNull(domain);
+    final String cacheKey = apiKeyKey(domain, checkNotNull(apiKey));
+
+    PrincipalCollection principals = principalsByApiKey.getIfPresent(cacheKey);
+    if (principals != null) {
+      return new SimplePrincipalCollection(principals);
+    }
+    if (unknownApiKeys.getIfPresent(cacheKey) != null) {
+      return null;
+    }
+
+    final long readGeneration = generation();
+    final ApiKey entity;
     try (ODatabaseDocumentTx db = openDb()) {
-      final ApiKey entity = entityAdapter.findByApiKey(db, domain, checkNotNull(apiKey));
-      return entity == null ? null : entity.getPrincipals();
+      entity = entityAdapter.findByApiKey(db, domain, apiKey);
     }
+    if (entity == null) {
+      synchronized (cacheLock) {
+        if (generation == readGeneration) {
+          unknownApiKeys.put(cacheKey, Boolean.TRUE);
+        }
+      }
+      return null;
+    }
+    cache(readGeneration, entity);
+    return new SimplePrincipalCollection(entity.getPrincipals());
   }
 
   @Override
   @Guarded(by = STARTED)
   public void deleteApiKey(final String domain, final PrincipalCollection principals) {
+    checkNotNull(domain);
+    final String principal = checkNotNull(principals).getPrimaryPrincipal().toString();
+    final ApiKey entity;
     try (ODatabaseDocumentTx db = openDb()) {
-      for (ApiKey entity : findByPrimaryPrincipal(db, principals)) {
-        if (entity.getDomain().equals(domain)) {
-          entityAdapter.deleteEntity(db, entity);
-        }
+      entity = entityAdapter.findByPrimaryPrincipal(db, domain, principal);
+      if (entity == null) {
+        return;
       }
+      db.begin();
+      entityAdapter.deleteEntity(db, entity);
+      db.commit();
     }
+    invalidate(entity);
   }
 
   @Override
   @Guarded(by = STARTED)
   public void deleteApiKeys(final PrincipalCollection principals) {
+    final List<ApiKey> entities;
     try (ODatabaseDocumentTx db = openDb()) {
-      for (ApiKey entity : findByPrimaryPrincipal(db, principals)) {
-        entityAdapter.deleteEntity(db, entity);
-      }
+      entities = Lists.newArrayList(findByPrimaryPrincipal(db, principals));
+      delete(db, entities);
     }
+    invalidate(entities);
   }
 
+  /**
+   * Pages through all API-Keys in record order, checking the principals of each page at once and deleting the keys
+   * of missing users before moving on. No connection is held while user managers are asked.
+   */
   @Override
   @Guarded(by = STARTED)
   public void purgeApiKeys() {
-    try (ODatabaseDocumentTx db = openDb()) {
-      List<ApiKey> delete = new ArrayList<>();
-      for (ApiKey entity : entityAdapter.browse.execute(db)) {
-        // avoid leaking current DB when calling out
-        ODatabaseRecordThreadLocal.INSTANCE.set(null);
+    ORID last = new ORecordId();
+    long examined = 0;
+    long purged = 0;
+    List<ApiKey> page;
+    do {
+      CancelableHelper.checkCancellation();
+
+      try (ODatabaseDocumentTx db = openDb()) {
+        page = entityAdapter.browsePage(db, last, purgePageSize);
+      }
+      if (page.isEmpty()) {
+        break;
+      }
+      last = entityAdapter.recordIdentity(page.get(page.size() - 1));
+      examined += page.size();
+
+      List<ApiKey> stale = stale(page);
+      if (!stale.isEmpty()) {
+        try (ODatabaseDocumentTx db = openDb()) {
+          delete(db, stale);
+        }
+        invalidate(stale);
+        purged += stale.size();
+      }
+    }
+    while (page.size() == purgePageSize);
+
+    log.debug("Purged {} of {} API-Keys", purged, examined);
+  }
+
+  /**
+   * Returns the API-Keys of the given page whose users no longer exist, asking once per distinct principals.
+   */
+  private List<ApiKey> stale(final List<ApiKey> page) {
+    Map<PrincipalCollection, Boolean> exists = new HashMap<>();
+    List<ApiKey> stale = new ArrayList<>();
+    for (ApiKey entity : page) {
+      Boolean userExists = exists.get(entity.getPrincipals());
+      if (userExists == null) {
         try {
           principalsHelper.getUserStatus(entity.getPrincipals());
+          userExists = true;
         }
         catch (UserNotFoundException e) {
           log.debug("Stale user found", e);
-          delete.add(entity);
-        }
-        finally {
-          // restore DB in case getUserStatus changed it
-          ODatabaseRecordThreadLocal.INSTANCE.set(db);
+          userExists = false;
         }
+        exists.put(entity.getPrincipals(), userExists);
       }
-      for (ApiKey entity : delete) {
-        entityAdapter.deleteEntity(db, entity);
+      if (!userExists) {
+        stale.add(entity);
       }
     }
+    return stale;
   }
 
   @Subscribe
@@ -187,10 +353,37 @@ public class ApiKeyStoreImpl
     }
   }
 
+  /**
+   * Drops all cached entries when API-Keys were changed through the database, for example by another node.
+   *
+   * @since 3.1
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void on(final EntityEvent event) {
+    if (ApiKey.class.equals(event.getEntityType())) {
+      invalidateAll();
+    }
+  }
+
   private ODatabaseDocumentTx openDb() {
     return databaseInstance.get().acquire();
   }
 
+  /**
+   * Deletes the given API-Keys in one transaction, so their events are posted once it commits.
+   */
+  private void delete(final ODatabaseDocumentTx db, final List<ApiKey> entities) {
+    if (entities.isEmpty()) {
+      return;
+    }
+    db.begin();
+    for (ApiKey entity : entities) {
+      entityAdapter.deleteEntity(db, entity);
+    }
+    db.commit();
+  }
+
   private Iterable<ApiKey> findByPrimaryPrincipal(final ODatabaseDocumentTx db,
                                                   final PrincipalCollection principals)
   {
@@ -205,4 +398,61 @@ public class ApiKeyStoreImpl
     }
     return defaultApiKeyFactory.makeApiKey(principals);
   }
+
+  //
+  // Cache
+  //
+
+  private static String apiKeyKey(final String domain, final char[] apiKey) {
+    return domain + '|' + Hashing.sha256().hashString(CharBuffer.wrap(apiKey), Charsets.UTF_8);
+  }
+
+  private static String principalKey(final String domain, final String principal) {
+    return domain + '|' + principal;
+  }
+
+  private long generation() {
+    synchronized (cacheLock) {
+      return generation;
+    }
+  }
+
+  /**
+   * Caches the given entity, unless API-Keys were invalidated since it was read.
+   */
+  private void cache(final long readGeneration, final ApiKey entity) {
+    synchronized (cacheLock) {
+      if (generation == readGeneration) {
+        principalsByApiKey.put(apiKeyKey(entity.getDomain(), entity.getApiKey()), entity.getPrincipals());
+        apiKeysByPrincipal.put(principalKey(entity.getDomain(), entity.getPrincipals().getPrimaryPrincipal().toString()),
+            entity.getApiKey().clone());
+      }
+    }
+  }
+
+  private void invalidate(final ApiKey entity) {
+    String apiKeyKey = apiKeyKey(entity.getDomain(), entity.getApiKey());
+    synchronized (cacheLock) {
+      generation++;
+      principalsByApiKey.invalidate(apiKeyKey);
+      unknownApiKeys.invalidate(apiKeyKey);
+      apiKeysByPrincipal.invalidate(
+          principalKey(entity.getDomain(), entity.getPrincipals().getPrimaryPrincipal().toString()));
+    }
+  }
+
+  private void invalidate(final List<ApiKey> entities) {
+    for (ApiKey entity : entities) {
+      invalidate(entity);
+    }
+  }
+
+  private void invalidateAll() {
+    synchronized (cacheLock) {
+      generation++;
+      principalsByApiKey.invalidateAll();
+      unknownApiKeys.invalidateAll();
+      apiKeysByPrincipal.invalidateAll();
+    }
+  }
 }
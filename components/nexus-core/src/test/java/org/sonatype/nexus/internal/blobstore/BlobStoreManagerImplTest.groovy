@@ -18,6 +18,7 @@ import org.sonatype.goodies.testsupport.TestSupport
 import org.sonatype.nexus.blobstore.api.BlobStore
 import org.sonatype.nexus.blobstore.api.BlobStoreConfiguration
 import org.sonatype.nexus.blobstore.api.BlobStoreConfigurationStore
+import org.sonatype.nexus.blobstore.api.BlobStoreMetrics
 import org.sonatype.nexus.blobstore.file.PeriodicJobService
 import org.sonatype.nexus.common.event.EventBus
 
@@ -96,6 +97,35 @@ class BlobStoreManagerImplTest
     assert underTest.get('test') == blobStore
   }
 
+  @Test
+  void 'Metrics of created BlobStores are exposed by name'() {
+    BlobStore blobStore = mock(BlobStore)
+    BlobStoreMetrics metrics = mock(BlobStoreMetrics)
+    when(provider.get()).thenReturn(blobStore)
+    when(blobStore.getMetrics()).thenReturn(metrics)
+    when(metrics.getPendingDeletionCount()).thenReturn(3L)
+
+    underTest.create(createConfig('test'))
+
+    assert underTest.pendingDeletionCounts == [test: 3L]
+  }
+
+  @Test
+  void 'Metrics are exposed for BlobStores other than failing ones'() {
+    BlobStore blobStore = mock(BlobStore)
+    BlobStore failingBlobStore = mock(BlobStore)
+    BlobStoreMetrics metrics = mock(BlobStoreMetrics)
+    when(provider.get()).thenReturn(blobStore, failingBlobStore)
+    when(blobStore.getMetrics()).thenReturn(metrics)
+    when(failingBlobStore.getMetrics()).thenThrow(new IllegalStateException('not started'))
+    when(metrics.getBlobCount()).thenReturn(5L)
+
+    underTest.create(createConfig('test'))
+    underTest.create(createConfig('failing'))
+
+    assert underTest.blobCounts == [test: 5L]
+  }
+
   @Test
   void 'Can delete an existing BlobStore'() {
     BlobStoreConfiguration configuration = createConfig('test')
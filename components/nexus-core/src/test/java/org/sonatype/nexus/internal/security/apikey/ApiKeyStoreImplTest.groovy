@@ -17,6 +17,8 @@ import org.sonatype.nexus.crypto.internal.CryptoHelperImpl
 import org.sonatype.nexus.crypto.internal.RandomBytesGeneratorImpl
 import org.sonatype.nexus.orient.DatabaseInstanceRule
 import org.sonatype.nexus.security.UserPrincipalsHelper
+import org.sonatype.nexus.security.authc.apikey.ApiKeyFactory
+import org.sonatype.nexus.security.user.UserNotFoundException
 
 import com.google.common.collect.Maps
 import com.google.inject.util.Providers
@@ -31,6 +33,7 @@ import org.junit.Test
 import static MatcherAssert.assertThat
 import static org.hamcrest.Matchers.equalTo
 import static org.hamcrest.Matchers.nullValue
+import static org.mockito.Mockito.doThrow
 import static org.mockito.Mockito.mock
 
 /**
@@ -42,16 +45,23 @@ class ApiKeyStoreImplTest
   @Rule
   public DatabaseInstanceRule database = new DatabaseInstanceRule('test')
 
+  private UserPrincipalsHelper principalsHelper
+
+  private Map<String, ApiKeyFactory> apiKeyFactories
+
   private ApiKeyStoreImpl underTest
 
   @Before
   void setup() {
+    principalsHelper = mock(UserPrincipalsHelper.class)
+    apiKeyFactories = Maps.newHashMap()
     underTest = new ApiKeyStoreImpl(
         Providers.of(database.instance),
         new ApiKeyEntityAdapter(),
-        mock(UserPrincipalsHelper.class),
-        Maps.newHashMap(),
-        new DefaultApiKeyFactory(new RandomBytesGeneratorImpl(new CryptoHelperImpl()))
+        principalsHelper,
+        apiKeyFactories,
+        new DefaultApiKeyFactory(new RandomBytesGeneratorImpl(new CryptoHelperImpl())),
+        2
     )
     underTest.start()
   }
@@ -114,6 +124,65 @@ class ApiKeyStoreImplTest
     assertThat(principals.primaryPrincipal, equalTo("alpha"))
   }
 
+  @Test
+  void 'Deleted API key no longer resolves'() {
+    PrincipalCollection p = makePrincipals("name")
+    char[] key = underTest.createApiKey('foo', p)
+    assertThat(underTest.getPrincipals('foo', key).primaryPrincipal, equalTo("name"))
+    assertThat(underTest.getApiKey('foo', p), equalTo(key))
+
+    underTest.deleteApiKey('foo', p)
+
+    assertThat(underTest.getPrincipals('foo', key), nullValue())
+    assertThat(underTest.getApiKey('foo', p), nullValue())
+  }
+
+  @Test
+  void 'Unknown API key resolves once created'() {
+    char[] key = 'fixed-key'.toCharArray()
+    apiKeyFactories.put('foo', { PrincipalCollection principals -> key.clone() } as ApiKeyFactory)
+
+    assertThat(underTest.getPrincipals('foo', key), nullValue())
+
+    underTest.createApiKey('foo', makePrincipals("name"))
+
+    assertThat(underTest.getPrincipals('foo', key).primaryPrincipal, equalTo("name"))
+  }
+
+  @Test
+  void 'Callers get their own copy of cached principals'() {
+    char[] key = underTest.createApiKey('foo', makePrincipals("name"))
+
+    PrincipalCollection first = underTest.getPrincipals('foo', key)
+    first.add('intruder', 'bar')
+    PrincipalCollection second = underTest.getPrincipals('foo', key)
+    second.add('intruder', 'bar')
+
+    assertThat(underTest.getPrincipals('foo', key), equalTo(makePrincipals("name")))
+  }
+
+  @Test
+  void 'Purge deletes API keys of missing users across pages'() {
+    Map<String, char[]> keys = [:]
+    ['alpha', 'beta', 'gamma', 'delta', 'epsilon'].each { name ->
+      keys[name] = underTest.createApiKey('foo', makePrincipals(name))
+    }
+    ['beta', 'delta', 'epsilon'].each { name ->
+      doThrow(new UserNotFoundException(name)).when(principalsHelper).getUserStatus(makePrincipals(name))
+    }
+
+    underTest.purgeApiKeys()
+
+    ['alpha', 'gamma'].each { name ->
+      assertThat(underTest.getApiKey('foo', makePrincipals(name)), equalTo(keys[name]))
+      assertThat(underTest.getPrincipals('foo', keys[name]).primaryPrincipal, equalTo(name))
+    }
+    ['beta', 'delta', 'epsilon'].each { name ->
+      assertThat(underTest.getApiKey('foo', makePrincipals(name)), nullValue())
+      assertThat(underTest.getPrincipals('foo', keys[name]), nullValue())
+    }
+  }
+
   private PrincipalCollection makePrincipals(String name) {
     return new SimplePrincipalCollection(name, "foo")
   }
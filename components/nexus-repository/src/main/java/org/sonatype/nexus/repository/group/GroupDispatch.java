@@ -0,0 +1,114 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.group;
+
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * How a group dispatches requests to its members, and the group's limit of concurrent member requests. Dispatch
+ * metrics are kept by {@link GroupMemberDispatcher}, so they survive reconfiguration of the group.
+ *
+ * Whatever the mode, members keep their precedence: the successful response of the first member in member order is
+ * used.
+ *
+ * @since 3.1
+ */
+public class GroupDispatch
+{
+  public enum Mode
+  {
+    /**
+     * Members are asked one after the other, until one responds successfully.
+     */
+    SEQUENTIAL,
+
+    /**
+     * Members are asked all at once.
+     */
+    PARALLEL,
+
+    /**
+     * Members are asked one after the other, but the next member is also asked whenever the previous ones did not
+     * respond within the hedge delay.
+     */
+    HEDGED
+  }
+
+  public static final long DEFAULT_HEDGE_DELAY_MILLIS = 250;
+
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+  private final String groupName;
+
+  private final Mode mode;
+
+  private final long hedgeDelayMillis;
+
+  private final int maxConcurrentRequests;
+
+  private final Semaphore permits;
+
+  public GroupDispatch(final String groupName,
+                       final Mode mode,
+                       final long hedgeDelayMillis,
+                       final int maxConcurrentRequests)
+  {
+    checkArgument(hedgeDelayMillis >= 0, "Negative hedge delay");
+    checkArgument(maxConcurrentRequests > 0, "Concurrent requests must be positive");
+    this.groupName = checkNotNull(groupName);
+    this.mode = checkNotNull(mode);
+    this.hedgeDelayMillis = hedgeDelayMillis;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.permits = new Semaphore(maxConcurrentRequests);
+  }
+
+  public String getGroupName() {
+    return groupName;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public long getHedgeDelayMillis() {
+    return hedgeDelayMillis;
+  }
+
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  /**
+   * Takes a slot for a concurrent member request, if the group has one left.
+   */
+  boolean tryAcquire() {
+    return permits.tryAcquire();
+  }
+
+  void release() {
+    permits.release();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+        "groupName='" + groupName + '\'' +
+        ", mode=" + mode +
+        ", hedgeDelayMillis=" + hedgeDelayMillis +
+        ", maxConcurrentRequests=" + maxConcurrentRequests +
+        '}';
+  }
+}
@@ -37,12 +37,13 @@ public interface GroupFacet
   boolean member(Repository repository);
 
   /**
-   * Return list of (non-transitive) member repositories.
+   * Return list of (non-transitive) member repositories. The returned list is immutable.
    */
   List<Repository> members();
 
   /**
-   * Return the full list of members, including the members of groups, but excluding groups.
+   * Return the full list of members, including the members of groups, but excluding groups. Each member is listed
+   * once. The returned list is immutable.
    */
   List<Repository> leafMembers();
 
@@ -51,4 +52,11 @@ public interface GroupFacet
    */
   void invalidateGroupCaches();
 
+  /**
+   * Returns how requests are dispatched to the members.
+   *
+   * @since 3.1
+   */
+  GroupDispatch dispatch();
+
 }
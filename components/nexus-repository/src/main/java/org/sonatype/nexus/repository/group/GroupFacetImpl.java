@@ -12,7 +12,9 @@
  */
 package org.sonatype.nexus.repository.group;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -22,6 +24,7 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.validation.ConstraintViolation;
+import javax.validation.constraints.Min;
 
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.repository.FacetSupport;
@@ -32,14 +35,20 @@ import org.sonatype.nexus.repository.cache.CacheInfo;
 import org.sonatype.nexus.repository.cache.RepositoryCacheUtils;
 import org.sonatype.nexus.repository.config.Configuration;
 import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.manager.RepositoryCreatedEvent;
+import org.sonatype.nexus.repository.manager.RepositoryDeletedEvent;
 import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.manager.RepositoryUpdatedEvent;
 import org.sonatype.nexus.repository.types.GroupType;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.validation.ConstraintViolationFactory;
 
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -74,10 +83,39 @@ public class GroupFacetImpl
     @JsonDeserialize(as = LinkedHashSet.class) // retain order
     public Set<String> memberNames;
 
+    /**
+     * How requests are dispatched to the members, sequentially if not set.
+     *
+     * @since 3.1
+     */
+    @Nullable
+    public GroupDispatch.Mode dispatchMode;
+
+    /**
+     * How long to wait for a member before also asking the next one, in {@link GroupDispatch.Mode#HEDGED} mode.
+     *
+     * @since 3.1
+     */
+    @Nullable
+    @Min(0)
+    public Long hedgeDelayMillis;
+
+    /**
+     * Maximum number of member requests of this group running concurrently.
+     *
+     * @since 3.1
+     */
+    @Nullable
+    @Min(1)
+    public Integer maxConcurrentRequests;
+
     @Override
     public String toString() {
       return getClass().getSimpleName() + "{" +
           "memberNames=" + memberNames +
+          ", dispatchMode=" + dispatchMode +
+          ", hedgeDelayMillis=" + hedgeDelayMillis +
+          ", maxConcurrentRequests=" + maxConcurrentRequests +
           '}';
     }
   }
@@ -86,6 +124,23 @@ public class GroupFacetImpl
 
   private CacheController cacheController;
 
+  private GroupDispatch dispatch;
+
+  /**
+   * Resolved members, or {@code null} until resolved again after configuration or repository changes.
+   */
+  private volatile List<Repository> members;
+
+  /**
+   * Flattened leaf members, or {@code null} until resolved again after configuration or repository changes.
+   */
+  private volatile List<Repository> leafMembers;
+
+  /**
+   * Incremented on every invalidation, so members resolved concurrently with an invalidation are not kept.
+   */
+  private int generation;
+
   @Inject
   public GroupFacetImpl(final RepositoryManager repositoryManager,
                         final ConstraintViolationFactory constraintViolationFactory,
@@ -138,6 +193,15 @@ public class GroupFacetImpl
 
     cacheController = new CacheController(-1, null);
 
+    dispatch = new GroupDispatch(
+        getRepository().getName(),
+        config.dispatchMode != null ? config.dispatchMode : GroupDispatch.Mode.SEQUENTIAL,
+        config.hedgeDelayMillis != null ? config.hedgeDelayMillis : GroupDispatch.DEFAULT_HEDGE_DELAY_MILLIS,
+        config.maxConcurrentRequests != null ? config.maxConcurrentRequests
+            : GroupDispatch.DEFAULT_MAX_CONCURRENT_REQUESTS);
+
+    invalidateMembers();
+
     log.debug("Config: {}", config);
   }
 
@@ -153,11 +217,50 @@ public class GroupFacetImpl
     }
   }
 
+  @Override
+  protected void doStart() throws Exception {
+    // repository events are not received while stopped
+    invalidateMembers();
+  }
+
   @Override
   protected void doDestroy() throws Exception {
     config = null;
   }
 
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final RepositoryCreatedEvent event) {
+    invalidateMembers();
+  }
+
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final RepositoryUpdatedEvent event) {
+    invalidateMembers();
+  }
+
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final RepositoryDeletedEvent event) {
+    invalidateMembers();
+  }
+
+  /**
+   * Drops the resolved members, as any repository change may affect them: members may appear or disappear, and
+   * nested groups may change their own members.
+   */
+  @VisibleForTesting
+  synchronized void invalidateMembers() {
+    generation++;
+    members = null;
+    leafMembers = null;
+  }
+
+  private synchronized int generation() {
+    return generation;
+  }
+
   @Override
   @Guarded(by = STARTED)
   public boolean member(final String repositoryName) {
@@ -175,9 +278,23 @@ public class GroupFacetImpl
   @Override
   @Guarded(by = STARTED)
   public List<Repository> members() {
+    List<Repository> resolved = members;
+    if (resolved == null) {
+      int resolvedGeneration = generation();
+      resolved = resolveMembers();
+      synchronized (this) {
+        if (resolvedGeneration == generation) {
+          members = resolved;
+        }
+      }
+    }
+    return resolved;
+  }
+
+  private List<Repository> resolveMembers() {
     final Repository repository = getRepository();
 
-    List<Repository> members = new ArrayList<>(config.memberNames.size());
+    List<Repository> resolved = new ArrayList<>(config.memberNames.size());
     for (String name : config.memberNames) {
       Repository member = repositoryManager.get(name);
       if (member == null) {
@@ -188,26 +305,62 @@ public class GroupFacetImpl
             repository.getName(), name, member.getFormat());
       }
       else {
-        members.add(member);
+        resolved.add(member);
       }
     }
-    return members;
+    return ImmutableList.copyOf(resolved);
   }
 
   @Override
   public List<Repository> leafMembers() {
-    List<Repository> leafMembers = new ArrayList<>();
+    List<Repository> resolved = leafMembers;
+    if (resolved == null) {
+      int resolvedGeneration = generation();
+      resolved = resolveLeafMembers();
+      synchronized (this) {
+        if (resolvedGeneration == generation) {
+          leafMembers = resolved;
+        }
+      }
+    }
+    return resolved;
+  }
 
-    for (Repository repository : members()) {
-      if (groupType.equals(repository.getType())) {
-        leafMembers.addAll(repository.facet(GroupFacet.class).leafMembers());
+  /**
+   * Flattens nested groups depth-first, in member order. Each leaf is listed once, at its first occurrence, and
+   * groups already being flattened are skipped, so a cycle introduced behind validation's back cannot recurse forever.
+   */
+  private List<Repository> resolveLeafMembers() {
+    Set<Repository> leaves = new LinkedHashSet<>();
+    Deque<Repository> path = new ArrayDeque<>();
+    path.push(getRepository());
+    flatten(members(), path, leaves);
+    return ImmutableList.copyOf(leaves);
+  }
+
+  private void flatten(final List<Repository> repositories,
+                       final Deque<Repository> path,
+                       final Set<Repository> leaves)
+  {
+    for (Repository repository : repositories) {
+      if (!groupType.equals(repository.getType())) {
+        leaves.add(repository);
+      }
+      else if (path.contains(repository)) {
+        log.warn("Ignoring cyclic member group {} of {}", repository.getName(), path.peek().getName());
       }
       else {
-        leafMembers.add(repository);
+        path.push(repository);
+        flatten(repository.facet(GroupFacet.class).members(), path, leaves);
+        path.pop();
       }
     }
+  }
 
-    return leafMembers;
+  @Override
+  @Guarded(by = STARTED)
+  public GroupDispatch dispatch() {
+    return dispatch;
   }
 
   @Override
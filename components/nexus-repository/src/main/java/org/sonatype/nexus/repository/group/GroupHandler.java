@@ -15,13 +15,17 @@ package org.sonatype.nexus.repository.group;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.sonatype.goodies.common.ComponentSupport;
 import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.group.GroupDispatch.Mode;
 import org.sonatype.nexus.repository.http.HttpResponses;
 import org.sonatype.nexus.repository.view.Context;
 import org.sonatype.nexus.repository.view.Handler;
@@ -29,8 +33,8 @@ import org.sonatype.nexus.repository.view.Request;
 import org.sonatype.nexus.repository.view.Response;
 import org.sonatype.nexus.repository.view.ViewFacet;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
 import static org.sonatype.nexus.repository.http.HttpMethods.GET;
 import static org.sonatype.nexus.repository.http.HttpMethods.HEAD;
@@ -47,14 +51,22 @@ public class GroupHandler
     implements Handler
 {
   /**
-   * Request-context state container for set of repositories already dispatched to.
+   * Request-context state container for set of repositories already dispatched to. Members may be dispatched to
+   * concurrently, see {@link GroupDispatch}.
    */
   protected static class DispatchedRepositories
   {
-    private final Set<String> dispatched = Sets.newHashSet();
+    private final Set<String> dispatched = ConcurrentHashMap.newKeySet();
 
-    public void add(final Repository repository) {
-      dispatched.add(repository.getName());
+    /**
+     * Returns {@code true} if the repository was not already dispatched to.
+     */
+    public boolean add(final Repository repository) {
+      return dispatched.add(repository.getName());
+    }
+
+    void remove(final Repository repository) {
+      dispatched.remove(repository.getName());
     }
 
     public boolean contains(final Repository repository) {
@@ -67,6 +79,13 @@ public class GroupHandler
     }
   }
 
+  private GroupMemberDispatcher memberDispatcher;
+
+  @Inject
+  public void installDependencies(final GroupMemberDispatcher memberDispatcher) {
+    this.memberDispatcher = memberDispatcher;
+  }
+
   @Nonnull
   @Override
   public Response handle(@Nonnull final Context context) throws Exception {
@@ -97,7 +116,7 @@ public class GroupHandler
 
   /**
    * Returns the first OK response from member repositories or {@link HttpResponses#notFound()} if none of the members
-   * responded with OK.
+   * responded with OK. Members are asked as configured by the group's {@link GroupDispatch}.
    */
   protected Response getFirst(@Nonnull final Context context,
                               @Nonnull final List<Repository> members,
@@ -105,6 +124,11 @@ public class GroupHandler
       throws Exception
   {
     final Request request = context.getRequest();
+    final GroupDispatch dispatch = dispatch(context);
+    if (dispatch != null) {
+      Response response = memberDispatcher.first(request, members, dispatched, dispatch);
+      return response != null ? response : notFoundResponse(context);
+    }
     for (Repository member : members) {
       log.trace("Trying member: {}", member);
       // track repositories we have dispatched to, prevent circular dispatch for nested groups
@@ -133,6 +157,10 @@ public class GroupHandler
       throws Exception
   {
     final Request request = context.getRequest();
+    final GroupDispatch dispatch = dispatch(context);
+    if (dispatch != null) {
+      return memberDispatcher.all(request, ImmutableList.copyOf(members), dispatched, dispatch);
+    }
     final LinkedHashMap<Repository, Response> responses = Maps.newLinkedHashMap();
     for (Repository member : members) {
       log.trace("Trying member: {}", member);
@@ -152,6 +180,18 @@ public class GroupHandler
     return responses;
   }
 
+  /**
+   * Returns the group's dispatch configuration if members are to be asked concurrently, otherwise {@code null}.
+   */
+  @Nullable
+  private GroupDispatch dispatch(final Context context) {
+    if (memberDispatcher == null) {
+      return null;
+    }
+    GroupDispatch dispatch = context.getRepository().facet(GroupFacet.class).dispatch();
+    return dispatch.getMode() != Mode.SEQUENTIAL ? dispatch : null;
+  }
+
   /**
    * Returns standard 404 with no message. Override for format specific messaging.
    */
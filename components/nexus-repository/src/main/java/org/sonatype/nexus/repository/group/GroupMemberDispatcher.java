@@ -0,0 +1,470 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.group;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.common.collect.AttributesMap;
+import org.sonatype.nexus.common.event.EventAware;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.jmx.reflect.ManagedAttribute;
+import org.sonatype.nexus.jmx.reflect.ManagedObject;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.group.GroupDispatch.Mode;
+import org.sonatype.nexus.repository.group.GroupHandler.DispatchedRepositories;
+import org.sonatype.nexus.repository.manager.RepositoryDeletedEvent;
+import org.sonatype.nexus.repository.view.Headers;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.nexus.repository.view.ViewFacet;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+/**
+ * Dispatches group requests to members concurrently, on a bounded pool shared by all groups.
+ *
+ * Member requests run as the requesting subject, each on its own copy of the request, as member handlers may modify
+ * request headers and attributes. When the pool or the group's limit of concurrent member requests is
+ * exhausted, members are asked on the calling thread instead. Member requests no longer needed are skipped if they did
+ * not start yet. Running ones are left to complete and counted as wasted, as interrupting them could abort storage
+ * transactions or remote fetches half-way. Responses not returned have their payload closed, if it is
+ * {@link AutoCloseable}.
+ *
+ * @since 3.1
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+@ManagedObject
+public class GroupMemberDispatcher
+    extends LifecycleSupport
+    implements EventAware
+{
+  private static final int POOL_SIZE = SystemPropertiesHelper
+      .getInteger(GroupMemberDispatcher.class.getName() + ".poolSize", 200);
+
+  private final AtomicLong hedgedFetchCount = new AtomicLong();
+
+  private final AtomicLong wastedFetchCount = new AtomicLong();
+
+  private final AtomicLong inlineFetchCount = new AtomicLong();
+
+  /**
+   * Per group counts, by group name.
+   */
+  private final ConcurrentMap<String, AtomicLong> groupHedgedFetchCounts = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, AtomicLong> groupWastedFetchCounts = new ConcurrentHashMap<>();
+
+  private volatile ThreadPoolExecutor threadPool;
+
+  private volatile ListeningExecutorService executor;
+
+  @Override
+  protected void doStart() throws Exception {
+    // direct hand-off, members are asked on the calling thread when the pool is full
+    threadPool = new ThreadPoolExecutor(
+        0,
+        POOL_SIZE,
+        60L,
+        TimeUnit.SECONDS,
+        new SynchronousQueue<>(),
+        new NexusThreadFactory("group", "group-dispatch")
+    );
+    executor = listeningDecorator(NexusExecutorService.forCurrentSubject(threadPool));
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+    executor = null;
+    threadPool = null;
+  }
+
+  @ManagedAttribute(description = "Number of members asked because the previous members were slow to respond")
+  public long getHedgedFetchCount() {
+    return hedgedFetchCount.get();
+  }
+
+  @ManagedAttribute(description = "Number of member requests whose responses were not used")
+  public long getWastedFetchCount() {
+    return wastedFetchCount.get();
+  }
+
+  @ManagedAttribute(description = "Number of member requests run on the calling thread, for lack of capacity")
+  public long getInlineFetchCount() {
+    return inlineFetchCount.get();
+  }
+
+  @ManagedAttribute(description = "Number of members asked because the previous members were slow to respond, by group")
+  public Map<String, Long> getGroupHedgedFetchCounts() {
+    return snapshot(groupHedgedFetchCounts);
+  }
+
+  @ManagedAttribute(description = "Number of member requests whose responses were not used, by group")
+  public Map<String, Long> getGroupWastedFetchCounts() {
+    return snapshot(groupWastedFetchCounts);
+  }
+
+  /**
+   * Number of members of the given group asked because the previous members were slow to respond.
+   */
+  public long getHedgedFetchCount(final String groupName) {
+    AtomicLong count = groupHedgedFetchCounts.get(groupName);
+    return count != null ? count.get() : 0;
+  }
+
+  /**
+   * Number of member requests of the given group whose responses were not used, as a preceding member responded
+   * successfully.
+   */
+  public long getWastedFetchCount(final String groupName) {
+    AtomicLong count = groupWastedFetchCounts.get(groupName);
+    return count != null ? count.get() : 0;
+  }
+
+  @ManagedAttribute(description = "Number of threads asking members")
+  public int getActiveCount() {
+    ThreadPoolExecutor pool = threadPool;
+    return pool != null ? pool.getActiveCount() : 0;
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  public void on(final RepositoryDeletedEvent event) {
+    String name = event.getRepository().getName();
+    groupHedgedFetchCounts.remove(name);
+    groupWastedFetchCounts.remove(name);
+  }
+
+  private static Map<String, Long> snapshot(final Map<String, AtomicLong> counts) {
+    Map<String, Long> snapshot = new TreeMap<>();
+    for (Entry<String, AtomicLong> entry : counts.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().get());
+    }
+    return snapshot;
+  }
+
+  private static void increment(final ConcurrentMap<String, AtomicLong> counts, final String groupName) {
+    counts.computeIfAbsent(groupName, k -> new AtomicLong()).incrementAndGet();
+  }
+
+  /**
+   * Copies the request for a member request run on the pool, so members cannot see each other's changes to headers
+   * or attributes. Attribute values are shared, which keeps the {@link DispatchedRepositories} of the request common.
+   */
+  private static Request copy(final Request request) {
+    Headers headers = new Headers();
+    for (String name : request.getHeaders().names()) {
+      headers.set(name, request.getHeaders().getAll(name));
+    }
+    AttributesMap attributes = new AttributesMap();
+    for (Entry<String, Object> entry : request.getAttributes()) {
+      attributes.set(entry.getKey(), entry.getValue());
+    }
+    return new Request.Builder()
+        .copy(request)
+        .headers(headers)
+        .attributes(attributes)
+        .build();
+  }
+
+  /**
+   * Closes the payload of a response which is not returned, so it does not hold on to its resources.
+   */
+  private void discard(@Nullable final Response response) {
+    Payload payload = response != null ? response.getPayload() : null;
+    if (payload instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) payload).close();
+      }
+      catch (Exception e) {
+        log.debug("Failed to close discarded payload {}", payload, e);
+      }
+    }
+  }
+
+  /**
+   * Returns the first successful response in member order, or {@code null} if no member responded successfully.
+   */
+  @Nullable
+  public Response first(final Request request,
+                        final List<Repository> members,
+                        final DispatchedRepositories dispatched,
+                        final GroupDispatch dispatch)
+      throws Exception
+  {
+    Call call = new Call(request, members, dispatched, dispatch);
+    boolean hedged = dispatch.getMode() == Mode.HEDGED;
+    if (!hedged) {
+      call.launchAll();
+    }
+    int head = 0;
+    try {
+      for (; head < members.size(); head++) {
+        Response response = call.await(head, hedged);
+        if (response != null && response.getStatus().isSuccessful()) {
+          return response;
+        }
+        discard(response);
+      }
+      return null;
+    }
+    finally {
+      call.settle(head);
+    }
+  }
+
+  /**
+   * Returns the responses of all members as a linked map, where order is member order.
+   */
+  public LinkedHashMap<Repository, Response> all(final Request request,
+                                                 final List<Repository> members,
+                                                 final DispatchedRepositories dispatched,
+                                                 final GroupDispatch dispatch)
+      throws Exception
+  {
+    Call call = new Call(request, members, dispatched, dispatch);
+    call.launchAll();
+    int index = 0;
+    LinkedHashMap<Repository, Response> responses = new LinkedHashMap<>();
+    try {
+      for (; index < members.size(); index++) {
+        Response response = call.await(index, false);
+        if (response != null) {
+          responses.put(members.get(index), response);
+        }
+      }
+      return responses;
+    }
+    catch (Exception e) {
+      responses.values().forEach(this::discard);
+      throw e;
+    }
+    finally {
+      call.settle(index);
+    }
+  }
+
+  /**
+   * State of one group request: the member requests launched so far, indexed like the members.
+   */
+  private class Call
+  {
+    private final Request request;
+
+    private final List<Repository> members;
+
+    private final DispatchedRepositories dispatched;
+
+    private final GroupDispatch dispatch;
+
+    private final List<ListenableFuture<Response>> futures;
+
+    /**
+     * Set once the outcome is known, after which member responses are no longer needed.
+     */
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    private Call(final Request request,
+                 final List<Repository> members,
+                 final DispatchedRepositories dispatched,
+                 final GroupDispatch dispatch)
+    {
+      this.request = checkNotNull(request);
+      this.members = checkNotNull(members);
+      this.dispatched = checkNotNull(dispatched);
+      this.dispatch = checkNotNull(dispatch);
+      this.futures = new ArrayList<>(Collections.nCopies(members.size(), null));
+    }
+
+    /**
+     * Asks as many members on the pool as capacity allows, in member order.
+     */
+    private void launchAll() {
+      for (int i = 0; i < members.size() && launch(i); i++) {
+        // launched
+      }
+    }
+
+    /**
+     * Asks the given member on the pool, returning {@code false} if there is no capacity left to do so.
+     */
+    private boolean launch(final int index) {
+      if (futures.get(index) != null) {
+        return true;
+      }
+      ListeningExecutorService pool = executor;
+      if (pool == null || !dispatch.tryAcquire()) {
+        return false;
+      }
+      Repository member = members.get(index);
+      if (!claim(member)) {
+        dispatch.release();
+        futures.set(index, Futures.immediateFuture(null));
+        return true;
+      }
+      Request memberRequest = copy(request);
+      try {
+        futures.set(index, pool.submit(() -> {
+          try {
+            return settled.get() ? null : ask(member, memberRequest);
+          }
+          finally {
+            dispatch.release();
+          }
+        }));
+        return true;
+      }
+      catch (RejectedExecutionException e) {
+        dispatch.release();
+        dispatched.remove(member);
+        return false;
+      }
+    }
+
+    /**
+     * Waits for the response of the given member, asking it on the calling thread if it was not launched, and
+     * hedging with the next members while it is slow to respond.
+     */
+    @Nullable
+    private Response await(final int index, final boolean hedged) throws Exception {
+      if (hedged) {
+        launch(index);
+      }
+      ListenableFuture<Response> future = futures.get(index);
+      if (future == null) {
+        inlineFetchCount.incrementAndGet();
+        Repository member = members.get(index);
+        return claim(member) ? ask(member, request) : null;
+      }
+      try {
+        int next = index + 1;
+        while (hedged) {
+          while (next < members.size() && futures.get(next) != null) {
+            next++;
+          }
+          if (next == members.size()) {
+            break;
+          }
+          try {
+            return future.get(dispatch.getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+          }
+          catch (TimeoutException e) {
+            if (launch(next)) {
+              hedgedFetchCount.incrementAndGet();
+              increment(groupHedgedFetchCounts, dispatch.getGroupName());
+            }
+            next++;
+          }
+        }
+        return future.get();
+      }
+      catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    /**
+     * Records that no responses after the given member are needed. Those received, now or once member requests still
+     * running complete, are counted as wasted and discarded.
+     */
+    private void settle(final int last) {
+      settled.set(true);
+      for (int i = last + 1; i < futures.size(); i++) {
+        ListenableFuture<Response> future = futures.get(i);
+        if (future != null) {
+          future.addListener(() -> {
+            Response response = result(future);
+            if (response != null) {
+              wasted();
+              discard(response);
+            }
+          }, directExecutor());
+        }
+      }
+    }
+
+    @Nullable
+    private Response result(final ListenableFuture<Response> future) {
+      try {
+        return future.get();
+      }
+      catch (Exception e) {
+        return null;
+      }
+    }
+
+    private void wasted() {
+      wastedFetchCount.incrementAndGet();
+      increment(groupWastedFetchCounts, dispatch.getGroupName());
+    }
+
+    /**
+     * Tracks the member as dispatched to, returning {@code false} if it already was, to prevent circular dispatch
+     * for nested groups.
+     */
+    private boolean claim(final Repository member) {
+      if (!dispatched.add(member)) {
+        log.trace("Skipping already dispatched member: {}", member);
+        return false;
+      }
+      return true;
+    }
+
+    private Response ask(final Repository member, final Request memberRequest) throws Exception {
+      log.trace("Trying member: {}", member);
+      Response response = member.facet(ViewFacet.class).dispatch(memberRequest);
+      log.trace("Member {} response {}", member, response.getStatus());
+      return response;
+    }
+  }
+}
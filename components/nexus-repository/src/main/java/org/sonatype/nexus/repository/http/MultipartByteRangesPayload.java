@@ -0,0 +1,168 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Range;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link Payload} that returns several portions of the original payload as a "multipart/byteranges" entity.
+ *
+ * Defined by <a href="https://tools.ietf.org/html/rfc7233#appendix-A">RFC 7233 Appendix A</a>
+ *
+ * @since 3.1
+ */
+class MultipartByteRangesPayload
+    implements Payload
+{
+  private final String boundary = UUID.randomUUID().toString().replace("-", "");
+
+  private final List<Payload> segments = new ArrayList<>();
+
+  private final long size;
+
+  /**
+   * The endpoints of each Range are interpreted as the first and last byte positions to send.
+   */
+  public MultipartByteRangesPayload(final Payload payload, final List<Range<Long>> rangesToSend) {
+    checkNotNull(payload);
+    checkArgument(rangesToSend.size() > 1, "Multiple ranges required");
+
+    for (Range<Long> range : rangesToSend) {
+      StringBuilder header = new StringBuilder()
+          .append("\r\n--").append(boundary).append("\r\n");
+      if (payload.getContentType() != null) {
+        header.append("Content-Type: ").append(payload.getContentType()).append("\r\n");
+      }
+      header.append("Content-Range: bytes ")
+          .append(range.lowerEndpoint()).append('-').append(range.upperEndpoint())
+          .append('/').append(payload.getSize())
+          .append("\r\n\r\n");
+      segments.add(new BytesPayload(header.toString().getBytes(Charsets.US_ASCII), null));
+      segments.add(new PartialPayload(payload, range));
+    }
+    segments.add(new BytesPayload(("\r\n--" + boundary + "--\r\n").getBytes(Charsets.US_ASCII), null));
+
+    long total = 0;
+    for (Payload segment : segments) {
+      total += segment.getSize();
+    }
+    this.size = total;
+  }
+
+  /**
+   * Opens a stream over all parts, opening each part only once the previous one is exhausted.
+   */
+  @Override
+  public InputStream openInputStream() throws IOException {
+    return new SegmentsInputStream(segments.iterator());
+  }
+
+  @Override
+  public long getSize() {
+    return size;
+  }
+
+  @Override
+  public String getContentType() {
+    return "multipart/byteranges; boundary=" + boundary;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+        "segments=" + segments.size() +
+        ", size=" + size +
+        '}';
+  }
+
+  /**
+   * Concatenates the streams of several payloads, opening them lazily.
+   */
+  private static class SegmentsInputStream
+      extends InputStream
+  {
+    private final Iterator<Payload> segments;
+
+    private InputStream current;
+
+    private SegmentsInputStream(final Iterator<Payload> segments) {
+      this.segments = segments;
+    }
+
+    /**
+     * Returns the stream to read from, moving on to the next segment if the current one is exhausted.
+     */
+    @Nullable
+    private InputStream current() throws IOException {
+      if (current == null && segments.hasNext()) {
+        current = segments.next().openInputStream();
+      }
+      return current;
+    }
+
+    private void next() throws IOException {
+      current.close();
+      current = null;
+    }
+
+    @Override
+    public int read() throws IOException {
+      for (InputStream in = current(); in != null; in = current()) {
+        int b = in.read();
+        if (b != -1) {
+          return b;
+        }
+        next();
+      }
+      return -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      for (InputStream in = current(); in != null; in = current()) {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+          return n;
+        }
+        next();
+      }
+      return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (current != null) {
+        next();
+      }
+    }
+  }
+}
@@ -92,7 +92,7 @@ public class PartialFetchHandler
     }
 
     if (ranges.size() > 1) {
-      return HttpResponses.notImplemented("Multiple ranges not supported.");
+      return multipartResponse(response, payload, ranges);
     }
 
     Range<Long> requestedRange = ranges.get(0);
@@ -117,7 +117,24 @@ public class PartialFetchHandler
 
     // ResponseSender takes care of Content-Length header, via payload.size
     builder.header(HttpHeaders.CONTENT_RANGE,
-        requestedRange.lowerEndpoint() + "-" + requestedRange.upperEndpoint() + "/" + payload.getSize());
+        "bytes " + requestedRange.lowerEndpoint() + "-" + requestedRange.upperEndpoint() + "/" + payload.getSize());
+
+    return builder.build();
+  }
+
+  /**
+   * Mutate the response into a "multipart/byteranges" one that returns several parts of the payload.
+   */
+  private Response multipartResponse(final Response response,
+                                     final Payload payload,
+                                     final List<Range<Long>> requestedRanges)
+  {
+    Response.Builder builder = new Response.Builder()
+        .copy(response)
+        .status(Status.success(HttpStatus.PARTIAL_CONTENT));
+
+    // ResponseSender takes care of Content-Type and Content-Length headers, via payload
+    builder.payload(new MultipartByteRangesPayload(payload, requestedRanges));
 
     return builder.build();
   }
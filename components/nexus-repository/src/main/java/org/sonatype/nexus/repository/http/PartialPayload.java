@@ -14,14 +14,18 @@ package org.sonatype.nexus.repository.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 import javax.annotation.Nullable;
 
 import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.payloads.FileBackedPayload;
 
 import com.google.common.collect.Range;
 
 import static com.google.common.io.ByteStreams.limit;
+import static com.google.common.io.ByteStreams.skipFully;
 
 /**
  * A wrapper {@link Payload} that returns only a portion of the original payload.
@@ -29,7 +33,7 @@ import static com.google.common.io.ByteStreams.limit;
  * @since 3.0
  */
 class PartialPayload
-    implements Payload
+    implements FileBackedPayload
 {
   private final Payload payload;
 
@@ -46,13 +50,39 @@ class PartialPayload
     this.partialSize = 1 + rangeToSend.upperEndpoint() - rangeToSend.lowerEndpoint();
   }
 
+  /**
+   * Opens a stream over the range, seeking to its start when the payload is {@link FileBackedPayload file backed} so
+   * that only the range is read, and otherwise skipping over the preceding content.
+   */
   @Override
   public InputStream openInputStream() throws IOException {
+    final FileChannel channel = openFileChannel();
+    if (channel != null) {
+      return limit(Channels.newInputStream(channel), partialSize);
+    }
     final InputStream payloadStream = payload.openInputStream();
-    payloadStream.skip(rangeToSend.lowerEndpoint());
+    try {
+      skipFully(payloadStream, rangeToSend.lowerEndpoint());
+    }
+    catch (IOException e) {
+      payloadStream.close();
+      throw e;
+    }
     return limit(payloadStream, partialSize);
   }
 
+  @Nullable
+  @Override
+  public FileChannel openFileChannel() throws IOException {
+    if (payload instanceof FileBackedPayload) {
+      FileChannel channel = ((FileBackedPayload) payload).openFileChannel();
+      if (channel != null) {
+        return channel.position(channel.position() + rangeToSend.lowerEndpoint());
+      }
+    }
+    return null;
+  }
+
   @Override
   public long getSize() {
     return partialSize;
@@ -12,13 +12,21 @@
  */
 package org.sonatype.nexus.repository.http;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
 
 import static java.util.Collections.singletonList;
 
@@ -36,6 +44,13 @@ class RangeParser
 
   public static final List<Range<Long>> WHOLE_RANGE = Collections.emptyList();
 
+  /**
+   * Maximum number of ranges honored in a single request, more are considered abusive and the complete content is
+   * sent instead.
+   */
+  private static final int MAX_RANGES = SystemPropertiesHelper.getInteger(RangeParser.class.getName() + ".maxRanges",
+      64);
+
   /**
    * Returns a list of {@link Range}s, each indicating a range of byte indices (inclusive).
    *
@@ -43,6 +58,10 @@ class RangeParser
    * Range: bytes=500-999 (from byte 500 to byte 999)
    * Range: bytes=500- (from byte 500 to the end)
    * Range: bytes=-500 (the last 500 bytes, per the RFC)
+   * Range: bytes=0-10,500-999 (multiple ranges, each in any of the forms above)
+   *
+   * Multiple ranges that overlap or are adjacent are coalesced, so the returned ranges are disjoint and in ascending
+   * order; unsatisfiable ones are dropped, unless none of them is satisfiable.
    *
    * @return {@code null} if the requested range cannot be satisfied given the size of the content, or an empty list in
    * the case of parsing errors
@@ -50,33 +69,40 @@ class RangeParser
   public List<Range<Long>> parseRangeSpec(final String rangeHeader, long size) {
     Range<Long> content = Range.closed(0L, size - 1L);
 
-    // TODO: Current limitation: only one Range of bytes supported in forms of "-X", "X-Y" (where X<Y) and "X-".
     if (!Strings.isNullOrEmpty(rangeHeader)) {
       try {
-        if (rangeHeader.startsWith("bytes=") && rangeHeader.length() > 6 && !rangeHeader.contains(",")) {
-          final String rangeSpec = rangeHeader.substring(6, rangeHeader.length());
-          if (rangeSpec.startsWith("-")) {
-            final long byteCount = Long.parseLong(rangeSpec.substring(1));
-            if (byteCount > size) {
-              return UNSATISFIABLE;
-            }
-            final Range<Long> suffix = Range.atLeast(size - byteCount);
-            return ensureSatisfiable(suffix, content);
-          }
-          else if (rangeSpec.endsWith("-")) {
-            final Range<Long> requested = Range.atLeast(Long.parseLong(rangeSpec.substring(0, rangeSpec.length() - 1)));
-            return ensureSatisfiable(requested, content);
+        if (rangeHeader.startsWith("bytes=") && rangeHeader.length() > 6) {
+          final List<String> rangeSpecs = Splitter.on(',').trimResults().splitToList(rangeHeader.substring(6));
+          if (rangeSpecs.size() == 1) {
+            return ensureSatisfiable(parseRange(rangeHeader, rangeSpecs.get(0), size), content);
           }
-          else if (rangeSpec.contains("-")) {
-            final String[] parts = rangeSpec.split("-");
-            return ensureSatisfiable(Range.closed(Long.parseLong(parts[0]), Long.parseLong(parts[1])), content);
+          else if (rangeSpecs.size() > MAX_RANGES) {
+            log.warn("Too many HTTP Ranges: {}; sending complete content", rangeSpecs.size());
           }
           else {
-            log.warn("Malformed HTTP Range value: {}, ignoring it", rangeHeader);
+            final RangeSet<Long> satisfiable = TreeRangeSet.create();
+            for (String rangeSpec : rangeSpecs) {
+              Range<Long> range = parseRange(rangeHeader, rangeSpec, size);
+              if (range == null) {
+                return WHOLE_RANGE;
+              }
+              if (range.isConnected(content)) {
+                satisfiable.add(range.intersection(content).canonical(DiscreteDomain.longs()));
+              }
+            }
+            if (satisfiable.isEmpty()) {
+              return UNSATISFIABLE;
+            }
+            final List<Range<Long>> ranges = new ArrayList<>();
+            for (Range<Long> range : satisfiable.asRanges()) {
+              // canonical ranges are closed-open
+              ranges.add(Range.closed(range.lowerEndpoint(), range.upperEndpoint() - 1));
+            }
+            return ranges;
           }
         }
         else {
-          log.warn("Unsupported non-byte or multiple HTTP Ranges: {}; sending complete content", rangeHeader);
+          log.warn("Unsupported non-byte HTTP Ranges: {}; sending complete content", rangeHeader);
         }
       }
       catch (Exception e) {
@@ -92,7 +118,36 @@ class RangeParser
     return WHOLE_RANGE;
   }
 
-  private List<Range<Long>> ensureSatisfiable(Range<Long> requested, Range<Long> content) {
+  /**
+   * Parses a single byte range spec in forms of "-X", "X-Y" (where X<Y) and "X-".
+   *
+   * @return {@code null} if the spec is malformed
+   */
+  @Nullable
+  private Range<Long> parseRange(final String rangeHeader, final String rangeSpec, final long size) {
+    if (rangeSpec.startsWith("-")) {
+      final long byteCount = Long.parseLong(rangeSpec.substring(1));
+      if (byteCount > size) {
+        // an empty range that is never satisfiable
+        return Range.closedOpen(size, size);
+      }
+      return Range.atLeast(size - byteCount);
+    }
+    else if (rangeSpec.endsWith("-")) {
+      return Range.atLeast(Long.parseLong(rangeSpec.substring(0, rangeSpec.length() - 1)));
+    }
+    else if (rangeSpec.contains("-")) {
+      final String[] parts = rangeSpec.split("-");
+      return Range.closed(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+    }
+    log.warn("Malformed HTTP Range value: {}, ignoring it", rangeHeader);
+    return null;
+  }
+
+  private List<Range<Long>> ensureSatisfiable(@Nullable Range<Long> requested, Range<Long> content) {
+    if (requested == null) {
+      return WHOLE_RANGE;
+    }
     if (requested.isConnected(content)) {
       return singletonList(requested.intersection(content));
     }
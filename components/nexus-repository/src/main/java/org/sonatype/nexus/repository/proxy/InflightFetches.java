@@ -0,0 +1,142 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.proxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.goodies.common.Time;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Registry of in-flight proxy fetches keyed by path, used to coalesce concurrent cache misses so that only a single
+ * request per path goes upstream while the others wait for it to land.
+ *
+ * @since 3.1
+ */
+public class InflightFetches
+    extends ComponentSupport
+{
+  private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+  /**
+   * Joins the in-flight fetch for the given key, starting a new one if none is present. The thread that starts the
+   * fetch becomes its leader (see {@link Flight#isLeader()}) and must {@link Flight#land(boolean)} it when done, or
+   * {@link Flight#handOver() hand it over} to another thread which lands it instead.
+   */
+  public Flight join(final String key) {
+    checkNotNull(key);
+    Flight flight = new Flight(key);
+    Flight current = flights.putIfAbsent(key, flight);
+    if (current != null) {
+      log.debug("Joining in-flight fetch: {}", key);
+      return current;
+    }
+    return flight;
+  }
+
+  /**
+   * Returns the number of fetches currently in-flight.
+   */
+  public int size() {
+    return flights.size();
+  }
+
+  /**
+   * A single in-flight fetch.
+   */
+  public final class Flight
+  {
+    private final String key;
+
+    private volatile Thread leader;
+
+    private volatile boolean handedOver;
+
+    private final CountDownLatch landed = new CountDownLatch(1);
+
+    private volatile boolean succeeded;
+
+    private Flight(final String key) {
+      this.key = key;
+      this.leader = Thread.currentThread();
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * Returns {@code true} if the calling thread is the one performing the upstream fetch.
+     */
+    public boolean isLeader() {
+      return leader == Thread.currentThread();
+    }
+
+    /**
+     * Called by the leader to hand the fetch over to another thread, which must then {@link #takeOver()} and land it.
+     */
+    public void handOver() {
+      checkState(isLeader(), "Only the leader can hand over its fetch of %s", key);
+      handedOver = true;
+    }
+
+    /**
+     * Makes the calling thread the leader of a fetch its previous leader {@link #handOver() handed over}.
+     */
+    public void takeOver() {
+      checkState(handedOver, "Fetch of %s was not handed over", key);
+      handedOver = false;
+      leader = Thread.currentThread();
+    }
+
+    /**
+     * Called by the leader once the fetched content has been stored, or the fetch failed; releases all waiters.
+     */
+    public void land(final boolean succeeded) {
+      checkState(isLeader(), "Only the leader can land its fetch of %s", key);
+      this.succeeded = succeeded;
+      flights.remove(key, this);
+      landed.countDown();
+    }
+
+    /**
+     * Waits up to the given timeout for the leader to land this fetch.
+     *
+     * @return {@code true} if the leader landed successfully in time, otherwise {@code false}
+     */
+    public boolean await(final Time timeout) {
+      checkState(!isLeader(), "Leader can not wait for its own fetch of %s", key);
+      try {
+        return landed.await(timeout.toMillis(), TimeUnit.MILLISECONDS) && succeeded;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + "{" +
+          "key='" + key + '\'' +
+          ", leader=" + leader.getName() +
+          '}';
+    }
+  }
+}
@@ -14,12 +14,21 @@ package org.sonatype.nexus.repository.proxy;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.validation.constraints.NotNull;
 
 import org.sonatype.goodies.common.Time;
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.InvalidContentException;
 import org.sonatype.nexus.repository.cache.CacheController;
@@ -29,12 +38,18 @@ import org.sonatype.nexus.repository.cache.NegativeCacheFacet;
 import org.sonatype.nexus.repository.config.Configuration;
 import org.sonatype.nexus.repository.config.ConfigurationFacet;
 import org.sonatype.nexus.repository.httpclient.HttpClientFacet;
+import org.sonatype.nexus.repository.proxy.InflightFetches.Flight;
+import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Context;
 import org.sonatype.nexus.repository.view.payloads.HttpEntityPayload;
+import org.sonatype.nexus.repository.view.payloads.StreamPayload;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+import org.sonatype.nexus.transaction.UnitOfWork;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.io.Closeables;
 import com.google.common.net.HttpHeaders;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -63,6 +78,26 @@ public abstract class ProxyFacetSupport
   @VisibleForTesting
   static final String CONFIG_KEY = "proxy";
 
+  /**
+   * How long concurrent requests for the same path wait on an in-flight fetch before giving up on it.
+   */
+  private static final Time INFLIGHT_FETCH_TIMEOUT = Time.seconds(SystemPropertiesHelper.getInteger(
+      ProxyFacetSupport.class.getName() + ".inflightFetchTimeout", 60));
+
+  /**
+   * Minimum upstream content length (in bytes) for which fetched content is streamed to the client while it is being
+   * stored, instead of being stored first; negative disables streaming.
+   */
+  private static final long STREAMING_FETCH_THRESHOLD = SystemPropertiesHelper.getLong(
+      ProxyFacetSupport.class.getName() + ".streamingFetchThreshold", -1);
+
+  /**
+   * Maximum number of fetches per repository stored in the background while being streamed; further fetches are
+   * stored before being served.
+   */
+  private static final int STREAMING_POOL_SIZE = SystemPropertiesHelper.getInteger(
+      ProxyFacetSupport.class.getName() + ".streamingPoolSize", 20);
+
   @VisibleForTesting
   static class Config
   {
@@ -98,6 +133,19 @@ public abstract class ProxyFacetSupport
 
   protected CacheControllerHolder cacheControllerHolder;
 
+  protected final InflightFetches inflightFetches = new InflightFetches();
+
+  private ApplicationDirectories applicationDirectories;
+
+  private Path spoolDirectory;
+
+  private ThreadPoolExecutor streamingExecutor;
+
+  @Inject
+  public void installProxyDependencies(final ApplicationDirectories applicationDirectories) {
+    this.applicationDirectories = checkNotNull(applicationDirectories);
+  }
+
   @Override
   protected void doValidate(final Configuration configuration) throws Exception {
     facet(ConfigurationFacet.class).validateSection(configuration, CONFIG_KEY, Config.class);
@@ -137,6 +185,21 @@ public abstract class ProxyFacetSupport
   protected void doStart() throws Exception {
     httpClient = facet(HttpClientFacet.class);
 
+    if (STREAMING_FETCH_THRESHOLD >= 0) {
+      spoolDirectory = applicationDirectories.getTemporaryDirectory().toPath().resolve("proxy-spool");
+      Files.createDirectories(spoolDirectory);
+
+      // direct hand-off, content is stored before being served when the pool is full
+      streamingExecutor = new ThreadPoolExecutor(
+          0,
+          STREAMING_POOL_SIZE,
+          60L,
+          TimeUnit.SECONDS,
+          new SynchronousQueue<>(),
+          new NexusThreadFactory("proxy-stream", getRepository().getName())
+      );
+    }
+
     if (remoteUrlChanged) {
       remoteUrlChanged = false;
 
@@ -147,6 +210,15 @@ public abstract class ProxyFacetSupport
   @Override
   protected void doStop() throws Exception {
     httpClient = null;
+
+    if (streamingExecutor != null) {
+      // let background stores complete, so their fetches land and their spools are removed
+      streamingExecutor.shutdown();
+      if (!streamingExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+        log.warn("Timed out waiting for streaming fetches of {} to be stored", getRepository().getName());
+      }
+      streamingExecutor = null;
+    }
   }
 
   public URI getRemoteUrl() {
@@ -160,20 +232,114 @@ public abstract class ProxyFacetSupport
     final Content content = getCachedContent(context);
 
     if (isStale(context, content)) {
+      final Flight flight = inflightFetches.join(getUrl(context));
+      if (!flight.isLeader()) {
+        if (flight.await(INFLIGHT_FETCH_TIMEOUT)) {
+          // leader has stored (or verified) the content, serve it from cache
+          return getCachedContent(context);
+        }
+        if (content != null) {
+          log.debug("In-flight fetch of {} did not land, serving stale content", flight.getKey());
+          return content;
+        }
+        log.debug("In-flight fetch of {} did not land, fetching independently", flight.getKey());
+      }
+      boolean succeeded = false;
+      boolean handedOver = false;
       try {
         final Content remote = fetch(context, content);
-        if (remote != null) {
-          return store(context, remote);
+        if (remote != null && isStreaming(remote)) {
+          final Content streaming = storeStreaming(context, remote, flight.isLeader() ? flight : null);
+          handedOver = true;
+          return streaming;
         }
+        final Content result = remote != null ? store(context, remote) : content;
+        succeeded = true;
+        return result;
       }
       catch (ProxyServiceException | IOException e) {
         log.warn("Failed to fetch: {}", getUrl(context), e);
         throw e;
       }
+      finally {
+        if (flight.isLeader() && !handedOver) {
+          flight.land(succeeded);
+        }
+      }
     }
     return content;
   }
 
+  private boolean isStreaming(final Content remote) {
+    return streamingExecutor != null && (remote.getSize() < 0 || remote.getSize() >= STREAMING_FETCH_THRESHOLD);
+  }
+
+  /**
+   * Stores fetched content in the background while the returned content streams it to the client as it arrives.
+   * Upstream is read once: the store consumes it and tees it into a spool the client tails. The client only sees the
+   * end of the stream once the content was successfully stored (and validated); if the store fails, the client gets
+   * an I/O error instead of truncated content. When no background thread is available the content is stored on the
+   * calling thread first, and then served from the spool.
+   */
+  private Content storeStreaming(final Context context, final Content remote, @Nullable final Flight flight)
+      throws IOException
+  {
+    final StreamingSpool spool = new StreamingSpool(remote.openInputStream(), spoolDirectory);
+
+    final Content source = new Content(new StreamPayload(spool::source, remote.getSize(), remote.getContentType()));
+    source.getAttributes().backing().putAll(remote.getAttributes().backing());
+
+    final Content tail = new Content(new StreamPayload(spool::tail, remote.getSize(), remote.getContentType()));
+    tail.getAttributes().backing().putAll(remote.getAttributes().backing());
+
+    final StorageFacet storageFacet = facet(StorageFacet.class);
+    if (flight != null) {
+      flight.handOver();
+    }
+    try {
+      streamingExecutor.execute(() -> {
+        UnitOfWork.begin(storageFacet.txSupplier());
+        try {
+          storeSpooled(context, source, spool, flight);
+        }
+        finally {
+          UnitOfWork.end();
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      log.debug("No thread to store {} in the background, storing it first", getUrl(context));
+      storeSpooled(context, source, spool, flight);
+    }
+
+    return tail;
+  }
+
+  private void storeSpooled(final Context context,
+                            final Content source,
+                            final StreamingSpool spool,
+                            @Nullable final Flight flight)
+  {
+    if (flight != null) {
+      flight.takeOver();
+    }
+    boolean succeeded = false;
+    try {
+      spool.finish(store(context, source));
+      succeeded = true;
+    }
+    catch (Exception e) {
+      log.warn("Failed to store: {}", getUrl(context), e);
+      spool.fail(e);
+    }
+    finally {
+      Closeables.closeQuietly(spool.source());
+      if (flight != null) {
+        flight.land(succeeded);
+      }
+    }
+  }
+
   @Override
   public void invalidateProxyCaches() {
     log.info("Invalidating proxy caches of {}", getRepository().getName());
@@ -0,0 +1,270 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.proxy;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.view.Payload;
+
+import com.google.common.io.Closeables;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Tees an upstream stream to a spool file while it is being consumed (usually by the blob store), and lets any number
+ * of clients tail the spool concurrently, so they receive bytes as soon as they arrive from upstream.
+ *
+ * Tailing clients only see the end of the stream once the consumer has {@link #finish(Payload) finished}
+ * successfully, ie. once the content has been stored and validated; if the consumer {@link #fail(Throwable) fails}
+ * they receive an {@link IOException} instead. The spool file is removed once the source and all tails are closed;
+ * tails opened after that are served from the stored payload.
+ *
+ * @since 3.1
+ */
+class StreamingSpool
+    extends ComponentSupport
+{
+  private final Object lock = new Object();
+
+  private final InputStream upstream;
+
+  private final Path spoolFile;
+
+  private final OutputStream spool;
+
+  private final InputStream source;
+
+  // guarded by lock
+
+  private long written;
+
+  private boolean done;
+
+  private Payload stored;
+
+  private Throwable failure;
+
+  private int references = 1; // the source
+
+  private boolean deleted;
+
+  /**
+   * @param directory where to create the spool file, usually below the application temporary directory
+   */
+  StreamingSpool(final InputStream upstream, final Path directory) throws IOException {
+    this.upstream = checkNotNull(upstream);
+    this.spoolFile = Files.createTempFile(checkNotNull(directory), "proxy-", ".spool");
+    this.spool = Files.newOutputStream(spoolFile);
+    this.source = new Source();
+  }
+
+  /**
+   * Returns the (single) source stream, reading from upstream and appending everything read to the spool. Closing it
+   * is idempotent, and must be done by the consumer once it is done with it.
+   */
+  InputStream source() {
+    return source;
+  }
+
+  /**
+   * Returns a new stream tailing the spool from the beginning.
+   */
+  InputStream tail() throws IOException {
+    synchronized (lock) {
+      if (deleted) {
+        if (stored != null) {
+          return stored.openInputStream();
+        }
+        throw new IOException("Streaming fetch failed", failure);
+      }
+      references++;
+    }
+    try {
+      return new Tail(FileChannel.open(spoolFile, StandardOpenOption.READ));
+    }
+    catch (IOException e) {
+      release();
+      throw e;
+    }
+  }
+
+  /**
+   * Marks the spool complete, releasing tails to read up to the end.
+   */
+  void finish(final Payload stored) {
+    synchronized (lock) {
+      checkState(!done);
+      this.stored = checkNotNull(stored);
+      this.done = true;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Marks the spool failed, tails will throw once they have read all spooled bytes.
+   */
+  void fail(@Nullable final Throwable failure) {
+    synchronized (lock) {
+      checkState(!done);
+      this.failure = failure;
+      this.done = true;
+      lock.notifyAll();
+    }
+  }
+
+  private void release() {
+    synchronized (lock) {
+      if (--references > 0) {
+        return;
+      }
+      deleted = true;
+    }
+    try {
+      Files.deleteIfExists(spoolFile);
+    }
+    catch (IOException e) {
+      log.warn("Unable to delete spool file {}", spoolFile, e);
+    }
+  }
+
+  private class Source
+      extends FilterInputStream
+  {
+    private boolean closed;
+
+    private Source() {
+      super(upstream);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        spool.write(b, off, n);
+        synchronized (lock) {
+          written += n;
+          lock.notifyAll();
+        }
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      throw new IOException("skip not supported");
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        try {
+          Closeables.close(upstream, true);
+          spool.close();
+        }
+        finally {
+          release();
+        }
+      }
+    }
+  }
+
+  private class Tail
+      extends InputStream
+  {
+    private final FileChannel channel;
+
+    private long position;
+
+    private boolean closed;
+
+    private Tail(final FileChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      long available;
+      synchronized (lock) {
+        while (position >= written && !done) {
+          try {
+            lock.wait();
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for upstream", e);
+          }
+        }
+        if (position >= written) {
+          if (stored != null) {
+            return -1;
+          }
+          throw new IOException("Streaming fetch failed", failure);
+        }
+        available = written - position;
+      }
+      int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available)), position);
+      if (n > 0) {
+        position += n;
+      }
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        try {
+          channel.close();
+        }
+        finally {
+          release();
+        }
+      }
+    }
+  }
+}
@@ -29,4 +29,13 @@ public interface PurgeUnusedFacet
    * @param numberOfDays number of days from the moment the method is invoked. Must be > 0.
    */
   void purgeUnused(int numberOfDays);
+
+  /**
+   * Find & delete components and assets that were not used/accessed for a number of days, reporting progress to the
+   * given metrics. A purge that did not complete resumes where it stopped, if invoked again on the same day.
+   *
+   * @param numberOfDays number of days from the moment the method is invoked. Must be > 0.
+   * @since 3.1
+   */
+  void purgeUnused(int numberOfDays, PurgeUnusedMetrics metrics);
 }
@@ -12,39 +12,62 @@
  */
 package org.sonatype.nexus.repository.purge;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.common.entity.EntityHelper;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.stateguard.Guarded;
-import org.sonatype.nexus.orient.entity.AttachedEntityHelper;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.Component;
-import org.sonatype.nexus.repository.storage.ComponentEntityAdapter;
 import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.storage.StorageTx;
-import org.sonatype.nexus.transaction.Transactional;
+import org.sonatype.nexus.scheduling.CancelableHelper;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.orientechnologies.common.concur.ONeedRetryException;
 import org.joda.time.DateTime;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.sonatype.nexus.repository.FacetSupport.State.STARTED;
-import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_COMPONENT;
 import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_LAST_ACCESSED;
-import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_BUCKET;
+import static org.sonatype.nexus.transaction.Operations.transactional;
 
 /**
  * {@link PurgeUnusedFacet} implementation.
  *
+ * Candidate assets are paged through in order of last access, using the bucket/last accessed index, and each page is
+ * purged in its own transaction. The position reached is checkpointed in the bucket attributes, so a purge that was
+ * canceled or did not complete resumes from there when run again for the same cut-off date.
+ *
  * @since 3.0
  */
 @Named
@@ -52,86 +75,350 @@ public class PurgeUnusedFacetImpl
     extends FacetSupport
     implements PurgeUnusedFacet
 {
-  private final ComponentEntityAdapter componentEntityAdapter;
+  /**
+   * Maximum number of candidate assets purged per transaction.
+   */
+  private static final int BATCH_SIZE = SystemPropertiesHelper
+      .getInteger(PurgeUnusedFacetImpl.class.getName() + ".batchSize", 500);
+
+  /**
+   * Number of last accessed ranges purged concurrently.
+   */
+  private static final int PARTITIONS = SystemPropertiesHelper
+      .getInteger(PurgeUnusedFacetImpl.class.getName() + ".partitions", 1);
+
+  @VisibleForTesting
+  static final String P_CHECKPOINT = "purgeUnused";
+
+  private static final String P_OLDER_THAN = "olderThan";
+
+  private static final String P_FROM = "from";
+
+  private static final String P_TO = "to";
+
+  private final int batchSize;
+
+  private final int partitions;
 
   @Inject
-  public PurgeUnusedFacetImpl(final ComponentEntityAdapter componentEntityAdapter)
-  {
-    this.componentEntityAdapter = checkNotNull(componentEntityAdapter);
+  public PurgeUnusedFacetImpl() {
+    this(BATCH_SIZE, PARTITIONS);
+  }
+
+  @VisibleForTesting
+  PurgeUnusedFacetImpl(final int batchSize, final int partitions) {
+    checkArgument(batchSize > 0, "Batch size must be greater then zero");
+    checkArgument(partitions > 0, "Number of partitions must be greater then zero");
+    this.batchSize = batchSize;
+    this.partitions = partitions;
   }
 
   @Override
   @Guarded(by = STARTED)
   public void purgeUnused(final int numberOfDays) {
+    purgeUnused(numberOfDays, new PurgeUnusedMetrics());
+  }
+
+  @Override
+  @Guarded(by = STARTED)
+  public void purgeUnused(final int numberOfDays, final PurgeUnusedMetrics metrics) {
     checkArgument(numberOfDays > 0, "Number of days must be greater then zero");
+    checkNotNull(metrics);
     log.info("Purging unused components from repository {}", getRepository().getName());
 
     Date olderThan = DateTime.now().minusDays(numberOfDays).withTimeAtStartOfDay().toDate();
 
+    // persist pending access times first, so recently used components are not purged
+    facet(StorageFacet.class).flushAccessed();
+
+    List<Partition> ranges;
+    UnitOfWork.beginBatch(facet(StorageFacet.class).txSupplier());
+    try {
+      ranges = startOrResume(olderThan, metrics);
+    }
+    finally {
+      UnitOfWork.end();
+    }
+
+    if (ranges.size() == 1) {
+      purge(ranges.get(0), metrics, true);
+    }
+    else if (!ranges.isEmpty()) {
+      purgeConcurrently(ranges, metrics);
+    }
+
     UnitOfWork.beginBatch(facet(StorageFacet.class).txSupplier());
     try {
-      deleteUnusedComponents(olderThan);
-      deleteUnusedAssets(olderThan);
+      updateCheckpoint(NestedAttributesMap::clear);
     }
     finally {
       UnitOfWork.end();
     }
+    log.info("Purged unused components from repository {}: {}", getRepository().getName(), metrics);
   }
 
   /**
-   * Delete all unused components.
+   * Returns the ranges of last accessed times left to purge, resuming those of a checkpoint for the same cut-off date.
    */
-  @Transactional
-  protected void deleteUnusedComponents(final Date olderThan) {
-    StorageTx tx = UnitOfWork.currentTx();
+  private List<Partition> startOrResume(final Date olderThan, final PurgeUnusedMetrics metrics) {
+    List<Partition> ranges = new ArrayList<>();
+    NestedAttributesMap checkpoint = transactional().call(
+        () -> UnitOfWork.currentTx().findBucket(getRepository()).attributes().child(P_CHECKPOINT));
+
+    if (olderThan.equals(checkpoint.get(P_OLDER_THAN, Date.class))) {
+      for (String key : checkpoint.keys()) {
+        if (!P_OLDER_THAN.equals(key)) {
+          NestedAttributesMap range = checkpoint.child(key);
+          Date from = range.get(P_FROM, Date.class);
+          Date to = range.get(P_TO, Date.class);
+          if (from.before(to)) {
+            ranges.add(new Partition(key, from, to, olderThan));
+          }
+        }
+      }
+      log.info("Resuming purge of unused components from repository {}", getRepository().getName());
+    }
+    else {
+      Date first = transactional().call(() -> {
+        Asset asset = Iterables.getFirst(UnitOfWork.currentTx().findAssets(
+            P_LAST_ACCESSED + " < :to", ImmutableMap.of("to", olderThan), ImmutableList.of(getRepository()),
+            "ORDER BY " + P_LAST_ACCESSED + " LIMIT 1"), null);
+        return asset != null ? asset.lastAccessed().toDate() : null;
+      });
+      if (first != null) {
+        long step = Math.max(1, (olderThan.getTime() - first.getTime()) / partitions);
+        for (int i = 0; i < partitions; i++) {
+          Date from = new Date(first.getTime() + i * step);
+          Date to = i == partitions - 1 ? olderThan : new Date(first.getTime() + (i + 1) * step);
+          if (from.before(to)) {
+            ranges.add(new Partition(Integer.toString(i), from, to, olderThan));
+          }
+        }
+      }
+      updateCheckpoint(attributes -> {
+        attributes.clear();
+        attributes.set(P_OLDER_THAN, olderThan);
+        for (Partition range : ranges) {
+          NestedAttributesMap child = attributes.child(range.key);
+          child.set(P_FROM, range.from);
+          child.set(P_TO, range.to);
+        }
+      });
+    }
+
+    for (Partition range : ranges) {
+      metrics.candidates(transactional().call(() -> UnitOfWork.currentTx().countAssets(
+          P_LAST_ACCESSED + " >= :from AND " + P_LAST_ACCESSED + " < :to",
+          ImmutableMap.of("from", range.from, "to", range.to), ImmutableList.of(getRepository()), null)));
+    }
+    return ranges;
+  }
+
+  /**
+   * Purges the given ranges on a pool of threads, canceling them all when the task is canceled or one of them fails.
+   */
+  private void purgeConcurrently(final List<Partition> ranges, final PurgeUnusedMetrics metrics) {
+    ExecutorService executor = NexusExecutorService.forCurrentSubject(Executors.newFixedThreadPool(ranges.size(),
+        new NexusThreadFactory("purge-unused", getRepository().getName())));
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Partition range : ranges) {
+        futures.add(executor.submit(() -> purge(range, metrics, false)));
+      }
+      try {
+        for (Future<?> future : futures) {
+          while (true) {
+            try {
+              future.get(1, TimeUnit.SECONDS);
+              break;
+            }
+            catch (TimeoutException e) {
+              CancelableHelper.checkCancellation();
+            }
+          }
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw Throwables.propagate(e);
+      }
+      catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+      finally {
+        ranges.forEach(range -> range.stopped = true);
+      }
+    }
+    finally {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
 
-    for (Component component : findUnusedComponents(tx, olderThan)) {
-      log.debug("Deleting unused component {}", component);
-      tx.deleteComponent(component); // TODO: commit in batches
+  /**
+   * Purges the given range page by page, checkpointing the position reached after each page.
+   */
+  private void purge(final Partition range, final PurgeUnusedMetrics metrics, final boolean cancelable) {
+    UnitOfWork.beginBatch(facet(StorageFacet.class).txSupplier());
+    try {
+      boolean done = false;
+      while (!done && !range.stopped) {
+        if (cancelable) {
+          CancelableHelper.checkCancellation();
+        }
+        Page page = transactional().retryOn(ONeedRetryException.class).call(() -> purgePage(range));
+        metrics.purged(page.examined, page.purgedComponents, page.purgedAssets);
+        done = page.last;
+        Date from = done ? range.to : range.advance(page);
+        updateCheckpoint(checkpoint -> checkpoint.child(range.key).set(P_FROM, from));
+      }
+    }
+    finally {
+      UnitOfWork.end();
     }
   }
 
   /**
-   * Delete all unused assets.
+   * Purges the next page of candidate assets of the given range. Orphan assets are deleted, as are components whose
+   * assets were all last accessed before the cut-off date. Assets of components still in use are kept.
    */
-  @Transactional
-  protected void deleteUnusedAssets(final Date olderThan) {
+  private Page purgePage(final Partition range) {
     StorageTx tx = UnitOfWork.currentTx();
+    Bucket bucket = tx.findBucket(getRepository());
+    int limit = batchSize + range.kept.size();
+    Iterable<Asset> assets = tx.findAssets(
+        P_LAST_ACCESSED + " >= :from AND " + P_LAST_ACCESSED + " < :to",
+        ImmutableMap.of("from", range.from, "to", range.to), ImmutableList.of(getRepository()),
+        "ORDER BY " + P_LAST_ACCESSED + " LIMIT " + limit);
+
+    Page page = new Page();
+    // whether each component seen in this page was deleted
+    Map<EntityId, Boolean> components = new HashMap<>();
+    int count = 0;
+    for (Asset asset : assets) {
+      count++;
+      EntityId assetId = EntityHelper.id(asset);
+      if (range.kept.contains(assetId)) {
+        continue;
+      }
+      page.examined++;
+      page.lastAccessed = asset.lastAccessed().toDate();
+
+      EntityId componentId = asset.componentId();
+      if (componentId == null) {
+        log.debug("Deleting unused asset {}", asset);
+        tx.deleteAsset(asset);
+        page.purgedAssets++;
+        continue;
+      }
+      Boolean deleted = components.get(componentId);
+      if (deleted == null) {
+        Component component = tx.findComponent(componentId, bucket);
+        deleted = component != null && deleteIfUnused(tx, component, range.olderThan, page);
+        components.put(componentId, deleted);
+      }
+      if (!deleted) {
+        page.kept.put(assetId, page.lastAccessed);
+      }
+    }
+    page.last = count < limit;
+    return page;
+  }
 
-    for (Asset asset : findUnusedAssets(tx, olderThan)) {
-      log.debug("Deleting unused asset {}", asset);
-      tx.deleteAsset(asset); // TODO: commit in batches
+  /**
+   * Deletes the given component if all its assets were last accessed before the cut-off date.
+   */
+  private boolean deleteIfUnused(final StorageTx tx, final Component component, final Date olderThan, final Page page) {
+    int assetCount = 0;
+    for (Asset asset : tx.browseAssets(component)) {
+      DateTime lastAccessed = asset.lastAccessed();
+      if (lastAccessed != null && !lastAccessed.toDate().before(olderThan)) {
+        return false;
+      }
+      assetCount++;
     }
+    log.debug("Deleting unused component {}", component);
+    tx.deleteComponent(component);
+    page.purgedComponents++;
+    page.purgedAssets += assetCount;
+    return true;
+  }
+
+  private void updateCheckpoint(final Consumer<NestedAttributesMap> update) {
+    transactional().retryOn(ONeedRetryException.class).call(() -> {
+      StorageTx tx = UnitOfWork.currentTx();
+      Bucket bucket = tx.findBucket(getRepository());
+      update.accept(bucket.attributes().child(P_CHECKPOINT));
+      tx.saveBucket(bucket);
+      return null;
+    });
   }
 
   /**
-   * Find all components that were last accessed before specified date. Date when a component was last accessed is the
-   * last time an asset of that component was last accessed.
+   * Range of last accessed times, from inclusive to exclusive, purged by one thread.
    */
-  private Iterable<Component> findUnusedComponents(final StorageTx tx, final Date olderThan) {
-    final Bucket bucket = tx.findBucket(getRepository());
+  private static class Partition
+  {
+    private final String key;
+
+    private final Date to;
+
+    private final Date olderThan;
 
-    String sql = String.format(
-        "SELECT FROM (SELECT %s, MAX(%s) AS lastAccessed FROM asset WHERE %s=:bucket AND %s IS NOT NULL GROUP BY %s) WHERE lastAccessed < :olderThan",
-        P_COMPONENT, P_LAST_ACCESSED, P_BUCKET, P_COMPONENT, P_COMPONENT
-    );
+    private Date from;
 
-    Map<String, Object> sqlParams = ImmutableMap.of(
-        "bucket", AttachedEntityHelper.id(bucket),
-        "olderThan", olderThan
-    );
+    /**
+     * Kept assets last accessed at {@link #from}, which the next page skips.
+     */
+    private final Set<EntityId> kept = new HashSet<>();
 
-    return Iterables.transform(tx.browse(sql, sqlParams),
-        (doc) -> componentEntityAdapter.readEntity(doc.field(P_COMPONENT)));
+    private volatile boolean stopped;
+
+    private Partition(final String key, final Date from, final Date to, final Date olderThan) {
+      this.key = checkNotNull(key);
+      this.from = checkNotNull(from);
+      this.to = checkNotNull(to);
+      this.olderThan = checkNotNull(olderThan);
+    }
+
+    /**
+     * Moves past the given committed page, returning the new start of the range.
+     */
+    private Date advance(final Page page) {
+      if (page.lastAccessed != null && page.lastAccessed.after(from)) {
+        from = page.lastAccessed;
+        kept.clear();
+      }
+      page.kept.forEach((assetId, lastAccessed) -> {
+        if (lastAccessed.equals(from)) {
+          kept.add(assetId);
+        }
+      });
+      return from;
+    }
   }
 
   /**
-   * Find all assets without component that were last accessed before specified date.
+   * Outcome of purging one page of candidate assets.
    */
-  private Iterable<Asset> findUnusedAssets(final StorageTx tx, final Date olderThan) {
-    String whereClause = String.format("%s IS NULL AND %s < :olderThan", P_COMPONENT, P_LAST_ACCESSED);
-    Map<String, Object> sqlParams = ImmutableMap.of("olderThan", olderThan);
+  private static class Page
+  {
+    private final Map<EntityId, Date> kept = new HashMap<>();
+
+    @Nullable
+    private Date lastAccessed;
+
+    private long examined;
+
+    private long purgedComponents;
+
+    private long purgedAssets;
 
-    return tx.findAssets(whereClause, sqlParams, ImmutableList.of(getRepository()), null);
+    private boolean last;
   }
 }
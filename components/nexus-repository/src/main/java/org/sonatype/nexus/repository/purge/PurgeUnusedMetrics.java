@@ -0,0 +1,99 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.purge;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Progress of purging unused components and assets, updated as pages of candidate assets are purged.
+ *
+ * @since 3.1
+ */
+public class PurgeUnusedMetrics
+{
+  private final long startNanos = System.nanoTime();
+
+  /**
+   * Told after each purged page, possibly by several threads at once.
+   */
+  @Nullable
+  private final Runnable listener;
+
+  private final AtomicLong candidateCount = new AtomicLong();
+
+  private final AtomicLong examinedCount = new AtomicLong();
+
+  private final AtomicLong purgedComponentCount = new AtomicLong();
+
+  private final AtomicLong purgedAssetCount = new AtomicLong();
+
+  public PurgeUnusedMetrics() {
+    this(null);
+  }
+
+  public PurgeUnusedMetrics(@Nullable final Runnable listener) {
+    this.listener = listener;
+  }
+
+  void candidates(final long count) {
+    candidateCount.addAndGet(count);
+  }
+
+  void purged(final long examined, final long components, final long assets) {
+    examinedCount.addAndGet(examined);
+    purgedComponentCount.addAndGet(components);
+    purgedAssetCount.addAndGet(assets);
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Number of candidate assets examined, whether purged or not.
+   */
+  public long getExaminedCount() {
+    return examinedCount.get();
+  }
+
+  /**
+   * Estimated number of candidate assets still to be examined.
+   */
+  public long getRemainingCount() {
+    return Math.max(0, candidateCount.get() - examinedCount.get());
+  }
+
+  public long getPurgedComponentCount() {
+    return purgedComponentCount.get();
+  }
+
+  public long getPurgedAssetCount() {
+    return purgedAssetCount.get();
+  }
+
+  /**
+   * Number of candidate assets examined per second.
+   */
+  public double getThroughput() {
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    return elapsedMillis > 0 ? examinedCount.get() * 1000.0 / elapsedMillis : 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("purged %d components and %d assets, examined %d, remaining %d, %.1f/s",
+        getPurgedComponentCount(), getPurgedAssetCount(), getExaminedCount(), getRemainingCount(), getThroughput());
+  }
+}
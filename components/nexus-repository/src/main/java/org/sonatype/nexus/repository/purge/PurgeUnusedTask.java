@@ -28,9 +28,21 @@ public class PurgeUnusedTask
 {
   public static final String LAST_USED_FIELD_ID = "lastUsed";
 
+  private final PurgeUnusedMetrics metrics = new PurgeUnusedMetrics(this::progress);
+
   @Override
   protected void execute(final Repository repository) {
-    repository.facet(PurgeUnusedFacet.class).purgeUnused(getConfiguration().getInteger(LAST_USED_FIELD_ID, -1));
+    repository.facet(PurgeUnusedFacet.class)
+        .purgeUnused(getConfiguration().getInteger(LAST_USED_FIELD_ID, -1), metrics);
+  }
+
+  /**
+   * Progress of the purge, across all repositories the task applies to.
+   *
+   * @since 3.1
+   */
+  public PurgeUnusedMetrics getMetrics() {
+    return metrics;
   }
 
   @Override
@@ -38,8 +50,21 @@ public class PurgeUnusedTask
     return repository.optionalFacet(PurgeUnusedFacet.class).isPresent();
   }
 
+  /**
+   * Reports the progress of the purge in the task message, once candidate assets have been examined.
+   */
   @Override
   public String getMessage() {
-    return "Purge unused components and assets from " + getRepositoryField();
+    String message = "Purge unused components and assets from " + getRepositoryField();
+    return metrics.getExaminedCount() > 0 ? message + ": " + metrics : message;
+  }
+
+  /**
+   * Updates the task message after each purged page.
+   */
+  private synchronized void progress() {
+    String message = getMessage();
+    getConfiguration().setMessage(message);
+    log.debug("{}", message);
   }
 }
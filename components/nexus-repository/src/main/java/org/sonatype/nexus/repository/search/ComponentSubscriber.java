@@ -13,6 +13,7 @@
 package org.sonatype.nexus.repository.search;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -24,15 +25,11 @@ import org.sonatype.nexus.common.event.EventAware;
 import org.sonatype.nexus.common.event.EventAware.Asynchronous;
 import org.sonatype.nexus.orient.entity.EntityBatchEvent;
 import org.sonatype.nexus.orient.entity.EntityEvent;
-import org.sonatype.nexus.repository.Repository;
-import org.sonatype.nexus.repository.manager.RepositoryManager;
 import org.sonatype.nexus.repository.storage.AssetEvent;
 import org.sonatype.nexus.repository.storage.ComponentDeletedEvent;
 import org.sonatype.nexus.repository.storage.ComponentEvent;
-import org.sonatype.nexus.repository.storage.StorageFacet;
-import org.sonatype.nexus.transaction.UnitOfWork;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
@@ -40,7 +37,8 @@ import com.google.common.eventbus.Subscribe;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Subscriber of batched component/asset events, which are used to trigger search updates.
+ * Subscriber of batched component/asset events, which are used to trigger search updates through the
+ * {@link SearchIndexQueue}.
  *
  * @since 3.0
  */
@@ -49,17 +47,17 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class ComponentSubscriber
     implements EventAware, Asynchronous
 {
-  private final RepositoryManager repositoryManager;
+  private final SearchIndexQueue searchIndexQueue;
 
   @Inject
-  public ComponentSubscriber(final RepositoryManager repositoryManager) {
-    this.repositoryManager = checkNotNull(repositoryManager);
+  public ComponentSubscriber(final SearchIndexQueue searchIndexQueue) {
+    this.searchIndexQueue = checkNotNull(searchIndexQueue);
   }
 
   @Subscribe
   @AllowConcurrentEvents
   public void on(final EntityBatchEvent batchEvent) {
-    final Multimap<String, EntityId> updatedComponents = HashMultimap.create();
+    final Multimap<String, EntityId> updatedComponents = LinkedHashMultimap.create();
     final Set<EntityId> deletedComponents = new HashSet<>();
 
     // slice events into their respective repositories
@@ -79,26 +77,9 @@ public class ComponentSubscriber
       }
     }
 
-    // distribute updates across repositories as necessary
-    for (final String repositoryName : updatedComponents.keySet()) {
-      final Repository repository = repositoryManager.get(repositoryName);
-      if (repository != null) {
-        UnitOfWork.begin(repository.facet(StorageFacet.class).txSupplier());
-        try {
-          final SearchFacet searchFacet = repository.facet(SearchFacet.class);
-          for (final EntityId componentId : updatedComponents.get(repositoryName)) {
-            if (deletedComponents.contains(componentId)) {
-              searchFacet.delete(componentId);
-            }
-            else {
-              searchFacet.put(componentId);
-            }
-          }
-        }
-        finally {
-          UnitOfWork.end();
-        }
-      }
+    for (final Map.Entry<String, EntityId> entry : updatedComponents.entries()) {
+      final EntityId componentId = entry.getValue();
+      searchIndexQueue.enqueue(entry.getKey(), componentId, deletedComponents.contains(componentId));
     }
   }
 }
@@ -31,14 +31,22 @@ public interface SearchFacet
    */
   void put(EntityId componentId);
 
+  /**
+   * Indexes the metadata of the given components, loading them and their assets in bulk, requires an active
+   * {@link UnitOfWork}.
+   *
+   * @since 3.1
+   */
+  void bulkPut(Iterable<EntityId> componentIds);
+
   /**
    * De-indexes the metadata of the given component.
    */
   void delete(EntityId componentId);
 
   /**
-   * Forcefully rebuilds index of the {@link Repository} this facet is attached to. Rebuild happens by dropping current
-   * index and recreating it from scratch.
+   * Forcefully rebuilds index of the {@link Repository} this facet is attached to. Rebuild happens by building a new
+   * index from scratch, which replaces the current index once complete.
    */
   void rebuildIndex();
 }
@@ -12,25 +12,40 @@
  */
 package org.sonatype.nexus.repository.search;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.sonatype.nexus.common.entity.EntityHelper;
 import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.Format;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.Component;
 import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.scheduling.CancelableHelper;
+import org.sonatype.nexus.thread.NexusThreadFactory;
 import org.sonatype.nexus.transaction.Transactional;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static org.sonatype.nexus.repository.FacetSupport.State.STARTED;
@@ -48,6 +63,12 @@ public class SearchFacetImpl
     extends FacetSupport
     implements SearchFacet
 {
+  private static final int REBUILD_WORKERS = SystemPropertiesHelper
+      .getInteger(SearchFacetImpl.class.getName() + ".rebuildWorkers", 4);
+
+  private static final int REBUILD_BATCH_SIZE = SystemPropertiesHelper
+      .getInteger(SearchFacetImpl.class.getName() + ".rebuildBatchSize", 500);
+
   private final SearchService searchService;
 
   private final Map<String, ComponentMetadataProducer> componentMetadataProducers;
@@ -60,32 +81,110 @@ public class SearchFacetImpl
     this.componentMetadataProducers = checkNotNull(componentMetadataProducers);
   }
 
+  /**
+   * Rebuilds the index into a new index, which is swapped in once complete, so searches are served by the current
+   * index meanwhile. Components are streamed from the database and indexed in batches by several worker threads. Should
+   * any batch fail, the rebuild is aborted and the current index kept.
+   */
   @Override
   @Guarded(by = STARTED)
   public void rebuildIndex() {
     log.info("Rebuilding index of repository {}", getRepository().getName());
-    searchService.rebuildIndex(getRepository());
-    UnitOfWork.begin(facet(StorageFacet.class).txSupplier());
+    searchService.beginRebuild(getRepository());
+    boolean completed = false;
+    ExecutorService workers = Executors.newFixedThreadPool(REBUILD_WORKERS,
+        new NexusThreadFactory("search-rebuild", getRepository().getName()));
+    // keep the database cursor from running too far ahead of the workers
+    Semaphore pending = new Semaphore(REBUILD_WORKERS * 2);
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
     try {
-      rebuildComponentIndex();
+      UnitOfWork.begin(facet(StorageFacet.class).txSupplier());
+      try {
+        rebuildComponentIndex(workers, pending, failure);
+      }
+      finally {
+        UnitOfWork.end();
+      }
+      workers.shutdown();
+      while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.debug("Waiting for index rebuild of {} to complete", getRepository().getName());
+      }
+      checkFailure(failure);
+      searchService.completeRebuild(getRepository());
+      completed = true;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted rebuilding index of " + getRepository().getName(), e);
     }
     finally {
-      UnitOfWork.end();
+      workers.shutdownNow();
+      if (!completed) {
+        searchService.abortRebuild(getRepository());
+      }
     }
   }
 
   @Transactional
-  protected void rebuildComponentIndex() {
+  protected void rebuildComponentIndex(final ExecutorService workers,
+                                       final Semaphore pending,
+                                       final AtomicReference<RuntimeException> failure)
+      throws InterruptedException
+  {
     final StorageTx tx = UnitOfWork.currentTx();
-    for (Component component : tx.browseComponents(tx.findBucket(getRepository()))) {
-      try {
-        put(component, tx.browseAssets(component));
+    final Bucket bucket = tx.findBucket(getRepository());
+    List<Component> batch = new ArrayList<>(REBUILD_BATCH_SIZE);
+    for (Component component : tx.browseComponents(bucket)) {
+      CancelableHelper.checkCancellation();
+      checkFailure(failure);
+      batch.add(component);
+      if (batch.size() == REBUILD_BATCH_SIZE) {
+        submitRebuild(workers, pending, failure, bucket, batch);
+        batch = new ArrayList<>(REBUILD_BATCH_SIZE);
+      }
+    }
+    if (!batch.isEmpty()) {
+      submitRebuild(workers, pending, failure, bucket, batch);
+    }
+  }
+
+  private void checkFailure(final AtomicReference<RuntimeException> failure) {
+    RuntimeException e = failure.get();
+    if (e != null) {
+      throw new IllegalStateException("Failed to rebuild index of repository " + getRepository().getName(), e);
+    }
+  }
+
+  private void submitRebuild(final ExecutorService workers,
+                             final Semaphore pending,
+                             final AtomicReference<RuntimeException> failure,
+                             final Bucket bucket,
+                             final List<Component> components) throws InterruptedException
+  {
+    pending.acquire();
+    workers.execute(() -> {
+      try (StorageTx tx = facet(StorageFacet.class).txSupplier().get()) {
+        tx.begin();
+        ListMultimap<EntityId, Asset> assets = browseAssets(tx, bucket, components);
+        for (Component component : components) {
+          try {
+            searchService.rebuildPut(getRepository(), EntityHelper.id(component).getValue(),
+                json(component, assets.get(EntityHelper.id(component))));
+          }
+          catch (RuntimeException e) {
+            // one "bad" should not stop processing whole repository
+            log.warn("Could not reindex component: {}", component, e);
+          }
+        }
       }
       catch (RuntimeException e) {
-        // one "bad" should not stop processing whole repository
-        log.warn("Could not reindex component: {}", component, e);
+        log.warn("Could not reindex {} components of repository {}", components.size(), getRepository().getName(), e);
+        failure.compareAndSet(null, e);
       }
-    }
+      finally {
+        pending.release();
+      }
+    });
   }
 
   @Guarded(by = STARTED)
@@ -100,6 +199,29 @@ public class SearchFacetImpl
     }
   }
 
+  @Override
+  @Guarded(by = STARTED)
+  @Transactional
+  public void bulkPut(final Iterable<EntityId> componentIds) {
+    checkNotNull(componentIds);
+    final StorageTx tx = UnitOfWork.currentTx();
+    final Bucket bucket = tx.findBucket(getRepository());
+    List<Component> components = Lists.newArrayList(tx.findComponents(componentIds, bucket));
+    if (components.isEmpty()) {
+      return;
+    }
+    ListMultimap<EntityId, Asset> assets = browseAssets(tx, bucket, components);
+    for (Component component : components) {
+      try {
+        put(component, assets.get(EntityHelper.id(component)));
+      }
+      catch (RuntimeException e) {
+        // one "bad" should not stop processing whole batch
+        log.warn("Could not index component: {}", component, e);
+      }
+    }
+  }
+
   @Guarded(by = STARTED)
   public void delete(final EntityId componentId) {
     checkNotNull(componentId);
@@ -120,10 +242,27 @@ public class SearchFacetImpl
    * Extracts metadata from passed in {@link Component} and {@link Asset}s, and PUTs it into the repository's index.
    */
   private void put(final Component component, final Iterable<Asset> assets) {
+    searchService.put(getRepository(), EntityHelper.id(component).getValue(), json(component, assets));
+  }
+
+  private String json(final Component component, final Iterable<Asset> assets) {
     Map<String, Object> additional = new HashMap<>();
     additional.put(REPOSITORY_NAME, getRepository().getName());
-    String json = producer(component).getMetadata(component, assets, additional);
-    searchService.put(getRepository(), EntityHelper.id(component).getValue(), json);
+    return producer(component).getMetadata(component, assets, additional);
+  }
+
+  /**
+   * Loads the assets of the given components in bulk, grouped by component.
+   */
+  private ListMultimap<EntityId, Asset> browseAssets(final StorageTx tx,
+                                                    final Bucket bucket,
+                                                    final List<Component> components)
+  {
+    ListMultimap<EntityId, Asset> assets = ArrayListMultimap.create();
+    for (Asset asset : tx.browseAssets(components, bucket)) {
+      assets.put(asset.componentId(), asset);
+    }
+    return assets;
   }
 
   /**
@@ -0,0 +1,405 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.search;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.event.DeferredEventWork;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.jmx.reflect.ManagedAttribute;
+import org.sonatype.nexus.jmx.reflect.ManagedObject;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+import org.sonatype.nexus.transaction.UnitOfWork;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+/**
+ * Bounded queue of pending search index updates, drained by a background thread which indexes them in batches.
+ *
+ * Updates of the same component are coalesced while queued, so a component touched by many events is loaded and
+ * indexed once. Producers block while the queue is full, pushing back on event delivery when indexing falls behind;
+ * a producer blocked for longer than the enqueue timeout, or interrupted, indexes its update itself. Before the queue
+ * is started, or after it stopped, updates are indexed by the calling thread.
+ *
+ * @since 3.1
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+@ManagedObject
+public class SearchIndexQueue
+    extends LifecycleSupport
+    implements DeferredEventWork
+{
+  private static final int CAPACITY = SystemPropertiesHelper
+      .getInteger(SearchIndexQueue.class.getName() + ".capacity", 10000);
+
+  private static final int BATCH_SIZE = SystemPropertiesHelper
+      .getInteger(SearchIndexQueue.class.getName() + ".batchSize", 500);
+
+  /**
+   * How long to wait for a batch to fill up before indexing what is queued.
+   */
+  private static final long FLUSH_INTERVAL_MILLIS = SystemPropertiesHelper
+      .getLong(SearchIndexQueue.class.getName() + ".flushIntervalMillis", 500);
+
+  /**
+   * How long to wait for room in a full queue before indexing an update on the calling thread.
+   */
+  private static final long ENQUEUE_TIMEOUT_MILLIS = SystemPropertiesHelper
+      .getLong(SearchIndexQueue.class.getName() + ".enqueueTimeoutMillis", 10000);
+
+  private final RepositoryManager repositoryManager;
+
+  private final SearchService searchService;
+
+  private final int capacity;
+
+  private final int batchSize;
+
+  private final long flushIntervalNanos;
+
+  private final long enqueueTimeoutNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition notEmpty = lock.newCondition();
+
+  private final Condition notFull = lock.newCondition();
+
+  /**
+   * Pending updates per repository, mapping component ids to whether the component was deleted.
+   */
+  private final Map<String, Map<EntityId, Boolean>> pending = new LinkedHashMap<>();
+
+  private int size;
+
+  private int inflight;
+
+  private volatile Thread worker;
+
+  private final AtomicLong flushCount = new AtomicLong();
+
+  private final AtomicLong failureCount = new AtomicLong();
+
+  private final AtomicLong lastFlushMillis = new AtomicLong();
+
+  private final AtomicLong fullCount = new AtomicLong();
+
+  @Inject
+  public SearchIndexQueue(final RepositoryManager repositoryManager, final SearchService searchService) {
+    this(repositoryManager, searchService, CAPACITY, BATCH_SIZE, FLUSH_INTERVAL_MILLIS, ENQUEUE_TIMEOUT_MILLIS);
+  }
+
+  @VisibleForTesting
+  SearchIndexQueue(final RepositoryManager repositoryManager,
+                   final SearchService searchService,
+                   final int capacity,
+                   final int batchSize,
+                   final long flushIntervalMillis,
+                   final long enqueueTimeoutMillis)
+  {
+    this.repositoryManager = checkNotNull(repositoryManager);
+    this.searchService = checkNotNull(searchService);
+    this.capacity = capacity;
+    this.batchSize = batchSize;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.enqueueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(enqueueTimeoutMillis);
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    worker = new NexusThreadFactory("search-index", "search").newThread(this::drain);
+    worker.start();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    Thread thread = worker;
+    lock.lock();
+    try {
+      worker = null;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+    thread.join(TimeUnit.SECONDS.toMillis(30));
+
+    // index whatever was left behind
+    Map<String, Map<EntityId, Boolean>> remaining;
+    while (!(remaining = take(Integer.MAX_VALUE)).isEmpty()) {
+      index(remaining);
+    }
+    searchService.flush();
+  }
+
+  /**
+   * Queues an update of the given component's index document, blocking while the queue is full up to the enqueue
+   * timeout.
+   */
+  public void enqueue(final String repositoryName, final EntityId componentId, final boolean deleted) {
+    checkNotNull(repositoryName);
+    checkNotNull(componentId);
+    lock.lock();
+    try {
+      if (awaitRoom(repositoryName, componentId)) {
+        Map<EntityId, Boolean> updates = pending.computeIfAbsent(repositoryName, k -> new LinkedHashMap<>());
+        Boolean previous = updates.put(componentId, deleted);
+        if (previous == null) {
+          size++;
+        }
+        else if (previous) {
+          // once deleted, a component stays deleted
+          updates.put(componentId, true);
+        }
+        notEmpty.signal();
+        return;
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+
+    // not running, or no room, so index right away
+    index(ImmutableMap.of(repositoryName, ImmutableMap.of(componentId, deleted)));
+  }
+
+  /**
+   * Waits until the queue is running and has room for the given update, returning {@code false} if it is not running,
+   * or is still full after the enqueue timeout, or the calling thread is interrupted.
+   */
+  private boolean awaitRoom(final String repositoryName, final EntityId componentId) {
+    assert lock.isHeldByCurrentThread();
+
+    long remainingNanos = enqueueTimeoutNanos;
+    try {
+      while (worker != null && size >= capacity && !isQueued(repositoryName, componentId)) {
+        if (remainingNanos <= 0) {
+          fullCount.incrementAndGet();
+          log.warn("Search index queue still full after {} ms, indexing update of {} in repository {} directly",
+              TimeUnit.NANOSECONDS.toMillis(enqueueTimeoutNanos), componentId, repositoryName);
+          return false;
+        }
+        remainingNanos = notFull.awaitNanos(remainingNanos);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.debug("Interrupted waiting for room in search index queue, indexing update of {} in repository {} directly",
+          componentId, repositoryName);
+      return false;
+    }
+    return worker != null;
+  }
+
+  @ManagedAttribute(description = "Number of queued index updates")
+  public int getQueueDepth() {
+    lock.lock();
+    try {
+      return size;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @ManagedAttribute(description = "Number of batches indexed")
+  public long getFlushCount() {
+    return flushCount.get();
+  }
+
+  @ManagedAttribute(description = "Number of repository batches that failed to index")
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  @ManagedAttribute(description = "Duration of the last batch, in milliseconds")
+  public long getLastFlushMillis() {
+    return lastFlushMillis.get();
+  }
+
+  @ManagedAttribute(description = "Number of updates indexed by their producer because the queue stayed full")
+  public long getFullCount() {
+    return fullCount.get();
+  }
+
+  /**
+   * Returns {@code true} when there are no queued nor in-flight updates.
+   */
+  @Override
+  @ManagedAttribute(description = "Whether no updates are queued or being indexed")
+  public boolean isCalmPeriod() {
+    lock.lock();
+    try {
+      return size == 0 && inflight == 0;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private void drain() {
+    while (worker != null) {
+      Map<String, Map<EntityId, Boolean>> batch = awaitBatch();
+      if (!batch.isEmpty()) {
+        try {
+          index(batch);
+        }
+        finally {
+          lock.lock();
+          try {
+            inflight = 0;
+            notFull.signalAll();
+          }
+          finally {
+            lock.unlock();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits for updates to be queued, then gives more updates the flush interval to accumulate up to a full batch.
+   */
+  private Map<String, Map<EntityId, Boolean>> awaitBatch() {
+    lock.lock();
+    try {
+      while (size == 0 && worker != null) {
+        notEmpty.await(1, TimeUnit.SECONDS);
+      }
+      long remainingNanos = flushIntervalNanos;
+      while (size < batchSize && remainingNanos > 0 && worker != null) {
+        remainingNanos = notEmpty.awaitNanos(remainingNanos);
+      }
+      Map<String, Map<EntityId, Boolean>> batch = take(batchSize);
+      inflight = batch.values().stream().mapToInt(Map::size).sum();
+      return batch;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new LinkedHashMap<>();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes up to the given number of updates from the queue, in the order they were first queued per repository.
+   */
+  private Map<String, Map<EntityId, Boolean>> take(final int max) {
+    lock.lock();
+    try {
+      Map<String, Map<EntityId, Boolean>> batch = new LinkedHashMap<>();
+      int taken = 0;
+      for (Iterator<Entry<String, Map<EntityId, Boolean>>> repositories = pending.entrySet().iterator();
+           repositories.hasNext() && taken < max; ) {
+        Entry<String, Map<EntityId, Boolean>> repository = repositories.next();
+        Map<EntityId, Boolean> updates = new LinkedHashMap<>();
+        for (Iterator<Entry<EntityId, Boolean>> itr = repository.getValue().entrySet().iterator();
+             itr.hasNext() && taken < max; taken++) {
+          Entry<EntityId, Boolean> update = itr.next();
+          updates.put(update.getKey(), update.getValue());
+          itr.remove();
+        }
+        if (repository.getValue().isEmpty()) {
+          repositories.remove();
+        }
+        batch.put(repository.getKey(), updates);
+      }
+      size -= taken;
+      notFull.signalAll();
+      return batch;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isQueued(final String repositoryName, final EntityId componentId) {
+    Map<EntityId, Boolean> updates = pending.get(repositoryName);
+    return updates != null && updates.containsKey(componentId);
+  }
+
+  /**
+   * Indexes the given updates, loading the updated components of each repository in bulk.
+   */
+  @VisibleForTesting
+  void index(final Map<String, Map<EntityId, Boolean>> batch) {
+    long start = System.nanoTime();
+    for (Entry<String, Map<EntityId, Boolean>> entry : batch.entrySet()) {
+      String repositoryName = entry.getKey();
+      Repository repository = repositoryManager.get(repositoryName);
+      if (repository == null) {
+        continue;
+      }
+      SearchFacet searchFacet = repository.optionalFacet(SearchFacet.class).orElse(null);
+      if (searchFacet == null) {
+        continue;
+      }
+      try {
+        List<EntityId> updated = new ArrayList<>();
+        for (Entry<EntityId, Boolean> update : entry.getValue().entrySet()) {
+          if (update.getValue()) {
+            searchFacet.delete(update.getKey());
+          }
+          else {
+            updated.add(update.getKey());
+          }
+        }
+        if (!updated.isEmpty()) {
+          UnitOfWork.begin(repository.facet(StorageFacet.class).txSupplier());
+          try {
+            searchFacet.bulkPut(updated);
+          }
+          finally {
+            UnitOfWork.end();
+          }
+        }
+      }
+      catch (Exception e) {
+        // one failing repository should not stop indexing of the others
+        failureCount.incrementAndGet();
+        log.warn("Failed to index {} components of {}", entry.getValue().size(), repositoryName, e);
+      }
+    }
+    flushCount.incrementAndGet();
+    lastFlushMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+}
@@ -46,6 +46,36 @@ public interface SearchService
    */
   void rebuildIndex(Repository repository);
 
+  /**
+   * Starts rebuilding the index of specified repository into a new index, which receives all {@link #put} and
+   * {@link #delete} requests from then on, while searches keep being served by the current index.
+   *
+   * @since 3.1
+   */
+  void beginRebuild(Repository repository);
+
+  /**
+   * Puts data with given identifier into the index being rebuilt for given repository only.
+   *
+   * @since 3.1
+   */
+  void rebuildPut(Repository repository, String identifier, String json);
+
+  /**
+   * Swaps the rebuilt index of specified repository in for the current one, which is then deleted. Fails, keeping the
+   * current index, if any update of the rebuilt index failed.
+   *
+   * @since 3.1
+   */
+  void completeRebuild(Repository repository);
+
+  /**
+   * Deletes the index being rebuilt for specified repository, if any, leaving the current one in place.
+   *
+   * @since 3.1
+   */
+  void abortRebuild(Repository repository);
+
   /**
    * Puts data with given identifier into index of given repository.
    */
@@ -56,6 +86,13 @@ public interface SearchService
    */
   void delete(Repository repository, String identifier);
 
+  /**
+   * Sends all buffered {@link #put} and {@link #delete} requests to the index.
+   *
+   * @since 3.1
+   */
+  void flush();
+
   /**
    * Search component metadata and browse results.
    */
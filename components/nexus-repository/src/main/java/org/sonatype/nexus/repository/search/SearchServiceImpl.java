@@ -17,12 +17,16 @@ import java.net.URL;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -30,7 +34,11 @@ import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
-import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.jmx.reflect.ManagedAttribute;
+import org.sonatype.nexus.jmx.reflect.ManagedObject;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.manager.RepositoryManager;
 import org.sonatype.nexus.repository.security.RepositoryViewPermission;
@@ -41,11 +49,19 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.Resources;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
 import org.elasticsearch.action.admin.indices.validate.query.QueryExplanation;
 import org.elasticsearch.action.admin.indices.validate.query.ValidateQueryResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.count.CountRequestBuilder;
 import org.elasticsearch.action.count.CountResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
@@ -53,6 +69,9 @@ import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.ShardSearchFailure;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -66,18 +85,25 @@ import org.elasticsearch.search.profile.ProfileShardResult;
 import org.elasticsearch.search.sort.SortBuilder;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.STORAGE;
 import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
 
 /**
  * Default {@link SearchService} implementation. It does not expects that {@link Repository} have storage facet
  * attached.
  *
+ * Index updates are buffered and sent in bulk requests, once enough of them accumulated or periodically. Buffered
+ * updates are sent when stopping, which happens after the services feeding updates stopped.
+ *
  * @since 3.0
  */
 @Named
 @Singleton
+@ManagedLifecycle(phase = STORAGE)
+@ManagedObject
 public class SearchServiceImpl
-    extends ComponentSupport
+    extends LifecycleSupport
     implements SearchService
 {
   private static final String TYPE = "component";
@@ -87,6 +113,24 @@ public class SearchServiceImpl
    */
   public static final String MAPPING_JSON = "elasticsearch-mapping.json";
 
+  private static final String SHADOW_INDEX_SEPARATOR = "-";
+
+  private static final String REFRESH_INTERVAL = "index.refresh_interval";
+
+  private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+
+  private static final int BULK_ACTIONS = SystemPropertiesHelper
+      .getInteger(SearchServiceImpl.class.getName() + ".bulkActions", 1000);
+
+  private static final int BULK_SIZE_MB = SystemPropertiesHelper
+      .getInteger(SearchServiceImpl.class.getName() + ".bulkSizeMb", 5);
+
+  private static final long BULK_FLUSH_INTERVAL_MILLIS = SystemPropertiesHelper
+      .getLong(SearchServiceImpl.class.getName() + ".bulkFlushIntervalMillis", 1000);
+
+  private static final int BULK_CLOSE_TIMEOUT_SECONDS = SystemPropertiesHelper
+      .getInteger(SearchServiceImpl.class.getName() + ".bulkCloseTimeoutSeconds", 60);
+
   private static final SearchResponse EMPTY_SEARCH_RESPONSE = new SearchResponse(InternalSearchResponse.empty(), null, 0,
       0, 0, new ShardSearchFailure[]{});
 
@@ -99,9 +143,22 @@ public class SearchServiceImpl
   private final List<IndexSettingsContributor> indexSettingsContributors;
 
   private final ConcurrentMap<String, String> repositoryNameMapping;
+
+  /**
+   * Rebuilds in progress per repository, whose indexes receive all updates until swapped in.
+   */
+  private final ConcurrentMap<String, Rebuild> rebuilds = Maps.newConcurrentMap();
   
   private final boolean profile;
 
+  private final AtomicLong bulkCount = new AtomicLong();
+
+  private final AtomicLong bulkFailureCount = new AtomicLong();
+
+  private final AtomicLong lastBulkMillis = new AtomicLong();
+
+  private volatile BulkProcessor bulkProcessor;
+
   @Inject
   public SearchServiceImpl(final Provider<Client> client,
                            final RepositoryManager repositoryManager,
@@ -117,15 +174,35 @@ public class SearchServiceImpl
     this.profile = checkNotNull(profile);
   }
 
+  /**
+   * Sends buffered updates and stops the bulk processor's flush scheduler.
+   */
+  @Override
+  protected void doStop() throws Exception {
+    BulkProcessor processor;
+    synchronized (this) {
+      processor = bulkProcessor;
+      bulkProcessor = null;
+    }
+    if (processor != null && !processor.awaitClose(BULK_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      log.warn("Buffered index updates were not sent within {} seconds", BULK_CLOSE_TIMEOUT_SECONDS);
+    }
+  }
+
   @Override
   public void createIndex(final Repository repository) {
     checkNotNull(repository);
-    final String safeIndexName = SHA1.function().hashUnencodedChars(repository.getName()).toString();
+    final String safeIndexName = safeIndexName(repository);
     log.debug("Creating index for {}", repository);
     createIndex(repository, safeIndexName);
   }
 
   private void createIndex(final Repository repository, final String indexName) {
+    createIndexIfMissing(repository, indexName);
+    repositoryNameMapping.put(repository.getName(), indexName);
+  }
+
+  private void createIndexIfMissing(final Repository repository, final String indexName) {
     // TODO we should calculate the checksum of index settings and compare it with a value stored in index _meta tags
     // in case that they not match (settings changed) we should drop the index, recreate it and re-index all components
     IndicesAdminClient indices = indicesAdminClient();
@@ -160,7 +237,14 @@ public class SearchServiceImpl
         throw Throwables.propagate(e);
       }
     }
-    repositoryNameMapping.put(repository.getName(), indexName);
+  }
+
+  /**
+   * Returns the name of the repository's index, which is the SHA1 of its name to suit ElasticSearch index name
+   * requirements. After a rebuild, this is the name of an alias of the rebuilt index.
+   */
+  private String safeIndexName(final Repository repository) {
+    return SHA1.function().hashUnencodedChars(repository.getName()).toString();
   }
 
   @Override
@@ -174,6 +258,8 @@ public class SearchServiceImpl
   }
 
   private void deleteIndex(final String indexName) {
+    // buffered updates would otherwise re-create the index
+    flush();
     IndicesAdminClient indices = indicesAdminClient();
     if (indices.prepareExists(indexName).execute().actionGet().isExists()) {
       indices.prepareDelete(indexName).execute().actionGet();
@@ -190,6 +276,133 @@ public class SearchServiceImpl
     }
   }
 
+  @Override
+  public void beginRebuild(final Repository repository) {
+    checkNotNull(repository);
+    String indexName = repositoryNameMapping.get(repository.getName());
+    checkState(indexName != null, "Repository %s has no index", repository);
+    String safeIndexName = safeIndexName(repository);
+    Rebuild rebuild = new Rebuild(safeIndexName + SHADOW_INDEX_SEPARATOR + System.currentTimeMillis());
+    checkState(rebuilds.putIfAbsent(repository.getName(), rebuild) == null,
+        "Index of %s is already being rebuilt", repository);
+
+    boolean started = false;
+    try {
+      // drop shadow indexes left behind by rebuilds that did not complete
+      Set<String> live = aliasedIndexes(safeIndexName);
+      String[] shadows = indicesAdminClient().prepareGetIndex()
+          .addIndices(safeIndexName + SHADOW_INDEX_SEPARATOR + "*")
+          .execute().actionGet().indices();
+      for (String index : shadows) {
+        if (!live.contains(index)) {
+          log.debug("Removing stale shadow index {} of {}", index, repository);
+          deleteIndex(index);
+        }
+      }
+
+      log.debug("Rebuilding index of {} into {}", repository, rebuild.indexName);
+      createIndexIfMissing(repository, rebuild.indexName);
+      // refreshing while bulk loading is wasted effort, nothing searches the shadow index yet
+      indicesAdminClient().prepareUpdateSettings(rebuild.indexName)
+          .setSettings(Settings.settingsBuilder().put(REFRESH_INTERVAL, "-1"))
+          .execute().actionGet();
+
+      // only now the shadow index exists with its mapping, updates must not create it
+      rebuild.started = true;
+      started = true;
+    }
+    finally {
+      if (!started) {
+        rebuilds.remove(repository.getName(), rebuild);
+        try {
+          deleteIndex(rebuild.indexName);
+        }
+        catch (RuntimeException e) {
+          log.warn("Failed to remove index {} of failed rebuild of {}", rebuild.indexName, repository, e);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void rebuildPut(final Repository repository, final String identifier, final String json) {
+    checkNotNull(repository);
+    checkNotNull(identifier);
+    checkNotNull(json);
+    Rebuild rebuild = rebuilds.get(repository.getName());
+    checkState(rebuild != null && rebuild.started, "Index of %s is not being rebuilt", repository);
+    synchronized (rebuild) {
+      if (rebuild.updated.contains(identifier)) {
+        // updated or deleted since the rebuild read it, the shadow index already has the latest
+        log.trace("Skipping rebuilt document {} from {}, updated meanwhile", identifier, repository);
+        return;
+      }
+      log.trace("Adding to rebuilt index document {} from {}: {}", identifier, repository, json);
+      bulkProcessor().add(client.get().prepareIndex(rebuild.indexName, TYPE, identifier).setSource(json).request());
+    }
+  }
+
+  @Override
+  public void completeRebuild(final Repository repository) {
+    checkNotNull(repository);
+    Rebuild rebuild = rebuilds.get(repository.getName());
+    checkState(rebuild != null && rebuild.started, "Index of %s is not being rebuilt", repository);
+    String shadowIndexName = rebuild.indexName;
+    String safeIndexName = safeIndexName(repository);
+
+    flush();
+    checkState(!rebuild.failed, "Failed to update rebuilt index of %s, keeping current index", repository);
+
+    IndicesAdminClient indices = indicesAdminClient();
+    indices.prepareUpdateSettings(shadowIndexName)
+        .setSettings(Settings.settingsBuilder().put(REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL))
+        .execute().actionGet();
+    indices.prepareRefresh(shadowIndexName).execute().actionGet();
+
+    Set<String> previous = aliasedIndexes(safeIndexName);
+    if (previous.isEmpty()) {
+      // the live index predates rebuilding through aliases; it can not be swapped atomically for an alias of the same
+      // name, so search the rebuilt index directly while the live index is replaced by the alias
+      repositoryNameMapping.put(repository.getName(), shadowIndexName);
+      rebuilds.remove(repository.getName());
+      deleteIndex(safeIndexName);
+      indices.prepareAliases().addAlias(shadowIndexName, safeIndexName).execute().actionGet();
+    }
+    else {
+      IndicesAliasesRequestBuilder swap = indices.prepareAliases();
+      for (String index : previous) {
+        swap.removeAlias(index, safeIndexName);
+      }
+      swap.addAlias(shadowIndexName, safeIndexName).execute().actionGet();
+      rebuilds.remove(repository.getName());
+      for (String index : previous) {
+        deleteIndex(index);
+      }
+    }
+    repositoryNameMapping.put(repository.getName(), safeIndexName);
+    log.debug("Swapped rebuilt index {} of {} in", shadowIndexName, repository);
+  }
+
+  @Override
+  public void abortRebuild(final Repository repository) {
+    checkNotNull(repository);
+    Rebuild rebuild = rebuilds.remove(repository.getName());
+    if (rebuild != null) {
+      log.debug("Removing index {} of aborted rebuild of {}", rebuild.indexName, repository);
+      deleteIndex(rebuild.indexName);
+    }
+  }
+
+  /**
+   * Returns the indexes the given alias refers to, which is none if the name is not an alias.
+   */
+  private Set<String> aliasedIndexes(final String alias) {
+    Set<String> indexes = new HashSet<>();
+    Iterators.addAll(indexes,
+        indicesAdminClient().prepareGetAliases(alias).execute().actionGet().getAliases().keysIt());
+    return indexes;
+  }
+
   @Override
   public void put(final Repository repository, final String identifier, final String json) {
     checkNotNull(repository);
@@ -200,7 +413,14 @@ public class SearchServiceImpl
       return;
     }
     log.debug("Adding to index document {} from {}: {}", identifier, repository, json);
-    client.get().prepareIndex(indexName, TYPE, identifier).setSource(json).execute();
+    bulkProcessor().add(client.get().prepareIndex(indexName, TYPE, identifier).setSource(json).request());
+    Rebuild rebuild = rebuilds.get(repository.getName());
+    if (rebuild != null && rebuild.started) {
+      synchronized (rebuild) {
+        rebuild.updated.add(identifier);
+        bulkProcessor().add(client.get().prepareIndex(rebuild.indexName, TYPE, identifier).setSource(json).request());
+      }
+    }
   }
 
   @Override
@@ -212,7 +432,62 @@ public class SearchServiceImpl
       return;
     }
     log.debug("Removing from index document {} from {}", identifier, repository);
-    client.get().prepareDelete(indexName, TYPE, identifier).execute();
+    bulkProcessor().add(client.get().prepareDelete(indexName, TYPE, identifier).request());
+    Rebuild rebuild = rebuilds.get(repository.getName());
+    if (rebuild != null && rebuild.started) {
+      synchronized (rebuild) {
+        // the rebuild may still read the deleted component, it must not bring it back
+        rebuild.updated.add(identifier);
+        bulkProcessor().add(client.get().prepareDelete(rebuild.indexName, TYPE, identifier).request());
+      }
+    }
+  }
+
+  @Override
+  public void flush() {
+    BulkProcessor processor = bulkProcessor;
+    if (processor != null) {
+      processor.flush();
+    }
+  }
+
+  @ManagedAttribute(description = "Number of bulk index requests sent")
+  public long getBulkCount() {
+    return bulkCount.get();
+  }
+
+  @ManagedAttribute(description = "Number of index updates that failed")
+  public long getBulkFailureCount() {
+    return bulkFailureCount.get();
+  }
+
+  @ManagedAttribute(description = "Duration of the last bulk index request, in milliseconds")
+  public long getLastBulkMillis() {
+    return lastBulkMillis.get();
+  }
+
+  /**
+   * Returns the bulk processor, created on first use as the client is not available until ElasticSearch started.
+   * Bulk requests are executed by the thread adding the last update, or flushing, which pushes back on producers
+   * when ElasticSearch falls behind.
+   */
+  private BulkProcessor bulkProcessor() {
+    BulkProcessor processor = bulkProcessor;
+    if (processor == null) {
+      synchronized (this) {
+        processor = bulkProcessor;
+        if (processor == null) {
+          processor = BulkProcessor.builder(client.get(), new BulkListener())
+              .setBulkActions(BULK_ACTIONS)
+              .setBulkSize(new ByteSizeValue(BULK_SIZE_MB, ByteSizeUnit.MB))
+              .setFlushInterval(TimeValue.timeValueMillis(BULK_FLUSH_INTERVAL_MILLIS))
+              .setConcurrentRequests(0)
+              .build();
+          bulkProcessor = processor;
+        }
+      }
+    }
+    return processor;
   }
 
   @Override
@@ -392,6 +667,103 @@ public class SearchServiceImpl
     return client.get().admin().indices();
   }
 
+  /**
+   * Records latency and failures of bulk requests.
+   */
+  private class BulkListener
+      implements BulkProcessor.Listener
+  {
+    private final ConcurrentMap<Long, Long> started = Maps.newConcurrentMap();
+
+    @Override
+    public void beforeBulk(final long executionId, final BulkRequest request) {
+      started.put(executionId, System.nanoTime());
+    }
+
+    @Override
+    public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+      completed(executionId);
+      if (response.hasFailures()) {
+        long failed = 0;
+        for (BulkItemResponse item : response.getItems()) {
+          if (item.isFailed()) {
+            failed++;
+          }
+        }
+        bulkFailureCount.addAndGet(failed);
+        log.warn("Failed to update {} of {} index documents: {}", failed, request.numberOfActions(),
+            response.buildFailureMessage());
+        Set<String> indexes = new HashSet<>();
+        for (BulkItemResponse item : response.getItems()) {
+          if (item.isFailed()) {
+            indexes.add(item.getIndex());
+          }
+        }
+        rebuildsFailed(indexes);
+      }
+    }
+
+    @Override
+    public void afterBulk(final long executionId, final BulkRequest request, final Throwable failure) {
+      completed(executionId);
+      bulkFailureCount.addAndGet(request.numberOfActions());
+      log.warn("Failed to update {} index documents", request.numberOfActions(), failure);
+      Set<String> indexes = new HashSet<>();
+      for (ActionRequest<?> action : request.requests()) {
+        if (action instanceof IndicesRequest) {
+          indexes.addAll(Arrays.asList(((IndicesRequest) action).indices()));
+        }
+      }
+      rebuildsFailed(indexes);
+    }
+
+    /**
+     * Marks the rebuilds of the given indexes failed, as their indexes miss updates.
+     */
+    private void rebuildsFailed(final Set<String> indexes) {
+      for (Rebuild rebuild : rebuilds.values()) {
+        if (indexes.contains(rebuild.indexName)) {
+          rebuild.failed = true;
+        }
+      }
+    }
+
+    private void completed(final long executionId) {
+      bulkCount.incrementAndGet();
+      Long start = started.remove(executionId);
+      if (start != null) {
+        lastBulkMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    }
+  }
+
+  /**
+   * State of the rebuild of a repository's index.
+   */
+  private static class Rebuild
+  {
+    private final String indexName;
+
+    /**
+     * Documents updated or deleted since the rebuild began, which the rebuild must not overwrite with what it read.
+     */
+    private final Set<String> updated = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Set once the index exists, from when on it receives updates.
+     */
+    private volatile boolean started;
+
+    /**
+     * Set if any update of the index failed, which leaves it incomplete.
+     */
+    private volatile boolean failed;
+
+    private Rebuild(final String indexName) {
+      this.indexName = checkNotNull(indexName);
+    }
+  }
+
   private void logProfileResults(final SearchResponse searchResponse) {
     for (Entry<String, List<ProfileShardResult>> entry : searchResponse.getProfileResults().entrySet()) {
       for (ProfileShardResult profileShardResult : entry.getValue()) {
@@ -12,6 +12,9 @@
  */
 package org.sonatype.nexus.repository.security;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.inject.Inject;
 
 import org.sonatype.nexus.repository.FacetSupport;
@@ -36,6 +39,11 @@ public class SecurityFacetSupport
 
   private final RepositoryFormatSecurityConfigurationResource securityResource;
 
+  /**
+   * Permissions are immutable and depend only on repository and action, so they are built once per action.
+   */
+  private final Map<String, RepositoryViewPermission> permissions = new ConcurrentHashMap<>();
+
   @Inject
   public SecurityFacetSupport(final SecurityHelper securityHelper,
                               final RepositoryFormatSecurityConfigurationResource securityResource)
@@ -52,6 +60,7 @@ public class SecurityFacetSupport
   @Override
   protected void doDestroy() throws Exception {
     securityResource.remove(getRepository());
+    permissions.clear();
   }
 
   @Override
@@ -61,7 +70,8 @@ public class SecurityFacetSupport
     // determine permission action from request
     String action = action(request);
 
-    securityHelper.ensurePermitted(new RepositoryViewPermission(getRepository(), action));
+    securityHelper.ensurePermitted(
+        permissions.computeIfAbsent(action, key -> new RepositoryViewPermission(getRepository(), key)));
   }
 
   /**
@@ -0,0 +1,140 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.storage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.common.entity.EntityHelper;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Accumulates asset last accessed timestamps in memory, coalescing them per asset, and persists them in periodic
+ * batched transactions off the request thread, so that read paths do not need to write.
+ *
+ * @since 3.1
+ */
+class AssetAccessAccumulator
+    extends ComponentSupport
+{
+  private final Bucket bucket;
+
+  private final String repositoryName;
+
+  private final Supplier<StorageTx> txSupplier;
+
+  private final int batchSize;
+
+  private final ConcurrentMap<EntityId, DateTime> pending = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService executor;
+
+  AssetAccessAccumulator(final Bucket bucket, final Supplier<StorageTx> txSupplier, final int batchSize) {
+    this.bucket = checkNotNull(bucket);
+    this.repositoryName = bucket.getRepositoryName();
+    this.txSupplier = checkNotNull(txSupplier);
+    this.batchSize = batchSize;
+  }
+
+  void start(final int flushIntervalSeconds) {
+    executor = Executors.newSingleThreadScheduledExecutor(new NexusThreadFactory("asset-access", repositoryName));
+    executor.scheduleWithFixedDelay(() -> {
+      try {
+        flush();
+      }
+      catch (Exception e) {
+        // do not propagate, as that would cancel further flushes
+        log.warn("Failed to flush asset access times of {}", repositoryName, e);
+      }
+    }, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  void stop() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+    executor = null;
+    flush();
+  }
+
+  /**
+   * Records the asset's current last accessed timestamp, to be persisted by the next flush.
+   */
+  void accessed(final Asset asset) {
+    DateTime lastAccessed = asset.lastAccessed();
+    if (lastAccessed != null && EntityHelper.hasMetadata(asset)) {
+      pending.merge(EntityHelper.id(asset), lastAccessed, (a, b) -> a.isAfter(b) ? a : b);
+    }
+  }
+
+  /**
+   * Returns the number of assets with not yet persisted access times.
+   */
+  int size() {
+    return pending.size();
+  }
+
+  /**
+   * Persists all accumulated access times, in transactions of at most {@code batchSize} assets. Failed batches are
+   * put back to be retried by the next flush.
+   */
+  synchronized void flush() {
+    List<Entry<EntityId, DateTime>> drained = Lists.newArrayListWithCapacity(pending.size());
+    for (Iterator<EntityId> itr = pending.keySet().iterator(); itr.hasNext(); ) {
+      EntityId id = itr.next();
+      DateTime lastAccessed = pending.remove(id);
+      if (lastAccessed != null) {
+        drained.add(new SimpleImmutableEntry<>(id, lastAccessed));
+      }
+    }
+    if (drained.isEmpty()) {
+      return;
+    }
+
+    log.debug("Flushing {} asset access times of {}", drained.size(), repositoryName);
+    for (List<Entry<EntityId, DateTime>> batch : Iterables.partition(drained, batchSize)) {
+      try (StorageTx tx = txSupplier.get()) {
+        tx.begin();
+        for (Entry<EntityId, DateTime> entry : batch) {
+          Asset asset = tx.findAsset(entry.getKey(), bucket);
+          if (asset != null && (asset.lastAccessed() == null || asset.lastAccessed().isBefore(entry.getValue()))) {
+            asset.lastAccessed(entry.getValue());
+            tx.saveAsset(asset);
+          }
+        }
+        tx.commit();
+      }
+      catch (Exception e) {
+        log.debug("Failed to flush asset access times of {}, will retry", repositoryName, e);
+        for (Entry<EntityId, DateTime> entry : batch) {
+          pending.merge(entry.getKey(), entry.getValue(), (a, b) -> a.isAfter(b) ? a : b);
+        }
+      }
+    }
+  }
+}
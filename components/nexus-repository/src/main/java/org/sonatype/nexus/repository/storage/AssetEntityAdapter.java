@@ -12,9 +12,12 @@
  */
 package org.sonatype.nexus.repository.storage;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -107,6 +110,18 @@ public class AssetEntityAdapter
       .property(P_NAME)
       .build();
 
+  private static final String I_BUCKET_LAST_ACCESSED = new OIndexNameBuilder()
+      .type(DB_CLASS)
+      .property(P_BUCKET)
+      .property(P_LAST_ACCESSED)
+      .build();
+
+  private static final String I_BUCKET_LAST_UPDATED = new OIndexNameBuilder()
+      .type(DB_CLASS)
+      .property(P_BUCKET)
+      .property(P_LAST_UPDATED)
+      .build();
+
   private final ComponentEntityAdapter componentEntityAdapter;
 
   @Inject
@@ -136,6 +151,22 @@ public class AssetEntityAdapter
         new String[]{P_BUCKET, P_COMPONENT, P_NAME}
     );
     type.createIndex(I_BUCKET_NAME, INDEX_TYPE.NOTUNIQUE, P_BUCKET, P_NAME);
+    type.createIndex(I_BUCKET_LAST_ACCESSED, INDEX_TYPE.NOTUNIQUE, P_BUCKET, P_LAST_ACCESSED);
+    type.createIndex(I_BUCKET_LAST_UPDATED, INDEX_TYPE.NOTUNIQUE, P_BUCKET, P_LAST_UPDATED);
+  }
+
+  @Override
+  public void register(final ODatabaseDocumentTx db, @Nullable final Runnable initializer) {
+    super.register(db, initializer);
+    // databases created before 3.1 lack the indexes used to page through assets by last access, and to select those
+    // updated since a given time
+    OClass type = getSchemaType();
+    if (type.getClassIndex(I_BUCKET_LAST_ACCESSED) == null) {
+      type.createIndex(I_BUCKET_LAST_ACCESSED, INDEX_TYPE.NOTUNIQUE, P_BUCKET, P_LAST_ACCESSED);
+    }
+    if (type.getClassIndex(I_BUCKET_LAST_UPDATED) == null) {
+      type.createIndex(I_BUCKET_LAST_UPDATED, INDEX_TYPE.NOTUNIQUE, P_BUCKET, P_LAST_UPDATED);
+    }
   }
 
   @Override
@@ -222,6 +253,33 @@ public class AssetEntityAdapter
     return readEntities(docs);
   }
 
+  /**
+   * @since 3.1
+   */
+  Iterable<Asset> browseByComponents(final ODatabaseDocumentTx db,
+                                     final Bucket bucket,
+                                     final Iterable<Component> components)
+  {
+    checkNotNull(bucket);
+    checkNotNull(components);
+
+    List<ORID> componentIds = new ArrayList<>();
+    for (Component component : components) {
+      checkState(EntityHelper.hasMetadata(component));
+      componentIds.add(componentEntityAdapter.recordIdentity(component));
+    }
+    Map<String, Object> parameters = ImmutableMap.<String, Object>of(
+        "bucket", bucketEntityAdapter.recordIdentity(bucket),
+        "components", componentIds
+    );
+    String query = String.format(
+        "select from %s where %s = :bucket and %s in :components",
+        DB_CLASS, P_BUCKET, P_COMPONENT
+    );
+    Iterable<ODocument> docs = db.command(new OCommandSQL(query)).execute(parameters);
+    return readEntities(docs);
+  }
+
   @Override
   public boolean sendEvents() {
     return true;
@@ -0,0 +1,134 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.storage;
+
+import java.io.InputStream;
+import java.util.Map;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.blobstore.api.BlobStore;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+
+import com.google.common.base.Supplier;
+import com.google.common.hash.HashCode;
+import com.google.common.io.Closeables;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Supplies a one-shot stream to {@link StorageTx#createBlob(String, Supplier, Iterable, Map, String, boolean)}, which
+ * ingests it into the blob store in a single pass (content type detection, hashing and writing the blob) without
+ * spooling it to a temporary file first.
+ *
+ * The ingested blob is owned by this supplier until a transaction attaching it commits, so it survives transaction
+ * retries: subsequent {@link #get()} calls and retried {@code createBlob} calls are served from the ingested blob,
+ * which is ingested once, and validated again only if its validation did not complete.
+ * Closing the supplier deletes the blob unless it was committed.
+ *
+ * @since 3.1
+ */
+public class BlobStreamSupplier
+    extends ComponentSupport
+    implements AutoCloseable, Supplier<InputStream>
+{
+  private final InputStream source;
+
+  private boolean consumed;
+
+  private BlobStore blobStore;
+
+  private Blob blob;
+
+  private long size;
+
+  private Map<HashAlgorithm, HashCode> hashes;
+
+  private String contentType;
+
+  private boolean committed;
+
+  public BlobStreamSupplier(final InputStream source) {
+    this.source = checkNotNull(source);
+  }
+
+  /**
+   * Returns the source stream on first invocation, and the ingested blob's content afterwards.
+   */
+  @Override
+  public InputStream get() {
+    if (blob != null) {
+      return blob.getInputStream();
+    }
+    checkState(!consumed, "Stream already consumed");
+    consumed = true;
+    return source;
+  }
+
+  /**
+   * Returns {@code true} once the content type of the ingested blob is validated.
+   */
+  boolean isValidated() {
+    return contentType != null;
+  }
+
+  void ingested(final BlobStore blobStore,
+                final Blob blob,
+                final long size,
+                final Map<HashAlgorithm, HashCode> hashes)
+  {
+    checkState(this.blob == null, "Already ingested");
+    this.blobStore = checkNotNull(blobStore);
+    this.blob = checkNotNull(blob);
+    this.size = size;
+    this.hashes = checkNotNull(hashes);
+  }
+
+  void validated(final String contentType) {
+    this.contentType = checkNotNull(contentType);
+  }
+
+  void committed() {
+    this.committed = true;
+  }
+
+  Blob getBlob() {
+    return blob;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  Map<HashAlgorithm, HashCode> getHashes() {
+    return hashes;
+  }
+
+  String getContentType() {
+    return contentType;
+  }
+
+  @Override
+  public void close() {
+    Closeables.closeQuietly(source);
+    if (blob != null && !committed) {
+      try {
+        blobStore.delete(blob.getId());
+      }
+      catch (Exception e) {
+        log.warn("Unable to delete uncommitted blob {}", blob.getId(), e);
+      }
+    }
+  }
+}
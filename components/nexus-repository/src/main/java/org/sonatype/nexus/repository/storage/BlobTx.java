@@ -29,6 +29,7 @@ import org.sonatype.nexus.common.hash.MultiHashingInputStream;
 import org.sonatype.nexus.common.node.LocalNodeAccess;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.io.ByteStreams;
@@ -55,6 +56,8 @@ class BlobTx
 
   private final Set<BlobRef> deletionRequests = Sets.newHashSet();
 
+  private final Map<AssetBlob, BlobStreamSupplier> adoptedBlobs = Maps.newHashMap();
+
   public BlobTx(final LocalNodeAccess localNodeAccess, final BlobStore blobStore) {
     this.localNodeAccess = checkNotNull(localNodeAccess);
     this.blobStore = checkNotNull(blobStore);
@@ -104,6 +107,32 @@ class BlobTx
     return assetBlob;
   }
 
+  /**
+   * Ingests the stream into a blob owned by the {@code supplier} (rather than by this transaction), so that it survives
+   * rollbacks and can be {@link #adopt(BlobStreamSupplier) adopted} by retried transactions.
+   */
+  public void ingest(final BlobStreamSupplier supplier,
+                     final InputStream inputStream,
+                     final Map<String, String> headers,
+                     final Iterable<HashAlgorithm> hashAlgorithms)
+  {
+    final MultiHashingInputStream hashingStream = new MultiHashingInputStream(hashAlgorithms, inputStream);
+    Blob blob = blobStore.create(hashingStream, headers);
+    supplier.ingested(blobStore, blob, hashingStream.count(), hashingStream.hashes());
+  }
+
+  /**
+   * Returns a new unattached {@link AssetBlob} for the blob ingested by the {@code supplier}. If it gets attached, the
+   * supplier is notified on commit, and will no longer delete the blob.
+   */
+  public AssetBlob adopt(final BlobStreamSupplier supplier) {
+    Blob blob = supplier.getBlob();
+    BlobRef blobRef = new BlobRef(localNodeAccess.getId(), blobStore.getBlobStoreConfiguration().getName(), blob.getId().asUniqueString());
+    AssetBlob assetBlob = new AssetBlob(blobRef, blob, supplier.getSize(), supplier.getContentType(), supplier.getHashes());
+    adoptedBlobs.put(assetBlob, supplier);
+    return assetBlob;
+  }
+
   @Nullable
   public Blob get(BlobRef blobRef) {
     return blobStore.get(blobRef.getBlobId());
@@ -132,6 +161,11 @@ class BlobTx
         log.warn("Unable to delete new orphan blob {} while committing transaction", assetBlob.getBlobRef(), t);
       }
     }
+    for (Map.Entry<AssetBlob, BlobStreamSupplier> entry : adoptedBlobs.entrySet()) {
+      if (entry.getKey().isAttached()) {
+        entry.getValue().committed();
+      }
+    }
     clearState();
   }
 
@@ -150,5 +184,6 @@ class BlobTx
   private void clearState() {
     newlyCreatedBlobs.clear();
     deletionRequests.clear();
+    adoptedBlobs.clear();
   }
 }
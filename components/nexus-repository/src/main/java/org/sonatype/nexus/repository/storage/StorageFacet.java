@@ -37,4 +37,20 @@ public interface StorageFacet
    * Supplies transactions for use in {@link UnitOfWork}.
    */
   Supplier<StorageTx> txSupplier();
+
+  /**
+   * Marks the asset as accessed (see {@link Asset#markAsAccessed()}). If its last accessed timestamp changed, it is
+   * persisted asynchronously by a periodic batched flush, so callers on read paths do not need to save the asset.
+   *
+   * @return {@code true} if the timestamp was changed, otherwise {@code false}
+   * @since 3.1
+   */
+  boolean markAsAccessed(Asset asset);
+
+  /**
+   * Persists all asset last accessed timestamps marked by {@link #markAsAccessed(Asset)} and not yet flushed.
+   *
+   * @since 3.1
+   */
+  void flushAccessed();
 }
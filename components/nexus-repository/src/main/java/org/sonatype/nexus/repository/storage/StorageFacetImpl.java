@@ -25,6 +25,7 @@ import org.sonatype.nexus.blobstore.api.BlobStore;
 import org.sonatype.nexus.blobstore.api.BlobStoreManager;
 import org.sonatype.nexus.common.collect.NestedAttributesMap;
 import org.sonatype.nexus.common.node.LocalNodeAccess;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.common.stateguard.StateGuardAspect;
 import org.sonatype.nexus.orient.DatabaseInstance;
@@ -74,6 +75,12 @@ public class StorageFacetImpl
 
   private final MimeRulesSourceSelector mimeRulesSourceSelector;
 
+  private static final int ACCESS_FLUSH_INTERVAL_SECONDS = SystemPropertiesHelper.getInteger(
+      StorageFacetImpl.class.getName() + ".accessFlushInterval", 10);
+
+  private static final int ACCESS_FLUSH_BATCH_SIZE = SystemPropertiesHelper.getInteger(
+      StorageFacetImpl.class.getName() + ".accessFlushBatchSize", 500);
+
   @VisibleForTesting
   static final String CONFIG_KEY = "storage";
 
@@ -105,6 +112,8 @@ public class StorageFacetImpl
 
   private WritePolicySelector writePolicySelector;
 
+  private AssetAccessAccumulator assetAccessAccumulator;
+
   @Inject
   public StorageFacetImpl(final LocalNodeAccess localNodeAccess,
                           final BlobStoreManager blobStoreManager,
@@ -172,6 +181,22 @@ public class StorageFacetImpl
     }
   }
 
+  @Override
+  protected void doStart() throws Exception {
+    assetAccessAccumulator = new AssetAccessAccumulator(
+        bucket,
+        () -> openStorageTx(databaseInstanceProvider.get().acquire()),
+        ACCESS_FLUSH_BATCH_SIZE
+    );
+    assetAccessAccumulator.start(ACCESS_FLUSH_INTERVAL_SECONDS);
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    assetAccessAccumulator.stop();
+    assetAccessAccumulator = null;
+  }
+
   @Override
   protected void doDestroy() throws Exception {
     config = null;
@@ -205,6 +230,23 @@ public class StorageFacetImpl
     };
   }
 
+  @Override
+  @Guarded(by = STARTED)
+  public boolean markAsAccessed(final Asset asset) {
+    checkNotNull(asset);
+    if (asset.markAsAccessed()) {
+      assetAccessAccumulator.accessed(asset);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  @Guarded(by = STARTED)
+  public void flushAccessed() {
+    assetAccessAccumulator.flush();
+  }
+
   /**
    * Returns the "principal name" to be used with current instance of {@link StorageTx}.
    */
@@ -105,6 +105,14 @@ public interface StorageTx
    */
   Iterable<Asset> browseAssets(Component component);
 
+  /**
+   * Gets all assets owned by the specified components, in a single query. The components must be owned by the
+   * specified bucket.
+   *
+   * @since 3.1
+   */
+  Iterable<Asset> browseAssets(Iterable<Component> components, Bucket bucket);
+
   /**
    * Gets first asset owned by the specified component.
    */
@@ -183,6 +191,14 @@ public interface StorageTx
   @Nullable
   Component findComponent(EntityId id, Bucket bucket);
 
+  /**
+   * Gets the components with the given ids owned by the specified bucket, in a single query. Ids of components that
+   * are not found are ignored.
+   *
+   * @since 3.1
+   */
+  Iterable<Component> findComponents(Iterable<EntityId> ids, Bucket bucket);
+
   /**
    * Gets a component by some identifying property, or {@code null} if not found.
    */
@@ -334,7 +350,8 @@ public interface StorageTx
    *
    * @param blobName                blob name (may not be unique), but it will be used also in content validation. See
    *                                {@link ContentValidator}.
-   * @param streamSupplier          the content to be streamed into blob store.
+   * @param streamSupplier          the content to be streamed into blob store. A {@link BlobStreamSupplier} is
+   *                                ingested in a single pass, without re-reading the stream.
    * @param hashAlgorithms          {@link HashAlgorithm}s to be applied while streaming to blob store, returned in
    *                                {@link
    *                                AssetBlob}.
@@ -12,10 +12,14 @@
  */
 package org.sonatype.nexus.repository.storage;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -40,6 +44,7 @@ import org.sonatype.nexus.common.text.Strings2;
 import org.sonatype.nexus.mime.MimeRulesSource;
 import org.sonatype.nexus.repository.Format;
 import org.sonatype.nexus.repository.IllegalOperationException;
+import org.sonatype.nexus.repository.InvalidContentException;
 import org.sonatype.nexus.repository.Repository;
 
 import com.google.common.base.Supplier;
@@ -47,7 +52,9 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.tx.OTransaction.TXTYPE;
 import org.slf4j.Logger;
@@ -77,6 +84,12 @@ public class StorageTxImpl
 
   private static final int MAX_RETRIES = 8;
 
+  /**
+   * Size of the in-memory buffer holding the head of single-pass ingested content, used for content type detection.
+   */
+  private static final int INGEST_BUFFER_SIZE = SystemPropertiesHelper.getInteger(
+      StorageTxImpl.class.getName() + ".ingestBufferSize", 64 * 1024);
+
   private final String createdBy;
 
   private final BlobTx blobTx;
@@ -261,6 +274,17 @@ public class StorageTxImpl
     return assetEntityAdapter.browseByComponent(db, component);
   }
 
+  @Override
+  @Guarded(by = ACTIVE)
+  public Iterable<Asset> browseAssets(final Iterable<Component> components, final Bucket bucket) {
+    checkNotNull(components);
+    checkNotNull(bucket);
+    if (Iterables.isEmpty(components)) {
+      return ImmutableList.of();
+    }
+    return assetEntityAdapter.browseByComponents(db, bucket, components);
+  }
+
   @Override
   @Guarded(by = ACTIVE)
   public Asset firstAsset(final Component component) {
@@ -343,6 +367,22 @@ public class StorageTxImpl
     return bucketOwns(bucket, component) ? component : null;
   }
 
+  @Override
+  @Guarded(by = ACTIVE)
+  public Iterable<Component> findComponents(final Iterable<EntityId> ids, final Bucket bucket) {
+    checkNotNull(ids);
+    checkNotNull(bucket);
+    List<ORID> rids = new ArrayList<>();
+    for (EntityId id : ids) {
+      rids.add(componentEntityAdapter.recordIdentity(id));
+    }
+    if (rids.isEmpty()) {
+      return ImmutableList.of();
+    }
+    return componentEntityAdapter.browseByQuery(db, "@rid in :rids", ImmutableMap.<String, Object>of("rids", rids),
+        ImmutableList.of(bucket), null);
+  }
+
   @Nullable
   @Override
   @Guarded(by = ACTIVE)
@@ -534,6 +574,17 @@ public class StorageTxImpl
       throw new IllegalOperationException("Repository is read only: " + bucket.getRepositoryName());
     }
 
+    if (streamSupplier instanceof BlobStreamSupplier) {
+      return ingestBlob(
+          blobName,
+          (BlobStreamSupplier) streamSupplier,
+          hashAlgorithms,
+          headers,
+          declaredContentType,
+          skipContentVerification
+      );
+    }
+
     ImmutableMap.Builder<String, String> storageHeaders = ImmutableMap.builder();
     storageHeaders.put(Bucket.REPO_NAME_HEADER, bucket.getRepositoryName());
     storageHeaders.put(BlobStore.BLOB_NAME_HEADER, blobName);
@@ -559,6 +610,73 @@ public class StorageTxImpl
     );
   }
 
+  /**
+   * Ingests content of a {@link BlobStreamSupplier} in a single pass: the head of the stream is buffered in memory for
+   * content type detection, then the whole stream is hashed and written to the blob store, without a temporary file.
+   * Content larger than the buffer, that its head alone fails to validate, is validated against the stored blob, as
+   * some detectors (eg. for ZIP containers) need to see the whole content. Already ingested content (ie. when the
+   * transaction is retried) is reused, and only validated if its validation did not complete.
+   */
+  private AssetBlob ingestBlob(final String blobName,
+                               final BlobStreamSupplier streamSupplier,
+                               final Iterable<HashAlgorithm> hashAlgorithms,
+                               @Nullable final Map<String, String> headers,
+                               @Nullable final String declaredContentType,
+                               final boolean skipContentVerification) throws IOException
+  {
+    if (streamSupplier.getBlob() == null) {
+      final InputStream inputStream = streamSupplier.get();
+      final byte[] head = new byte[INGEST_BUFFER_SIZE];
+      final int headLength = ByteStreams.read(inputStream, head, 0, head.length);
+      final boolean complete = headLength < head.length;
+      final Supplier<InputStream> headSupplier = () -> new ByteArrayInputStream(head, 0, headLength);
+
+      String contentType = declaredContentType;
+      boolean validated = true;
+      if (!skipContentVerification) {
+        try {
+          contentType = determineContentType(headSupplier, blobName, declaredContentType);
+        }
+        catch (InvalidContentException e) {
+          if (complete) {
+            throw e;
+          }
+          log.debug("Head of {} is not valid on its own, validating whole content once stored", blobName, e);
+          contentType = contentValidator.determineContentType(
+              false,
+              headSupplier,
+              mimeRulesSource,
+              blobName,
+              declaredContentType
+          );
+          validated = false;
+        }
+      }
+
+      ImmutableMap.Builder<String, String> storageHeaders = ImmutableMap.builder();
+      storageHeaders.put(Bucket.REPO_NAME_HEADER, bucket.getRepositoryName());
+      storageHeaders.put(BlobStore.BLOB_NAME_HEADER, blobName);
+      storageHeaders.put(BlobStore.CREATED_BY_HEADER, createdBy);
+      storageHeaders.put(BlobStore.CONTENT_TYPE_HEADER, contentType);
+      if (headers != null) {
+        storageHeaders.putAll(headers);
+      }
+      blobTx.ingest(
+          streamSupplier,
+          complete ? headSupplier.get() : new SequenceInputStream(headSupplier.get(), inputStream),
+          storageHeaders.build(),
+          hashAlgorithms
+      );
+      if (validated) {
+        streamSupplier.validated(contentType);
+      }
+    }
+    if (!streamSupplier.isValidated()) {
+      streamSupplier.validated(determineContentType(streamSupplier, blobName, declaredContentType));
+    }
+    return blobTx.adopt(streamSupplier);
+  }
+
   @Override
   @Guarded(by = ACTIVE)
   public AssetBlob createBlob(final String blobName,
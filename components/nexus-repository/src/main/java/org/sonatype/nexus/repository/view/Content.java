@@ -14,6 +14,7 @@ package org.sonatype.nexus.repository.view;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 import java.util.Map;
 
@@ -28,6 +29,7 @@ import org.sonatype.nexus.repository.cache.CacheInfo;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.view.payloads.FileBackedPayload;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.hash.HashCode;
@@ -44,7 +46,7 @@ import static org.sonatype.nexus.common.time.DateHelper.toDateTime;
  * @since 3.0
  */
 public class Content
-    implements Payload
+    implements FileBackedPayload, AutoCloseable
 {
   /**
    * Key of {@link Asset} nested map of content related properties.
@@ -86,6 +88,15 @@ public class Content
     return payload.openInputStream();
   }
 
+  @Nullable
+  @Override
+  public FileChannel openFileChannel() throws IOException {
+    if (payload instanceof FileBackedPayload) {
+      return ((FileBackedPayload) payload).openFileChannel();
+    }
+    return null;
+  }
+
   @Override
   public long getSize() {
     return payload.getSize();
@@ -102,6 +113,18 @@ public class Content
     return attributes;
   }
 
+  /**
+   * Closes the wrapped payload, if it holds resources.
+   *
+   * @since 3.1
+   */
+  @Override
+  public void close() throws Exception {
+    if (payload instanceof AutoCloseable) {
+      ((AutoCloseable) payload).close();
+    }
+  }
+
   @Override
   public String toString() {
     return getClass().getSimpleName() + "{" +
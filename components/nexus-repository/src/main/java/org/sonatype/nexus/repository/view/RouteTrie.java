@@ -0,0 +1,299 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.view;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.view.matchers.ActionMatcher;
+import org.sonatype.nexus.repository.view.matchers.LiteralMatcher;
+import org.sonatype.nexus.repository.view.matchers.NeverMatcher;
+import org.sonatype.nexus.repository.view.matchers.PrefixMatcher;
+import org.sonatype.nexus.repository.view.matchers.SuffixMatcher;
+import org.sonatype.nexus.repository.view.matchers.logic.AndMatcher;
+import org.sonatype.nexus.repository.view.matchers.logic.OrMatcher;
+import org.sonatype.nexus.repository.view.matchers.token.TokenMatcher;
+import org.sonatype.nexus.repository.view.matchers.token.TokenParser;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiled form of the {@link Router} routes, narrowing the routes evaluated for a request down to those whose
+ * matchers can possibly match it.
+ *
+ * Each route's matcher is analysed for what it requires of a request: a literal path prefix, a literal path suffix
+ * and a set of actions. Prefixes and suffixes are kept {@link #fold(char) case folded}, so case-insensitive matchers
+ * can be indexed as well. Routes are held in a character trie keyed by their required prefix, where each node carries,
+ * in declaration order, every route whose prefix leads to that node. Dispatch walks the request path down the trie and
+ * evaluates the deepest node's candidates in order, so the first matching route still wins. Routes with matchers that
+ * cannot be analysed have no requirements and are candidates for every request.
+ *
+ * @since 3.1
+ */
+class RouteTrie
+{
+  private final Route[] routes;
+
+  private final Requirements[] requirements;
+
+  private final Node root = new Node();
+
+  RouteTrie(final List<Route> routes) {
+    checkNotNull(routes);
+    this.routes = routes.toArray(new Route[routes.size()]);
+    this.requirements = new Requirements[this.routes.length];
+
+    for (int i = 0; i < this.routes.length; i++) {
+      requirements[i] = Requirements.of(this.routes[i].getMatcher());
+      if (requirements[i].isSatisfiable()) {
+        Node node = root;
+        for (char c : requirements[i].prefix.toCharArray()) {
+          node = node.children.computeIfAbsent(c, k -> new Node());
+        }
+        node.routes.add(i);
+      }
+    }
+    root.compile(new int[0]);
+  }
+
+  /**
+   * Find the first route matching the given context, or {@code null} if none.
+   */
+  @Nullable
+  Route find(final Context context) {
+    Request request = context.getRequest();
+    String path = request.getPath();
+    String action = request.getAction();
+
+    Node node = root;
+    for (int i = 0; i < path.length(); i++) {
+      Node child = node.children.get(fold(path.charAt(i)));
+      if (child == null) {
+        break;
+      }
+      node = child;
+    }
+
+    for (int index : node.candidates) {
+      if (requirements[index].accepts(action, path) && routes[index].getMatcher().matches(context)) {
+        return routes[index];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the number of routes without a required path prefix.
+   */
+  int unprefixedCount() {
+    return root.candidates.length;
+  }
+
+  /**
+   * Folds the case of the given character, such that characters equal ignoring case, as by
+   * {@link String#equalsIgnoreCase(String)}, fold to the same character.
+   */
+  static char fold(final char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  static String fold(final String value) {
+    char[] chars = value.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = fold(chars[i]);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Trie node.
+   */
+  private static class Node
+  {
+    private final Map<Character, Node> children = new HashMap<>();
+
+    /**
+     * Indexes of the routes whose required prefix ends at this node.
+     */
+    private final List<Integer> routes = new ArrayList<>();
+
+    /**
+     * Indexes of the routes whose required prefix ends at this node or any of its ancestors, in declaration order.
+     */
+    private int[] candidates;
+
+    private void compile(final int[] inherited) {
+      candidates = Arrays.copyOf(inherited, inherited.length + routes.size());
+      for (int i = 0; i < routes.size(); i++) {
+        candidates[inherited.length + i] = routes.get(i);
+      }
+      Arrays.sort(candidates);
+      for (Node child : children.values()) {
+        child.compile(candidates);
+      }
+    }
+  }
+
+  /**
+   * What a matcher requires of a request in order to match; necessary, but not sufficient, conditions. The prefix and
+   * suffix are case folded and must be compared against the case folded request path.
+   */
+  static class Requirements
+  {
+    static final Requirements NONE = new Requirements(null, "", "");
+
+    static final Requirements UNSATISFIABLE = new Requirements(ImmutableSet.of(), "", "");
+
+    /**
+     * Allowed actions, or {@code null} if any action is allowed.
+     */
+    @Nullable
+    final Set<String> actions;
+
+    final String prefix;
+
+    final String suffix;
+
+    private Requirements(@Nullable final Set<String> actions, final String prefix, final String suffix) {
+      this.actions = actions;
+      this.prefix = checkNotNull(prefix);
+      this.suffix = checkNotNull(suffix);
+    }
+
+    /**
+     * Requirements of the given unfolded prefix and suffix.
+     */
+    static Requirements path(final String prefix, final String suffix) {
+      return new Requirements(null, fold(prefix), fold(suffix));
+    }
+
+    boolean isSatisfiable() {
+      return actions == null || !actions.isEmpty();
+    }
+
+    boolean accepts(final String action, final String path) {
+      if (actions != null && !actions.contains(action)) {
+        return false;
+      }
+      int offset = path.length() - suffix.length();
+      if (offset < 0) {
+        return false;
+      }
+      for (int i = 0; i < suffix.length(); i++) {
+        if (fold(path.charAt(offset + i)) != suffix.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Requirements of a request matching both this and the other requirements.
+     */
+    Requirements and(final Requirements other) {
+      if (!isSatisfiable() || !other.isSatisfiable()) {
+        return UNSATISFIABLE;
+      }
+      Set<String> bothActions = actions == null ? other.actions
+          : other.actions == null ? actions : Sets.intersection(actions, other.actions).immutableCopy();
+      String longerPrefix = prefix.startsWith(other.prefix) ? prefix
+          : other.prefix.startsWith(prefix) ? other.prefix : null;
+      String longerSuffix = suffix.endsWith(other.suffix) ? suffix
+          : other.suffix.endsWith(suffix) ? other.suffix : null;
+      if (longerPrefix == null || longerSuffix == null) {
+        return UNSATISFIABLE;
+      }
+      return new Requirements(bothActions, longerPrefix, longerSuffix);
+    }
+
+    /**
+     * Requirements of a request matching either this or the other requirements.
+     */
+    Requirements or(final Requirements other) {
+      if (!isSatisfiable()) {
+        return other;
+      }
+      if (!other.isSatisfiable()) {
+        return this;
+      }
+      Set<String> eitherActions = actions == null || other.actions == null ? null
+          : Sets.union(actions, other.actions).immutableCopy();
+      return new Requirements(eitherActions, Strings.commonPrefix(prefix, other.prefix),
+          Strings.commonSuffix(suffix, other.suffix));
+    }
+
+    /**
+     * Analyses the given matcher. Only the exact built-in matcher types are understood, as subclasses may change how
+     * they match; anything else has no requirements.
+     *
+     * Case-insensitive matchers lower case the path as a whole, which for some non-ASCII characters is not the same as
+     * folding it character by character, so only their ASCII literals are indexed.
+     */
+    static Requirements of(final Matcher matcher) {
+      Class<?> type = matcher.getClass();
+      if (type == ActionMatcher.class) {
+        return new Requirements(ImmutableSet.copyOf(((ActionMatcher) matcher).getAllowedActions()), "", "");
+      }
+      if (type == LiteralMatcher.class) {
+        LiteralMatcher literal = (LiteralMatcher) matcher;
+        return indexable(literal.getLiteral(), literal.isIgnoreCase())
+            ? path(literal.getLiteral(), literal.getLiteral()) : NONE;
+      }
+      if (type == PrefixMatcher.class) {
+        PrefixMatcher prefix = (PrefixMatcher) matcher;
+        return indexable(prefix.getPrefix(), prefix.isIgnoreCase()) ? path(prefix.getPrefix(), "") : NONE;
+      }
+      if (type == SuffixMatcher.class) {
+        SuffixMatcher suffix = (SuffixMatcher) matcher;
+        return indexable(suffix.getSuffix(), suffix.isIgnoreCase()) ? path("", suffix.getSuffix()) : NONE;
+      }
+      if (type == TokenMatcher.class) {
+        TokenParser parser = ((TokenMatcher) matcher).getParser();
+        return path(parser.getLiteralPrefix(), parser.getLiteralSuffix());
+      }
+      if (type == AndMatcher.class) {
+        Requirements requirements = NONE;
+        for (Matcher each : ((AndMatcher) matcher).getMatchers()) {
+          requirements = requirements.and(of(each));
+        }
+        return requirements;
+      }
+      if (type == OrMatcher.class) {
+        Requirements requirements = UNSATISFIABLE;
+        for (Matcher each : ((OrMatcher) matcher).getMatchers()) {
+          requirements = requirements.or(of(each));
+        }
+        return requirements;
+      }
+      if (type == NeverMatcher.class) {
+        return UNSATISFIABLE;
+      }
+      return NONE;
+    }
+
+    private static boolean indexable(final String literal, final boolean ignoreCase) {
+      return !ignoreCase || CharMatcher.ASCII.matchesAllOf(literal);
+    }
+  }
+}
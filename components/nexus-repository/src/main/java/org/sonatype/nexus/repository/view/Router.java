@@ -32,13 +32,14 @@ import static com.google.common.base.Preconditions.checkState;
 public class Router
     extends ComponentSupport
 {
-  private final List<Route> routes;
+  private final RouteTrie routes;
 
   private final DefaultRoute defaultRoute;
 
   public Router(final List<Route> routes, final DefaultRoute defaultRoute) {
-    this.routes = checkNotNull(routes, "Missing routes");
+    this.routes = new RouteTrie(checkNotNull(routes, "Missing routes"));
     this.defaultRoute = checkNotNull(defaultRoute, "Missing default route");
+    log.debug("Compiled {} routes, {} without a path prefix", routes.size(), this.routes.unprefixedCount());
   }
 
   /**
@@ -122,12 +123,8 @@ public class Router
    * Find the first matching route for the given context.
    */
   private Route findRoute(final Context context) {
-    for (Route route : routes) {
-      if (route.getMatcher().matches(context)) {
-        return route;
-      }
-    }
-    return defaultRoute;
+    Route route = routes.find(context);
+    return route != null ? route : defaultRoute;
   }
 
   //
@@ -40,6 +40,13 @@ public class ActionMatcher
     this.allowedActions = asList(allowedActions);
   }
 
+  /**
+   * @since 3.1
+   */
+  public List<String> getAllowedActions() {
+    return allowedActions;
+  }
+
   @Override
   public boolean matches(final Context context) {
     final String action = context.getRequest().getAction();
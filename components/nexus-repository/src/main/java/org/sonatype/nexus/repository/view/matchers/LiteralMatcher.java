@@ -40,6 +40,20 @@ public class LiteralMatcher
     this(literal, true);
   }
 
+  /**
+   * @since 3.1
+   */
+  public String getLiteral() {
+    return literal;
+  }
+
+  /**
+   * @since 3.1
+   */
+  public boolean isIgnoreCase() {
+    return ignoreCase;
+  }
+
   @Override
   public boolean matches(final Context context) {
     checkNotNull(context);
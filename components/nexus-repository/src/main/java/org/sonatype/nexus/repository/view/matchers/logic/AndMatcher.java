@@ -41,6 +41,13 @@ public class AndMatcher
     this.matchers = checkNotNull(matchers);
   }
 
+  /**
+   * @since 3.1
+   */
+  public List<Matcher> getMatchers() {
+    return matchers;
+  }
+
   @Override
   public boolean matches(final Context context) {
     checkNotNull(context);
@@ -0,0 +1,112 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.view.matchers.token;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only view of the variable values of a parsed path, holding offsets into the path. Values are only copied out
+ * of the path when they are read.
+ *
+ * @since 3.1
+ */
+class TokenMap
+    extends AbstractMap<String, String>
+{
+  private final String path;
+
+  private final String[] names;
+
+  private final int[] groups;
+
+  private final int[] bounds;
+
+  /**
+   * @param names  distinct variable names
+   * @param groups per name, the index of the variable whose value it has
+   * @param bounds per variable, its start and end offset in the path
+   */
+  TokenMap(final String path, final String[] names, final int[] groups, final int[] bounds) {
+    this.path = path;
+    this.names = names;
+    this.groups = groups;
+    this.bounds = bounds;
+  }
+
+  @Override
+  public String get(final Object key) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(key)) {
+        return value(i);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    for (String name : names) {
+      if (name.equals(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int size() {
+    return names.length;
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return new AbstractSet<Entry<String, String>>()
+    {
+      @Override
+      public Iterator<Entry<String, String>> iterator() {
+        return new Iterator<Entry<String, String>>()
+        {
+          private int next;
+
+          @Override
+          public boolean hasNext() {
+            return next < names.length;
+          }
+
+          @Override
+          public Entry<String, String> next() {
+            if (next >= names.length) {
+              throw new NoSuchElementException();
+            }
+            int i = next++;
+            return new SimpleImmutableEntry<>(names[i], value(i));
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return names.length;
+      }
+    };
+  }
+
+  private String value(final int name) {
+    int group = groups[name];
+    return path.substring(bounds[group * 2], bounds[group * 2 + 1]);
+  }
+}
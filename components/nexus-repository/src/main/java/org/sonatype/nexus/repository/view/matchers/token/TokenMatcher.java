@@ -49,6 +49,20 @@ public class TokenMatcher
     this.parser = new TokenParser(pattern);
   }
 
+  /**
+   * @since 3.1
+   */
+  public String getPattern() {
+    return pattern;
+  }
+
+  /**
+   * @since 3.1
+   */
+  public TokenParser getParser() {
+    return parser;
+  }
+
   @Override
   public boolean matches(final Context context) {
     checkNotNull(context);
@@ -13,10 +13,8 @@
 package org.sonatype.nexus.repository.view.matchers.token;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -24,6 +22,8 @@ import javax.annotation.Nullable;
 
 import org.sonatype.goodies.common.ComponentSupport;
 
+import com.google.common.primitives.Ints;
+
 import static com.google.common.base.Preconditions.checkState;
 
 
@@ -53,10 +53,33 @@ public class TokenParser
 
   private final Pattern pattern;
 
+  @Nullable
+  private final TokenScanner scanner;
+
+  /**
+   * Distinct variable names.
+   */
+  private final String[] names;
+
+  /**
+   * Per distinct name, the index of its first variable.
+   */
+  private final int[] nameGroups;
+
+  /**
+   * Per variable, the index of the first variable of the same name.
+   */
+  private final int[] sameAs;
+
+  private final String literalPrefix;
+
+  private final String literalSuffix;
+
   public TokenParser(final String templatePattern) {
     final List<Token> tokens = new PatternParser(templatePattern).getTokens();
     pattern = Pattern.compile(regexp(tokens));
-    log.trace("Pattern: {}", pattern);
+    scanner = TokenScanner.of(tokens);
+    log.trace("Pattern: {}, scanned: {}", pattern, scanner != null);
 
     // Separate the variable tokens
     variables = new ArrayList<>();
@@ -65,47 +88,120 @@ public class TokenParser
         variables.add((VariableToken) token);
       }
     }
+
+    List<String> distinct = new ArrayList<>();
+    List<Integer> firstGroups = new ArrayList<>();
+    sameAs = new int[variables.size()];
+    for (int i = 0; i < variables.size(); i++) {
+      String name = variables.get(i).getName();
+      int first = distinct.indexOf(name);
+      if (first < 0) {
+        distinct.add(name);
+        firstGroups.add(i);
+        sameAs[i] = i;
+      }
+      else {
+        sameAs[i] = firstGroups.get(first);
+      }
+    }
+    names = distinct.toArray(new String[distinct.size()]);
+    nameGroups = Ints.toArray(firstGroups);
+
+    literalPrefix = literal(tokens, 0, 1);
+    literalSuffix = literal(tokens, tokens.size() - 1, -1);
   }
 
   /**
    * Attempts to parse the provided path against the template pattern.  If the pattern matches, the resulting Map
    * contains an entry for each variable in the pattern. The variable names are keys, with the matching portions of the
    * path as values.  Returns {@code null} if the pattern does not match.
+   *
+   * The returned map is a read-only view onto the path.
    */
   @Nullable
   public Map<String, String> parse(final String path) {
-    final Matcher matcher = pattern.matcher(path);
-    if (!matcher.matches()) {
-      return null;
+    final int[] bounds = new int[variables.size() * 2];
+    if (scanner != null) {
+      if (!scanner.matches(path, bounds)) {
+        return null;
+      }
     }
+    else {
+      final Matcher matcher = pattern.matcher(path);
+      if (!matcher.matches()) {
+        return null;
+      }
 
-    checkState(matcher.groupCount() == variables.size(),
-        "Mismatch between the number of captured groups (%s) and the number of variables, %s.", matcher.groupCount(),
-        variables.size());
-
-    Map<String, String> values = new HashMap<>();
-    for (int i = 0; i < matcher.groupCount(); i++) {
-      final String name = variables.get(i).getName();
-      final String value = matcher.group(i + 1);
-      if (values.containsKey(name)) {
-        final String existingValue = values.get(name);
-        if (!Objects.equals(existingValue, value)) {
-          log.trace("Variable '{}' values mismatch: '{}' vs '{}'", name, existingValue, value);
-          return null;
-        }
+      checkState(matcher.groupCount() == variables.size(),
+          "Mismatch between the number of captured groups (%s) and the number of variables, %s.", matcher.groupCount(),
+          variables.size());
+
+      for (int i = 0; i < matcher.groupCount(); i++) {
+        bounds[i * 2] = matcher.start(i + 1);
+        bounds[i * 2 + 1] = matcher.end(i + 1);
       }
-      else {
-        values.put(name, value);
+    }
+
+    for (int i = 0; i < sameAs.length; i++) {
+      int first = sameAs[i];
+      if (first != i && !sameValue(path, bounds, first, i)) {
+        if (log.isTraceEnabled()) {
+          log.trace("Variable '{}' values mismatch: '{}' vs '{}'", variables.get(i).getName(),
+              path.substring(bounds[first * 2], bounds[first * 2 + 1]),
+              path.substring(bounds[i * 2], bounds[i * 2 + 1]));
+        }
+        return null;
       }
     }
 
-    return values;
+    return new TokenMap(path, names, nameGroups, bounds);
+  }
+
+  private static boolean sameValue(final String path, final int[] bounds, final int a, final int b) {
+    int length = bounds[a * 2 + 1] - bounds[a * 2];
+    return length == bounds[b * 2 + 1] - bounds[b * 2]
+        && path.regionMatches(bounds[a * 2], path, bounds[b * 2], length);
   }
 
   public String getPattern() {
     return pattern.toString();
   }
 
+  /**
+   * Returns the literal text every path matched by this parser starts with, possibly empty.
+   *
+   * @since 3.1
+   */
+  public String getLiteralPrefix() {
+    return literalPrefix;
+  }
+
+  /**
+   * Returns the literal text every path matched by this parser ends with, possibly empty.
+   *
+   * @since 3.1
+   */
+  public String getLiteralSuffix() {
+    return literalSuffix;
+  }
+
+  /**
+   * Concatenates the literal tokens found walking from the given index in the given direction, up to the first
+   * variable.
+   */
+  private static String literal(final List<Token> tokens, final int from, final int step) {
+    StringBuilder b = new StringBuilder();
+    for (int i = from; i >= 0 && i < tokens.size() && tokens.get(i) instanceof LiteralToken; i += step) {
+      if (step > 0) {
+        b.append(tokens.get(i).value);
+      }
+      else {
+        b.insert(0, tokens.get(i).value);
+      }
+    }
+    return b.toString();
+  }
+
   private String regexp(final List<Token> tokens) {
     StringBuilder b = new StringBuilder();
     for (Token token : tokens) {
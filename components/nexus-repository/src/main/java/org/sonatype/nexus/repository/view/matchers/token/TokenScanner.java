@@ -0,0 +1,149 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.view.matchers.token;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Matches paths against parsed pattern tokens by scanning the path, without regular expressions.
+ *
+ * Only patterns whose variables use one of the simple expressions {@code [^/]+}, {@code [^/]*}, {@code .+} or
+ * {@code .*} can be scanned. Variables are matched greedily and back off to the previous occurrence of the following
+ * literal, the same way the equivalent regular expression backtracks, so both yield the same values.
+ *
+ * @since 3.1
+ */
+class TokenScanner
+{
+  private static final int SEGMENT = 0;
+
+  private static final int LINE = 1;
+
+  /**
+   * Per token, the literal text or {@code null} for variables.
+   */
+  private final String[] literals;
+
+  /**
+   * Per token, the characters a variable accepts, either {@link #SEGMENT} or {@link #LINE}.
+   */
+  private final int[] classes;
+
+  /**
+   * Per token, the minimum length of a variable.
+   */
+  private final int[] minLengths;
+
+  /**
+   * Per token, the index of a variable among all variables.
+   */
+  private final int[] groups;
+
+  private TokenScanner(final List<Token> tokens) {
+    int size = tokens.size();
+    literals = new String[size];
+    classes = new int[size];
+    minLengths = new int[size];
+    groups = new int[size];
+    int group = 0;
+    for (int i = 0; i < size; i++) {
+      Token token = tokens.get(i);
+      if (token instanceof LiteralToken) {
+        literals[i] = token.value;
+      }
+      else {
+        classes[i] = token.value.startsWith(".") ? LINE : SEGMENT;
+        minLengths[i] = token.value.endsWith("+") ? 1 : 0;
+        groups[i] = group++;
+      }
+    }
+  }
+
+  /**
+   * Returns a scanner for the given tokens, or {@code null} if any variable uses a custom expression.
+   */
+  @Nullable
+  static TokenScanner of(final List<Token> tokens) {
+    for (Token token : tokens) {
+      if (token instanceof VariableToken && !isSimple(token.value)) {
+        return null;
+      }
+    }
+    return new TokenScanner(tokens);
+  }
+
+  private static boolean isSimple(final String regexp) {
+    switch (regexp) {
+      case "[^/]+":
+      case "[^/]*":
+      case ".+":
+      case ".*":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Matches the whole path, recording the start and end offset of each variable in the given bounds.
+   */
+  boolean matches(final String path, final int[] bounds) {
+    return match(path, bounds, 0, 0);
+  }
+
+  private boolean match(final String path, final int[] bounds, final int index, final int pos) {
+    if (index == literals.length) {
+      return pos == path.length();
+    }
+
+    String literal = literals[index];
+    if (literal != null) {
+      return path.startsWith(literal, pos) && match(path, bounds, index + 1, pos + literal.length());
+    }
+
+    int max = pos;
+    while (max < path.length() && accepts(classes[index], path.charAt(max))) {
+      max++;
+    }
+    int min = pos + minLengths[index];
+    String next = index + 1 < literals.length ? literals[index + 1] : null;
+
+    // longest run first, backing off to where the rest of the pattern matches
+    for (int end = max; end >= min; end--) {
+      if (next != null) {
+        end = path.lastIndexOf(next, end);
+        if (end < min) {
+          return false;
+        }
+      }
+      if (match(path, bounds, index + 1, end)) {
+        bounds[groups[index] * 2] = pos;
+        bounds[groups[index] * 2 + 1] = end;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Mirrors {@code [^/]} and {@code .}, the latter not matching line terminators.
+   */
+  private static boolean accepts(final int characterClass, final char c) {
+    if (characterClass == SEGMENT) {
+      return c != '/';
+    }
+    return c != '\n' && c != '\r' && c != '\u0085' && c != '\u2028' && c != '\u2029';
+  }
+}
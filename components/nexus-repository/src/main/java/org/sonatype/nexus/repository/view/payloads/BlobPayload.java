@@ -14,21 +14,22 @@ package org.sonatype.nexus.repository.view.payloads;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 import javax.annotation.Nullable;
 
 import org.sonatype.nexus.blobstore.api.Blob;
-import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.blobstore.api.FileBackedBlob;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * {@link Blob} backed payload.
+ * {@link Blob} backed payload, which is {@link FileBackedPayload file backed} when the blob is.
  *
  * @since 3.0
  */
 public class BlobPayload
-    implements Payload
+    implements FileBackedPayload
 {
   private final Blob blob;
 
@@ -44,6 +45,15 @@ public class BlobPayload
     return blob.getInputStream();
   }
 
+  @Nullable
+  @Override
+  public FileChannel openFileChannel() throws IOException {
+    if (blob instanceof FileBackedBlob) {
+      return ((FileBackedBlob) blob).openFileChannel();
+    }
+    return null;
+  }
+
   @Override
   public long getSize() {
     return blob.getMetrics().getContentSize();
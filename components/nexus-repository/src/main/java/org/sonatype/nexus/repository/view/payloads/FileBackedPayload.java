@@ -0,0 +1,39 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.view.payloads;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.view.Payload;
+
+/**
+ * A {@link Payload} whose content may be read directly from a local file, allowing it to be sent without copying
+ * through the heap.
+ *
+ * @since 3.1
+ */
+public interface FileBackedPayload
+    extends Payload
+{
+  /**
+   * Opens a read-only channel positioned at the start of the content, which spans {@link #getSize()} bytes from there.
+   * The caller is responsible for closing the channel.
+   *
+   * @return the channel, or {@code null} if the content is not file backed
+   */
+  @Nullable
+  FileChannel openFileChannel() throws IOException;
+}
@@ -19,19 +19,28 @@ import java.util.LinkedHashSet;
 import javax.validation.ConstraintViolation;
 
 import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.Format;
 import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.config.ConfigurationFacet;
 import org.sonatype.nexus.repository.group.GroupFacetImpl.Config;
+import org.sonatype.nexus.repository.manager.RepositoryCreatedEvent;
 import org.sonatype.nexus.repository.manager.RepositoryManager;
 import org.sonatype.nexus.repository.types.GroupType;
+import org.sonatype.nexus.repository.types.HostedType;
 import org.sonatype.nexus.validation.ConstraintViolationFactory;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class GroupFacetImplTest
@@ -45,6 +54,18 @@ public class GroupFacetImplTest
 
   private GroupFacetImpl groupFacetImpl;
 
+  private Format format = new Format("test") { };
+
+  private Repository repositoryUnderTest;
+
+  private Repository repository1;
+
+  private Repository hosted1;
+
+  private Repository hosted2;
+
+  private GroupFacet groupFacet1;
+
   @Before
   public void setup() throws Exception {
     repositoryManager = mock(RepositoryManager.class);
@@ -53,11 +74,11 @@ public class GroupFacetImplTest
 
     when(constraintViolationFactory.createViolation(anyString(), anyString())).thenReturn(mock(ConstraintViolation.class));
 
-    Repository repositoryUnderTest = mock(Repository.class);
-    Repository repository1 = mock(Repository.class);
+    repositoryUnderTest = mock(Repository.class);
+    repository1 = mock(Repository.class);
     Repository repository2 = mock(Repository.class);
     Repository repository3 = mock(Repository.class);
-    GroupFacet groupFacet1 = mock(GroupFacet.class);
+    groupFacet1 = mock(GroupFacet.class);
     GroupFacet groupFacet2 = mock(GroupFacet.class);
     GroupFacet groupFacet3 = mock(GroupFacet.class);
     when(groupFacet1.members()).thenReturn(Collections.emptyList());
@@ -81,9 +102,33 @@ public class GroupFacetImplTest
     when(repositoryManager.get("repository2")).thenReturn(repository2);
     when(repositoryManager.get("repository3")).thenReturn(repository3);
 
+    hosted1 = mock(Repository.class);
+    hosted2 = mock(Repository.class);
+    when(hosted1.getType()).thenReturn(new HostedType());
+    when(hosted2.getType()).thenReturn(new HostedType());
+    when(hosted1.getName()).thenReturn("hosted1");
+    when(hosted2.getName()).thenReturn("hosted2");
+    when(repositoryManager.get("hosted1")).thenReturn(hosted1);
+    when(repositoryManager.get("hosted2")).thenReturn(hosted2);
+
+    for (Repository repository : Arrays.asList(repositoryUnderTest, repository1, repository2, repository3, hosted1,
+        hosted2)) {
+      when(repository.getFormat()).thenReturn(format);
+    }
+
     groupFacetImpl.attach(repositoryUnderTest);
   }
 
+  private void configure(final String... memberNames) throws Exception {
+    Config config = new Config();
+    config.memberNames = new LinkedHashSet<>(Arrays.asList(memberNames));
+    ConfigurationFacet configurationFacet = mock(ConfigurationFacet.class);
+    Configuration configuration = mock(Configuration.class);
+    when(configurationFacet.readSection(configuration, GroupFacetImpl.CONFIG_KEY, Config.class)).thenReturn(config);
+    when(repositoryUnderTest.facet(ConfigurationFacet.class)).thenReturn(configurationFacet);
+    groupFacetImpl.doConfigure(configuration);
+  }
+
   @Test
   public void testDoValidate_pass() {
     Config config = new Config();
@@ -110,4 +155,28 @@ public class GroupFacetImplTest
     config.memberNames.add("repository2");
     assertNotNull(groupFacetImpl.validateGroupDoesNotContainItself("repositoryUnderTest", config));
   }
+
+  @Test
+  public void membersResolvedOnceUntilInvalidated() throws Exception {
+    configure("hosted1", "missing");
+    assertThat(groupFacetImpl.members(), contains(hosted1));
+    assertThat(groupFacetImpl.members(), contains(hosted1));
+    verify(repositoryManager, times(1)).get("missing");
+
+    when(repositoryManager.get("missing")).thenReturn(hosted2);
+    groupFacetImpl.on(new RepositoryCreatedEvent(hosted2));
+    assertThat(groupFacetImpl.members(), contains(hosted1, hosted2));
+    verify(repositoryManager, times(2)).get("missing");
+  }
+
+  @Test
+  public void leafMembersFlattenNestedGroupsOnce() throws Exception {
+    // repository2 -> repository3 -> (repository1 -> (hosted1, hosted2), repositoryUnderTest)
+    when(groupFacet1.members()).thenReturn(Arrays.asList(hosted1, hosted2));
+    configure("hosted2", "repository2");
+
+    assertThat(groupFacetImpl.leafMembers(), contains(hosted2, hosted1));
+    assertThat(groupFacetImpl.leafMembers(), contains(hosted2, hosted1));
+    verify(groupFacet1, times(1)).members();
+  }
 }
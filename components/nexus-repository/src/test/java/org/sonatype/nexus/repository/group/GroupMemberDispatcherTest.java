@@ -0,0 +1,258 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.group;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.group.GroupDispatch.Mode;
+import org.sonatype.nexus.repository.group.GroupHandler.DispatchedRepositories;
+import org.sonatype.nexus.repository.http.HttpResponses;
+import org.sonatype.nexus.repository.manager.RepositoryDeletedEvent;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.nexus.repository.view.Status;
+import org.sonatype.nexus.repository.view.ViewFacet;
+
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Tests for {@link GroupMemberDispatcher}.
+ */
+public class GroupMemberDispatcherTest
+    extends TestSupport
+{
+  private final Request request = new Request.Builder().action("GET").path("/foo").build();
+
+  private GroupMemberDispatcher underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    // member requests run as the current subject
+    ThreadContext.bind(new DefaultSecurityManager());
+    underTest = new GroupMemberDispatcher();
+    underTest.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    underTest.stop();
+    ThreadContext.unbindSecurityManager();
+  }
+
+  @Test
+  public void parallelKeepsMemberPrecedence() throws Exception {
+    Response first = HttpResponses.ok("first");
+    Payload unusedPayload = closeablePayload();
+    CountDownLatch fastAnswered = new CountDownLatch(1);
+    CountDownLatch hitAnswered = new CountDownLatch(1);
+    // members answer in reverse order
+    List<Repository> members = Arrays.asList(
+        member("slow-miss", HttpResponses.notFound(), hitAnswered, null),
+        member("slow-hit", first, fastAnswered, hitAnswered),
+        member("fast-hit", HttpResponses.ok(unusedPayload), null, fastAnswered)
+    );
+    GroupDispatch dispatch = new GroupDispatch("group", Mode.PARALLEL, 0, 8);
+
+    assertThat(underTest.first(request, members, new DispatchedRepositories(), dispatch), sameInstance(first));
+
+    verify((AutoCloseable) unusedPayload, timeout(5000)).close();
+    assertThat(underTest.getWastedFetchCount("group"), is(1L));
+  }
+
+  @Test
+  public void hedgedAsksNextMemberWhenSlow() throws Exception {
+    Response hit = HttpResponses.ok("hit");
+    CountDownLatch fastAnswered = new CountDownLatch(1);
+    Repository fast = member("fast-hit", hit, null, fastAnswered);
+    Repository unused = member("unused", HttpResponses.ok(), null, null);
+    // the slow member only answers once the next one was asked, well within the next hedge delay
+    List<Repository> members = Arrays.asList(member("slow-miss", HttpResponses.notFound(), fastAnswered, null), fast,
+        unused);
+    GroupDispatch dispatch = new GroupDispatch("group", Mode.HEDGED, 500, 8);
+
+    assertThat(underTest.first(request, members, new DispatchedRepositories(), dispatch), sameInstance(hit));
+
+    assertThat(underTest.getHedgedFetchCount("group"), is(1L));
+    verify(unused.facet(ViewFacet.class), never()).dispatch(any(Request.class));
+  }
+
+  @Test
+  public void noSuccessfulMember() throws Exception {
+    Payload missPayload = closeablePayload();
+    List<Repository> members = Arrays.asList(
+        member("a", response(Status.failure(404), missPayload), null, null),
+        member("b", HttpResponses.notFound(), null, null)
+    );
+    GroupDispatch dispatch = new GroupDispatch("group", Mode.PARALLEL, 0, 8);
+
+    assertThat(underTest.first(request, members, new DispatchedRepositories(), dispatch), nullValue());
+    assertThat(underTest.getWastedFetchCount("group"), is(0L));
+    verify((AutoCloseable) missPayload).close();
+  }
+
+  @Test
+  public void alreadyDispatchedMembersAreSkipped() throws Exception {
+    Repository dispatchedMember = member("dispatched", HttpResponses.ok(), null, null);
+    Response hit = HttpResponses.ok("hit");
+    DispatchedRepositories dispatched = new DispatchedRepositories();
+    dispatched.add(dispatchedMember);
+
+    List<Repository> members = Arrays.asList(dispatchedMember, member("other", hit, null, null));
+    GroupDispatch dispatch = new GroupDispatch("group", Mode.PARALLEL, 0, 8);
+
+    assertThat(underTest.first(request, members, dispatched, dispatch), sameInstance(hit));
+    verify(dispatchedMember.facet(ViewFacet.class), never()).dispatch(any(Request.class));
+  }
+
+  @Test
+  public void allKeepsMemberOrderBeyondConcurrencyLimit() throws Exception {
+    GroupDispatch dispatch = spy(new GroupDispatch("group", Mode.PARALLEL, 0, 1));
+    CountDownLatch refused = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      boolean acquired = (Boolean) invocation.callRealMethod();
+      if (!acquired) {
+        refused.countDown();
+      }
+      return acquired;
+    }).when(dispatch).tryAcquire();
+    // holds the only slot until the next member was refused one
+    Repository a = member("a", HttpResponses.ok("a"), refused, null);
+    Repository b = member("b", HttpResponses.notFound(), null, null);
+    Repository c = member("c", HttpResponses.ok("c"), null, null);
+
+    LinkedHashMap<Repository, Response> responses =
+        underTest.all(request, Arrays.asList(a, b, c), new DispatchedRepositories(), dispatch);
+
+    assertThat(responses.keySet(), contains(a, b, c));
+    assertThat(underTest.getInlineFetchCount(), is(2L));
+  }
+
+  @Test
+  public void membersDoNotSeeEachOthersRequestChanges() throws Exception {
+    Request conditional = new Request.Builder().action("GET").path("/foo").header("If-None-Match", "\"etag\"").build();
+    CountDownLatch changed = new CountDownLatch(1);
+    CountDownLatch read = new CountDownLatch(1);
+    Repository stripping = mock(Repository.class);
+    ViewFacet strippingView = mock(ViewFacet.class);
+    when(stripping.getName()).thenReturn("stripping");
+    when(stripping.facet(ViewFacet.class)).thenReturn(strippingView);
+    when(strippingView.dispatch(any(Request.class))).thenAnswer(invocation -> {
+      Request memberRequest = (Request) invocation.getArguments()[0];
+      memberRequest.getHeaders().remove("If-None-Match");
+      memberRequest.getAttributes().set("stash", "stripping");
+      changed.countDown();
+      await(read);
+      return HttpResponses.notFound();
+    });
+    Repository reading = mock(Repository.class);
+    ViewFacet readingView = mock(ViewFacet.class);
+    when(reading.getName()).thenReturn("reading");
+    when(reading.facet(ViewFacet.class)).thenReturn(readingView);
+    when(readingView.dispatch(any(Request.class))).thenAnswer(invocation -> {
+      await(changed);
+      Request memberRequest = (Request) invocation.getArguments()[0];
+      read.countDown();
+      return memberRequest.getAttributes().contains("stash") ? HttpResponses.badRequest()
+          : HttpResponses.ok(memberRequest.getHeaders().get("If-None-Match"));
+    });
+    GroupDispatch dispatch = new GroupDispatch("group", Mode.PARALLEL, 0, 8);
+
+    Response response = underTest.first(conditional, Arrays.asList(stripping, reading), new DispatchedRepositories(),
+        dispatch);
+
+    assertThat(response.getStatus().getMessage(), is("\"etag\""));
+    assertThat(conditional.getHeaders().get("If-None-Match"), is("\"etag\""));
+    assertThat(conditional.getAttributes().contains("stash"), is(false));
+  }
+
+  @Test
+  public void groupCountsAreDroppedWithTheGroup() throws Exception {
+    CountDownLatch fastAnswered = new CountDownLatch(1);
+    List<Repository> members = Arrays.asList(member("slow-miss", HttpResponses.notFound(), fastAnswered, null),
+        member("fast-hit", HttpResponses.ok("hit"), null, fastAnswered));
+    underTest.first(request, members, new DispatchedRepositories(), new GroupDispatch("group", Mode.HEDGED, 50, 8));
+    assertThat(underTest.getGroupHedgedFetchCounts().get("group"), is(1L));
+
+    Repository group = mock(Repository.class);
+    when(group.getName()).thenReturn("group");
+    underTest.on(new RepositoryDeletedEvent(group));
+
+    assertThat(underTest.getHedgedFetchCount("group"), is(0L));
+  }
+
+  /**
+   * Mocks a member answering with the given response, once the given latch is open if any, and opening the other
+   * given latch if any as it answers.
+   */
+  private Repository member(final String name,
+                            final Response response,
+                            @Nullable final CountDownLatch answerAfter,
+                            @Nullable final CountDownLatch answered)
+      throws Exception
+  {
+    Repository repository = mock(Repository.class);
+    ViewFacet view = mock(ViewFacet.class);
+    when(repository.getName()).thenReturn(name);
+    when(repository.facet(ViewFacet.class)).thenReturn(view);
+    when(view.dispatch(any(Request.class))).thenAnswer(invocation -> {
+      if (answerAfter != null) {
+        await(answerAfter);
+      }
+      if (answered != null) {
+        answered.countDown();
+      }
+      return response;
+    });
+    return repository;
+  }
+
+  private static Payload closeablePayload() {
+    return mock(Payload.class, withSettings().extraInterfaces(AutoCloseable.class));
+  }
+
+  private static Response response(final Status status, final Payload payload) {
+    return new Response.Builder().status(status).payload(payload).build();
+  }
+
+  private static void await(final CountDownLatch latch) throws InterruptedException {
+    assertThat("Timed out waiting for another member", latch.await(10, TimeUnit.SECONDS), is(true));
+  }
+}
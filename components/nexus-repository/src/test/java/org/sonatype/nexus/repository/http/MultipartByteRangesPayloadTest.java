@@ -0,0 +1,60 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.http;
+
+import java.util.Arrays;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Range;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link MultipartByteRangesPayload}.
+ */
+public class MultipartByteRangesPayloadTest
+    extends TestSupport
+{
+  private final BytesPayload bytesPayload = new BytesPayload("0123456789".getBytes(Charsets.US_ASCII), "text/plain");
+
+  @Test
+  public void multipartByteRanges() throws Exception {
+    MultipartByteRangesPayload underTest = new MultipartByteRangesPayload(bytesPayload,
+        Arrays.asList(Range.closed(0L, 1L), Range.closed(7L, 9L)));
+
+    assertThat(underTest.getContentType(), startsWith("multipart/byteranges; boundary="));
+    String boundary = underTest.getContentType().substring("multipart/byteranges; boundary=".length());
+
+    byte[] entity = ByteStreams.toByteArray(underTest.openInputStream());
+    assertThat(new String(entity, Charsets.US_ASCII), is(
+        "\r\n--" + boundary + "\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Range: bytes 0-1/10\r\n" +
+            "\r\n" +
+            "01" +
+            "\r\n--" + boundary + "\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Range: bytes 7-9/10\r\n" +
+            "\r\n" +
+            "789" +
+            "\r\n--" + boundary + "--\r\n"));
+    assertThat(underTest.getSize(), is((long) entity.length));
+  }
+}
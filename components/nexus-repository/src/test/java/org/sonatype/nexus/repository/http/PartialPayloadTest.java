@@ -12,10 +12,14 @@
  */
 package org.sonatype.nexus.repository.http;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 
 import org.sonatype.goodies.testsupport.TestSupport;
 import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.nexus.repository.view.payloads.FileBackedPayload;
 
 import com.google.common.collect.Range;
 import com.google.common.io.ByteStreams;
@@ -25,6 +29,10 @@ import org.junit.Test;
 import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Tests {@link PartialPayload}.
@@ -57,6 +65,20 @@ public class PartialPayloadTest
     assertThat(output, is(input));
   }
 
+  @Test
+  public void fileBackedPartialSeeks() throws IOException {
+    final File file = util.createTempFile();
+    Files.write(file.toPath(), input);
+    final FileBackedPayload fileBacked = mock(FileBackedPayload.class);
+    when(fileBacked.openFileChannel()).thenAnswer(invocation -> FileChannel.open(file.toPath()));
+
+    final PartialPayload partial = new PartialPayload(fileBacked, Range.closed(7L, 8L));
+    final byte[] output = ByteStreams.toByteArray(partial.openInputStream());
+
+    assertThat(output, is(Bytes.toArray(asList(7, 8))));
+    verify(fileBacked, never()).openInputStream();
+  }
+
   private byte[] partial(final BytesPayload bytes, final Range<Long> closed) throws IOException {
     final PartialPayload partial = new PartialPayload(bytes, closed);
     return ByteStreams.toByteArray(partial.openInputStream());
@@ -19,6 +19,8 @@ import org.sonatype.goodies.testsupport.TestSupport;
 import com.google.common.collect.Range;
 import org.junit.Test;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
@@ -86,4 +88,34 @@ public class RangeParserTest
     final List<Range<Long>> ranges = parser.parseRangeSpec("bytes=5-100", 10L);
     assertThat(ranges.get(0), is(Range.closed(5L, 9L)));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void multipleRanges() {
+    final List<Range<Long>> ranges = parser.parseRangeSpec("bytes=0-9, 50-59,-10", 100L);
+    assertThat(ranges, contains(Range.closed(0L, 9L), Range.closed(50L, 59L), Range.closed(90L, 99L)));
+  }
+
+  @Test
+  public void multipleRangesAreCoalesced() {
+    final List<Range<Long>> ranges = parser.parseRangeSpec("bytes=50-59,0-9,5-19,20-29", 100L);
+    assertThat(ranges, contains(Range.closed(0L, 29L), Range.closed(50L, 59L)));
+  }
+
+  @Test
+  public void unsatisfiableRangesAreDropped() {
+    final List<Range<Long>> ranges = parser.parseRangeSpec("bytes=0-9,200-299", 100L);
+    assertThat(ranges, contains(Range.closed(0L, 9L)));
+  }
+
+  @Test
+  public void allRangesUnsatisfiable() {
+    final List<Range<Long>> ranges = parser.parseRangeSpec("bytes=100-199,200-299", 100L);
+    assertThat(ranges, is(nullValue()));
+  }
+
+  @Test
+  public void malformedRangeInMultipleRanges() {
+    final List<Range<Long>> ranges = parser.parseRangeSpec("bytes=0-9,foo", 100L);
+    assertThat(ranges, is(empty()));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.proxy;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.sonatype.goodies.common.Time;
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.proxy.InflightFetches.Flight;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Tests for {@link InflightFetches}.
+ */
+public class InflightFetchesTest
+    extends TestSupport
+{
+  private InflightFetches underTest;
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    underTest = new InflightFetches();
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void firstJoinerLeads() throws Exception {
+    Flight flight = underTest.join("a/b/c.jar");
+    assertThat(flight.isLeader(), is(true));
+    assertThat(underTest.join("a/b/c.jar"), sameInstance(flight));
+    assertThat(underTest.size(), is(1));
+
+    flight.land(true);
+    assertThat(underTest.size(), is(0));
+  }
+
+  @Test
+  public void waiterReleasedWhenLeaderLands() throws Exception {
+    Flight flight = underTest.join("a/b/c.jar");
+    Future<Boolean> waiter = executor.submit(() -> {
+      Flight joined = underTest.join("a/b/c.jar");
+      return !joined.isLeader() && joined.await(Time.seconds(30));
+    });
+
+    // waiter should still be blocked until we land
+    Thread.sleep(100);
+    assertThat(waiter.isDone(), is(false));
+
+    flight.land(true);
+    assertThat(waiter.get(), is(true));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void onlyLeaderLands() throws Exception {
+    Flight flight = underTest.join("a/b/c.jar");
+    try {
+      executor.submit(() -> flight.land(true)).get();
+    }
+    catch (ExecutionException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+
+  @Test
+  public void handedOverFlightLandsElsewhere() throws Exception {
+    Flight flight = underTest.join("a/b/c.jar");
+    flight.handOver();
+    executor.submit(() -> {
+      flight.takeOver();
+      flight.land(true);
+    }).get();
+
+    assertThat(flight.isLeader(), is(false));
+    assertThat(underTest.size(), is(0));
+  }
+
+  @Test
+  public void waiterSeesFailedLanding() throws Exception {
+    Flight flight = underTest.join("a/b/c.jar");
+    flight.land(false);
+    // landed flight is removed from the registry, so late arrivals lead their own fetch
+    Flight next = underTest.join("a/b/c.jar");
+    assertThat(next.isLeader(), is(true));
+
+    Future<Boolean> waiter = executor.submit(() -> flight.await(Time.seconds(30)));
+    assertThat(waiter.get(), is(false));
+  }
+
+  @Test
+  public void waiterTimesOut() throws Exception {
+    underTest.join("a/b/c.jar");
+    Future<Boolean> waiter = executor.submit(() -> underTest.join("a/b/c.jar").await(Time.millis(50)));
+    assertThat(waiter.get(), is(false));
+  }
+}
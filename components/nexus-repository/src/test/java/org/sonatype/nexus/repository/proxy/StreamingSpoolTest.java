@@ -0,0 +1,88 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link StreamingSpool}.
+ */
+public class StreamingSpoolTest
+    extends TestSupport
+{
+  private static final byte[] DATA = "0123456789".getBytes();
+
+  @Test
+  public void tailReceivesBytesBeforeFinish() throws Exception {
+    StreamingSpool underTest = new StreamingSpool(new ByteArrayInputStream(DATA), util.createTempDir().toPath());
+    InputStream tail = underTest.tail();
+
+    InputStream source = underTest.source();
+    byte[] chunk = new byte[4];
+    assertThat(source.read(chunk), is(4));
+
+    byte[] received = new byte[4];
+    assertThat(tail.read(received), is(4));
+    assertThat(received, is(chunk));
+
+    ByteStreams.exhaust(source);
+    source.close();
+    underTest.finish(new BytesPayload(DATA, null));
+
+    assertThat(ByteStreams.toByteArray(tail), is("456789".getBytes()));
+    tail.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void tailFailsWhenStoreFails() throws Exception {
+    StreamingSpool underTest = new StreamingSpool(new ByteArrayInputStream(DATA), util.createTempDir().toPath());
+    InputStream tail = underTest.tail();
+
+    InputStream source = underTest.source();
+    ByteStreams.exhaust(source);
+    source.close();
+    underTest.fail(new IllegalStateException("invalid content"));
+
+    try {
+      ByteStreams.toByteArray(tail);
+    }
+    finally {
+      tail.close();
+    }
+  }
+
+  @Test
+  public void lateTailServedFromStoredPayload() throws Exception {
+    StreamingSpool underTest = new StreamingSpool(new ByteArrayInputStream(DATA), util.createTempDir().toPath());
+
+    InputStream source = underTest.source();
+    ByteStreams.exhaust(source);
+    source.close();
+    underTest.finish(new BytesPayload("stored".getBytes(), null));
+
+    try (InputStream tail = underTest.tail()) {
+      assertThat(ByteStreams.toByteArray(tail), is("stored".getBytes()));
+    }
+  }
+}
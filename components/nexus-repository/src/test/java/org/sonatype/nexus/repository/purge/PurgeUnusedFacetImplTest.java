@@ -0,0 +1,245 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.purge;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.common.entity.DetachedEntityId;
+import org.sonatype.nexus.common.entity.DetachedEntityMetadata;
+import org.sonatype.nexus.common.entity.DetachedEntityVersion;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.util.ThreadContext;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link PurgeUnusedFacetImpl}.
+ */
+public class PurgeUnusedFacetImplTest
+    extends TestSupport
+{
+  private static final Pattern LIMIT = Pattern.compile("LIMIT (\\d+)");
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private StorageFacet storageFacet;
+
+  @Mock
+  private StorageTx tx;
+
+  @Mock
+  private Bucket bucket;
+
+  private final NestedAttributesMap attributes = new NestedAttributesMap("attributes", new HashMap<>());
+
+  private final List<Asset> assets = new ArrayList<>();
+
+  private final Map<EntityId, Component> components = new ConcurrentHashMap<>();
+
+  private final DateTime old = DateTime.now().minusDays(30);
+
+  private final DateTime recent = DateTime.now().minusDays(1);
+
+  @Before
+  public void setUp() throws Exception {
+    when(repository.getName()).thenReturn("test");
+    when(repository.facet(StorageFacet.class)).thenReturn(storageFacet);
+    when(storageFacet.txSupplier()).thenReturn(() -> tx);
+    when(tx.findBucket(repository)).thenReturn(bucket);
+    when(bucket.attributes()).thenReturn(attributes);
+
+    // assets last accessed in the given range, ordered by last access and limited as the query asks
+    when(tx.findAssets(anyString(), anyMapOf(String.class, Object.class), any(Iterable.class), anyString()))
+        .thenAnswer(invocation -> {
+          Matcher limit = LIMIT.matcher((String) invocation.getArguments()[3]);
+          limit.find();
+          return inRange((Map<String, Object>) invocation.getArguments()[1]).stream()
+              .limit(Long.parseLong(limit.group(1)))
+              .collect(Collectors.toList());
+        });
+    when(tx.countAssets(anyString(), anyMapOf(String.class, Object.class), any(Iterable.class), anyString()))
+        .thenAnswer(invocation -> (long) inRange((Map<String, Object>) invocation.getArguments()[1]).size());
+    when(tx.findComponent(any(EntityId.class), any(Bucket.class)))
+        .thenAnswer(invocation -> components.get(invocation.getArguments()[0]));
+    when(tx.browseAssets(any(Component.class)))
+        .thenAnswer(invocation -> assetsOf((Component) invocation.getArguments()[0]));
+    doAnswer(invocation -> {
+      Component component = (Component) invocation.getArguments()[0];
+      synchronized (assets) {
+        assets.removeAll(assetsOf(component));
+        components.values().remove(component);
+      }
+      return null;
+    }).when(tx).deleteComponent(any(Component.class));
+    doAnswer(invocation -> {
+      synchronized (assets) {
+        return assets.remove(invocation.getArguments()[0]);
+      }
+    }).when(tx).deleteAsset(any(Asset.class));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ThreadContext.unbindSecurityManager();
+  }
+
+  @Test
+  public void purgesUnusedInBatches() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      component("unused" + i, old.plusMinutes(i), old.plusMinutes(i));
+    }
+    Component used = component("used", old, recent);
+    Asset orphan = asset(null, old);
+    Asset recentOrphan = asset(null, recent);
+
+    PurgeUnusedMetrics metrics = new PurgeUnusedMetrics();
+    underTest(3, 1).purgeUnused(7, metrics);
+
+    assertThat(components.values(), containsInAnyOrder(used));
+    assertThat(assets.contains(orphan), is(false));
+    assertThat(assets.contains(recentOrphan), is(true));
+    assertThat(assets.size(), is(3));
+    assertThat(metrics.getPurgedComponentCount(), is(10L));
+    assertThat(metrics.getPurgedAssetCount(), is(21L));
+    assertThat(metrics.getRemainingCount(), is(0L));
+    // one transaction per page
+    verify(tx, atLeast(7)).commit();
+    assertThat(attributes.child(PurgeUnusedFacetImpl.P_CHECKPOINT).isEmpty(), is(true));
+  }
+
+  @Test
+  public void keptAssetsWithSameLastAccessedAreNotRevisited() throws Exception {
+    List<Component> used = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      used.add(component("used" + i, old, recent));
+    }
+    Component unused = component("unused", old);
+
+    underTest(2, 1).purgeUnused(7);
+
+    assertThat(components.values(), containsInAnyOrder(used.toArray()));
+    assertThat(components.containsValue(unused), is(false));
+  }
+
+  @Test
+  public void resumesFromCheckpoint() throws Exception {
+    Component before = component("before", old);
+    Component after = component("after", old.plusDays(1));
+    Date olderThan = DateTime.now().minusDays(7).withTimeAtStartOfDay().toDate();
+    NestedAttributesMap checkpoint = attributes.child(PurgeUnusedFacetImpl.P_CHECKPOINT);
+    checkpoint.set("olderThan", olderThan);
+    checkpoint.child("0").set("from", old.plusHours(1).toDate());
+    checkpoint.child("0").set("to", olderThan);
+
+    underTest(10, 1).purgeUnused(7);
+
+    assertThat(components.values(), containsInAnyOrder(before));
+    assertThat(components.containsValue(after), is(false));
+  }
+
+  @Test
+  public void purgesPartitionsConcurrently() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      component("unused" + i, old.plusHours(i));
+    }
+    Component used = component("used", old, recent);
+
+    // partitions run as the current subject
+    ThreadContext.bind(new DefaultSecurityManager());
+    underTest(2, 4).purgeUnused(7);
+
+    assertThat(components.values(), containsInAnyOrder(used));
+  }
+
+  private PurgeUnusedFacetImpl underTest(final int batchSize, final int partitions) throws Exception {
+    PurgeUnusedFacetImpl underTest = new PurgeUnusedFacetImpl(batchSize, partitions);
+    underTest.attach(repository);
+    return underTest;
+  }
+
+  private List<Asset> inRange(final Map<String, Object> params) {
+    Date from = (Date) params.get("from");
+    Date to = (Date) params.get("to");
+    synchronized (assets) {
+      return assets.stream()
+          .filter(asset -> asset.lastAccessed() != null)
+          .filter(asset -> from == null || !asset.lastAccessed().toDate().before(from))
+          .filter(asset -> asset.lastAccessed().toDate().before(to))
+          .sorted((a, b) -> a.lastAccessed().compareTo(b.lastAccessed()))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private Component component(final String name, final DateTime... lastAccessed) {
+    Component component = mock(Component.class);
+    EntityId id = new DetachedEntityId(name);
+    components.put(id, component);
+    for (DateTime time : lastAccessed) {
+      asset(id, time);
+    }
+    return component;
+  }
+
+  private Asset asset(final EntityId componentId, final DateTime lastAccessed) {
+    Asset asset = mock(Asset.class);
+    when(asset.getEntityMetadata()).thenReturn(new DetachedEntityMetadata(
+        new DetachedEntityId("asset" + assets.size()), new DetachedEntityVersion("1")));
+    when(asset.componentId()).thenReturn(componentId);
+    when(asset.lastAccessed()).thenReturn(lastAccessed);
+    assets.add(asset);
+    return asset;
+  }
+
+  private List<Asset> assetsOf(final Component component) {
+    synchronized (assets) {
+      return assets.stream()
+          .filter(asset -> asset.componentId() != null && components.get(asset.componentId()) == component)
+          .collect(Collectors.toList());
+    }
+  }
+}
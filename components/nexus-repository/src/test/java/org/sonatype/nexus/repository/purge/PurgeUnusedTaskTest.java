@@ -0,0 +1,93 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.purge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.RepositoryTaskSupport;
+import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.scheduling.TaskConfiguration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link PurgeUnusedTask}.
+ */
+public class PurgeUnusedTaskTest
+    extends TestSupport
+{
+  @Mock
+  private RepositoryManager repositoryManager;
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private PurgeUnusedFacet purgeUnusedFacet;
+
+  private PurgeUnusedTask underTest;
+
+  @Before
+  public void setUp() {
+    when(repository.getName()).thenReturn("test");
+    when(repository.facet(PurgeUnusedFacet.class)).thenReturn(purgeUnusedFacet);
+
+    TaskConfiguration configuration = new TaskConfiguration();
+    configuration.setId("purge");
+    configuration.setTypeId(PurgeUnusedTaskDescriptor.TYPE_ID);
+    configuration.setString(RepositoryTaskSupport.REPOSITORY_NAME_FIELD_ID, "test");
+    configuration.setInteger(PurgeUnusedTask.LAST_USED_FIELD_ID, 10);
+
+    underTest = new PurgeUnusedTask();
+    underTest.install(repositoryManager);
+    underTest.configure(configuration);
+  }
+
+  @Test
+  public void messageReportsProgressAfterEachPage() {
+    List<String> messages = new ArrayList<>();
+    doAnswer(invocation -> {
+      PurgeUnusedMetrics metrics = (PurgeUnusedMetrics) invocation.getArguments()[1];
+      metrics.candidates(10);
+      metrics.purged(4, 1, 2);
+      messages.add(underTest.taskConfiguration().getMessage());
+      metrics.purged(6, 2, 3);
+      messages.add(underTest.taskConfiguration().getMessage());
+      return null;
+    }).when(purgeUnusedFacet).purgeUnused(anyInt(), any(PurgeUnusedMetrics.class));
+
+    assertThat(underTest.getMessage(), is("Purge unused components and assets from test"));
+
+    underTest.execute(repository);
+
+    String prefix = "Purge unused components and assets from test: ";
+    assertThat(messages, contains(
+        startsWith(prefix + "purged 1 components and 2 assets, examined 4, remaining 6"),
+        startsWith(prefix + "purged 3 components and 5 assets, examined 10, remaining 0")));
+    assertThat(underTest.getMetrics().getRemainingCount(), is(0L));
+  }
+}
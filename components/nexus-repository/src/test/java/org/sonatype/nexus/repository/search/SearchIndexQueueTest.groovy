@@ -0,0 +1,148 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.search
+
+import org.sonatype.goodies.testsupport.TestSupport
+import org.sonatype.nexus.common.entity.DetachedEntityId
+import org.sonatype.nexus.common.entity.EntityId
+import org.sonatype.nexus.repository.Repository
+import org.sonatype.nexus.repository.manager.RepositoryManager
+import org.sonatype.nexus.repository.storage.StorageFacet
+import org.sonatype.nexus.repository.storage.StorageTx
+
+import com.google.common.base.Supplier
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mock
+
+import static org.mockito.Matchers.any
+import static org.mockito.Mockito.never
+import static org.mockito.Mockito.timeout
+import static org.mockito.Mockito.times
+import static org.mockito.Mockito.verify
+import static org.mockito.Mockito.when
+
+/**
+ * Tests for {@link SearchIndexQueue}.
+ */
+class SearchIndexQueueTest
+    extends TestSupport
+{
+  @Mock
+  RepositoryManager repositoryManager
+
+  @Mock
+  SearchService searchService
+
+  @Mock
+  Repository repository
+
+  @Mock
+  SearchFacet searchFacet
+
+  @Mock
+  StorageFacet storageFacet
+
+  @Mock
+  Supplier<StorageTx> txSupplier
+
+  EntityId a = new DetachedEntityId('a')
+
+  EntityId b = new DetachedEntityId('b')
+
+  EntityId c = new DetachedEntityId('c')
+
+  @Before
+  void setUp() {
+    when(repositoryManager.get('test')).thenReturn(repository)
+    when(repository.optionalFacet(SearchFacet)).thenReturn(Optional.of(searchFacet))
+    when(repository.facet(StorageFacet)).thenReturn(storageFacet)
+    when(storageFacet.txSupplier()).thenReturn(txSupplier)
+  }
+
+  @Test
+  void 'Updates are indexed right away when not started'() {
+    SearchIndexQueue underTest = new SearchIndexQueue(repositoryManager, searchService, 10, 10, 60000, 60000)
+
+    underTest.enqueue('test', a, false)
+    underTest.enqueue('test', b, true)
+
+    verify(searchFacet).bulkPut([a])
+    verify(searchFacet).delete(b)
+  }
+
+  @Test
+  void 'Queued updates of the same component are coalesced'() {
+    SearchIndexQueue underTest = new SearchIndexQueue(repositoryManager, searchService, 10, 10, 60000, 60000)
+    underTest.start()
+
+    underTest.enqueue('test', a, false)
+    underTest.enqueue('test', b, false)
+    underTest.enqueue('test', a, false)
+    underTest.enqueue('test', c, true)
+    underTest.enqueue('test', c, false)
+
+    assert underTest.queueDepth == 3
+    assert !underTest.calmPeriod
+
+    underTest.stop()
+
+    verify(searchFacet, times(1)).bulkPut([a, b])
+    verify(searchFacet, times(1)).delete(c)
+    verify(searchService).flush()
+    assert underTest.queueDepth == 0
+    assert underTest.calmPeriod
+  }
+
+  @Test
+  void 'Full batches are indexed without waiting for the flush interval'() {
+    SearchIndexQueue underTest = new SearchIndexQueue(repositoryManager, searchService, 10, 2, 60000, 60000)
+    underTest.start()
+    try {
+      underTest.enqueue('test', a, false)
+      underTest.enqueue('test', b, false)
+
+      verify(searchFacet, timeout(5000)).bulkPut([a, b])
+    }
+    finally {
+      underTest.stop()
+    }
+  }
+
+  @Test
+  void 'Updates are indexed by their producer when the queue stays full'() {
+    SearchIndexQueue underTest = new SearchIndexQueue(repositoryManager, searchService, 1, 10, 60000, 100)
+    underTest.start()
+    try {
+      underTest.enqueue('test', a, false)
+      underTest.enqueue('test', b, false)
+
+      verify(searchFacet).bulkPut([b])
+      assert underTest.fullCount == 1
+      assert underTest.queueDepth == 1
+    }
+    finally {
+      underTest.stop()
+    }
+    verify(searchFacet).bulkPut([a])
+  }
+
+  @Test
+  void 'Updates of unknown repositories are dropped'() {
+    SearchIndexQueue underTest = new SearchIndexQueue(repositoryManager, searchService, 10, 10, 60000, 60000)
+
+    underTest.enqueue('missing', a, false)
+
+    verify(searchFacet, never()).bulkPut(any(Iterable))
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.search
+
+import javax.inject.Provider
+
+import org.sonatype.goodies.testsupport.TestSupport
+import org.sonatype.nexus.repository.Repository
+import org.sonatype.nexus.repository.manager.RepositoryManager
+import org.sonatype.nexus.security.SecurityHelper
+
+import org.elasticsearch.client.Client
+import org.elasticsearch.common.settings.Settings
+import org.elasticsearch.node.Node
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.elasticsearch.node.NodeBuilder.nodeBuilder
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.emptyArray
+import static org.hamcrest.Matchers.is
+import static org.junit.Assert.fail
+import static org.mockito.Mockito.mock
+import static org.mockito.Mockito.when
+import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1
+
+/**
+ * Tests rebuilding indexes of {@link SearchServiceImpl} against an embedded ElasticSearch node.
+ */
+class SearchServiceImplRebuildIT
+    extends TestSupport
+{
+  static final String DOCUMENT = '{"format":"test","name":"foo"}'
+
+  Node node
+
+  Client client
+
+  boolean failContributor
+
+  Repository repository
+
+  String alias
+
+  SearchServiceImpl underTest
+
+  @Before
+  void setUp() {
+    node = nodeBuilder().local(true).settings(Settings.settingsBuilder()
+        .put('path.home', util.createTempDir().absolutePath)
+        .put('http.enabled', false)
+        .put('index.number_of_shards', 1)
+        .put('index.number_of_replicas', 0)
+    ).node()
+    client = node.client()
+    client.admin().cluster().prepareHealth().setWaitForYellowStatus().execute().actionGet()
+
+    IndexSettingsContributor contributor = { Repository repository ->
+      if (failContributor) {
+        throw new IllegalStateException('Contributor failed')
+      }
+      null
+    } as IndexSettingsContributor
+    underTest = new SearchServiceImpl({ client } as Provider<Client>, mock(RepositoryManager),
+        mock(SecurityHelper), [contributor], false)
+    underTest.start()
+
+    repository = mock(Repository)
+    when(repository.getName()).thenReturn('test')
+    alias = SHA1.function().hashUnencodedChars('test').toString()
+    underTest.createIndex(repository)
+  }
+
+  @After
+  void tearDown() {
+    underTest?.stop()
+    node?.close()
+  }
+
+  @Test
+  void 'Completed rebuild replaces the index'() {
+    underTest.put(repository, 'kept', DOCUMENT)
+    underTest.put(repository, 'gone', DOCUMENT)
+    underTest.flush()
+
+    underTest.beginRebuild(repository)
+    underTest.rebuildPut(repository, 'kept', DOCUMENT)
+    underTest.rebuildPut(repository, 'added', DOCUMENT)
+    underTest.completeRebuild(repository)
+
+    assertThat(exists('kept'), is(true))
+    assertThat(exists('added'), is(true))
+    assertThat(exists('gone'), is(false))
+
+    // rebuilding again swaps the alias onto the next index
+    underTest.beginRebuild(repository)
+    underTest.rebuildPut(repository, 'again', DOCUMENT)
+    underTest.completeRebuild(repository)
+
+    assertThat(exists('again'), is(true))
+    assertThat(exists('kept'), is(false))
+    assertThat(shadowIndexes().length, is(1))
+  }
+
+  @Test
+  void 'Aborted rebuild keeps the index'() {
+    underTest.put(repository, 'kept', DOCUMENT)
+    underTest.flush()
+
+    underTest.beginRebuild(repository)
+    underTest.rebuildPut(repository, 'added', DOCUMENT)
+    underTest.abortRebuild(repository)
+
+    assertThat(exists('kept'), is(true))
+    assertThat(exists('added'), is(false))
+    assertThat(shadowIndexes(), is(emptyArray()))
+  }
+
+  @Test
+  void 'Deletes during rebuild are not undone by the rebuild'() {
+    underTest.put(repository, 'deleted', DOCUMENT)
+    underTest.flush()
+
+    underTest.beginRebuild(repository)
+    underTest.delete(repository, 'deleted')
+    // read by the rebuild before it was deleted
+    underTest.rebuildPut(repository, 'deleted', DOCUMENT)
+    underTest.completeRebuild(repository)
+
+    assertThat(exists('deleted'), is(false))
+  }
+
+  @Test
+  void 'Updates during rebuild are not overwritten by the rebuild'() {
+    underTest.beginRebuild(repository)
+    underTest.put(repository, 'updated', '{"format":"test","name":"new"}')
+    underTest.rebuildPut(repository, 'updated', '{"format":"test","name":"old"}')
+    underTest.completeRebuild(repository)
+
+    assertThat(client.prepareGet(alias, 'component', 'updated').get().source.name, is('new'))
+  }
+
+  @Test
+  void 'Failed begin can be retried'() {
+    failContributor = true
+    try {
+      underTest.beginRebuild(repository)
+      fail('Rebuild began')
+    }
+    catch (IllegalStateException e) {
+      assertThat(e.message, is('Contributor failed'))
+    }
+    assertThat(shadowIndexes(), is(emptyArray()))
+
+    failContributor = false
+    underTest.beginRebuild(repository)
+    underTest.rebuildPut(repository, 'added', DOCUMENT)
+    underTest.completeRebuild(repository)
+
+    assertThat(exists('added'), is(true))
+  }
+
+  @Test
+  void 'Failed update of rebuilt index prevents the swap'() {
+    underTest.put(repository, 'kept', DOCUMENT)
+    underTest.flush()
+
+    underTest.beginRebuild(repository)
+    underTest.rebuildPut(repository, 'bad', '{"assets":[{"last_updated":"not a number"}]}')
+    try {
+      underTest.completeRebuild(repository)
+      fail('Incomplete index swapped in')
+    }
+    catch (IllegalStateException e) {
+      underTest.abortRebuild(repository)
+    }
+
+    assertThat(exists('kept'), is(true))
+    assertThat(shadowIndexes(), is(emptyArray()))
+  }
+
+  private boolean exists(final String identifier) {
+    client.prepareGet(alias, 'component', identifier).get().exists
+  }
+
+  private String[] shadowIndexes() {
+    client.admin().indices().prepareGetIndex().addIndices(alias + '-*').get().indices()
+  }
+}
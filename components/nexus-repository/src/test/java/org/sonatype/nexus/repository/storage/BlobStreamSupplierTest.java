@@ -0,0 +1,324 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.blobstore.api.BlobId;
+import org.sonatype.nexus.blobstore.api.BlobStore;
+import org.sonatype.nexus.blobstore.api.BlobStoreConfiguration;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.common.io.TempStreamSupplier;
+import org.sonatype.nexus.common.node.LocalNodeAccess;
+import org.sonatype.nexus.mime.MimeRulesSource;
+import org.sonatype.nexus.repository.InvalidContentException;
+
+import com.google.common.base.Supplier;
+import com.google.common.io.ByteStreams;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.tx.OTransaction;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link BlobStreamSupplier} ingestion through {@link StorageTxImpl}, measuring content I/O against the
+ * {@link TempStreamSupplier} based ingestion it replaces.
+ */
+public class BlobStreamSupplierTest
+    extends TestSupport
+{
+  private static final long KB = 1024;
+
+  private static final long MB = 1024 * KB;
+
+  @Mock
+  private LocalNodeAccess localNodeAccess;
+
+  @Mock
+  private BlobStore blobStore;
+
+  @Mock
+  private BlobStoreConfiguration blobStoreConfiguration;
+
+  @Mock
+  private ODatabaseDocumentTx db;
+
+  @Mock
+  private OTransaction otx;
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private ContentValidator contentValidator;
+
+  private final AtomicLong bytesRead = new AtomicLong();
+
+  private final AtomicLong bytesWritten = new AtomicLong();
+
+  private long blobSize;
+
+  /**
+   * Minimum content length strict validation accepts.
+   */
+  private long validLength;
+
+  @Before
+  public void setUp() throws Exception {
+    when(localNodeAccess.getId()).thenReturn("node");
+    when(blobStoreConfiguration.getName()).thenReturn("default");
+    when(blobStore.getBlobStoreConfiguration()).thenReturn(blobStoreConfiguration);
+    when(db.getTransaction()).thenReturn(otx);
+    when(bucket.getRepositoryName()).thenReturn("test");
+
+    // blob store writes everything it reads
+    when(blobStore.create(any(InputStream.class), anyMapOf(String.class, String.class))).thenAnswer(invocation -> {
+      try (InputStream in = (InputStream) invocation.getArguments()[0]) {
+        blobSize = ByteStreams.copy(in, ByteStreams.nullOutputStream());
+      }
+      bytesWritten.addAndGet(blobSize);
+      Blob blob = mock(Blob.class);
+      when(blob.getId()).thenReturn(new BlobId("blob"));
+      when(blob.getInputStream()).thenAnswer(i -> counting(new ZeroInputStream(blobSize)));
+      return blob;
+    });
+
+    // content type detection consumes the whole stream, as container detectors do
+    when(contentValidator.determineContentType(anyBoolean(), any(Supplier.class), any(MimeRulesSource.class),
+        anyString(), anyString())).thenAnswer(invocation -> {
+      Supplier<InputStream> supplier = (Supplier<InputStream>) invocation.getArguments()[1];
+      long length;
+      try (InputStream in = supplier.get()) {
+        length = ByteStreams.exhaust(in);
+      }
+      if ((Boolean) invocation.getArguments()[0] && length < validLength) {
+        throw new InvalidContentException("Content type could not be determined");
+      }
+      return "application/octet-stream";
+    });
+  }
+
+  @Test
+  public void singlePassIngestionReadsContentOnce() throws Exception {
+    for (long size : Arrays.asList(KB, MB, 16 * MB)) {
+      resetCounters();
+      try (BlobStreamSupplier supplier = new BlobStreamSupplier(counting(new ZeroInputStream(size)))) {
+        AssetBlob assetBlob = storageTx(false).createBlob("test.bin", supplier, hashAlgorithms(), null,
+            "application/octet-stream", false);
+        assertThat(assetBlob.getSize(), is(size));
+      }
+      log("single-pass {} bytes: read {}, written {}", size, bytesRead.get(), bytesWritten.get());
+      assertThat(bytesRead.get(), is(size));
+      assertThat(bytesWritten.get(), is(size));
+    }
+  }
+
+  @Test
+  public void tempFileIngestionReadsContentThreeTimes() throws Exception {
+    for (long size : Arrays.asList(KB, MB)) {
+      measureTempFileIngestion(size);
+    }
+  }
+
+  @Test
+  public void strictValidationOfLargeContentByItsHeadReadsContentOnce() throws Exception {
+    resetCounters();
+    try (BlobStreamSupplier supplier = new BlobStreamSupplier(counting(new ZeroInputStream(MB)))) {
+      storageTx(true).createBlob("test.bin", supplier, hashAlgorithms(), null, "application/octet-stream", false);
+    }
+    assertThat(bytesRead.get(), is(MB));
+    assertThat(bytesWritten.get(), is(MB));
+  }
+
+  @Test
+  public void strictValidationOfLargeContentNeedingWholeContentReadsStoredBlob() throws Exception {
+    validLength = MB;
+    resetCounters();
+    try (BlobStreamSupplier supplier = new BlobStreamSupplier(counting(new ZeroInputStream(MB)))) {
+      storageTx(true).createBlob("test.bin", supplier, hashAlgorithms(), null, "application/octet-stream", false);
+    }
+    // head fails validation from memory, the whole content is validated once more from the stored blob
+    assertThat(bytesRead.get(), is(2 * MB));
+    assertThat(bytesWritten.get(), is(MB));
+  }
+
+  @Test(expected = InvalidContentException.class)
+  public void strictValidationOfInvalidLargeContentFails() throws Exception {
+    validLength = 2 * MB;
+    try (BlobStreamSupplier supplier = new BlobStreamSupplier(counting(new ZeroInputStream(MB)))) {
+      storageTx(true).createBlob("test.bin", supplier, hashAlgorithms(), null, "application/octet-stream", false);
+    }
+  }
+
+  @Test
+  public void retriedTransactionCompletesValidationOfIngestedBlob() throws Exception {
+    validLength = MB;
+    // validation of the stored blob fails once, as if the transaction was interrupted
+    when(blobStore.create(any(InputStream.class), anyMapOf(String.class, String.class))).thenAnswer(invocation -> {
+      try (InputStream in = (InputStream) invocation.getArguments()[0]) {
+        blobSize = ByteStreams.copy(in, ByteStreams.nullOutputStream());
+      }
+      Blob blob = mock(Blob.class);
+      when(blob.getId()).thenReturn(new BlobId("blob"));
+      when(blob.getInputStream()).thenThrow(new IllegalStateException("interrupted"))
+          .thenAnswer(i -> new ZeroInputStream(blobSize));
+      return blob;
+    });
+    try (BlobStreamSupplier supplier = new BlobStreamSupplier(counting(new ZeroInputStream(MB)))) {
+      try {
+        storageTx(true).createBlob("test.bin", supplier, hashAlgorithms(), null, "application/octet-stream", false);
+        fail("Validation of the stored blob should have failed");
+      }
+      catch (IllegalStateException e) {
+        assertThat(e.getMessage(), is("interrupted"));
+      }
+      AssetBlob retried = storageTx(true).createBlob("test.bin", supplier, hashAlgorithms(), null,
+          "application/octet-stream", false);
+      assertThat(retried.getSize(), is(MB));
+    }
+    verify(blobStore).create(any(InputStream.class), anyMapOf(String.class, String.class));
+  }
+
+  @Test
+  public void retriedTransactionReusesIngestedBlob() throws Exception {
+    try (BlobStreamSupplier supplier = new BlobStreamSupplier(counting(new ZeroInputStream(KB)))) {
+      storageTx(false).createBlob("test.bin", supplier, hashAlgorithms(), null, "application/octet-stream", false);
+      AssetBlob retried = storageTx(false).createBlob("test.bin", supplier, hashAlgorithms(), null,
+          "application/octet-stream", false);
+      assertThat(retried.getSize(), is(KB));
+    }
+    verify(blobStore).create(any(InputStream.class), anyMapOf(String.class, String.class));
+    // never committed, so the supplier cleans up
+    verify(blobStore).delete(new BlobId("blob"));
+  }
+
+  @Test
+  public void committedBlobIsKept() throws Exception {
+    BlobTx blobTx = new BlobTx(localNodeAccess, blobStore);
+    try (BlobStreamSupplier supplier = new BlobStreamSupplier(counting(new ZeroInputStream(KB)))) {
+      AssetBlob assetBlob = storageTx(false, blobTx).createBlob("test.bin", supplier, hashAlgorithms(), null,
+          "application/octet-stream", false);
+      assetBlob.setAttached(true);
+      blobTx.commit();
+    }
+    verify(blobStore, never()).delete(any(BlobId.class));
+  }
+
+  private void measureTempFileIngestion(final long size) throws IOException {
+    resetCounters();
+    try (TempStreamSupplier tempSupplier = new TempStreamSupplier(counting(new ZeroInputStream(size)))) {
+      bytesWritten.addAndGet(size); // the temporary file
+      Supplier<InputStream> supplier = () -> counting(tempSupplier.get());
+      storageTx(false).createBlob("test.bin", supplier, hashAlgorithms(), null, "application/octet-stream", false);
+    }
+    log("temp-file {} bytes: read {}, written {}", size, bytesRead.get(), bytesWritten.get());
+    assertThat(bytesRead.get(), is(3 * size));
+    assertThat(bytesWritten.get(), is(2 * size));
+  }
+
+  private StorageTxImpl storageTx(final boolean strict) {
+    return storageTx(strict, new BlobTx(localNodeAccess, blobStore));
+  }
+
+  private StorageTxImpl storageTx(final boolean strict, final BlobTx blobTx) {
+    return new StorageTxImpl("test", blobTx, db, bucket, WritePolicy.ALLOW, WritePolicySelector.DEFAULT,
+        mock(BucketEntityAdapter.class), mock(ComponentEntityAdapter.class), mock(AssetEntityAdapter.class),
+        strict, contentValidator, MimeRulesSource.NOOP);
+  }
+
+  private Iterable<HashAlgorithm> hashAlgorithms() {
+    return Collections.emptyList();
+  }
+
+  private void resetCounters() {
+    bytesRead.set(0);
+    bytesWritten.set(0);
+  }
+
+  private InputStream counting(final InputStream in) {
+    return new FilterInputStream(in)
+    {
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+          bytesRead.incrementAndGet();
+        }
+        return b;
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+          bytesRead.addAndGet(n);
+        }
+        return n;
+      }
+    };
+  }
+
+  /**
+   * Generates the given number of zero bytes, without holding them in memory.
+   */
+  private static class ZeroInputStream
+      extends InputStream
+  {
+    private long remaining;
+
+    private ZeroInputStream(final long size) {
+      this.remaining = size;
+    }
+
+    @Override
+    public int read() {
+      if (remaining <= 0) {
+        return -1;
+      }
+      remaining--;
+      return 0;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = (int) Math.min(len, remaining);
+      Arrays.fill(b, off, off + n, (byte) 0);
+      remaining -= n;
+      return n;
+    }
+  }
+}
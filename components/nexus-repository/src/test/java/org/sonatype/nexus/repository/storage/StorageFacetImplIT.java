@@ -798,6 +798,38 @@ public class StorageFacetImplIT
     }
   }
 
+  @Test
+  public void assetLastAccessedIsFlushedInBackground() throws Exception {
+    final String ASSET_NAME = "assetLastAccessedIsFlushedInBackground";
+    try (StorageTx tx = beginTX()) {
+      Bucket bucket = tx.findBucket(testRepository1);
+      Asset asset = tx.createAsset(bucket, testFormat).name(ASSET_NAME);
+      tx.saveAsset(asset);
+      tx.commit();
+    }
+
+    try (StorageTx tx = beginTX()) {
+      Bucket bucket = tx.findBucket(testRepository1);
+      Asset asset = tx.findAssetWithProperty(P_NAME, ASSET_NAME, bucket);
+      assertThat(underTest.markAsAccessed(asset), is(true));
+      assertThat(underTest.markAsAccessed(asset), is(false));
+      tx.commit();
+    }
+
+    // not saved by the read transaction
+    try (StorageTx tx = beginTX()) {
+      Asset asset = tx.findAssetWithProperty(P_NAME, ASSET_NAME, tx.findBucket(testRepository1));
+      assertThat(asset.lastAccessed(), nullValue());
+    }
+
+    underTest.flushAccessed();
+
+    try (StorageTx tx = beginTX()) {
+      Asset asset = tx.findAssetWithProperty(P_NAME, ASSET_NAME, tx.findBucket(testRepository1));
+      assertThat(asset.lastAccessed(), notNullValue());
+    }
+  }
+
   private StorageTx beginTX() {
     final StorageTx tx = underTest.txSupplier().get();
     tx.begin();
@@ -0,0 +1,240 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.view;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.view.matchers.ActionMatcher;
+import org.sonatype.nexus.repository.view.matchers.LiteralMatcher;
+import org.sonatype.nexus.repository.view.matchers.NeverMatcher;
+import org.sonatype.nexus.repository.view.matchers.PrefixMatcher;
+import org.sonatype.nexus.repository.view.matchers.SuffixMatcher;
+import org.sonatype.nexus.repository.view.matchers.token.TokenMatcher;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assume.assumeTrue;
+import static org.sonatype.nexus.repository.http.HttpMethods.DELETE;
+import static org.sonatype.nexus.repository.http.HttpMethods.GET;
+import static org.sonatype.nexus.repository.http.HttpMethods.HEAD;
+import static org.sonatype.nexus.repository.http.HttpMethods.PUT;
+import static org.sonatype.nexus.repository.view.matchers.logic.LogicMatchers.and;
+import static org.sonatype.nexus.repository.view.matchers.logic.LogicMatchers.not;
+import static org.sonatype.nexus.repository.view.matchers.logic.LogicMatchers.or;
+
+/**
+ * Tests for {@link RouteTrie}, comparing its dispatch to evaluating every route in order.
+ */
+public class RouteTrieTest
+    extends TestSupport
+{
+  /**
+   * Set to {@code true} to run the dispatch benchmark.
+   */
+  private static final String BENCHMARK = "nexus.benchmark";
+
+  private static final int ITERATIONS = 20000;
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private Handler handler;
+
+  private List<Route> routes;
+
+  private List<Request> requests;
+
+  @Before
+  public void setUp() {
+    routes = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      route(and(new ActionMatcher(GET, HEAD), new SuffixMatcher(".sha1"),
+          new TokenMatcher("/maven" + i + "/{path:.+}")));
+      route(and(new ActionMatcher(PUT), new TokenMatcher("/maven" + i + "/{path:.+}")));
+      route(new TokenMatcher("/maven" + i + "/{group}/{name}-{version}.jar"));
+      route(new LiteralMatcher("/static" + i + "/index.html", false));
+      route(or(new PrefixMatcher("/npm" + i + "/-/"), new LiteralMatcher("/npm" + i + "/-/all", false)));
+      route(new LiteralMatcher("/Mixed" + i + "/Case"));
+      route(and(new PrefixMatcher("/Docs" + i + "/", true), new SuffixMatcher(".HTML", true)));
+    }
+    // opaque matchers, candidates for every request
+    route(context -> context.getRequest().getPath().contains("/opaque/"));
+    route(not(new PrefixMatcher("/")));
+    route(new NeverMatcher());
+    route(new TokenMatcher("/{name}"));
+
+    requests = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      request(GET, "/maven" + i + "/org/foo/1.0/foo-1.0.jar.sha1");
+      request(HEAD, "/maven" + i + "/org/foo/1.0/foo-1.0.jar.sha1");
+      request(PUT, "/maven" + i + "/org/foo/1.0/foo-1.0.jar");
+      request(GET, "/maven" + i + "/org/foo-1.0.jar");
+      request(DELETE, "/maven" + i + "/org/foo-1.0.jar");
+      request(GET, "/static" + i + "/index.html");
+      request(GET, "/static" + i + "/INDEX.html");
+      request(GET, "/npm" + i + "/-/all");
+      request(GET, "/npm" + i + "/-/v1/search");
+      request(GET, "/mixed" + i + "/case");
+      request(GET, "/MIXED" + i + "/CASE");
+      request(GET, "/docs" + i + "/Index.html");
+      request(GET, "/DOCS" + i + "/index.htm");
+      request(GET, "/maven" + i + "/opaque/foo");
+    }
+    request(GET, "/name");
+    request(GET, "relative");
+    request(GET, "");
+    request(GET, "/");
+  }
+
+  private void route(final Matcher matcher) {
+    routes.add(new Route(matcher, Collections.singletonList(handler)));
+  }
+
+  private void request(final String action, final String path) {
+    requests.add(new Request.Builder().action(action).path(path).build());
+  }
+
+  private Route linear(final Context context) {
+    for (Route route : routes) {
+      if (route.getMatcher().matches(context)) {
+        return route;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void sameRoutesAsLinearScan() {
+    RouteTrie underTest = new RouteTrie(routes);
+    for (Request request : requests) {
+      Route expected = linear(new Context(repository, request));
+      Route actual = underTest.find(new Context(repository, request));
+      assertThat(request.getAction() + " " + request.getPath(), actual, sameInstance(expected));
+    }
+    assertThat(underTest.unprefixedCount(), is(2));
+  }
+
+  @Test
+  public void caseInsensitiveMatchersIndexedByFoldedKey() {
+    Route route = new Route(new LiteralMatcher("/Index.HTML"), Collections.singletonList(handler));
+    RouteTrie underTest = new RouteTrie(Collections.singletonList(route));
+    assertThat(underTest.unprefixedCount(), is(0));
+    for (String path : Arrays.asList("/index.html", "/INDEX.HTML", "/Index.HTML")) {
+      Context context = new Context(repository, new Request.Builder().action(GET).path(path).build());
+      assertThat(path, underTest.find(context), sameInstance(route));
+    }
+    Context context = new Context(repository, new Request.Builder().action(GET).path("/index.htm").build());
+    assertThat(underTest.find(context), nullValue());
+  }
+
+  @Test
+  public void caseInsensitiveNonAsciiMatchersNotIndexed() {
+    Route route = new Route(new PrefixMatcher("/\u00c4", true), Collections.singletonList(handler));
+    RouteTrie underTest = new RouteTrie(Collections.singletonList(route));
+    assertThat(underTest.unprefixedCount(), is(1));
+  }
+
+  @Test
+  public void firstMatchWins() {
+    Route first = new Route(new TokenMatcher("/{name:.+}"), Collections.singletonList(handler));
+    Route second = new Route(new LiteralMatcher("/a/b", false), Collections.singletonList(handler));
+    RouteTrie underTest = new RouteTrie(Arrays.asList(first, second));
+    Context context = new Context(repository, new Request.Builder().action(GET).path("/a/b").build());
+    assertThat(underTest.find(context), sameInstance(first));
+  }
+
+  @Test
+  public void tokensExposedForMatchedRoute() {
+    RouteTrie underTest = new RouteTrie(routes);
+    Request request = new Request.Builder().action(GET).path("/maven3/org/foo-1.0.jar").build();
+    Context context = new Context(repository, request);
+    assertThat(underTest.find(context), notNullValue());
+    TokenMatcher.State state = context.getAttributes().require(TokenMatcher.State.class);
+    assertThat(state.getTokens().get("version"), is("1.0"));
+  }
+
+  @Test
+  public void conflictingRequirementsNeverMatch() {
+    Route route = new Route(and(new ActionMatcher(GET), new ActionMatcher(PUT)), Collections.singletonList(handler));
+    RouteTrie underTest = new RouteTrie(Collections.singletonList(route));
+    assertThat(underTest.find(new Context(repository, new Request.Builder().action(GET).path("/").build())),
+        nullValue());
+    assertThat(underTest.unprefixedCount(), is(0));
+  }
+
+  /**
+   * Compares the time and allocation of dispatching through the trie with evaluating every route in order. Only logs,
+   * as timings are too noisy to assert on; opt in with {@code -Dnexus.benchmark=true}.
+   */
+  @Test
+  public void dispatchBenchmark() {
+    assumeTrue("Benchmark, enable with -D" + BENCHMARK + "=true", Boolean.getBoolean(BENCHMARK));
+
+    RouteTrie underTest = new RouteTrie(routes);
+    List<Context> contexts = new ArrayList<>();
+    for (Request request : requests) {
+      contexts.add(new Context(repository, request));
+    }
+
+    // warm up both, then measure
+    for (int round = 0; round < 2; round++) {
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        for (Context context : contexts) {
+          linear(context);
+        }
+      }
+      long linearNanos = System.nanoTime() - start;
+      long linearBytes = allocatedBytes() - allocated;
+
+      allocated = allocatedBytes();
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        for (Context context : contexts) {
+          underTest.find(context);
+        }
+      }
+      long trieNanos = System.nanoTime() - start;
+      long trieBytes = allocatedBytes() - allocated;
+
+      long dispatches = (long) ITERATIONS * contexts.size();
+      log("{} routes, {} dispatches: linear {} ns/op {} bytes/op, trie {} ns/op {} bytes/op", routes.size(),
+          dispatches, linearNanos / dispatches, linearBytes / dispatches, trieNanos / dispatches,
+          trieBytes / dispatches);
+    }
+  }
+
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+}
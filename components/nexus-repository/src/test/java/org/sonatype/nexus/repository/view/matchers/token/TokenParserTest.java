@@ -12,7 +12,15 @@
  */
 package org.sonatype.nexus.repository.view.matchers.token;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.sonatype.goodies.testsupport.TestSupport;
 
@@ -24,6 +32,7 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Test for {@link TokenParser}.
@@ -31,6 +40,11 @@ import static org.junit.Assert.assertThat;
 public class TokenParserTest
     extends TestSupport
 {
+  /**
+   * Set to {@code true} to run the parse benchmark.
+   */
+  private static final String BENCHMARK = "nexus.benchmark";
+
   @Test
   public void simplePattern() {
     String pattern = "/{a}/{b}/{c}";
@@ -138,4 +152,118 @@ public class TokenParserTest
     assertThat(tokens.get("version"), is(equalTo("8.1.16.v20140903")));
     assertThat(tokens.get("ext"), is(equalTo("pom")));
   }
+
+  @Test
+  public void scanningAgreesWithRegexp() {
+    List<String> patterns = Arrays.asList(
+        "/{group:.+}/{module}/{version}/{name}-{version}.{ext}",
+        "/{group:.+}/{name}/{version}/{name}-{version}.{ext}",
+        "/{group:.+}/{module}/{version}/{name}-{version}-{classifier}.{ext}",
+        "/{operation}({paramString:.*})",
+        "/{name:.+}",
+        "/{a}{b}/{c:[^/]*}",
+        "/{path:.*}.sha1",
+        "/{letter:[a-z]}/{rest:.+}"
+    );
+    List<String> paths = Arrays.asList(
+        "/org/sonatype/nexus/components/1234/components-1234.zip",
+        "/org/sonatype/nexus/components/1234/components-1234-sources.jar",
+        "/org/eclipse/jetty/jetty-io/8.1.16.v20140903/jetty-io-8.1.16.v20140903.pom",
+        "/org/eclipse/jetty/jetty-io/maven-metadata.xml",
+        "/Packages()",
+        "/Packages(id='foo')",
+        "/x/",
+        "/x",
+        "/",
+        "",
+        "/a/b\nc/d-e.f",
+        "/foo.jar.sha1",
+        "/a/b-1-2-3.tar.gz"
+    );
+    for (String pattern : patterns) {
+      TokenParser parser = new TokenParser(pattern);
+      Pattern regexp = Pattern.compile(parser.getPattern());
+      List<Token> tokens = new PatternParser(pattern).getTokens();
+      for (String path : paths) {
+        assertThat(pattern + " ~= " + path, parser.parse(path), is(equalTo(parseWithRegexp(tokens, regexp, path))));
+      }
+    }
+  }
+
+  /**
+   * Compares the time and allocation of parsing Maven paths by scanning with parsing them by regular expression, as
+   * this parser did before. Only logs, as timings are too noisy to assert on; opt in with
+   * {@code -Dnexus.benchmark=true}.
+   */
+  @Test
+  public void parseBenchmark() {
+    assumeTrue("Benchmark, enable with -D" + BENCHMARK + "=true", Boolean.getBoolean(BENCHMARK));
+
+    final String pattern = "/{group:.+}/{module}/{version}/{name}-{version}.{ext}";
+    final List<String> paths = Arrays.asList(
+        "/org/eclipse/jetty/jetty-io/8.1.16.v20140903/jetty-io-8.1.16.v20140903.pom",
+        "/org/sonatype/nexus/components/1234/components-1234.zip",
+        "/com/google/guava/guava/18.0/guava-18.0.jar"
+    );
+    final int iterations = 200000;
+    TokenParser parser = new TokenParser(pattern);
+    Pattern regexp = Pattern.compile(parser.getPattern());
+    List<Token> tokens = new PatternParser(pattern).getTokens();
+
+    // warm up both, then measure
+    for (int round = 0; round < 3; round++) {
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        parseWithRegexp(tokens, regexp, paths.get(i % paths.size()));
+      }
+      long regexpNanos = System.nanoTime() - start;
+      long regexpBytes = allocatedBytes() - allocated;
+
+      allocated = allocatedBytes();
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        parser.parse(paths.get(i % paths.size()));
+      }
+      long parserNanos = System.nanoTime() - start;
+      long parserBytes = allocatedBytes() - allocated;
+
+      log("regexp: {} ns/op {} bytes/op, scanner: {} ns/op {} bytes/op",
+          regexpNanos / iterations, regexpBytes / iterations, parserNanos / iterations, parserBytes / iterations);
+    }
+  }
+
+  /**
+   * Parses as this parser did before scanning, copying every group into a new map.
+   */
+  private static Map<String, String> parseWithRegexp(final List<Token> tokens,
+                                                     final Pattern regexp,
+                                                     final String path)
+  {
+    Matcher matcher = regexp.matcher(path);
+    if (!matcher.matches()) {
+      return null;
+    }
+    Map<String, String> values = new HashMap<>();
+    int group = 1;
+    for (Token token : tokens) {
+      if (token instanceof VariableToken) {
+        String name = ((VariableToken) token).getName();
+        String value = matcher.group(group++);
+        if (values.containsKey(name) && !Objects.equals(values.get(name), value)) {
+          return null;
+        }
+        values.put(name, value);
+      }
+    }
+    return values;
+  }
+
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
 }
@@ -12,10 +12,40 @@
  */
 package org.sonatype.nexus.security.authz;
 
+import org.sonatype.nexus.security.privilege.PrivilegeEvent;
+import org.sonatype.nexus.security.role.RoleEvent;
+
 /**
  * An event fired when the authorization configuration has changed.
  */
 public class AuthorizationConfigurationChanged
 {
-  // empty
+  private final boolean incremental;
+
+  public AuthorizationConfigurationChanged() {
+    this(false);
+  }
+
+  /**
+   * @param incremental whether changes to role and privilege definitions, if any, have already been signalled
+   *                    individually by {@link RoleEvent}s and {@link PrivilegeEvent}s.
+   * @since 3.1
+   */
+  public AuthorizationConfigurationChanged(final boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * @since 3.1
+   */
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+        "incremental=" + incremental +
+        '}';
+  }
 }
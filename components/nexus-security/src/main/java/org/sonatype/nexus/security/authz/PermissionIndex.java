@@ -0,0 +1,171 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.security.authz;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shiro.authz.Permission;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiled form of the permissions granted to a subject, answering {@link #implies(Permission)} with a lookup per
+ * permission part instead of evaluating every granted permission in turn.
+ *
+ * Granted {@link WildcardPermission2}s are compiled into a tree with one level per part, where a {@code *} part becomes
+ * a wildcard branch matching any value. Permissions checked with a single value per part, such as
+ * {@code nexus:repository-view:maven2:central:read}, are answered by walking the tree. Other permissions, and granted
+ * permissions which are not {@link WildcardPermission2}s, fall back to {@link Permission#implies(Permission)}.
+ *
+ * @since 3.1
+ */
+public class PermissionIndex
+{
+  private static final String WILDCARD = "*";
+
+  private final Node root = new Node();
+
+  private final List<Permission> compiled = new ArrayList<>();
+
+  private final List<Permission> uncompiled = new ArrayList<>();
+
+  public PermissionIndex(final Collection<Permission> permissions) {
+    checkNotNull(permissions);
+    for (Permission permission : permissions) {
+      if (permission instanceof WildcardPermission2) {
+        root.add(WildcardPermission2.parts((WildcardPermission2) permission), 0);
+        compiled.add(permission);
+      }
+      else {
+        uncompiled.add(permission);
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if any of the granted permissions implies the given permission.
+   */
+  public boolean implies(final Permission permission) {
+    checkNotNull(permission);
+    for (Permission granted : uncompiled) {
+      if (granted.implies(permission)) {
+        return true;
+      }
+    }
+    if (permission instanceof WildcardPermission2) {
+      List<Set<String>> parts = WildcardPermission2.parts((WildcardPermission2) permission);
+      if (isSingleValued(parts)) {
+        return root.implies(parts, 0);
+      }
+    }
+    for (Permission granted : compiled) {
+      if (granted.implies(permission)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether the given parts from the given index on all contain {@code *}, so they imply anything that follows.
+   */
+  private static boolean allWildcards(final List<Set<String>> parts, final int from) {
+    for (int i = from; i < parts.size(); i++) {
+      if (!parts.get(i).contains(WILDCARD)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSingleValued(final List<Set<String>> parts) {
+    for (Set<String> part : parts) {
+      if (part.size() != 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static class Node
+  {
+    /**
+     * Set when a granted permission ends here, implying any further parts.
+     */
+    private boolean terminal;
+
+    private Map<String, Node> children;
+
+    private Node wildcard;
+
+    private Node child(final String value) {
+      if (children == null) {
+        children = new HashMap<>();
+      }
+      return children.computeIfAbsent(value, k -> new Node());
+    }
+
+    private Node wildcard() {
+      if (wildcard == null) {
+        wildcard = new Node();
+      }
+      return wildcard;
+    }
+
+    private void add(final List<Set<String>> parts, final int from) {
+      Node node = this;
+      for (int i = from; i < parts.size(); i++) {
+        if (allWildcards(parts, i)) {
+          break;
+        }
+        Set<String> part = parts.get(i);
+        if (part.contains(WILDCARD)) {
+          node = node.wildcard();
+        }
+        else if (part.size() == 1) {
+          node = node.child(part.iterator().next());
+        }
+        else {
+          // several values: each leads to a copy of the remaining parts
+          for (String value : part) {
+            node.child(value).add(parts, i + 1);
+          }
+          return;
+        }
+      }
+      node.terminal = true;
+    }
+
+    private boolean implies(final List<Set<String>> parts, final int index) {
+      if (terminal) {
+        return true;
+      }
+      if (index == parts.size()) {
+        return false;
+      }
+      String value = parts.get(index).iterator().next();
+      if (children != null) {
+        Node child = children.get(value);
+        if (child != null && child.implies(parts, index + 1)) {
+          return true;
+        }
+      }
+      return wildcard != null && wildcard.implies(parts, index + 1);
+    }
+  }
+}
@@ -12,6 +12,7 @@
  */
 package org.sonatype.nexus.security.authz;
 
+import java.util.List;
 import java.util.Set;
 
 import com.google.common.base.Joiner;
@@ -53,6 +54,13 @@ public class WildcardPermission2
     return cachedHash;
   }
 
+  /**
+   * Exposes the parts of the given permission to {@link PermissionIndex}.
+   */
+  static List<Set<String>> parts(final WildcardPermission2 permission) {
+    return permission.getParts();
+  }
+
   private static final Joiner JOINER = Joiner.on(',');
 
   /**
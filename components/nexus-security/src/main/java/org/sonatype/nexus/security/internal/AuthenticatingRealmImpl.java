@@ -12,16 +12,37 @@
  */
 package org.sonatype.nexus.security.internal;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.TimeUnit;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.sonatype.nexus.common.event.EventBus;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.security.config.CUser;
 import org.sonatype.nexus.security.config.SecurityConfigurationManager;
+import org.sonatype.nexus.security.user.UserDeletedEvent;
+import org.sonatype.nexus.security.user.UserEvent;
 import org.sonatype.nexus.security.user.UserNotFoundException;
+import org.sonatype.nexus.security.user.UserUpdatedEvent;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+import com.google.common.primitives.Ints;
 import org.apache.shiro.authc.AccountException;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
@@ -41,6 +62,9 @@ import org.slf4j.LoggerFactory;
  * Default {@link AuthenticatingRealm}.
  *
  * This realm ONLY handles authentication.
+ *
+ * Successful password verifications are remembered for a short while, so clients sending the same credentials with
+ * every request do not have them hashed again each time. Only a keyed hash of the credentials is kept, in memory.
  */
 @Singleton
 @Named(AuthenticatingRealmImpl.NAME)
@@ -55,22 +79,80 @@ public class AuthenticatingRealmImpl
 
   private static final int MAX_LEGACY_PASSWORD_LENGTH = 40;
 
+  private static final String VERIFIED_CREDENTIALS_HMAC = "HmacSHA256";
+
+  /**
+   * Maximum number of verified credentials to remember.
+   */
+  private static final int VERIFIED_CREDENTIALS_CACHE_SIZE = SystemPropertiesHelper
+      .getInteger(AuthenticatingRealmImpl.class.getName() + ".verifiedCredentialsCacheSize", 1000);
+
+  /**
+   * Seconds to remember verified credentials for.
+   */
+  private static final int VERIFIED_CREDENTIALS_CACHE_TTL = SystemPropertiesHelper
+      .getInteger(AuthenticatingRealmImpl.class.getName() + ".verifiedCredentialsCacheTtl", 60);
+
   private final SecurityConfigurationManager configuration;
 
   private final PasswordService passwordService;
 
+  /**
+   * Keyed hashes of recently verified credentials, to the id of the user they belong to.
+   */
+  private final Cache<HashCode, String> verifiedCredentials = CacheBuilder.newBuilder()
+      .maximumSize(VERIFIED_CREDENTIALS_CACHE_SIZE)
+      .expireAfterWrite(VERIFIED_CREDENTIALS_CACHE_TTL, TimeUnit.SECONDS)
+      .build();
+
+  /**
+   * Random key for hashing verified credentials, never leaves memory.
+   */
+  private final SecretKeySpec verifiedCredentialsKey;
+
   @Inject
   public AuthenticatingRealmImpl(final SecurityConfigurationManager configuration,
-                                 final PasswordService passwordService)
+                                 final PasswordService passwordService,
+                                 final EventBus eventBus)
   {
     this.configuration = configuration;
     this.passwordService = passwordService;
 
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    this.verifiedCredentialsKey = new SecretKeySpec(key, VERIFIED_CREDENTIALS_HMAC);
+
     PasswordMatcher passwordMatcher = new PasswordMatcher();
     passwordMatcher.setPasswordService(this.passwordService);
-    setCredentialsMatcher(passwordMatcher);
+    setCredentialsMatcher(new VerifiedCredentialsMatcher(passwordMatcher));
     setName(NAME);
     setAuthenticationCachingEnabled(true);
+    eventBus.register(this);
+  }
+
+  /**
+   * @since 3.1
+   */
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final UserUpdatedEvent event) {
+    forgetVerifiedCredentials(event);
+  }
+
+  /**
+   * @since 3.1
+   */
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final UserDeletedEvent event) {
+    forgetVerifiedCredentials(event);
+  }
+
+  private void forgetVerifiedCredentials(final UserEvent event) {
+    String userId = event.getUser().getUserId();
+    if (verifiedCredentials.asMap().values().removeIf(userId::equals)) {
+      logger.debug("Forgot verified credentials of user '{}'", userId);
+    }
   }
 
   @Override
@@ -121,7 +203,7 @@ public class AuthenticatingRealmImpl
         CUser toUpdate = configuration.readUser(user.getId());
         toUpdate.setPassword(hashedPassword);
         try {
-          configuration.updateUser(user);
+          configuration.updateUser(toUpdate);
           updated = true;
         }
         catch (ConcurrentModificationException e) {
@@ -169,4 +251,67 @@ public class AuthenticatingRealmImpl
   private AuthenticationInfo createAuthenticationInfo(final CUser user) {
     return new SimpleAuthenticationInfo(user.getId(), user.getPassword().toCharArray(), getName());
   }
+
+  /**
+   * Remembers successful matches of the delegate matcher, keyed by a hash of the user id, the presented password and
+   * the stored password hash. Changing the password therefore also changes the key. Failed matches are not remembered.
+   */
+  private class VerifiedCredentialsMatcher
+      implements CredentialsMatcher
+  {
+    private final CredentialsMatcher delegate;
+
+    private VerifiedCredentialsMatcher(final CredentialsMatcher delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean doCredentialsMatch(final AuthenticationToken token, final AuthenticationInfo info) {
+      if (!(token instanceof UsernamePasswordToken) || !(info.getCredentials() instanceof char[])) {
+        return delegate.doCredentialsMatch(token, info);
+      }
+
+      UsernamePasswordToken upToken = (UsernamePasswordToken) token;
+      if (upToken.getUsername() == null || upToken.getPassword() == null) {
+        return delegate.doCredentialsMatch(token, info);
+      }
+
+      HashCode key = key(upToken, (char[]) info.getCredentials());
+      if (verifiedCredentials.getIfPresent(key) != null) {
+        return true;
+      }
+
+      boolean matched = delegate.doCredentialsMatch(token, info);
+      if (matched) {
+        verifiedCredentials.put(key, upToken.getUsername());
+      }
+      return matched;
+    }
+
+    private HashCode key(final UsernamePasswordToken token, final char[] storedPassword) {
+      try {
+        Mac mac = Mac.getInstance(VERIFIED_CREDENTIALS_HMAC);
+        mac.init(verifiedCredentialsKey);
+        update(mac, token.getUsername().toCharArray());
+        update(mac, token.getPassword());
+        update(mac, storedPassword);
+        return HashCode.fromBytes(mac.doFinal());
+      }
+      catch (GeneralSecurityException e) {
+        throw Throwables.propagate(e);
+      }
+    }
+
+    /**
+     * Adds the given characters, prefixed by their length so consecutive values cannot run into each other.
+     */
+    private void update(final Mac mac, final char[] chars) {
+      ByteBuffer bytes = Charsets.UTF_8.encode(CharBuffer.wrap(chars));
+      mac.update(Ints.toByteArray(bytes.remaining()));
+      mac.update(bytes);
+      if (bytes.hasArray()) {
+        Arrays.fill(bytes.array(), (byte) 0);
+      }
+    }
+  }
 }
@@ -284,6 +284,7 @@ public class AuthorizationManagerImpl
   }
 
   private void fireAuthorizationChangedEvent() {
-    this.eventBus.post(new AuthorizationConfigurationChanged());
+    // the role or privilege changed has been signalled already
+    this.eventBus.post(new AuthorizationConfigurationChanged(true));
   }
 }
@@ -12,26 +12,43 @@
  */
 package org.sonatype.nexus.security.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.sonatype.nexus.common.event.EventBus;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.security.SecurityConfigurationChanged;
+import org.sonatype.nexus.security.authz.AuthorizationConfigurationChanged;
+import org.sonatype.nexus.security.authz.PermissionIndex;
 import org.sonatype.nexus.security.role.RoleIdentifier;
 import org.sonatype.nexus.security.user.RoleMappingUserManager;
 import org.sonatype.nexus.security.user.UserManager;
 import org.sonatype.nexus.security.user.UserNotFoundException;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.authc.credential.Sha1CredentialsMatcher;
 import org.apache.shiro.authz.AuthorizationException;
 import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.authz.UnauthorizedException;
+import org.apache.shiro.authz.permission.PermissionResolver;
+import org.apache.shiro.authz.permission.RolePermissionResolver;
 import org.apache.shiro.mgt.RealmSecurityManager;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.realm.Realm;
@@ -44,6 +61,10 @@ import org.slf4j.LoggerFactory;
  * Default {@link AuthorizingRealm}.
  *
  * This realm ONLY handles authorization.
+ *
+ * Permission checks are answered from a {@link PermissionIndex} compiled once per principal collection from the
+ * permissions its roles resolve to. A compiled index is only used while the authorization info it was compiled from,
+ * and the permissions of roles, are unchanged; this holds whatever order the caches involved are cleared in.
  */
 @Singleton
 @Named(AuthorizingRealmImpl.NAME)
@@ -56,16 +77,27 @@ public class AuthorizingRealmImpl
 
   public static final String NAME = "NexusAuthorizingRealm";
 
+  /**
+   * Maximum number of principal collections to keep compiled permission indexes for.
+   */
+  private static final int PERMISSION_INDEX_CACHE_SIZE = SystemPropertiesHelper
+      .getInteger(AuthorizingRealmImpl.class.getName() + ".permissionIndexCacheSize", 1000);
+
   private final RealmSecurityManager realmSecurityManager;
 
   private final UserManager userManager;
 
   private final Map<String, UserManager> userManagerMap;
 
+  private final Cache<Object, CompiledPermissions> permissionIndexes = CacheBuilder.newBuilder()
+      .maximumSize(PERMISSION_INDEX_CACHE_SIZE)
+      .build();
+
   @Inject
   public AuthorizingRealmImpl(final RealmSecurityManager realmSecurityManager,
                               final UserManager userManager,
-                              final Map<String, UserManager> userManagerMap)
+                              final Map<String, UserManager> userManagerMap,
+                              final EventBus eventBus)
   {
     this.realmSecurityManager = realmSecurityManager;
     this.userManager = userManager;
@@ -74,6 +106,189 @@ public class AuthorizingRealmImpl
     setName(NAME);
     setAuthenticationCachingEnabled(false); // we authz only, no authc done by this realm
     setAuthorizationCachingEnabled(true);
+    eventBus.register(this);
+  }
+
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final AuthorizationConfigurationChanged event) {
+    // role mappings, roles and privileges changes all signal this event
+    invalidateAll();
+  }
+
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final SecurityConfigurationChanged event) {
+    invalidateAll();
+  }
+
+  @Override
+  protected void clearCachedAuthorizationInfo(final PrincipalCollection principals) {
+    super.clearCachedAuthorizationInfo(principals);
+    if (principals != null) {
+      permissionIndexes.invalidate(getAuthorizationCacheKey(principals));
+    }
+  }
+
+  private void invalidateAll() {
+    permissionIndexes.invalidateAll();
+  }
+
+  @Override
+  public boolean isPermitted(final PrincipalCollection principals, final Permission permission) {
+    PermissionIndex index = permissionIndex(principals);
+    return index != null && index.implies(permission);
+  }
+
+  @Override
+  public boolean[] isPermitted(final PrincipalCollection principals, final List<Permission> permissions) {
+    boolean[] result = new boolean[permissions != null ? permissions.size() : 0];
+    if (result.length > 0) {
+      PermissionIndex index = permissionIndex(principals);
+      for (int i = 0; i < result.length; i++) {
+        result[i] = index != null && index.implies(permissions.get(i));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public boolean isPermittedAll(final PrincipalCollection principals, final Collection<Permission> permissions) {
+    if (permissions != null && !permissions.isEmpty()) {
+      PermissionIndex index = permissionIndex(principals);
+      for (Permission permission : permissions) {
+        if (index == null || !index.implies(permission)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void checkPermission(final PrincipalCollection principals, final Permission permission) {
+    if (!isPermitted(principals, permission)) {
+      throw new UnauthorizedException("User is not permitted [" + permission + "]");
+    }
+  }
+
+  @Override
+  public void checkPermissions(final PrincipalCollection principals, final Collection<Permission> permissions) {
+    if (permissions != null) {
+      for (Permission permission : permissions) {
+        checkPermission(principals, permission);
+      }
+    }
+  }
+
+  /**
+   * Returns the compiled permissions of the given principals, or {@code null} if they have no authorization info.
+   *
+   * The authorization cache holds copies of the info and is cleared apart from this realm, and so are the role
+   * permissions, so a cached index is checked against the info read now and the role permissions generation rather
+   * than relying on being invalidated at the right time.
+   */
+  private PermissionIndex permissionIndex(final PrincipalCollection principals) {
+    long rolesGeneration = rolePermissionsGeneration();
+    AuthorizationInfo info = getAuthorizationInfo(principals);
+    if (info == null) {
+      return null;
+    }
+    Object key = getAuthorizationCacheKey(principals);
+    CompiledPermissions compiled = permissionIndexes.getIfPresent(key);
+    if (compiled == null || !compiled.isCompiledFrom(info, rolesGeneration)) {
+      compiled = new CompiledPermissions(info, rolesGeneration, new PermissionIndex(permissions(info)));
+      if (compiled.isCacheable()) {
+        permissionIndexes.put(key, compiled);
+      }
+    }
+    return compiled.index;
+  }
+
+  /**
+   * Returns the generation of the role permissions, which changes whenever any of them may have changed, or zero if
+   * the role permission resolver does not tell.
+   */
+  private long rolePermissionsGeneration() {
+    RolePermissionResolver rolePermissionResolver = getRolePermissionResolver();
+    if (rolePermissionResolver instanceof RolePermissionResolverImpl) {
+      return ((RolePermissionResolverImpl) rolePermissionResolver).generation();
+    }
+    return 0;
+  }
+
+  /**
+   * Resolves all permissions of the given authorization info, like {@link AuthorizingRealm} does per check.
+   */
+  private Collection<Permission> permissions(final AuthorizationInfo info) {
+    List<Permission> permissions = new ArrayList<>();
+    if (info.getObjectPermissions() != null) {
+      permissions.addAll(info.getObjectPermissions());
+    }
+    PermissionResolver permissionResolver = getPermissionResolver();
+    if (info.getStringPermissions() != null && permissionResolver != null) {
+      for (String permission : info.getStringPermissions()) {
+        permissions.add(permissionResolver.resolvePermission(permission));
+      }
+    }
+    RolePermissionResolver rolePermissionResolver = getRolePermissionResolver();
+    if (info.getRoles() != null && rolePermissionResolver != null) {
+      for (String role : info.getRoles()) {
+        Collection<Permission> resolved = rolePermissionResolver.resolvePermissionsInRole(role);
+        if (resolved != null) {
+          permissions.addAll(resolved);
+        }
+      }
+    }
+    return permissions;
+  }
+
+  /**
+   * A permission index along with the authorization info and role permissions generation it was compiled from.
+   */
+  private static class CompiledPermissions
+  {
+    private final Set<String> roles;
+
+    private final Set<String> stringPermissions;
+
+    private final boolean objectPermissions;
+
+    private final long rolesGeneration;
+
+    private final PermissionIndex index;
+
+    private CompiledPermissions(final AuthorizationInfo info, final long rolesGeneration, final PermissionIndex index) {
+      this.roles = copyOf(info.getRoles());
+      this.stringPermissions = copyOf(info.getStringPermissions());
+      this.objectPermissions = info.getObjectPermissions() != null && !info.getObjectPermissions().isEmpty();
+      this.rolesGeneration = rolesGeneration;
+      this.index = index;
+    }
+
+    /**
+     * Object permissions cannot be reliably compared, so indexes compiled from them are not cached.
+     */
+    private boolean isCacheable() {
+      return !objectPermissions;
+    }
+
+    private boolean isCompiledFrom(final AuthorizationInfo info, final long rolesGeneration) {
+      return this.rolesGeneration == rolesGeneration
+          && sameAs(roles, info.getRoles())
+          && sameAs(stringPermissions, info.getStringPermissions());
+    }
+
+    private static boolean sameAs(final Set<String> values, @Nullable final Collection<String> others) {
+      if (others == null) {
+        return values.isEmpty();
+      }
+      return values.size() == others.size() && values.containsAll(others);
+    }
+
+    private static Set<String> copyOf(@Nullable final Collection<String> values) {
+      return values != null ? ImmutableSet.copyOf(values) : ImmutableSet.of();
+    }
   }
 
   @Override
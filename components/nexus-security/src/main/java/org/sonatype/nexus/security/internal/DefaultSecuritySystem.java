@@ -255,8 +255,8 @@ public class DefaultSecuritySystem
       }
     }
 
-    // clear the realm authz caches as user might get roles changed
-    eventBus.post(new AuthorizationConfigurationChanged());
+    // clear the realm authz caches as user might get roles changed, role definitions are unchanged
+    eventBus.post(new AuthorizationConfigurationChanged(true));
 
     return user;
   }
@@ -323,8 +323,8 @@ public class DefaultSecuritySystem
     if (!foundUser) {
       throw new UserNotFoundException(userId);
     }
-    // clear the authz realm caches
-    eventBus.post(new AuthorizationConfigurationChanged());
+    // clear the authz realm caches, role definitions are unchanged
+    eventBus.post(new AuthorizationConfigurationChanged(true));
   }
 
   private User findUser(String userId, UserManager userManager) throws UserNotFoundException {
@@ -13,10 +13,18 @@
 package org.sonatype.nexus.security.internal;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -25,6 +33,9 @@ import javax.inject.Singleton;
 
 import org.sonatype.goodies.common.ComponentSupport;
 import org.sonatype.nexus.common.event.EventBus;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.jmx.reflect.ManagedAttribute;
+import org.sonatype.nexus.jmx.reflect.ManagedObject;
 import org.sonatype.nexus.security.SecurityConfigurationChanged;
 import org.sonatype.nexus.security.authz.AuthorizationConfigurationChanged;
 import org.sonatype.nexus.security.config.CPrivilege;
@@ -32,13 +43,19 @@ import org.sonatype.nexus.security.config.CRole;
 import org.sonatype.nexus.security.config.SecurityConfigurationManager;
 import org.sonatype.nexus.security.privilege.NoSuchPrivilegeException;
 import org.sonatype.nexus.security.privilege.PrivilegeDescriptor;
+import org.sonatype.nexus.security.privilege.PrivilegeEvent;
 import org.sonatype.nexus.security.role.NoSuchRoleException;
+import org.sonatype.nexus.security.role.RoleEvent;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.permission.RolePermissionResolver;
 
@@ -46,13 +63,21 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Default {@link RolePermissionResolver}.
+ *
+ * Keeps the transitive permissions of resolved roles in a bounded cache, along with which roles and privileges each
+ * of them was resolved from. A {@link RoleEvent} or {@link PrivilegeEvent} only invalidates the roles depending on the
+ * changed role or privilege, whose permissions are then resolved again in the background.
  */
 @Named("default")
 @Singleton
+@ManagedObject
 public class RolePermissionResolverImpl
     extends ComponentSupport
     implements RolePermissionResolver
 {
+  private static final int CACHE_SIZE = SystemPropertiesHelper
+      .getInteger(RolePermissionResolverImpl.class.getName() + ".cacheSize", 10000);
+
   private final SecurityConfigurationManager configuration;
 
   private final List<PrivilegeDescriptor> privilegeDescriptors;
@@ -60,20 +85,60 @@ public class RolePermissionResolverImpl
   /**
    * Privilege-id to permission cache.
    */
-  private final Map<String,Permission> permissionsCache = new MapMaker().weakValues().makeMap();
+  private final Cache<String, Permission> permissionsCache;
 
   /**
    * Role-id to role permissions cache.
    */
-  private final Map<String, Collection<Permission>> rolePermissionsCache = new MapMaker().weakValues().makeMap();
+  private final Cache<String, Collection<Permission>> rolePermissionsCache;
+
+  /**
+   * Role-id to ids of the cached roles which were resolved through it.
+   */
+  private final Map<String, Set<String>> roleDependents = new HashMap<>();
+
+  /**
+   * Privilege-id to ids of the cached roles which were resolved through it.
+   */
+  private final Map<String, Set<String>> privilegeDependents = new HashMap<>();
+
+  /**
+   * Guards the dependents and the generation, which tells resolutions racing an invalidation not to cache.
+   */
+  private final Object lock = new Object();
+
+  private long generation;
+
+  private final ExecutorService precomputeExecutor;
+
+  private final AtomicLong rebuildCount = new AtomicLong();
+
+  private final AtomicLong rebuildNanos = new AtomicLong();
 
   @Inject
   public RolePermissionResolverImpl(final SecurityConfigurationManager configuration,
                                     final List<PrivilegeDescriptor> privilegeDescriptors,
                                     final EventBus eventBus)
+  {
+    this(configuration, privilegeDescriptors, eventBus, new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("role-permissions-%d").setDaemon(true).build()));
+  }
+
+  @VisibleForTesting
+  RolePermissionResolverImpl(final SecurityConfigurationManager configuration,
+                             final List<PrivilegeDescriptor> privilegeDescriptors,
+                             final EventBus eventBus,
+                             final ExecutorService precomputeExecutor)
   {
     this.configuration = checkNotNull(configuration);
     this.privilegeDescriptors = checkNotNull(privilegeDescriptors);
+    this.precomputeExecutor = checkNotNull(precomputeExecutor);
+    if (precomputeExecutor instanceof ThreadPoolExecutor) {
+      ((ThreadPoolExecutor) precomputeExecutor).allowCoreThreadTimeOut(true);
+    }
+    this.permissionsCache = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+    this.rolePermissionsCache = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).recordStats().build();
     eventBus.register(this);
   }
 
@@ -81,15 +146,96 @@ public class RolePermissionResolverImpl
    * Invalidate caches.
    */
   private void invalidate() {
-    permissionsCache.clear();
-    rolePermissionsCache.clear();
+    Set<String> cachedRoleIds;
+    synchronized (lock) {
+      generation++;
+      cachedRoleIds = ImmutableSet.copyOf(rolePermissionsCache.asMap().keySet());
+      permissionsCache.invalidateAll();
+      rolePermissionsCache.invalidateAll();
+      roleDependents.clear();
+      privilegeDependents.clear();
+    }
     log.trace("Cache invalidated");
+    precompute(cachedRoleIds);
+  }
+
+  /**
+   * Invalidates the given role, and all cached roles resolved through it.
+   */
+  private void invalidateRole(final String roleId) {
+    Set<String> cachedRoleIds;
+    synchronized (lock) {
+      generation++;
+      cachedRoleIds = invalidateDependents(Collections.singleton(roleId));
+    }
+    log.trace("Cache invalidated for role: {} affecting: {}", roleId, cachedRoleIds);
+    precompute(cachedRoleIds);
+  }
+
+  /**
+   * Invalidates the given privilege, and all cached roles resolved through it.
+   */
+  private void invalidatePrivilege(final String privilegeId) {
+    Set<String> cachedRoleIds;
+    synchronized (lock) {
+      generation++;
+      permissionsCache.invalidate(privilegeId);
+      Set<String> dependents = privilegeDependents.remove(privilegeId);
+      cachedRoleIds = dependents != null ? invalidateDependents(dependents) : Collections.<String>emptySet();
+    }
+    log.trace("Cache invalidated for privilege: {} affecting: {}", privilegeId, cachedRoleIds);
+    precompute(cachedRoleIds);
+  }
+
+  /**
+   * Invalidates the given roles and their dependents, returning the ids of those which were cached.
+   */
+  private Set<String> invalidateDependents(final Collection<String> roleIds) {
+    assert Thread.holdsLock(lock);
+
+    Set<String> cachedRoleIds = new HashSet<>();
+    Set<String> visited = new HashSet<>();
+    LinkedList<String> rolesToProcess = Lists.newLinkedList(roleIds);
+    while (!rolesToProcess.isEmpty()) {
+      String roleId = rolesToProcess.removeFirst();
+      if (visited.add(roleId)) {
+        if (rolePermissionsCache.asMap().remove(roleId) != null) {
+          cachedRoleIds.add(roleId);
+        }
+        Set<String> dependents = roleDependents.remove(roleId);
+        if (dependents != null) {
+          rolesToProcess.addAll(dependents);
+        }
+      }
+    }
+    return cachedRoleIds;
+  }
+
+  /**
+   * Resolves the permissions of the given roles again, off the request path.
+   */
+  private void precompute(final Set<String> roleIds) {
+    if (roleIds.isEmpty()) {
+      return;
+    }
+    precomputeExecutor.execute(() -> {
+      for (String roleId : roleIds) {
+        try {
+          resolvePermissionsInRole(roleId);
+        }
+        catch (Exception e) {
+          log.debug("Failed to precompute permissions of role: {}", roleId, e);
+        }
+      }
+    });
   }
 
   @AllowConcurrentEvents
   @Subscribe
   public void on(final AuthorizationConfigurationChanged event) {
-    invalidate();
+    if (!event.isIncremental()) {
+      invalidate();
+    }
   }
 
   @AllowConcurrentEvents
@@ -98,13 +244,52 @@ public class RolePermissionResolverImpl
     invalidate();
   }
 
+  /**
+   * @since 3.1
+   */
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final RoleEvent event) {
+    invalidateRole(event.getRole().getRoleId());
+  }
+
+  /**
+   * @since 3.1
+   */
+  @AllowConcurrentEvents
+  @Subscribe
+  public void on(final PrivilegeEvent event) {
+    invalidatePrivilege(event.getPrivilege().getId());
+  }
+
   @Override
   public Collection<Permission> resolvePermissionsInRole(final String roleString) {
     checkNotNull(roleString);
 
+    try {
+      // read role first to allow for the dirty check, which may invalidate the cache
+      configuration.readRole(roleString);
+    }
+    catch (NoSuchRoleException e) {
+      log.trace("Ignoring missing role: {}", roleString, e);
+      return Collections.emptySet();
+    }
+
+    Collection<Permission> cachedPermissions = rolePermissionsCache.getIfPresent(roleString);
+    if (cachedPermissions != null) {
+      return cachedPermissions;
+    }
+
+    long start = System.nanoTime();
+    long resolveGeneration;
+    synchronized (lock) {
+      resolveGeneration = generation;
+    }
+
     final Set<Permission> permissions = Sets.newLinkedHashSet();
     final LinkedList<String> rolesToProcess = Lists.newLinkedList();
     final Set<String> processedRoleIds = Sets.newLinkedHashSet();
+    final Set<String> privilegeIds = Sets.newHashSet();
 
     // initial role
     rolesToProcess.add(roleString);
@@ -113,21 +298,24 @@ public class RolePermissionResolverImpl
       final String roleId = rolesToProcess.removeFirst();
       if (processedRoleIds.add(roleId)) {
         try {
-          final CRole role = configuration.readRole(roleId);
-
-          // check memory-sensitive cache (after readRole to allow for the dirty check)
-          final Collection<Permission> cachedPermissions = rolePermissionsCache.get(roleId);
-          if (cachedPermissions != null) {
-            permissions.addAll(cachedPermissions);
-            continue; // use cached results
+          // use cached results of nested roles, invalidating them also invalidates this role
+          if (!roleId.equals(roleString)) {
+            cachedPermissions = rolePermissionsCache.getIfPresent(roleId);
+            if (cachedPermissions != null) {
+              permissions.addAll(cachedPermissions);
+              continue;
+            }
           }
 
+          final CRole role = configuration.readRole(roleId);
+
           // process the roles this role has recursively
           rolesToProcess.addAll(role.getRoles());
 
           // add the permissions this role has
           for (String privilegeId : role.getPrivileges()) {
-            Permission permission = permission(privilegeId);
+            privilegeIds.add(privilegeId);
+            Permission permission = permission(privilegeId, resolveGeneration);
             if (permission != null) {
               permissions.add(permission);
             }
@@ -139,10 +327,66 @@ public class RolePermissionResolverImpl
       }
     }
 
-    // cache result of (non-trivial) computation
-    rolePermissionsCache.put(roleString, permissions);
+    Collection<Permission> result = Collections.unmodifiableSet(permissions);
 
-    return permissions;
+    // cache result of (non-trivial) computation, unless the configuration changed meanwhile
+    synchronized (lock) {
+      if (generation == resolveGeneration) {
+        rolePermissionsCache.put(roleString, result);
+        for (String roleId : processedRoleIds) {
+          roleDependents.computeIfAbsent(roleId, key -> new HashSet<>()).add(roleString);
+        }
+        for (String privilegeId : privilegeIds) {
+          privilegeDependents.computeIfAbsent(privilegeId, key -> new HashSet<>()).add(roleString);
+        }
+      }
+    }
+
+    rebuildCount.incrementAndGet();
+    rebuildNanos.addAndGet(System.nanoTime() - start);
+
+    return result;
+  }
+
+  /**
+   * Returns the generation of the resolved permissions, which changes whenever the permissions of any role may have
+   * changed.
+   */
+  long generation() {
+    synchronized (lock) {
+      return generation;
+    }
+  }
+
+  @ManagedAttribute(description = "Fraction of role permission lookups answered from cache")
+  public double getHitRate() {
+    return rolePermissionsCache.stats().hitRate();
+  }
+
+  @ManagedAttribute(description = "Number of role permission lookups answered from cache")
+  public long getHitCount() {
+    return rolePermissionsCache.stats().hitCount();
+  }
+
+  @ManagedAttribute(description = "Number of role permission lookups which had to resolve the role")
+  public long getMissCount() {
+    return rolePermissionsCache.stats().missCount();
+  }
+
+  @ManagedAttribute(description = "Number of roles whose permissions were resolved")
+  public long getRebuildCount() {
+    return rebuildCount.get();
+  }
+
+  @ManagedAttribute(description = "Average time in milliseconds to resolve the permissions of a role")
+  public double getAverageRebuildMillis() {
+    long count = rebuildCount.get();
+    return count > 0 ? TimeUnit.NANOSECONDS.toMicros(rebuildNanos.get()) / 1000.0 / count : 0;
+  }
+
+  @ManagedAttribute(description = "Number of roles with cached permissions")
+  public long getCachedRoleCount() {
+    return rolePermissionsCache.size();
   }
 
   /**
@@ -166,17 +410,21 @@ public class RolePermissionResolverImpl
    * Returns the permission for the given privilege-id or {@code null}.
    */
   @Nullable
-  private Permission permission(final String privilegeId) {
+  private Permission permission(final String privilegeId, final long resolveGeneration) {
     assert privilegeId != null;
 
-    Permission permission = permissionsCache.get(privilegeId);
+    Permission permission = permissionsCache.getIfPresent(privilegeId);
     if (permission == null) {
       try {
         CPrivilege privilege = configuration.readPrivilege(privilegeId);
         PrivilegeDescriptor descriptor = descriptor(privilege.getType());
         if (descriptor != null) {
           permission = descriptor.createPermission(privilege);
-          permissionsCache.put(privilegeId, permission);
+          synchronized (lock) {
+            if (generation == resolveGeneration) {
+              permissionsCache.put(privilegeId, permission);
+            }
+          }
         }
       }
       catch (NoSuchPrivilegeException e) {
@@ -15,12 +15,16 @@ package org.sonatype.nexus.security.authc;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.sonatype.nexus.common.event.EventBus;
 import org.sonatype.nexus.security.AbstractSecurityTest;
 import org.sonatype.nexus.security.config.CPrivilege;
 import org.sonatype.nexus.security.config.CRole;
 import org.sonatype.nexus.security.config.CUser;
+import org.sonatype.nexus.security.config.SecurityConfigurationManager;
 import org.sonatype.nexus.security.internal.AuthenticatingRealmImpl;
 import org.sonatype.nexus.security.internal.SecurityConfigurationManagerImpl;
+import org.sonatype.nexus.security.user.User;
+import org.sonatype.nexus.security.user.UserUpdatedEvent;
 
 import com.google.common.base.Charsets;
 import com.google.common.hash.Hashing;
@@ -32,8 +36,15 @@ import org.apache.shiro.realm.Realm;
 import org.junit.Test;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class AuthenticatingRealmImplTest
     extends AbstractSecurityTest
@@ -135,6 +146,72 @@ public class AuthenticatingRealmImplTest
 
     assertThat(passwordService.passwordsMatch(password, hash), is(true));
     assertThat(passwordService.passwordsMatch(password, updatedUser.getPassword()), is(true));
+    assertThat(updatedUser.getPassword().length(), greaterThan(40));
+  }
+
+  @Test
+  public void testVerifiedCredentialsAreRemembered() throws Exception {
+    PasswordService passwordService = mock(PasswordService.class);
+    when(passwordService.passwordsMatch(any(), anyString())).thenReturn(true);
+    AuthenticatingRealmImpl realm = newRealm(passwordService);
+
+    realm.getAuthenticationInfo(new UsernamePasswordToken("username", "password"));
+    realm.getAuthenticationInfo(new UsernamePasswordToken("username", "password"));
+
+    verify(passwordService, times(1)).passwordsMatch(any(), anyString());
+
+    // other credentials are verified again
+    realm.getAuthenticationInfo(new UsernamePasswordToken("username", "other"));
+
+    verify(passwordService, times(2)).passwordsMatch(any(), anyString());
+  }
+
+  @Test
+  public void testFailedCredentialsAreNotRemembered() throws Exception {
+    PasswordService passwordService = mock(PasswordService.class);
+    when(passwordService.passwordsMatch(any(), anyString())).thenReturn(false);
+    AuthenticatingRealmImpl realm = newRealm(passwordService);
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        realm.getAuthenticationInfo(new UsernamePasswordToken("username", "badpassword"));
+        fail("Authentication should have failed");
+      }
+      catch (AuthenticationException e) {
+        // good
+      }
+    }
+
+    verify(passwordService, times(2)).passwordsMatch(any(), anyString());
+  }
+
+  @Test
+  public void testUserUpdateForgetsVerifiedCredentials() throws Exception {
+    PasswordService passwordService = mock(PasswordService.class);
+    when(passwordService.passwordsMatch(any(), anyString())).thenReturn(true);
+    AuthenticatingRealmImpl realm = newRealm(passwordService);
+
+    realm.getAuthenticationInfo(new UsernamePasswordToken("username", "password"));
+
+    User user = new User();
+    user.setUserId("username");
+    realm.on(new UserUpdatedEvent(user));
+
+    realm.getAuthenticationInfo(new UsernamePasswordToken("username", "password"));
+
+    verify(passwordService, times(2)).passwordsMatch(any(), anyString());
+  }
+
+  private AuthenticatingRealmImpl newRealm(final PasswordService passwordService) throws Exception {
+    CUser user = new CUser();
+    user.setId("username");
+    user.setStatus(CUser.STATUS_ACTIVE);
+    user.setPassword(this.passwordService.encryptPassword("password"));
+
+    SecurityConfigurationManager configuration = mock(SecurityConfigurationManager.class);
+    when(configuration.readUser("username")).thenReturn(user);
+
+    return new AuthenticatingRealmImpl(configuration, passwordService, mock(EventBus.class));
   }
 
   private void buildTestAuthenticationConfig(String status) throws Exception {
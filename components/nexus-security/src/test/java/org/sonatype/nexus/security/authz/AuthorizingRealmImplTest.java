@@ -12,8 +12,12 @@
  */
 package org.sonatype.nexus.security.authz;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.sonatype.nexus.common.event.EventBus;
 
 import org.sonatype.nexus.security.AbstractSecurityTest;
 import org.sonatype.nexus.security.config.CPrivilege;
@@ -22,15 +26,25 @@ import org.sonatype.nexus.security.config.CUser;
 import org.sonatype.nexus.security.internal.AuthorizingRealmImpl;
 import org.sonatype.nexus.security.internal.SecurityConfigurationManagerImpl;
 import org.sonatype.nexus.security.privilege.WildcardPrivilegeDescriptor;
+import org.sonatype.nexus.security.user.UserManager;
 import org.sonatype.nexus.security.user.UserStatus;
 
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
 import org.apache.shiro.authz.permission.RolePermissionResolver;
 import org.apache.shiro.authz.permission.WildcardPermission;
+import org.apache.shiro.mgt.RealmSecurityManager;
 import org.apache.shiro.realm.Realm;
+import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.SimplePrincipalCollection;
 import org.junit.Assert;
 import org.junit.Test;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
 /**
  * Tests for {@link AuthorizingRealmImpl}.
  */
@@ -75,6 +89,59 @@ public class AuthorizingRealmImplTest
     Assert.assertFalse(realm.isPermitted(principal, new WildcardPermission("app:ui:delete")));
   }
 
+  @Test
+  public void testPermissionIndexCompiledOnce() throws Exception {
+    RolePermissionResolver rolePermissionResolver = mock(RolePermissionResolver.class);
+    when(rolePermissionResolver.resolvePermissionsInRole("role"))
+        .thenReturn(Collections.singletonList(new WildcardPermission("app:config:read")));
+    AuthorizingRealmImpl cachingRealm = new AuthorizingRealmImpl(mock(RealmSecurityManager.class),
+        mock(UserManager.class), Collections.emptyMap(), mock(EventBus.class))
+    {
+      @Override
+      protected AuthorizationInfo getAuthorizationInfo(final PrincipalCollection principals) {
+        // a copy, as read from the authorization cache
+        return new SimpleAuthorizationInfo(Collections.singleton("role"));
+      }
+    };
+    cachingRealm.setRolePermissionResolver(rolePermissionResolver);
+    SimplePrincipalCollection principal = new SimplePrincipalCollection("username", cachingRealm.getName());
+
+    Assert.assertTrue(cachingRealm.isPermitted(principal, new WildcardPermission("app:config:read")));
+    Assert.assertTrue(cachingRealm.isPermitted(principal, new WildcardPermission("app:config:read")));
+    Assert.assertFalse(cachingRealm.isPermitted(principal, new WildcardPermission("app:config:delete")));
+
+    verify(rolePermissionResolver, times(1)).resolvePermissionsInRole("role");
+  }
+
+  @Test
+  public void testRevokedRoleNotPermittedWhenRealmInvalidatedBeforeAuthorizationCache() throws Exception {
+    RolePermissionResolver rolePermissionResolver = mock(RolePermissionResolver.class);
+    when(rolePermissionResolver.resolvePermissionsInRole("role"))
+        .thenReturn(Collections.singletonList(new WildcardPermission("app:config:read")));
+    AtomicReference<AuthorizationInfo> authorizationCache =
+        new AtomicReference<>(new SimpleAuthorizationInfo(Collections.singleton("role")));
+    AuthorizingRealmImpl racingRealm = new AuthorizingRealmImpl(mock(RealmSecurityManager.class),
+        mock(UserManager.class), Collections.emptyMap(), mock(EventBus.class))
+    {
+      @Override
+      protected AuthorizationInfo getAuthorizationInfo(final PrincipalCollection principals) {
+        return authorizationCache.get();
+      }
+    };
+    racingRealm.setRolePermissionResolver(rolePermissionResolver);
+    SimplePrincipalCollection principal = new SimplePrincipalCollection("username", racingRealm.getName());
+    Assert.assertTrue(racingRealm.isPermitted(principal, new WildcardPermission("app:config:read")));
+
+    // the role is revoked; this realm hears of it before the authorization cache is cleared ...
+    racingRealm.on(new AuthorizationConfigurationChanged());
+    // ... so a request in between still reads the stale authorization info
+    Assert.assertTrue(racingRealm.isPermitted(principal, new WildcardPermission("app:config:read")));
+    // ... until the authorization cache is cleared
+    authorizationCache.set(new SimpleAuthorizationInfo(Collections.<String>emptySet()));
+
+    Assert.assertFalse(racingRealm.isPermitted(principal, new WildcardPermission("app:config:read")));
+  }
+
   private void buildTestAuthorizationConfig() throws Exception {
     buildTestAuthorizationConfig("username");
   }
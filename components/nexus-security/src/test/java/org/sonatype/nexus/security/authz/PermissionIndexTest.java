@@ -0,0 +1,202 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.security.authz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import com.google.common.base.Stopwatch;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for {@link PermissionIndex}.
+ */
+public class PermissionIndexTest
+    extends TestSupport
+{
+  /**
+   * Set to {@code true} to run the lookup benchmark.
+   */
+  private static final String BENCHMARK = "nexus.benchmark";
+
+  private static final String[] FORMATS = {"maven2", "npm", "nuget", "raw", "docker"};
+
+  private static final String[] ACTIONS = {"browse", "read", "edit", "add", "delete"};
+
+  @Test
+  public void exactAndWildcardParts() {
+    PermissionIndex index = index(
+        "nexus:repository-view:maven2:central:read",
+        "nexus:repository-view:npm:*:browse,read",
+        "nexus:repository-admin:*:*:*",
+        "nexus:settings");
+
+    assertImplies(index, "nexus:repository-view:maven2:central:read", true);
+    assertImplies(index, "nexus:repository-view:maven2:central:edit", false);
+    assertImplies(index, "nexus:repository-view:maven2:releases:read", false);
+    assertImplies(index, "nexus:repository-view:npm:npmjs:read", true);
+    assertImplies(index, "nexus:repository-view:npm:npmjs:browse", true);
+    assertImplies(index, "nexus:repository-view:npm:npmjs:delete", false);
+    assertImplies(index, "nexus:repository-admin:raw:site:delete", true);
+    assertImplies(index, "nexus:repository-admin", true);
+    assertImplies(index, "nexus:settings:read", true);
+    assertImplies(index, "nexus:settings:read:extra", true);
+    assertImplies(index, "nexus:repository-view", false);
+    assertImplies(index, "nexus:repository-view:maven2:central:read:extra", true);
+  }
+
+  @Test
+  public void multiValuedRequestsFallBack() {
+    PermissionIndex index = index("nexus:repository-view:maven2:central:browse,read");
+
+    assertImplies(index, "nexus:repository-view:maven2:central:browse,read", true);
+    assertImplies(index, "nexus:repository-view:maven2:central:read,edit", false);
+  }
+
+  @Test
+  public void otherPermissionTypesAreChecked() {
+    PermissionIndex index = new PermissionIndex(Arrays.asList(
+        new WildcardPermission("nexus:repository-view:raw:site:read"),
+        new WildcardPermission2("nexus:repository-view:maven2:*:read")
+    ));
+
+    assertImplies(index, "nexus:repository-view:raw:site:read", true);
+    assertImplies(index, "nexus:repository-view:maven2:central:read", true);
+    assertThat(index.implies(new WildcardPermission("nexus:repository-view:maven2:central:read")), is(true));
+    assertThat(index.implies(new WildcardPermission("nexus:repository-view:maven2:central:edit")), is(false));
+  }
+
+  @Test
+  public void emptyImpliesNothing() {
+    PermissionIndex index = new PermissionIndex(new ArrayList<>());
+
+    assertImplies(index, "nexus:repository-view:maven2:central:read", false);
+  }
+
+  /**
+   * Compares the index to evaluating every granted permission, for 1000 repositories and 200 roles.
+   */
+  @Test
+  public void agreesWithLinearScan() {
+    List<Permission> granted = granted();
+    List<Permission> requested = requested();
+
+    PermissionIndex index = new PermissionIndex(granted);
+
+    boolean[] expected = new boolean[requested.size()];
+    boolean[] actual = new boolean[requested.size()];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = impliedByAny(granted, requested.get(i));
+      actual[i] = index.implies(requested.get(i));
+    }
+
+    assertThat(Arrays.equals(actual, expected), is(true));
+  }
+
+  /**
+   * Compares the time of index lookups with evaluating every granted permission, for 1000 repositories and 200 roles.
+   * Only logs, as timings are too noisy to assert on; opt in with {@code -Dnexus.benchmark=true}.
+   */
+  @Test
+  public void lookupBenchmark() {
+    assumeTrue("Benchmark, enable with -D" + BENCHMARK + "=true", Boolean.getBoolean(BENCHMARK));
+
+    List<Permission> granted = granted();
+    List<Permission> requested = requested();
+
+    // warm up both, then measure
+    for (int round = 0; round < 3; round++) {
+      Stopwatch compile = Stopwatch.createStarted();
+      PermissionIndex index = new PermissionIndex(granted);
+      compile.stop();
+
+      Stopwatch scan = Stopwatch.createStarted();
+      for (Permission permission : requested) {
+        impliedByAny(granted, permission);
+      }
+      scan.stop();
+
+      Stopwatch lookup = Stopwatch.createStarted();
+      for (Permission permission : requested) {
+        index.implies(permission);
+      }
+      lookup.stop();
+
+      log("{} checks against {} permissions; compile: {}, linear scan: {}, index: {}",
+          requested.size(), granted.size(), compile, scan, lookup);
+    }
+  }
+
+  /**
+   * Ten permissions for each of 200 roles, over 1000 repositories, some with wildcard formats or repositories.
+   */
+  private static List<Permission> granted() {
+    Random random = new Random(42);
+    List<Permission> granted = new ArrayList<>();
+    for (int role = 0; role < 200; role++) {
+      for (int i = 0; i < 10; i++) {
+        String format = random.nextInt(10) == 0 ? "*" : FORMATS[random.nextInt(FORMATS.length)];
+        String repository = random.nextInt(10) == 0 ? "*" : "repo-" + random.nextInt(1000);
+        String actions = ACTIONS[random.nextInt(ACTIONS.length)] + "," + ACTIONS[random.nextInt(ACTIONS.length)];
+        granted.add(new WildcardPermission2("nexus:repository-view:" + format + ":" + repository + ":" + actions));
+      }
+    }
+    return granted;
+  }
+
+  /**
+   * Every action on each of 1000 repositories.
+   */
+  private static List<Permission> requested() {
+    List<Permission> requested = new ArrayList<>();
+    for (int repository = 0; repository < 1000; repository++) {
+      for (String action : ACTIONS) {
+        requested.add(new WildcardPermission2("nexus:repository-view:" + FORMATS[repository % FORMATS.length]
+            + ":repo-" + repository + ":" + action));
+      }
+    }
+    return requested;
+  }
+
+  private static PermissionIndex index(final String... permissions) {
+    List<Permission> granted = new ArrayList<>();
+    for (String permission : permissions) {
+      granted.add(new WildcardPermission2(permission));
+    }
+    return new PermissionIndex(granted);
+  }
+
+  private static boolean impliedByAny(final Collection<Permission> granted, final Permission permission) {
+    for (Permission each : granted) {
+      if (each.implies(permission)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void assertImplies(final PermissionIndex index, final String permission, final boolean expected) {
+    assertThat(permission, index.implies(new WildcardPermission2(permission)), is(expected));
+  }
+}
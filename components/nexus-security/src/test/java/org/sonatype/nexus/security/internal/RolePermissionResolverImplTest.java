@@ -0,0 +1,189 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.security.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.event.EventBus;
+import org.sonatype.nexus.security.authz.AuthorizationConfigurationChanged;
+import org.sonatype.nexus.security.authz.WildcardPermission2;
+import org.sonatype.nexus.security.config.CPrivilege;
+import org.sonatype.nexus.security.config.CRole;
+import org.sonatype.nexus.security.config.SecurityConfigurationManager;
+import org.sonatype.nexus.security.privilege.NoSuchPrivilegeException;
+import org.sonatype.nexus.security.privilege.Privilege;
+import org.sonatype.nexus.security.privilege.PrivilegeDescriptor;
+import org.sonatype.nexus.security.privilege.PrivilegeUpdatedEvent;
+import org.sonatype.nexus.security.privilege.WildcardPrivilegeDescriptor;
+import org.sonatype.nexus.security.role.NoSuchRoleException;
+import org.sonatype.nexus.security.role.Role;
+import org.sonatype.nexus.security.role.RoleUpdatedEvent;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.shiro.authz.Permission;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link RolePermissionResolverImpl}.
+ */
+public class RolePermissionResolverImplTest
+    extends TestSupport
+{
+  @Mock
+  private SecurityConfigurationManager configuration;
+
+  @Mock
+  private PrivilegeDescriptor descriptor;
+
+  @Mock
+  private EventBus eventBus;
+
+  private final Map<String, CRole> roles = new HashMap<>();
+
+  private final Map<String, CPrivilege> privileges = new HashMap<>();
+
+  private RolePermissionResolverImpl underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    when(configuration.readRole(anyString())).thenAnswer(invocation -> {
+      CRole role = roles.get((String) invocation.getArguments()[0]);
+      if (role == null) {
+        throw new NoSuchRoleException((String) invocation.getArguments()[0]);
+      }
+      return role;
+    });
+    when(configuration.readPrivilege(anyString())).thenAnswer(invocation -> {
+      CPrivilege privilege = privileges.get((String) invocation.getArguments()[0]);
+      if (privilege == null) {
+        throw new NoSuchPrivilegeException((String) invocation.getArguments()[0]);
+      }
+      return privilege;
+    });
+    when(descriptor.getType()).thenReturn(WildcardPrivilegeDescriptor.TYPE);
+    when(descriptor.createPermission(any(CPrivilege.class))).thenAnswer(invocation -> new WildcardPermission2(
+        ((CPrivilege) invocation.getArguments()[0]).getProperty(WildcardPrivilegeDescriptor.P_PATTERN)));
+
+    privilege("app:a");
+    privilege("app:b");
+    privilege("app:c");
+    role("child", "app:a");
+    role("sibling", "app:c");
+    role("parent", "app:b").addRole("child");
+
+    underTest = new RolePermissionResolverImpl(configuration, singletonList(descriptor), eventBus,
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  private void privilege(final String pattern) {
+    privileges.put(pattern, WildcardPrivilegeDescriptor.privilege(pattern));
+  }
+
+  private CRole role(final String id, final String... privilegeIds) {
+    CRole role = new CRole();
+    role.setId(id);
+    role.setPrivileges(new HashSet<>(Arrays.asList(privilegeIds)));
+    roles.put(id, role);
+    return role;
+  }
+
+  private Collection<Permission> resolve(final String roleId) {
+    return underTest.resolvePermissionsInRole(roleId);
+  }
+
+  private static Permission[] permissions(final String... patterns) {
+    return Arrays.stream(patterns).map(WildcardPermission2::new).toArray(Permission[]::new);
+  }
+
+  @Test
+  public void resolvesNestedRolesOnce() throws Exception {
+    assertThat(resolve("parent"), containsInAnyOrder(permissions("app:a", "app:b")));
+    assertThat(resolve("parent"), containsInAnyOrder(permissions("app:a", "app:b")));
+
+    verify(configuration, times(1)).readPrivilege("app:a");
+    verify(configuration, times(1)).readPrivilege("app:b");
+    assertThat(underTest.getHitCount(), is(1L));
+    assertThat(underTest.getRebuildCount(), is(1L));
+  }
+
+  @Test
+  public void missingRoleResolvesToNothing() {
+    assertThat(resolve("missing"), is(empty()));
+  }
+
+  @Test
+  public void roleUpdateInvalidatesDependentsOnly() throws Exception {
+    resolve("parent");
+    resolve("sibling");
+    assertThat(underTest.getCachedRoleCount(), is(2L));
+
+    long generation = underTest.generation();
+    roles.get("child").addPrivilege("app:c");
+    underTest.on(new RoleUpdatedEvent(new Role("child", null, null, null, false, null, null)));
+    assertThat(underTest.generation(), greaterThan(generation));
+
+    // parent is precomputed again, sibling is untouched
+    assertThat(underTest.getRebuildCount(), is(3L));
+    assertThat(resolve("parent"), containsInAnyOrder(permissions("app:a", "app:b", "app:c")));
+    assertThat(underTest.getRebuildCount(), is(3L));
+    verify(configuration, times(1)).readPrivilege("app:c");
+  }
+
+  @Test
+  public void privilegeUpdateInvalidatesDependentsOnly() throws Exception {
+    resolve("parent");
+    resolve("sibling");
+
+    privileges.get("app:a").setProperty(WildcardPrivilegeDescriptor.P_PATTERN, "app:z");
+    Privilege privilege = new Privilege();
+    privilege.setId("app:a");
+    underTest.on(new PrivilegeUpdatedEvent(privilege));
+
+    assertThat(resolve("parent"), containsInAnyOrder(permissions("app:z", "app:b")));
+    assertThat(resolve("child"), containsInAnyOrder(permissions("app:z")));
+    assertThat(resolve("sibling"), containsInAnyOrder(permissions("app:c")));
+    verify(configuration, times(1)).readPrivilege("app:c");
+  }
+
+  @Test
+  public void incrementalConfigurationChangeKeepsCache() throws Exception {
+    resolve("parent");
+
+    underTest.on(new AuthorizationConfigurationChanged(true));
+    resolve("parent");
+    verify(configuration, times(1)).readPrivilege("app:a");
+
+    underTest.on(new AuthorizationConfigurationChanged());
+    resolve("parent");
+    verify(configuration, times(2)).readPrivilege("app:a");
+  }
+}
@@ -12,9 +12,15 @@
  */
 package org.sonatype.nexus.repository.httpbridge;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -24,17 +30,25 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 
 import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.repository.http.HttpMethods;
 import org.sonatype.nexus.repository.view.Payload;
 import org.sonatype.nexus.repository.view.Request;
 import org.sonatype.nexus.repository.view.Response;
 import org.sonatype.nexus.repository.view.Status;
+import org.sonatype.nexus.repository.view.payloads.FileBackedPayload;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.ByteStreams;
+import org.eclipse.jetty.server.HttpOutput;
 
 /**
  * Default {@link HttpResponseSender}.
  *
+ * {@link FileBackedPayload File backed} payloads are sent without copying their content through the heap: handed to
+ * Jetty as a channel when it writes the response, so it reads the file into its own (direct) buffers, otherwise using
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ *
  * @since 3.0
  */
 @Named
@@ -43,6 +57,9 @@ public class DefaultHttpResponseSender
     extends ComponentSupport
     implements HttpResponseSender
 {
+  private static final boolean ZERO_COPY_ENABLED = SystemPropertiesHelper
+      .getBoolean(DefaultHttpResponseSender.class.getName() + ".zeroCopy", true);
+
   @Override
   public void send(@Nullable final Request request, final Response response, final HttpServletResponse httpResponse)
       throws ServletException, IOException
@@ -71,8 +88,11 @@ public class DefaultHttpResponseSender
         }
 
         if (request != null && !HttpMethods.HEAD.equals(request.getAction())) {
-          try (InputStream input = payload.openInputStream(); OutputStream output = httpResponse.getOutputStream()) {
-            ByteStreams.copy(input, output);
+          if (!ZERO_COPY_ENABLED || !(payload instanceof FileBackedPayload)
+              || !sendFileBacked((FileBackedPayload) payload, httpResponse)) {
+            try (InputStream input = payload.openInputStream(); OutputStream output = httpResponse.getOutputStream()) {
+              ByteStreams.copy(input, output);
+            }
           }
         }
       }
@@ -81,4 +101,89 @@ public class DefaultHttpResponseSender
       httpResponse.sendError(status.getCode(), status.getMessage());
     }
   }
+
+  /**
+   * Sends the content of a file backed payload straight from its file.
+   *
+   * @return {@code false} if the payload turned out not to be file backed, and nothing was sent
+   */
+  @VisibleForTesting
+  boolean sendFileBacked(final FileBackedPayload payload, final HttpServletResponse httpResponse) throws IOException {
+    try (FileChannel channel = payload.openFileChannel()) {
+      if (channel == null) {
+        return false;
+      }
+      long position = channel.position();
+      long remaining = payload.getSize() != Payload.UNKNOWN_SIZE ? payload.getSize() : channel.size() - position;
+
+      try (OutputStream output = httpResponse.getOutputStream()) {
+        if (output instanceof HttpOutput) {
+          log.trace("Sending {} bytes from position {}", remaining, position);
+          ((HttpOutput) output).sendContent(new RegionChannel(channel, remaining));
+        }
+        else {
+          log.trace("Transferring {} bytes from position {}", remaining, position);
+          WritableByteChannel target = Channels.newChannel(output);
+          while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+              throw new EOFException("Premature end of file at position " + position);
+            }
+            position += transferred;
+            remaining -= transferred;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads at most the given number of bytes from the current position of a file channel, so Jetty sends just the
+   * requested region of the file.
+   */
+  private static class RegionChannel
+      implements ReadableByteChannel
+  {
+    private final FileChannel channel;
+
+    private long remaining;
+
+    private RegionChannel(final FileChannel channel, final long length) {
+      this.channel = channel;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int limit = dst.limit();
+      if (dst.remaining() > remaining) {
+        dst.limit(dst.position() + (int) remaining);
+      }
+      try {
+        int n = channel.read(dst);
+        if (n < 0) {
+          throw new EOFException("Premature end of file, " + remaining + " bytes missing");
+        }
+        remaining -= n;
+        return n;
+      }
+      finally {
+        dst.limit(limit);
+      }
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
 }
@@ -0,0 +1,163 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.httpbridge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.view.payloads.FileBackedPayload;
+
+import com.google.common.io.ByteStreams;
+import org.eclipse.jetty.server.HttpOutput;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link DefaultHttpResponseSender} sending of {@link FileBackedPayload}s.
+ */
+public class DefaultHttpResponseSenderTest
+    extends TestSupport
+{
+  private static final byte[] DATA = "0123456789".getBytes();
+
+  @Mock
+  private HttpServletResponse httpResponse;
+
+  private File file;
+
+  private DefaultHttpResponseSender underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    file = util.createTempFile();
+    Files.write(file.toPath(), DATA);
+    underTest = new DefaultHttpResponseSender();
+  }
+
+  @Test
+  public void transfersWholeFile() throws Exception {
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    when(httpResponse.getOutputStream()).thenReturn(servletOutputStream(sent));
+
+    assertThat(underTest.sendFileBacked(new FilePayload(0, DATA.length), httpResponse), is(true));
+    assertThat(sent.toByteArray(), is(DATA));
+  }
+
+  @Test
+  public void transfersFileRegion() throws Exception {
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    when(httpResponse.getOutputStream()).thenReturn(servletOutputStream(sent));
+
+    assertThat(underTest.sendFileBacked(new FilePayload(3, 4), httpResponse), is(true));
+    assertThat(sent.toByteArray(), is("3456".getBytes()));
+  }
+
+  @Test
+  public void sendsRegionChannelToJetty() throws Exception {
+    HttpOutput httpOutput = mock(HttpOutput.class);
+    when(httpResponse.getOutputStream()).thenReturn(httpOutput);
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    doAnswer(invocation -> {
+      ByteStreams.copy(Channels.newInputStream((ReadableByteChannel) invocation.getArguments()[0]), sent);
+      return null;
+    }).when(httpOutput).sendContent(any(ReadableByteChannel.class));
+
+    assertThat(underTest.sendFileBacked(new FilePayload(3, 4), httpResponse), is(true));
+
+    verify(httpOutput).sendContent(any(ReadableByteChannel.class));
+    assertThat(sent.toByteArray(), is("3456".getBytes()));
+  }
+
+  @Test
+  public void fallsBackWhenNotFileBacked() throws Exception {
+    FileBackedPayload payload = mock(FileBackedPayload.class);
+
+    assertThat(underTest.sendFileBacked(payload, httpResponse), is(false));
+  }
+
+  private ServletOutputStream servletOutputStream(final ByteArrayOutputStream sent) {
+    return new ServletOutputStream()
+    {
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(final WriteListener writeListener) {
+        // no-op
+      }
+
+      @Override
+      public void write(final int b) throws IOException {
+        sent.write(b);
+      }
+    };
+  }
+
+  private class FilePayload
+      implements FileBackedPayload
+  {
+    private final long position;
+
+    private final long size;
+
+    private FilePayload(final long position, final long size) {
+      this.position = position;
+      this.size = size;
+    }
+
+    @Nullable
+    @Override
+    public FileChannel openFileChannel() throws IOException {
+      return FileChannel.open(file.toPath()).position(position);
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getSize() {
+      return size;
+    }
+
+    @Nullable
+    @Override
+    public String getContentType() {
+      return null;
+    }
+  }
+}
@@ -13,6 +13,7 @@
 package org.sonatype.nexus.repository.maven;
 
 import java.io.IOException;
+import java.util.Collection;
 
 import javax.annotation.Nullable;
 
@@ -39,6 +40,14 @@ public interface MavenHostedFacet
                        @Nullable String artifactId,
                        @Nullable String baseVersion);
 
+  /**
+   * Updates Maven metadata of artifacts changed since the last complete rebuild of the repository's metadata, or
+   * rebuilds all metadata if there was none yet.
+   *
+   * @since 3.1
+   */
+  void rebuildChangedMetadata();
+
   /**
    * Rebuilds archetype catalog for given repository. Returns the number of archetypes hosted.
    */
@@ -48,4 +57,12 @@ public interface MavenHostedFacet
    * Delete metadata associated with the Maven artifact, and rebuild metadata to account for the deletion.
    */
   void deleteMetadata(String groupId, String artifactId, String baseVersion);
+
+  /**
+   * Delete metadata associated with the given base versions of a Maven artifact, and rebuild metadata once to account
+   * for the deletions.
+   *
+   * @since 3.1
+   */
+  void deleteMetadata(String groupId, String artifactId, Collection<String> baseVersions);
 }
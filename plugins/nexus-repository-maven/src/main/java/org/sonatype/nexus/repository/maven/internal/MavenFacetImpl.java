@@ -27,7 +27,6 @@ import javax.validation.groups.Default;
 import org.sonatype.nexus.blobstore.api.Blob;
 import org.sonatype.nexus.common.collect.AttributesMap;
 import org.sonatype.nexus.common.collect.NestedAttributesMap;
-import org.sonatype.nexus.common.io.TempStreamSupplier;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.config.Configuration;
 import org.sonatype.nexus.repository.config.ConfigurationFacet;
@@ -40,6 +39,7 @@ import org.sonatype.nexus.repository.maven.LayoutPolicy;
 import org.sonatype.nexus.repository.maven.VersionPolicy;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.AssetBlob;
+import org.sonatype.nexus.repository.storage.BlobStreamSupplier;
 import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.Component;
 import org.sonatype.nexus.repository.storage.StorageFacet;
@@ -175,9 +175,7 @@ public class MavenFacetImpl
     if (asset == null) {
       return null;
     }
-    if (asset.markAsAccessed()) {
-      tx.saveAsset(asset);
-    }
+    storageFacet.markAsAccessed(asset);
 
     final Blob blob = tx.requireBlob(asset.requireBlobRef());
     return toContent(asset, blob);
@@ -196,7 +194,7 @@ public class MavenFacetImpl
   {
     log.debug("PUT {} : {}", getRepository().getName(), path.getPath());
 
-    try (TempStreamSupplier streamSupplier = new TempStreamSupplier(payload.openInputStream())) {
+    try (BlobStreamSupplier streamSupplier = new BlobStreamSupplier(payload.openInputStream())) {
       return doPut(path, payload, streamSupplier);
     }
   }
@@ -14,6 +14,7 @@ package org.sonatype.nexus.repository.maven.internal;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -40,6 +41,7 @@ import org.sonatype.nexus.repository.storage.Query;
 import org.sonatype.nexus.repository.storage.StorageTx;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
 import org.sonatype.nexus.repository.view.payloads.StreamPayload;
 import org.sonatype.nexus.repository.view.payloads.StreamPayload.InputStreamSupplier;
 import org.sonatype.nexus.repository.view.payloads.StringPayload;
@@ -145,19 +147,9 @@ public final class MavenFacetUtils
    * Creates a temporary {@link Content} equipped will all the whistles and bells, like hashes and so.
    */
   public static Content createTempContent(final Path path, final String contentType, final Writer writer) throws IOException {
-    Map<HashAlgorithm, HashingOutputStream> hashingStreams = new HashMap<>();
+    Map<HashAlgorithm, HashCode> hashCodes;
     try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(path))) {
-      OutputStream os = outputStream;
-      for (HashType hashType : HashType.values()) {
-        os = new HashingOutputStream(hashType.getHashAlgorithm().function(), os);
-        hashingStreams.put(hashType.getHashAlgorithm(), (HashingOutputStream) os);
-      }
-      writer.write(os);
-      os.flush();
-    }
-    Map<HashAlgorithm, HashCode> hashCodes = new HashMap<>();
-    for (Map.Entry<HashAlgorithm, HashingOutputStream> entry : hashingStreams.entrySet()) {
-      hashCodes.put(entry.getKey(), entry.getValue().hash());
+      hashCodes = writeWithHashes(outputStream, writer);
     }
     Content content = new Content(new StreamPayload(
         new InputStreamSupplier()
@@ -171,6 +163,40 @@ public final class MavenFacetUtils
         Files.size(path),
         contentType)
     );
+    return withHashes(content, hashCodes);
+  }
+
+  /**
+   * Creates an in-memory {@link Content} equipped will all the whistles and bells, like hashes and so. Meant for small
+   * generated content, like merged metadata, that is not worth spooling to disk.
+   *
+   * @since 3.1
+   */
+  public static Content createContent(final String contentType, final Writer writer) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Map<HashAlgorithm, HashCode> hashCodes = writeWithHashes(outputStream, writer);
+    return withHashes(new Content(new BytesPayload(outputStream.toByteArray(), contentType)), hashCodes);
+  }
+
+  private static Map<HashAlgorithm, HashCode> writeWithHashes(final OutputStream outputStream, final Writer writer)
+      throws IOException
+  {
+    Map<HashAlgorithm, HashingOutputStream> hashingStreams = new HashMap<>();
+    OutputStream os = outputStream;
+    for (HashType hashType : HashType.values()) {
+      os = new HashingOutputStream(hashType.getHashAlgorithm().function(), os);
+      hashingStreams.put(hashType.getHashAlgorithm(), (HashingOutputStream) os);
+    }
+    writer.write(os);
+    os.flush();
+    Map<HashAlgorithm, HashCode> hashCodes = new HashMap<>();
+    for (Map.Entry<HashAlgorithm, HashingOutputStream> entry : hashingStreams.entrySet()) {
+      hashCodes.put(entry.getKey(), entry.getValue().hash());
+    }
+    return hashCodes;
+  }
+
+  private static Content withHashes(final Content content, final Map<HashAlgorithm, HashCode> hashCodes) {
     content.getAttributes().set(Content.CONTENT_LAST_MODIFIED, DateTime.now());
     content.getAttributes().set(Content.CONTENT_HASH_CODES_MAP, hashCodes);
     mayAddETag(content);
@@ -13,9 +13,12 @@
 package org.sonatype.nexus.repository.maven.internal;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 
+import org.sonatype.nexus.common.app.ApplicationDirectories;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.maven.MavenIndexFacet;
 import org.sonatype.nexus.repository.storage.StorageFacet;
@@ -32,6 +35,25 @@ public abstract class MavenIndexFacetSupport
     extends FacetSupport
     implements MavenIndexFacet
 {
+  private Path temporaryDirectory;
+
+  /**
+   * @since 3.1
+   */
+  @Inject
+  public void installDependencies(final ApplicationDirectories applicationDirectories) {
+    this.temporaryDirectory = applicationDirectories.getTemporaryDirectory().toPath();
+  }
+
+  /**
+   * Directory to create temporary files in while publishing the index.
+   *
+   * @since 3.1
+   */
+  protected Path getTemporaryDirectory() {
+    return temporaryDirectory;
+  }
+
   @Nullable
   public DateTime lastPublished() throws IOException {
     UnitOfWork.begin(getRepository().facet(StorageFacet.class).txSupplier());
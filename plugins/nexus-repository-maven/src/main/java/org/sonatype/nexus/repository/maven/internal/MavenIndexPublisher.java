@@ -14,24 +14,36 @@ package org.sonatype.nexus.repository.maven.internal;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.text.Strings2;
 import org.sonatype.nexus.orient.entity.AttachedEntityHelper;
 import org.sonatype.nexus.repository.Repository;
@@ -50,15 +62,18 @@ import org.sonatype.nexus.repository.view.payloads.StreamPayload;
 import org.sonatype.nexus.repository.view.payloads.StreamPayload.InputStreamSupplier;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.io.Closer;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import org.apache.maven.index.reader.ChunkReader;
+import org.apache.maven.index.reader.ChunkWriter;
 import org.apache.maven.index.reader.IndexReader;
 import org.apache.maven.index.reader.IndexWriter;
 import org.apache.maven.index.reader.Record;
-import org.apache.maven.index.reader.Record.EntryKey;
 import org.apache.maven.index.reader.Record.Type;
 import org.apache.maven.index.reader.RecordCompactor;
 import org.apache.maven.index.reader.RecordExpander;
@@ -71,6 +86,7 @@ import org.slf4j.LoggerFactory;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Iterables.filter;
 import static com.google.common.collect.Iterables.transform;
@@ -81,7 +97,9 @@ import static org.apache.maven.index.reader.Utils.rootGroup;
 import static org.apache.maven.index.reader.Utils.rootGroups;
 import static org.sonatype.nexus.repository.http.HttpMethods.GET;
 import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_COMPONENT;
 import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_BUCKET;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_NAME;
 import static org.sonatype.nexus.transaction.Operations.transactional;
 
 /**
@@ -93,11 +111,44 @@ public final class MavenIndexPublisher
 {
   private static final Logger log = LoggerFactory.getLogger(MavenIndexPublisher.class);
 
+  private static final String INDEX_FILE_PREFIX = "nexus-maven-repository-index";
+
   private static final String INDEX_PROPERTY_FILE = "/.index/nexus-maven-repository-index.properties";
 
   private static final String INDEX_MAIN_CHUNK_FILE = "/.index/nexus-maven-repository-index.gz";
 
-  private static final String SELECT_HOSTED_ARTIFACTS =
+  private static final String INDEX_ID = "nexus.index.id";
+
+  private static final String INDEX_CHAIN_ID = "nexus.index.chain-id";
+
+  private static final String INDEX_TIMESTAMP = "nexus.index.timestamp";
+
+  private static final String INDEX_LAST_INCREMENTAL = "nexus.index.last-incremental";
+
+  private static final String INDEX_INCREMENTAL_PREFIX = "nexus.index.incremental-";
+
+  private static final String INDEX_TIMESTAMP_FORMAT = "yyyyMMddHHmmss.SSS Z";
+
+  private static final int INDEX_VERSION = 1;
+
+  /**
+   * Assets updated this long before the previous publish are published again, so that updates committed while it
+   * was selecting are not missed.
+   */
+  private static final long INCREMENTAL_OVERLAP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  /**
+   * Number of record keys the uniqueness filter keeps in memory, before spilling them to disk.
+   */
+  private static final int UNIQUE_KEYS_IN_MEMORY = SystemPropertiesHelper
+      .getInteger(MavenIndexPublisher.class.getName() + ".uniqueKeysInMemory", 500000);
+
+  /**
+   * Number of components to remember the asset names of while publishing.
+   */
+  private static final int COMPONENT_ASSET_NAMES_CACHE_SIZE = 100;
+
+  private static final String SELECT_HOSTED_ARTIFACTS_FROM =
       "SELECT " +
           "last_updated AS lastModified, " +
           "component.group AS groupId, " +
@@ -110,12 +161,31 @@ public final class MavenIndexPublisher
           "name AS path, " +
           "attributes.content.last_modified AS contentLastModified, " +
           "size AS contentSize, " +
-          "attributes.checksum.sha1 AS sha1 " +
-          "FROM asset " +
-          "WHERE bucket=:bucket " +
-          "AND attributes.maven2.asset_kind=:asset_kind " +
+          "attributes.checksum.sha1 AS sha1, " +
+          "component AS componentId " +
+          "FROM asset ";
+
+  private static final String HOSTED_ARTIFACTS_FILTER =
+      "AND attributes.maven2.asset_kind=:asset_kind " +
           "AND component IS NOT NULL";
 
+  private static final String SELECT_HOSTED_ARTIFACTS =
+      SELECT_HOSTED_ARTIFACTS_FROM + "WHERE bucket=:bucket " + HOSTED_ARTIFACTS_FILTER;
+
+  /**
+   * Selects by the asset bucket and last_updated index.
+   */
+  static final String SELECT_UPDATED_HOSTED_ARTIFACTS =
+      SELECT_HOSTED_ARTIFACTS_FROM + "WHERE bucket=:bucket AND last_updated > :since " + HOSTED_ARTIFACTS_FILTER;
+
+  private static final String SELECT_COMPONENT_GROUPS =
+      "SELECT DISTINCT(group) AS groupId FROM component WHERE bucket=:bucket";
+
+  private static final String SELECT_COMPONENT_ASSET_NAMES =
+      "SELECT name FROM asset WHERE bucket=:bucket AND component=:component";
+
+  static final String P_SINCE = "since";
+
   private static final RecordExpander RECORD_EXPANDER = new RecordExpander();
 
   private static final RecordCompactor RECORD_COMPACTOR = new RecordCompactor();
@@ -156,38 +226,45 @@ public final class MavenIndexPublisher
    */
   public static boolean unpublishIndexFiles(final Repository repository) throws IOException {
     checkNotNull(repository);
+    try (Maven2WritableResourceHandler resourceHandler = new Maven2WritableResourceHandler(repository)) {
+      Properties properties = readProperties(resourceHandler);
+      if (properties != null) {
+        deleteIncrementalChunks(repository, properties);
+      }
+    }
     return delete(repository, INDEX_PROPERTY_FILE) && delete(repository, INDEX_MAIN_CHUNK_FILE);
   }
 
   /**
-   * Publishes MI index into {@code target}, sourced from {@code repositories} repositories.
+   * Publishes MI index into {@code target}, sourced from {@code repositories} repositories. Temporary files are
+   * created in {@code temporaryDirectory}.
    */
-  public static void publishMergedIndex(final Repository target, final List<Repository> repositories)
+  public static void publishMergedIndex(final Repository target,
+                                        final List<Repository> repositories,
+                                        final Path temporaryDirectory)
       throws IOException
   {
     checkNotNull(target);
     checkNotNull(repositories);
+    checkNotNull(temporaryDirectory);
     Closer closer = Closer.create();
     try {
       List<Iterable<Record>> records = new ArrayList<>();
       for (Repository repository : repositories) {
-        try {
-          ResourceHandler resourceHandler = closer.register(new Maven2WritableResourceHandler(repository));
-          IndexReader indexReader = closer.register(new IndexReader(null, resourceHandler));
-          ChunkReader chunkReader = closer.register(indexReader.iterator().next());
-          records.add(filter(transform(chunkReader, RECORD_EXPANDER::apply), new RecordTypeFilter(Type.ARTIFACT_ADD)));
-        }
-        catch (IllegalArgumentException e) {
-          throw new IOException(e.getMessage(), e);
+        Maven2WritableResourceHandler resourceHandler = new Maven2WritableResourceHandler(repository);
+        for (ChunkReader chunkReader : openChunks(closer, repository, resourceHandler)) {
+          records.add(artifacts(chunkReader));
         }
       }
 
-      try (Maven2WritableResourceHandler resourceHandler = new Maven2WritableResourceHandler(target)) {
+      UniqueFilter uniqueFilter = closer.register(new UniqueFilter(temporaryDirectory));
+      try (Maven2WritableResourceHandler resourceHandler =
+               new Maven2WritableResourceHandler(target, temporaryDirectory)) {
         try (IndexWriter indexWriter = new IndexWriter(resourceHandler, target.getName(), false)) {
           indexWriter.writeChunk(
               transform(
                   decorate(
-                      filter(concat(records), new UniqueFilter()),
+                      filter(concat(records), uniqueFilter),
                       target.getName()
                   ),
                   RECORD_COMPACTOR::apply
@@ -205,31 +282,180 @@ public final class MavenIndexPublisher
   }
 
   /**
-   * Publishes MI index into {@code target}, sourced from repository's own CMA structures.
+   * Publishes MI index into {@code target}, sourced from repository's own CMA structures. Temporary files are
+   * created in {@code temporaryDirectory}.
    */
-  public static void publishHostedIndex(final Repository repository) throws IOException {
+  public static void publishHostedIndex(final Repository repository, final Path temporaryDirectory)
+      throws IOException
+  {
     checkNotNull(repository);
+    checkNotNull(temporaryDirectory);
     transactional().throwing(IOException.class).call(
         () -> {
           final StorageTx tx = UnitOfWork.currentTx();
-          try (Maven2WritableResourceHandler resourceHandler = new Maven2WritableResourceHandler(repository)) {
-            try (IndexWriter indexWriter = new IndexWriter(resourceHandler, repository.getName(), false)) {
-              indexWriter.writeChunk(
-                  transform(
-                      decorate(
-                          filter(getHostedRecords(tx, repository), new UniqueFilter()),
-                          repository.getName()
-                      ),
-                      RECORD_COMPACTOR::apply
-                  ).iterator()
-              );
-            }
+          try (Maven2WritableResourceHandler resourceHandler =
+                   new Maven2WritableResourceHandler(repository, temporaryDirectory)) {
+            publishFullIndex(tx, repository, resourceHandler);
           }
           return null;
         }
     );
   }
 
+  /**
+   * Publishes MI index into {@code target}, sourced from repository's own CMA structures, incrementally: only the
+   * artifacts updated since the previous publish are selected, and published as the next incremental chunk, leaving
+   * the main chunk as it was last consolidated. Clients without incremental support see the artifacts of the main
+   * chunk only, until the next consolidation.
+   *
+   * When there is no index yet, or it has {@code maxChunks} incremental chunks already, the index is published from
+   * scratch instead, consolidating it into the main chunk of a new chain. Temporary files are created in
+   * {@code temporaryDirectory}.
+   *
+   * @return {@code true} if index was published incrementally, {@code false} if it was published from scratch.
+   * @since 3.1
+   */
+  public static boolean publishHostedIndex(final Repository repository,
+                                           final int maxChunks,
+                                           final Path temporaryDirectory) throws IOException
+  {
+    checkNotNull(repository);
+    checkArgument(maxChunks > 0);
+    checkNotNull(temporaryDirectory);
+    return transactional().throwing(IOException.class).call(
+        () -> {
+          final StorageTx tx = UnitOfWork.currentTx();
+          try (Maven2WritableResourceHandler resourceHandler =
+                   new Maven2WritableResourceHandler(repository, temporaryDirectory)) {
+            Properties properties = readProperties(resourceHandler);
+            if (!canPublishIncrementally(repository, properties, maxChunks)) {
+              publishFullIndex(tx, repository, resourceHandler);
+              return false;
+            }
+            publishIncrementalIndex(tx, repository, resourceHandler, properties);
+            return true;
+          }
+        }
+    );
+  }
+
+  /**
+   * Returns {@code true} if the existing index, described by given properties, can be continued by a new incremental
+   * chunk.
+   */
+  private static boolean canPublishIncrementally(final Repository repository,
+                                                 @Nullable final Properties properties,
+                                                 final int maxChunks)
+  {
+    if (properties == null) {
+      log.debug("No index found in {}, publishing from scratch", repository);
+      return false;
+    }
+    if (!repository.getName().equals(properties.getProperty(INDEX_ID))
+        || properties.getProperty(INDEX_CHAIN_ID) == null
+        || publishedTimestamp(properties) == null) {
+      log.debug("Unusable index found in {}, publishing from scratch", repository);
+      return false;
+    }
+    if (incrementalChunks(properties).size() >= maxChunks) {
+      log.debug("Index of {} has {} incremental chunks, consolidating", repository, maxChunks);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Publishes all artifacts of the repository as the main chunk of a new chain, deleting incremental chunks of the
+   * previous one.
+   */
+  private static void publishFullIndex(final StorageTx tx,
+                                       final Repository repository,
+                                       final Maven2WritableResourceHandler resourceHandler) throws IOException
+  {
+    final Date timestamp = new Date();
+    final Properties previous = readProperties(resourceHandler);
+
+    try (UniqueFilter uniqueFilter = new UniqueFilter(resourceHandler.getTemporaryDirectory())) {
+      writeChunk(resourceHandler, INDEX_FILE_PREFIX + ".gz", timestamp,
+          decorate(
+              filter(getHostedRecords(tx, repository, null), uniqueFilter),
+              repository.getName()
+          )
+      );
+    }
+
+    Properties properties = new Properties();
+    properties.setProperty(INDEX_ID, repository.getName());
+    properties.setProperty(INDEX_CHAIN_ID, UUID.randomUUID().toString());
+    properties.setProperty(INDEX_TIMESTAMP, formatTimestamp(timestamp));
+    writeProperties(resourceHandler, properties);
+
+    if (previous != null) {
+      deleteIncrementalChunks(repository, previous);
+    }
+  }
+
+  /**
+   * Publishes artifacts updated since the last publish as the next incremental chunk. Its group records list all
+   * groups of the repository, as clients replace theirs with those of the newest chunk.
+   */
+  private static void publishIncrementalIndex(final StorageTx tx,
+                                              final Repository repository,
+                                              final Maven2WritableResourceHandler resourceHandler,
+                                              final Properties properties) throws IOException
+  {
+    final Date timestamp = new Date();
+    final Date since = new Date(publishedTimestamp(properties).getTime() - INCREMENTAL_OVERLAP_MILLIS);
+
+    final String counter = nextIncrementalChunk(properties);
+    final String chunkName = INDEX_FILE_PREFIX + "." + counter + ".gz";
+    final int[] updated = new int[1];
+    try (UniqueFilter uniqueFilter = new UniqueFilter(resourceHandler.getTemporaryDirectory())) {
+      writeChunk(resourceHandler, chunkName, timestamp,
+          decorate(
+              transform(
+                  filter(getHostedRecords(tx, repository, since), uniqueFilter),
+                  (Record record) -> {
+                    updated[0]++;
+                    return record;
+                  }
+              ),
+              repository.getName(),
+              getHostedGroups(tx, repository)
+          )
+      );
+    }
+    if (updated[0] == 0) {
+      log.debug("No artifacts updated in {} since {}", repository, since);
+      delete(repository, "/.index/" + chunkName);
+      return;
+    }
+
+    addIncrementalChunk(properties, counter, timestamp);
+    writeProperties(resourceHandler, properties);
+    log.debug("Published {} updated artifacts of {} as incremental chunk {}", updated[0], repository, counter);
+  }
+
+  /**
+   * Returns the counter of the incremental chunk following those listed in given index properties.
+   */
+  private static String nextIncrementalChunk(final Properties properties) {
+    return String.valueOf(Integer.parseInt(properties.getProperty(INDEX_LAST_INCREMENTAL, "0")) + 1);
+  }
+
+  /**
+   * Lists the incremental chunk with given counter in given index properties, as the newest one, as MI does.
+   */
+  private static void addIncrementalChunk(final Properties properties, final String counter, final Date timestamp) {
+    List<String> chunks = incrementalChunks(properties);
+    for (int i = chunks.size() - 1; i >= 0; i--) {
+      properties.setProperty(INDEX_INCREMENTAL_PREFIX + (i + 1), chunks.get(i));
+    }
+    properties.setProperty(INDEX_INCREMENTAL_PREFIX + 0, counter);
+    properties.setProperty(INDEX_LAST_INCREMENTAL, counter);
+    properties.setProperty(INDEX_TIMESTAMP, formatTimestamp(timestamp));
+  }
+
   /**
    * Primes proxy cache with given path and return {@code true} if succeeds. Accepts only maven proxy type.
    */
@@ -253,26 +479,205 @@ public final class MavenIndexPublisher
     return mavenFacet.delete(mavenPath);
   }
 
+  /**
+   * Deletes the incremental chunks listed in given index properties.
+   */
+  private static void deleteIncrementalChunks(final Repository repository, final Properties properties)
+      throws IOException
+  {
+    for (String counter : incrementalChunks(properties)) {
+      delete(repository, "/.index/" + INDEX_FILE_PREFIX + "." + counter + ".gz");
+    }
+  }
+
+  /**
+   * Writes given records as chunk with given name, returns the count of written records.
+   */
+  private static int writeChunk(final WritableResourceHandler resourceHandler,
+                                final String chunkName,
+                                final Date timestamp,
+                                final Iterable<Record> records) throws IOException
+  {
+    try (WritableResource resource = resourceHandler.locate(chunkName)) {
+      try (ChunkWriter chunkWriter = new ChunkWriter(chunkName, resource.write(), INDEX_VERSION, timestamp)) {
+        return chunkWriter.writeChunk(transform(records, RECORD_COMPACTOR::apply).iterator());
+      }
+    }
+  }
+
+  /**
+   * Opens a reader of the chunk with given name, or returns {@code null} if it does not exist.
+   */
+  @Nullable
+  private static ChunkReader readChunk(final WritableResourceHandler resourceHandler, final String chunkName)
+      throws IOException
+  {
+    try (WritableResource resource = resourceHandler.locate(chunkName)) {
+      InputStream inputStream = resource.read();
+      if (inputStream == null) {
+        return null;
+      }
+      return new ChunkReader(chunkName, inputStream);
+    }
+  }
+
+  /**
+   * Opens the chunks of the index of given repository, newest first, registering them with given closer. The main
+   * chunk alone is opened if any incremental chunk is missing, as proxies cache the main chunk only.
+   */
+  private static List<ChunkReader> openChunks(final Closer closer,
+                                              final Repository repository,
+                                              final WritableResourceHandler resourceHandler) throws IOException
+  {
+    Properties properties = readProperties(resourceHandler);
+    if (properties == null) {
+      throw new IOException("No MI index found in " + repository.getName());
+    }
+    List<ChunkReader> chunks = new ArrayList<>();
+    for (String counter : incrementalChunks(properties)) {
+      ChunkReader chunk = readChunk(resourceHandler, INDEX_FILE_PREFIX + "." + counter + ".gz");
+      if (chunk == null) {
+        log.debug("Incremental chunk {} of {} not available, using its main chunk only", counter, repository);
+        chunks.clear();
+        break;
+      }
+      chunks.add(closer.register(chunk));
+    }
+    ChunkReader mainChunk = readChunk(resourceHandler, INDEX_FILE_PREFIX + ".gz");
+    if (mainChunk == null) {
+      throw new IOException("No MI index main chunk found in " + repository.getName());
+    }
+    chunks.add(closer.register(mainChunk));
+    return chunks;
+  }
+
+  /**
+   * Returns the artifact records of given chunk, leaving out descriptor and group records.
+   */
+  private static Iterable<Record> artifacts(final ChunkReader chunkReader) {
+    return filter(transform(chunkReader, RECORD_EXPANDER::apply), new RecordTypeFilter(Type.ARTIFACT_ADD));
+  }
+
+  /**
+   * Returns the unique key of the record, as used by {@link UniqueFilter}.
+   */
+  @VisibleForTesting
+  static String uinfo(final Record record) {
+    return record.get(Record.GROUP_ID) + ":" + record.get(Record.ARTIFACT_ID) + ":" + record.get(Record.VERSION)
+        + ":" + defStr(record.get(Record.CLASSIFIER), "n/a") + ":" + record.get(Record.FILE_EXTENSION);
+  }
+
+  /**
+   * Reads index properties, or {@code null} if no index is published.
+   */
+  @Nullable
+  private static Properties readProperties(final WritableResourceHandler resourceHandler) throws IOException {
+    try (WritableResource resource = resourceHandler.locate(INDEX_FILE_PREFIX + ".properties")) {
+      InputStream inputStream = resource.read();
+      if (inputStream == null) {
+        return null;
+      }
+      try (InputStream is = inputStream) {
+        Properties properties = new Properties();
+        properties.load(is);
+        return properties;
+      }
+    }
+  }
+
+  private static void writeProperties(final WritableResourceHandler resourceHandler, final Properties properties)
+      throws IOException
+  {
+    try (WritableResource resource = resourceHandler.locate(INDEX_FILE_PREFIX + ".properties")) {
+      try (OutputStream outputStream = resource.write()) {
+        properties.store(outputStream, "Maven Indexer Index Properties");
+      }
+    }
+  }
+
+  /**
+   * Returns the counters of incremental chunks listed in given index properties, newest first.
+   */
+  @VisibleForTesting
+  static List<String> incrementalChunks(final Properties properties) {
+    List<String> chunks = new ArrayList<>();
+    String counter;
+    while ((counter = properties.getProperty(INDEX_INCREMENTAL_PREFIX + chunks.size())) != null) {
+      chunks.add(counter);
+    }
+    return chunks;
+  }
+
+  @Nullable
+  private static Date publishedTimestamp(final Properties properties) {
+    String timestamp = properties.getProperty(INDEX_TIMESTAMP);
+    if (timestamp != null) {
+      try {
+        return timestampFormat().parse(timestamp);
+      }
+      catch (ParseException e) {
+        log.debug("Invalid index timestamp {}", timestamp, e);
+      }
+    }
+    return null;
+  }
+
+  private static String formatTimestamp(final Date timestamp) {
+    return timestampFormat().format(timestamp);
+  }
+
+  private static DateFormat timestampFormat() {
+    DateFormat format = new SimpleDateFormat(INDEX_TIMESTAMP_FORMAT, Locale.ENGLISH);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return format;
+  }
+
   /**
    * Returns the records to publish of a hosted repository, the SELECT result count will be in parity with published
-   * records count!
+   * records count! If {@code since} is given, only artifacts updated after it are returned.
    */
-  private static Iterable<Record> getHostedRecords(final StorageTx tx, final Repository repository) throws IOException {
+  private static Iterable<Record> getHostedRecords(final StorageTx tx,
+                                                   final Repository repository,
+                                                   @Nullable final Date since) throws IOException
+  {
+    Object bucketId = AttachedEntityHelper.id(tx.findBucket(repository));
     Map<String, Object> sqlParams = new HashMap<>();
-    sqlParams.put(P_BUCKET, AttachedEntityHelper.id(tx.findBucket(repository)));
+    sqlParams.put(P_BUCKET, bucketId);
     sqlParams.put(P_ASSET_KIND, AssetKind.ARTIFACT.name());
+    if (since != null) {
+      sqlParams.put(P_SINCE, since);
+    }
+    ComponentAssetNames componentAssetNames = new ComponentAssetNames(tx, bucketId);
     return transform(
-        tx.browse(SELECT_HOSTED_ARTIFACTS, sqlParams),
-        (ODocument document) -> toRecord(repository.facet(MavenFacet.class), document)
+        tx.browse(since != null ? SELECT_UPDATED_HOSTED_ARTIFACTS : SELECT_HOSTED_ARTIFACTS, sqlParams),
+        (ODocument document) -> toRecord(repository.facet(MavenFacet.class), componentAssetNames, document)
     );
   }
 
+  /**
+   * Returns the groups of all components of a hosted repository.
+   */
+  private static Set<String> getHostedGroups(final StorageTx tx, final Repository repository) {
+    Map<String, Object> sqlParams = new HashMap<>();
+    sqlParams.put(P_BUCKET, AttachedEntityHelper.id(tx.findBucket(repository)));
+    Set<String> groups = new HashSet<>();
+    for (ODocument document : tx.browse(SELECT_COMPONENT_GROUPS, sqlParams)) {
+      String group = document.field("groupId", String.class);
+      if (group != null) {
+        groups.add(group);
+      }
+    }
+    return groups;
+  }
 
   /**
    * Converts orient SQL query result into Maven Indexer Reader {@link Record}. Should be invoked only with documents
    * belonging to components, but not checksums or signatures.
    */
-  private static Record toRecord(final MavenFacet mavenFacet, final ODocument document) {
+  private static Record toRecord(final MavenFacet mavenFacet,
+                                 final ComponentAssetNames componentAssetNames,
+                                 final ODocument document)
+  {
     checkNotNull(document); // sanity
     final String path = document.field("path", String.class);
     MavenPath mavenPath = mavenFacet.getMavenPathParser().parsePath(path);
@@ -295,9 +700,11 @@ public final class MavenIndexPublisher
     record.put(Record.NAME, defStr(document.field("pom_name", String.class), ""));
     record.put(Record.DESCRIPTION, defStr(document.field("pom_description", String.class), ""));
 
-    checkExistence(record, Record.HAS_SOURCES, mavenPath.locate("jar", "sources"), mavenFacet);
-    checkExistence(record, Record.HAS_JAVADOC, mavenPath.locate("jar", "javadoc"), mavenFacet);
-    checkExistence(record, Record.HAS_SIGNATURE, mavenPath.signature(SignatureType.GPG), mavenFacet);
+    // sources, javadoc and signature are all assets of the same component
+    Set<String> assetNames = componentAssetNames.get(document.field("componentId", OIdentifiable.class));
+    record.put(Record.HAS_SOURCES, assetNames.contains(mavenPath.locate("jar", "sources").getPath()));
+    record.put(Record.HAS_JAVADOC, assetNames.contains(mavenPath.locate("jar", "javadoc").getPath()));
+    record.put(Record.HAS_SIGNATURE, assetNames.contains(mavenPath.signature(SignatureType.GPG).getPath()));
 
     record.put(Record.FILE_EXTENSION, pathExtension(mavenPath.getFileName()));
     record.put(Record.FILE_MODIFIED, document.field("contentLastModified", Long.class));
@@ -306,19 +713,6 @@ public final class MavenIndexPublisher
     return record;
   }
 
-  private static void checkExistence(final Record record,
-                                     final EntryKey<Boolean> key,
-                                     final MavenPath tocheck,
-                                     final MavenFacet mavenFacet)
-  {
-    try {
-      record.put(key, mavenFacet.get(tocheck) != null ? Boolean.TRUE : Boolean.FALSE);
-    }
-    catch (IOException e) {
-      throw Throwables.propagate(e);
-    }
-  }
-
   /**
    * This method is copied from MI and Plexus related methods, to produce exactly same (possibly buggy) extensions out
    * of a file path, as MI client will attempt to "fix" those.
@@ -355,9 +749,23 @@ public final class MavenIndexPublisher
    */
   private static Iterable<Record> decorate(final Iterable<Record> iterable,
                                            final String repositoryName)
+  {
+    return decorate(iterable, repositoryName, Collections.emptySet());
+  }
+
+  /**
+   * As {@link #decorate(Iterable, String)}, with group records also listing given groups.
+   */
+  private static Iterable<Record> decorate(final Iterable<Record> iterable,
+                                           final String repositoryName,
+                                           final Set<String> groups)
   {
     final TreeSet<String> allGroups = new TreeSet<>();
     final TreeSet<String> rootGroups = new TreeSet<>();
+    for (String groupId : groups) {
+      allGroups.add(groupId);
+      rootGroups.add(rootGroup(groupId));
+    }
     return transform(
         concat(
             singletonList(descriptor(repositoryName)),
@@ -395,8 +803,24 @@ public final class MavenIndexPublisher
   {
     private final MavenFacet mavenFacet;
 
+    @Nullable
+    private final Path temporaryDirectory;
+
+    /**
+     * Creates a handler that can only read resources.
+     */
     Maven2WritableResourceHandler(final Repository repository) {
+      this(repository, null);
+    }
+
+    Maven2WritableResourceHandler(final Repository repository, @Nullable final Path temporaryDirectory) {
       this.mavenFacet = repository.facet(MavenFacet.class);
+      this.temporaryDirectory = temporaryDirectory;
+    }
+
+    Path getTemporaryDirectory() {
+      checkState(temporaryDirectory != null, "Read-only resource handler");
+      return temporaryDirectory;
     }
 
     @Override
@@ -412,7 +836,7 @@ public final class MavenIndexPublisher
         throw new IllegalArgumentException("Unsupported MI index resource:" + name);
       }
       MavenPath mavenPath = mavenFacet.getMavenPathParser().parsePath("/.index/" + name);
-      return new Maven2WritableResource(mavenPath, mavenFacet, contentType);
+      return new Maven2WritableResource(mavenPath, mavenFacet, contentType, temporaryDirectory);
     }
 
     @Override
@@ -433,12 +857,20 @@ public final class MavenIndexPublisher
 
     private final String contentType;
 
+    @Nullable
+    private final Path temporaryDirectory;
+
     private Path path;
 
-    private Maven2WritableResource(final MavenPath mavenPath, final MavenFacet mavenFacet, final String contenType) {
+    private Maven2WritableResource(final MavenPath mavenPath,
+                                   final MavenFacet mavenFacet,
+                                   final String contenType,
+                                   @Nullable final Path temporaryDirectory)
+    {
       this.mavenPath = mavenPath;
       this.mavenFacet = mavenFacet;
       this.contentType = contenType;
+      this.temporaryDirectory = temporaryDirectory;
       this.path = null;
     }
 
@@ -453,7 +885,8 @@ public final class MavenIndexPublisher
 
     @Override
     public OutputStream write() throws IOException {
-      path = File.createTempFile(mavenPath.getFileName(), "tmp").toPath();
+      checkState(temporaryDirectory != null, "Read-only resource: %s", mavenPath);
+      path = Files.createTempFile(temporaryDirectory, mavenPath.getFileName(), "tmp");
       return new BufferedOutputStream(Files.newOutputStream(path));
     }
 
@@ -481,6 +914,46 @@ public final class MavenIndexPublisher
     }
   }
 
+  /**
+   * Looks up the asset names of components, with a single query per component, remembering those of the recently
+   * looked up components, as the artifacts of a component are usually selected close to each other.
+   */
+  private static class ComponentAssetNames
+  {
+    private final StorageTx tx;
+
+    private final Object bucketId;
+
+    private final Map<ORID, Set<String>> cache = new LinkedHashMap<ORID, Set<String>>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<ORID, Set<String>> eldest) {
+        return size() > COMPONENT_ASSET_NAMES_CACHE_SIZE;
+      }
+    };
+
+    private ComponentAssetNames(final StorageTx tx, final Object bucketId) {
+      this.tx = checkNotNull(tx);
+      this.bucketId = checkNotNull(bucketId);
+    }
+
+    public Set<String> get(final OIdentifiable component) {
+      ORID componentId = component.getIdentity();
+      Set<String> names = cache.get(componentId);
+      if (names == null) {
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put(P_BUCKET, bucketId);
+        sqlParams.put(P_COMPONENT, componentId);
+        names = new HashSet<>();
+        for (ODocument document : tx.browse(SELECT_COMPONENT_ASSET_NAMES, sqlParams)) {
+          names.add(document.field(P_NAME, String.class));
+        }
+        cache.put(componentId, names);
+      }
+      return names;
+    }
+  }
+
   /**
    * {@link Predicate} that filters {@link Record} based on allowed {@link Type}.
    */
@@ -500,43 +973,32 @@ public final class MavenIndexPublisher
   }
 
   /**
-   * Memory conservative "uniqueness filter" that filters MI keys (UINFO), allowing one uinfo at the time. MI index
-   * is unique by UINFO composite field, and this predicate filters it as such.
+   * Memory bounded "uniqueness filter" that filters MI keys (UINFO), allowing one uinfo at the time. MI index
+   * is unique by UINFO composite field, and this predicate filters it as such. Seen keys are kept by a
+   * {@link SpillingKeySet}, so merging large indexes does not need memory proportional to their size.
    */
   private static class UniqueFilter
-      implements Predicate<Record>
+      implements Predicate<Record>, Closeable
   {
-    /**
-     * G->A->V->Set(CE), just to check for uniqueness.
-     */
-    private Map<String, Map<String, Map<String, Set<String>>>> gavce = new HashMap<>();
+    private final SpillingKeySet keys;
+
+    private UniqueFilter(final Path temporaryDirectory) {
+      this.keys = new SpillingKeySet(temporaryDirectory, UNIQUE_KEYS_IN_MEMORY);
+    }
 
     @Override
     public boolean apply(final Record input) {
-      String g = input.get(Record.GROUP_ID);
-      String a = input.get(Record.ARTIFACT_ID);
-      String v = input.get(Record.VERSION);
-      String ce = defStr(input.get(Record.CLASSIFIER), "n/a") + ":" + input.get(Record.FILE_EXTENSION);
-      // G
-      Map<String, Map<String, Set<String>>> gMap = gavce.get(g);
-      if (gMap == null) {
-        gMap = new HashMap<>();
-        gavce.put(g, gMap);
-      }
-      // A
-      Map<String, Set<String>> aMap = gMap.get(a);
-      if (aMap == null) {
-        aMap = new HashMap<>();
-        gMap.put(a, aMap);
+      try {
+        return keys.add(uinfo(input));
       }
-      // V
-      Set<String> vSet = aMap.get(v);
-      if (vSet == null) {
-        vSet = new HashSet<>();
-        aMap.put(v, vSet);
+      catch (IOException e) {
+        throw Throwables.propagate(e);
       }
-      // CE
-      return vSet.add(ce);
+    }
+
+    @Override
+    public void close() throws IOException {
+      keys.close();
     }
   }
 
@@ -141,6 +141,8 @@ public class PurgeUnusedSnapshotsFacetImpl
   private Set<String> purgeSnapshotsFromRepository(final int numberOfDays) {
     Date olderThan = DateTime.now().minusDays(numberOfDays).withTimeAtStartOfDay().toDate();
     Set<String> groups = Collections.emptySet();
+    // persist pending access times first, so recently used snapshots are not purged
+    facet(StorageFacet.class).flushAccessed();
     UnitOfWork.beginBatch(facet(StorageFacet.class).txSupplier());
     try {
       groups = deleteUnusedSnapshotComponents(olderThan);
@@ -12,20 +12,24 @@
  */
 package org.sonatype.nexus.repository.maven.internal;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Optional;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.sonatype.nexus.common.entity.EntityHelper;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.orient.entity.AttachedEntityHelper;
 import org.sonatype.nexus.repository.FacetSupport;
@@ -44,27 +48,29 @@ import org.sonatype.nexus.repository.storage.ComponentEntityAdapter;
 import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.storage.StorageTx;
 import org.sonatype.nexus.repository.types.GroupType;
-import org.sonatype.nexus.transaction.Transactional;
+import org.sonatype.nexus.scheduling.CancelableHelper;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.orientechnologies.common.concur.ONeedRetryException;
 import com.orientechnologies.orient.core.record.impl.ODocument;
-import com.orientechnologies.orient.core.sql.query.OResultSet;
-import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
 import org.joda.time.DateTime;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
-import static java.util.stream.StreamSupport.stream;
 import static org.sonatype.nexus.common.stateguard.StateGuardLifecycleSupport.State.STARTED;
 import static org.sonatype.nexus.repository.maven.internal.Attributes.P_BASE_VERSION;
 import static org.sonatype.nexus.repository.maven.internal.MavenFacetUtils.version;
-import static org.sonatype.nexus.repository.storage.ComponentEntityAdapter.P_GROUP;
-import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_NAME;
+import static org.sonatype.nexus.transaction.Operations.transactional;
 
 /**
+ * Streams the snapshot components of a repository in group, name and version order, deciding which to remove per GAbV
+ * once all components of a GA were seen, and deletes them in bounded batches. Metadata of the GAs touched by a batch
+ * is rebuilt once per GA after the batch commits. The task can be canceled between batches.
+ *
  * @since 3.0
  */
 @Named
@@ -72,47 +78,81 @@ public class RemoveSnapshotsFacetImpl
     extends FacetSupport
     implements RemoveSnapshotsFacet
 {
+  /**
+   * Number of snapshot components read per query.
+   */
+  private static final int PAGE_SIZE = SystemPropertiesHelper
+      .getInteger(RemoveSnapshotsFacetImpl.class.getName() + ".pageSize", 1000);
 
   /**
-   * Find where we have more than X snapshots for a given GAbV. Results are confined to the same repository (bucket).
+   * Maximum number of components deleted per transaction.
    */
-  private static final String SNAPSHOTS_WITH_MINIMUM_COUNT = "SELECT FROM (SELECT group, name, attributes" +
-      ".maven2.baseVersion AS baseVersion, count(*) AS cnt FROM component WHERE bucket=:bucket AND " +
-      "attributes.maven2.baseVersion LIKE '%SNAPSHOT' GROUP BY group, name, attributes.maven2.baseVersion) where cnt " +
-      ">:minimumCount";
+  private static final int BATCH_SIZE = SystemPropertiesHelper
+      .getInteger(RemoveSnapshotsFacetImpl.class.getName() + ".batchSize", 500);
 
   /**
-   * Load components that are candidates for deletion.
+   * Pages of snapshot components, in the order of the bucket/group/name/version index. The position after the last
+   * read group, name and version is continued with up to three queries: later versions of the same GA, later names of
+   * the same group and later groups. Each of them has an equality prefix followed by a single range over the index, so
+   * it can seek the index instead of filtering a disjunction of ranges.
    */
-  private static final String SNAPSHOTS_FOR_GABV = "SELECT FROM component WHERE bucket=:bucket AND group=:group " +
-      "AND name=:name AND attributes.maven2.baseVersion=:baseVersion " +
-      "ORDER BY last_updated ASC LIMIT :limit";
+  private static final String SNAPSHOTS_FIRST = "SELECT FROM component WHERE bucket = :bucket " +
+      "AND attributes.maven2.baseVersion LIKE '%SNAPSHOT' " +
+      "ORDER BY group, name, version LIMIT ";
+
+  private static final String SNAPSHOTS_AFTER_VERSION = "SELECT FROM component WHERE bucket = :bucket " +
+      "AND group = :group AND name = :name AND version > :version " +
+      "AND attributes.maven2.baseVersion LIKE '%SNAPSHOT' " +
+      "ORDER BY group, name, version LIMIT ";
+
+  private static final String SNAPSHOTS_AFTER_NAME = "SELECT FROM component WHERE bucket = :bucket " +
+      "AND group = :group AND name > :name " +
+      "AND attributes.maven2.baseVersion LIKE '%SNAPSHOT' " +
+      "ORDER BY group, name, version LIMIT ";
+
+  private static final String SNAPSHOTS_AFTER_GROUP = "SELECT FROM component WHERE bucket = :bucket " +
+      "AND group > :group " +
+      "AND attributes.maven2.baseVersion LIKE '%SNAPSHOT' " +
+      "ORDER BY group, name, version LIMIT ";
+
+  private static final List<String> SNAPSHOTS_AFTER = ImmutableList.of(
+      SNAPSHOTS_AFTER_VERSION, SNAPSHOTS_AFTER_NAME, SNAPSHOTS_AFTER_GROUP);
 
   /**
-   * Find where we have a release (in any repository) related to a snapshot in a specific repository (bucket),
-   * older than X.
+   * Release versions of a GA, in any repository.
    */
-  private static final String WITH_RELEASES = "SELECT FROM component " +
-      "LET $temp = (SELECT FROM component WHERE format='maven2' AND group = $parent.current.group " +
-      " AND name = $parent.current.name " +
-      " AND version = $parent.current.attributes.maven2.baseVersion.replace('-SNAPSHOT', '')" +
-      ") " +
-      "WHERE bucket=:bucket AND format='maven2' AND last_updated < :lastUpdated " +
-      "AND attributes.maven2.baseVersion LIKE '%-SNAPSHOT'AND $temp.size() > 0 ";
+  private static final String RELEASES = "SELECT version FROM component WHERE format = 'maven2' " +
+      "AND group = :group AND name = :name AND version IN :versions";
 
-  private static final Function<Component, GAV> GROUPING_FUNCTION = t -> new GAV(t.group(), t.name(),
-      (String) t.attributes().child(Maven2Format.NAME).get(P_BASE_VERSION), -1);
+  private static final String SNAPSHOT_SUFFIX = "-SNAPSHOT";
 
   private final ComponentEntityAdapter componentEntityAdapter;
 
   private final Type groupType;
 
+  private final int pageSize;
+
+  private final int batchSize;
+
   @Inject
   public RemoveSnapshotsFacetImpl(final ComponentEntityAdapter componentEntityAdapter,
                                   @Named(GroupType.NAME) final Type groupType)
   {
+    this(componentEntityAdapter, groupType, PAGE_SIZE, BATCH_SIZE);
+  }
+
+  @VisibleForTesting
+  RemoveSnapshotsFacetImpl(final ComponentEntityAdapter componentEntityAdapter,
+                           final Type groupType,
+                           final int pageSize,
+                           final int batchSize)
+  {
+    checkArgument(pageSize > 0, "Page size must be greater than zero");
+    checkArgument(batchSize > 0, "Batch size must be greater than zero");
     this.componentEntityAdapter = checkNotNull(componentEntityAdapter);
     this.groupType = checkNotNull(groupType);
+    this.pageSize = pageSize;
+    this.batchSize = batchSize;
   }
 
   @Override
@@ -121,32 +161,11 @@ public class RemoveSnapshotsFacetImpl
   {
     Repository repository = getRepository();
     log.info("Removing snapshots on repository {} with configuration: {}", repository.getName(), config);
-    UnitOfWork.beginBatch(facet(StorageFacet.class).txSupplier());
-    Set<GAV> metadataUpdateRequired = new HashSet<>();
-    try {
-      if (groupType.equals(repository.getType())) {
-        processGroup(repository.facet(MavenGroupFacet.class), config);
-      }
-      else {
-        metadataUpdateRequired.addAll(processRepository(repository, config));
-      }
-    }
-    finally {
-      UnitOfWork.end();
-    }
-    
-    //only update metadata for non-proxy repos
-    if (!repository.optionalFacet(ProxyFacet.class).isPresent()) {
-      log.info("Updating metadata on repository: {}", repository.getName());
-      for (GAV gav : metadataUpdateRequired) {
-        Optional<MavenHostedFacet> mavenHostedFacet = repository.optionalFacet(MavenHostedFacet.class);
-        if (mavenHostedFacet.isPresent()) {
-          mavenHostedFacet.get().deleteMetadata(gav.group, gav.name, gav.baseVersion);
-        }
-      }
+    if (groupType.equals(repository.getType())) {
+      processGroup(repository.facet(MavenGroupFacet.class), config);
     }
     else {
-      log.info("Skipping metadata updates on proxy repository: {}", repository.getName());
+      new Removal(config).run();
     }
   }
 
@@ -160,158 +179,234 @@ public class RemoveSnapshotsFacetImpl
   }
 
   /**
-   * Examine all snapshots in the given repo, delete those that match our configuration criteria and flag which GAVs
-   * require a metadata update.
+   * Determine whether or not the given repo could contain snapshots.
    */
-  @Transactional
-  protected Collection<GAV> processRepository(final Repository repository, final RemoveSnapshotsConfig config) {
-    StorageTx tx = UnitOfWork.currentTx();
-
-    //collect any GAVs we need to refresh metadata for
-    Set<GAV> metadataUpdateRequired = new HashSet<>();
-
-    //process already released snapshots first as that may remove candidates for next phase
-    if (config.getRemoveIfReleased()) {
-      metadataUpdateRequired.addAll(processReleasedSnapshots(repository, config, tx));
-    }
-
-    metadataUpdateRequired.addAll(processSnapshots(repository, config, tx));
-
-    return metadataUpdateRequired;
+  private static boolean isSnapshotRepo(final Repository member) {
+    return member.facet(MavenFacet.class).getVersionPolicy() != VersionPolicy.RELEASE;
   }
 
   /**
-   * Delete all snapshots created before the grace period and for which there is an associated release.
+   * A single removal run over the snapshots of this repository.
    */
-  private Collection<GAV> processReleasedSnapshots(final Repository repository, final RemoveSnapshotsConfig config,
-                                                   final StorageTx tx)
+  private class Removal
   {
-    Date gracePeriod = DateTime.now().minusDays(Math.max(config.getGracePeriod(), 0)).toDate();
-    log.debug("Looking for snapshots with associated releases created before {}", gracePeriod);
-
-    //lookup results and group around the baseVersion
-    Iterable<Component> releasedSnapshots = findReleasedSnapshots(tx, repository, gracePeriod);
-    Map<GAV, List<Component>> groupedReleasedSnapshots = stream(releasedSnapshots.spliterator(), false)
-        .collect(Collectors.groupingBy(GROUPING_FUNCTION));
-    log.debug("Processing {} GAVs found that have already been released and for which the grace period has elapsed",
-        groupedReleasedSnapshots.size());
-
-    for (Entry<GAV, List<Component>> entry : groupedReleasedSnapshots.entrySet()) {
-      GAV key = entry.getKey();
-      log.debug("Processing GAV = {}", key);
-      for (Component component : entry.getValue()) {
-        log.debug("Deleting component: {}", component);
-        tx.deleteComponent(component);
+    private final RemoveSnapshotsConfig config;
+
+    private final Date gracePeriod;
+
+    private final DateTime olderThan;
+
+    private final boolean updateMetadata;
+
+    private final List<Snapshot> pending = new ArrayList<>();
+
+    private long examinedCount;
+
+    private long deletedCount;
+
+    private Removal(final RemoveSnapshotsConfig config) {
+      this.config = checkNotNull(config);
+      this.gracePeriod = DateTime.now().minusDays(Math.max(config.getGracePeriod(), 0)).toDate();
+      this.olderThan = DateTime.now().minusDays(Math.max(config.getSnapshotRetentionDays(), 0));
+      // only update metadata for hosted repos
+      this.updateMetadata = !getRepository().optionalFacet(ProxyFacet.class).isPresent()
+          && getRepository().optionalFacet(MavenHostedFacet.class).isPresent();
+    }
+
+    private void run() {
+      if (!updateMetadata) {
+        log.info("Skipping metadata updates on repository: {}", getRepository().getName());
       }
+
+      GA current = null;
+      Snapshot last = null;
+      boolean more = true;
+      while (more) {
+        CancelableHelper.checkCancellation();
+        List<Snapshot> page = nextPage(last);
+        more = page.size() == pageSize;
+        for (Snapshot snapshot : page) {
+          // snapshots of the same GA share its instance, also across pages
+          if (snapshot.ga != current) {
+            if (current != null) {
+              process(current);
+            }
+            current = snapshot.ga;
+          }
+          current.add(snapshot);
+          last = snapshot;
+        }
+        examinedCount += page.size();
+        while (pending.size() >= batchSize) {
+          deleteBatch();
+        }
+      }
+      if (current != null) {
+        process(current);
+      }
+      while (!pending.isEmpty()) {
+        deleteBatch();
+      }
+      log.info("Removed {} snapshots from repository {}, examined {}", deletedCount, getRepository().getName(),
+          examinedCount);
     }
-    log.debug("Finished processing snapshots with associated releases");
-    return groupedReleasedSnapshots.keySet();
-  }
 
-  /**
-   * Delete all snapshots created before the retention period and potentially preserving a certain number.
-   */
-  private Set<GAV> processSnapshots(final Repository repository, final RemoveSnapshotsConfig config, final StorageTx tx)
-  {
-    if(config.getMinimumRetained() == -1) {
-      log.info("Skipping processing of snapshots by age and minimum count due to configuration");
-      return new HashSet<>();
+    /**
+     * Reads the snapshots following the given one, in group, name and version order.
+     */
+    private List<Snapshot> nextPage(final Snapshot last) {
+      return transactional(facet(StorageFacet.class).txSupplier()).call(() -> {
+        StorageTx tx = UnitOfWork.currentTx();
+        Bucket bucket = tx.findBucket(getRepository());
+        Map<String, Object> params = new HashMap<>();
+        params.put("bucket", AttachedEntityHelper.id(bucket));
+        List<Snapshot> page = new ArrayList<>(pageSize);
+        if (last == null) {
+          read(tx, SNAPSHOTS_FIRST, params, null, page);
+        }
+        else {
+          params.put("group", last.ga.group);
+          params.put("name", last.ga.name);
+          params.put("version", last.version);
+          for (String sql : SNAPSHOTS_AFTER) {
+            read(tx, sql, params, last.ga, page);
+            if (page.size() == pageSize) {
+              break;
+            }
+          }
+        }
+        return page;
+      });
     }
-    
-    DateTime olderThan = DateTime.now().minusDays(Math.max(config.getSnapshotRetentionDays(), 0));
-    Set<GAV> snapshotCandidates = Sets.newHashSet(findSnapshotCandidates(tx, repository, config.getMinimumRetained()));
-    log.debug("Processing {} GAVs found with more than minimum {} snapshot versions", snapshotCandidates.size(),
-        config.getMinimumRetained());
-    for (GAV snapshotCandidate : snapshotCandidates) {
-      log.debug("Processing GAV = {}", snapshotCandidate);
-      List<Component> toDelete = Lists.newArrayList(findSnapshots(tx, repository, snapshotCandidate));
-      toDelete.sort((o1, o2) -> version(o2.version()).compareTo(version(o1.version())));
-      
-      // always keep this many at least
-      toDelete.subList(0, config.getMinimumRetained()).clear();
-
-      for (Component component : toDelete) {
-        if(component.lastUpdated().isBefore(olderThan)) {
-          log.debug("Deleting component: {}", component);
-          tx.deleteComponent(component);  
+
+    /**
+     * Appends the snapshots the query finds, up to the page size, sharing GA instances with preceding snapshots.
+     */
+    private void read(final StorageTx tx,
+                      final String sql,
+                      final Map<String, Object> params,
+                      @Nullable final GA lastGa,
+                      final List<Snapshot> page)
+    {
+      GA ga = page.isEmpty() ? lastGa : page.get(page.size() - 1).ga;
+      for (ODocument document : tx.browse(sql + (pageSize - page.size()), params)) {
+        Component component = componentEntityAdapter.readEntity(document);
+        if (ga == null || !ga.group.equals(component.group()) || !ga.name.equals(component.name())) {
+          ga = new GA(component.group(), component.name());
         }
+        page.add(new Snapshot(ga, component));
       }
     }
-    
-    log.debug("Finished processing snapshots with more than {} versions created before {}", config.getMinimumRetained(),
-        olderThan);
-    return snapshotCandidates;
-  }
 
-  /**
-   * Find all snapshots in this repository that have an associated release, taking into account the grace period.
-   */
-  @Transactional
-  private Iterable<Component> findReleasedSnapshots(final StorageTx tx, final Repository repository,
-                                                    final Date gracePeriod)
-  {
-    final Bucket bucket = tx.findBucket(repository);
-    final OResultSet<ODocument> result = tx.getDb().command(new OSQLSynchQuery<>(WITH_RELEASES))
-        .execute(AttachedEntityHelper.id(bucket), gracePeriod);
-    return Iterables.transform(result, componentEntityAdapter::readEntity);
-  }
+    /**
+     * Decides which snapshots of a fully read GA to remove, queuing them for deletion.
+     */
+    private void process(final GA ga) {
+      log.debug("Processing GA = {}", ga);
+      if (config.getRemoveIfReleased()) {
+        Set<String> released = findReleases(ga);
+        for (Entry<String, List<Snapshot>> entry : ga.snapshots.entrySet()) {
+          if (released.contains(entry.getKey().replace(SNAPSHOT_SUFFIX, ""))) {
+            for (Iterator<Snapshot> itr = entry.getValue().iterator(); itr.hasNext(); ) {
+              Snapshot snapshot = itr.next();
+              if (snapshot.lastUpdated.before(gracePeriod)) {
+                pending.add(snapshot);
+                itr.remove();
+              }
+            }
+          }
+        }
+      }
 
-  /**
-   * Find all snapshots in this repository for the given GAbV.
-   */
-  @Transactional
-  private Iterable<Component> findSnapshots(final StorageTx tx, final Repository repository, final GAV gav)
-  {
-    final Bucket bucket = tx.findBucket(repository);
-    final OResultSet<ODocument> result = tx.getDb().command(new OSQLSynchQuery<>(SNAPSHOTS_FOR_GABV))
-        .execute(AttachedEntityHelper.id(bucket), gav.group, gav.name, gav.baseVersion, gav.count);
-    return Iterables.transform(result, componentEntityAdapter::readEntity);
-  }
+      if (config.getMinimumRetained() != -1) {
+        for (List<Snapshot> snapshots : ga.snapshots.values()) {
+          if (snapshots.size() > config.getMinimumRetained()) {
+            snapshots.sort((o1, o2) -> version(o2.version).compareTo(version(o1.version)));
+            // always keep this many at least
+            for (Snapshot snapshot : snapshots.subList(config.getMinimumRetained(), snapshots.size())) {
+              if (snapshot.lastUpdated.before(olderThan.toDate())) {
+                pending.add(snapshot);
+              }
+            }
+          }
+        }
+      }
+      ga.snapshots.clear();
+    }
 
-  /**
-   * Find all GAVs that qualify for deletion.
-   */
-  @Transactional
-  private Iterable<GAV> findSnapshotCandidates(final StorageTx tx, final Repository repository, int minimumCount)
-  {
-    final Bucket bucket = tx.findBucket(repository);
-    final OResultSet<ODocument> result = tx.getDb().command(new OSQLSynchQuery<>(SNAPSHOTS_WITH_MINIMUM_COUNT))
-        .execute(AttachedEntityHelper.id(bucket), minimumCount);
-    return Iterables.transform(result, (doc) -> {
-          String group = doc.field(P_GROUP, String.class);
-          String name = doc.field(P_NAME, String.class);
-          String baseVersion = doc.field("baseVersion", String.class);
-          Integer count = doc.field("cnt", Integer.class);
-          return new GAV(group, name, baseVersion, count);
+    private Set<String> findReleases(final GA ga) {
+      Set<String> versions = new TreeSet<>();
+      for (String baseVersion : ga.snapshots.keySet()) {
+        versions.add(baseVersion.replace(SNAPSHOT_SUFFIX, ""));
+      }
+      return transactional(facet(StorageFacet.class).txSupplier()).call(() -> {
+        Set<String> released = new TreeSet<>();
+        for (ODocument document : UnitOfWork.<StorageTx>currentTx().browse(RELEASES,
+            ImmutableMap.of("group", ga.group, "name", ga.name, "versions", versions))) {
+          released.add(document.field("version", String.class));
         }
-    );
-  }
+        return released;
+      });
+    }
 
-  /**
-   * Determine whether or not the given repo could contain snapshots.
-   */
-  private static boolean isSnapshotRepo(final Repository member) {
-    return member.facet(MavenFacet.class).getVersionPolicy() != VersionPolicy.RELEASE;
+    /**
+     * Deletes the next batch of queued snapshots in one transaction, then rebuilds the metadata of their GAs.
+     */
+    private void deleteBatch() {
+      List<Snapshot> batch = new ArrayList<>(pending.subList(0, Math.min(batchSize, pending.size())));
+      pending.subList(0, batch.size()).clear();
+
+      int deleted = transactional(facet(StorageFacet.class).txSupplier()).retryOn(ONeedRetryException.class)
+          .call(() -> {
+            StorageTx tx = UnitOfWork.currentTx();
+            Bucket bucket = tx.findBucket(getRepository());
+            int count = 0;
+            for (Snapshot snapshot : batch) {
+              Component component = tx.findComponent(snapshot.id, bucket);
+              if (component != null) {
+                log.debug("Deleting component: {}", component);
+                tx.deleteComponent(component);
+                count++;
+              }
+            }
+            return count;
+          });
+      deletedCount += deleted;
+
+      if (updateMetadata) {
+        Map<GA, Set<String>> touched = new LinkedHashMap<>();
+        for (Snapshot snapshot : batch) {
+          touched.computeIfAbsent(snapshot.ga, ga -> new TreeSet<>()).add(snapshot.baseVersion);
+        }
+        MavenHostedFacet mavenHostedFacet = facet(MavenHostedFacet.class);
+        for (Entry<GA, Set<String>> entry : touched.entrySet()) {
+          mavenHostedFacet.deleteMetadata(entry.getKey().group, entry.getKey().name, entry.getValue());
+        }
+      }
+      log.info("Removed {} snapshots from repository {}, examined {}", deletedCount, getRepository().getName(),
+          examinedCount);
+      CancelableHelper.checkCancellation();
+    }
   }
 
   /**
-   * Struct to track GAV we need to request metadata rebuild due to deletion.
+   * A group and name, collecting the snapshots read for it by base version.
    */
-  private static final class GAV
+  private static final class GA
   {
     final String group;
 
     final String name;
 
-    final String baseVersion;
-    
-    final int count;
+    final Map<String, List<Snapshot>> snapshots = new HashMap<>();
 
-    public GAV(final String group, final String name, final String baseVersion, final int count) {
+    GA(final String group, final String name) {
       this.group = group;
       this.name = name;
-      this.baseVersion = baseVersion;
-      this.count = count;
+    }
+
+    void add(final Snapshot snapshot) {
+      snapshots.computeIfAbsent(snapshot.baseVersion, k -> new ArrayList<>()).add(snapshot);
     }
 
     @Override
@@ -322,24 +417,46 @@ public class RemoveSnapshotsFacetImpl
       if (o == null || getClass() != o.getClass()) {
         return false;
       }
-      GAV gav = (GAV) o;
-      return Objects.equal(group, gav.group) &&
-          Objects.equal(name, gav.name) &&
-          Objects.equal(baseVersion, gav.baseVersion);
+      GA ga = (GA) o;
+      return Objects.equal(group, ga.group) &&
+          Objects.equal(name, ga.name);
     }
 
     @Override
     public int hashCode() {
-      return Objects.hashCode(group, name, baseVersion);
+      return Objects.hashCode(group, name);
     }
 
     @Override
     public String toString() {
-      return "GAV{" +
+      return "GA{" +
           "group='" + group + '\'' +
           ", name='" + name + '\'' +
-          ", baseVersion='" + baseVersion + '\'' +
           '}';
     }
   }
+
+  /**
+   * What is needed of a snapshot component to decide whether to remove it.
+   */
+  private static final class Snapshot
+  {
+    final GA ga;
+
+    final EntityId id;
+
+    final String baseVersion;
+
+    final String version;
+
+    final Date lastUpdated;
+
+    Snapshot(final GA ga, final Component component) {
+      this.ga = ga;
+      this.id = EntityHelper.id(component);
+      this.baseVersion = (String) component.attributes().child(Maven2Format.NAME).get(P_BASE_VERSION);
+      this.version = component.version();
+      this.lastUpdated = component.lastUpdated().toDate();
+    }
+  }
 }
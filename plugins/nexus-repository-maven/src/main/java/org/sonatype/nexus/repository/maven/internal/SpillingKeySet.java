@@ -0,0 +1,557 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.sonatype.goodies.common.ComponentSupport;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Set of string keys within bounded memory, kept as their 128-bit hashes. The in-memory hash table grows on demand;
+ * once it holds {@code capacity} hashes they are written to a new sorted run on disk. Runs are merged lazily, whenever
+ * a run is not bigger than the one written after it, so each hash is rewritten a logarithmic number of times and only
+ * a logarithmic number of runs exist.
+ *
+ * Of every run only the first hash of every {@link #BLOCK_SIZE} hashes and a bloom filter are kept in memory, so a
+ * lookup of a new key usually reads nothing, and a lookup of a spilled key reads a single block.
+ *
+ * Not thread safe.
+ *
+ * @since 3.1
+ */
+class SpillingKeySet
+    extends ComponentSupport
+    implements Closeable
+{
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private static final int HASH_BYTES = 16;
+
+  /**
+   * Number of spilled hashes read at once by a lookup.
+   */
+  private static final int BLOCK_SIZE = 64;
+
+  /**
+   * Initial number of slots of the in-memory hash table.
+   */
+  private static final int INITIAL_SLOTS = 1024;
+
+  /**
+   * Minimum number of bloom filter bits per spilled hash, and number of bits probed per lookup, for about 1% false
+   * positives.
+   */
+  private static final int BLOOM_BITS_PER_HASH = 10;
+
+  private static final int BLOOM_PROBES = 7;
+
+  private final Path directory;
+
+  private final int capacity;
+
+  private final int maxSlots;
+
+  /**
+   * Open addressing hash table of high and low hash halves, where both being zero marks a free slot.
+   */
+  private long[] table;
+
+  private int mask;
+
+  private int size;
+
+  /**
+   * Spilled runs, oldest and biggest first.
+   */
+  private final List<Run> runs = new ArrayList<>();
+
+  private long spilled;
+
+  private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE * HASH_BYTES);
+
+  private int spillCount;
+
+  /**
+   * @param directory where to spill hashes to
+   * @param capacity  maximum number of hashes to keep in the in-memory hash table
+   */
+  SpillingKeySet(final Path directory, final int capacity) {
+    checkArgument(capacity > 0 && capacity <= 1 << 28, "Capacity out of range: %s", capacity);
+    this.directory = checkNotNull(directory);
+    this.capacity = capacity;
+    // at most half full
+    this.maxSlots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+    int slots = Math.min(maxSlots, INITIAL_SLOTS);
+    this.table = new long[slots * 2];
+    this.mask = slots - 1;
+  }
+
+  /**
+   * Adds the key, returning {@code true} if it was not present.
+   */
+  public boolean add(final String key) throws IOException {
+    ByteBuffer hash = ByteBuffer.wrap(HASH_FUNCTION.hashString(key, StandardCharsets.UTF_8).asBytes());
+    long hi = hash.getLong();
+    long lo = hash.getLong();
+    if (hi == 0 && lo == 0) {
+      lo = 1; // zero marks free slots
+    }
+
+    int slot = (int) hi & mask;
+    while (table[slot * 2] != 0 || table[slot * 2 + 1] != 0) {
+      if (table[slot * 2] == hi && table[slot * 2 + 1] == lo) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (spilledContains(hi, lo)) {
+      return false;
+    }
+    if ((size + 1) * 2 > mask + 1 && mask + 1 < maxSlots) {
+      grow();
+      slot = (int) hi & mask;
+      while (table[slot * 2] != 0 || table[slot * 2 + 1] != 0) {
+        slot = (slot + 1) & mask;
+      }
+    }
+    table[slot * 2] = hi;
+    table[slot * 2 + 1] = lo;
+    if (++size >= capacity) {
+      spill();
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of keys in this set.
+   */
+  public long size() {
+    return spilled + size;
+  }
+
+  /**
+   * Returns how many times the in-memory hash table was spilled to disk.
+   */
+  public int getSpillCount() {
+    return spillCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (Run run : runs) {
+      try {
+        run.close();
+      }
+      catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+        else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    runs.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private boolean spilledContains(final long hi, final long lo) throws IOException {
+    for (int i = runs.size() - 1; i >= 0; i--) {
+      if (runs.get(i).contains(hi, lo)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Doubles the number of slots of the in-memory hash table.
+   */
+  private void grow() {
+    long[] previous = table;
+    int slots = (mask + 1) * 2;
+    table = new long[slots * 2];
+    mask = slots - 1;
+    for (int i = 0; i < previous.length; i += 2) {
+      if (previous[i] != 0 || previous[i + 1] != 0) {
+        int slot = (int) previous[i] & mask;
+        while (table[slot * 2] != 0 || table[slot * 2 + 1] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot * 2] = previous[i];
+        table[slot * 2 + 1] = previous[i + 1];
+      }
+    }
+  }
+
+  /**
+   * Writes the hashes of the in-memory table to a new sorted run, empties the table and merges runs as needed.
+   */
+  private void spill() throws IOException {
+    // compact the hashes to the front of the table, and sort them there
+    int count = 0;
+    for (int slot = 0; slot <= mask; slot++) {
+      if (table[slot * 2] != 0 || table[slot * 2 + 1] != 0) {
+        table[count * 2] = table[slot * 2];
+        table[count * 2 + 1] = table[slot * 2 + 1];
+        count++;
+      }
+    }
+    sort(table, 0, count);
+
+    RunWriter writer = new RunWriter(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        writer.write(table[i * 2], table[i * 2 + 1]);
+      }
+      runs.add(writer.finish());
+    }
+    finally {
+      writer.close();
+    }
+
+    spilled += count;
+    Arrays.fill(table, 0L);
+    size = 0;
+    spillCount++;
+
+    while (runs.size() > 1 && runs.get(runs.size() - 2).count <= runs.get(runs.size() - 1).count) {
+      merge();
+    }
+    log.debug("Spilled {} keys, {} in total in {} runs", count, spilled, runs.size());
+  }
+
+  /**
+   * Merges the last two runs into one.
+   */
+  private void merge() throws IOException {
+    Run older = runs.get(runs.size() - 2);
+    Run newer = runs.get(runs.size() - 1);
+    RunWriter writer = new RunWriter(older.count + newer.count);
+    try (RunReader a = new RunReader(older); RunReader b = new RunReader(newer)) {
+      while (a.hasNext() || b.hasNext()) {
+        // runs are disjoint, as hashes are only added when no run contains them
+        RunReader next = !b.hasNext() || (a.hasNext() && compare(a.hi, a.lo, b.hi, b.lo) < 0) ? a : b;
+        writer.write(next.hi, next.lo);
+        next.next();
+      }
+      Run merged = writer.finish();
+      runs.remove(runs.size() - 1);
+      runs.set(runs.size() - 1, merged);
+    }
+    finally {
+      writer.close();
+    }
+    older.close();
+    newer.close();
+  }
+
+  /**
+   * A sorted run of spilled hashes.
+   */
+  private class Run
+      implements Closeable
+  {
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final long count;
+
+    /**
+     * Hash halves of the first hash of each block.
+     */
+    private final long[] blockHi;
+
+    private final long[] blockLo;
+
+    private final long[] bloom;
+
+    private Run(final Path file, final long count, final long[] blockHi, final long[] blockLo, final long[] bloom)
+        throws IOException
+    {
+      this.file = file;
+      this.channel = FileChannel.open(file, StandardOpenOption.READ);
+      this.count = count;
+      this.blockHi = blockHi;
+      this.blockLo = blockLo;
+      this.bloom = bloom;
+    }
+
+    /**
+     * Looks up the hash in the block it would be spilled in, unless the bloom filter rules it out.
+     */
+    private boolean contains(final long hi, final long lo) throws IOException {
+      if (!bloomContains(bloom, hi, lo)) {
+        return false;
+      }
+
+      // last block starting with a hash not greater than the one looked up
+      int low = 0;
+      int high = blockHi.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (compare(blockHi[mid], blockLo[mid], hi, lo) <= 0) {
+          low = mid + 1;
+        }
+        else {
+          high = mid - 1;
+        }
+      }
+      if (high < 0) {
+        return false;
+      }
+
+      long first = (long) high * BLOCK_SIZE;
+      int blockCount = (int) Math.min(BLOCK_SIZE, count - first);
+      block.clear();
+      block.limit(blockCount * HASH_BYTES);
+      while (block.hasRemaining()) {
+        if (channel.read(block, first * HASH_BYTES + block.position()) < 0) {
+          throw new EOFException("Truncated spill file: " + file);
+        }
+      }
+
+      low = 0;
+      high = blockCount - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int c = compare(block.getLong(mid * HASH_BYTES), block.getLong(mid * HASH_BYTES + 8), hi, lo);
+        if (c < 0) {
+          low = mid + 1;
+        }
+        else if (c > 0) {
+          high = mid - 1;
+        }
+        else {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        channel.close();
+      }
+      finally {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  /**
+   * Writes hashes, in order, to a new run.
+   */
+  private class RunWriter
+      implements Closeable
+  {
+    private final Path file;
+
+    private final DataOutputStream out;
+
+    private final long count;
+
+    private final long[] blockHi;
+
+    private final long[] blockLo;
+
+    private final long[] bloom;
+
+    private long written;
+
+    private boolean finished;
+
+    private RunWriter(final long count) throws IOException {
+      this.file = Files.createTempFile(directory, "spilled-keys", ".bin");
+      this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 65536));
+      this.count = count;
+      int blocks = (int) ((count + BLOCK_SIZE - 1) / BLOCK_SIZE);
+      this.blockHi = new long[blocks];
+      this.blockLo = new long[blocks];
+      long bits = Math.max(64, Long.highestOneBit(count * BLOOM_BITS_PER_HASH - 1) << 1);
+      this.bloom = new long[(int) Math.min(bits / 64, 1 << 30)];
+    }
+
+    private void write(final long hi, final long lo) throws IOException {
+      if (written % BLOCK_SIZE == 0) {
+        blockHi[(int) (written / BLOCK_SIZE)] = hi;
+        blockLo[(int) (written / BLOCK_SIZE)] = lo;
+      }
+      bloomAdd(bloom, hi, lo);
+      out.writeLong(hi);
+      out.writeLong(lo);
+      written++;
+    }
+
+    private Run finish() throws IOException {
+      checkArgument(written == count, "Wrote %s of %s hashes", written, count);
+      out.close();
+      Run run = new Run(file, count, blockHi, blockLo, bloom);
+      finished = true;
+      return run;
+    }
+
+    /**
+     * Removes the run file, unless the run was finished.
+     */
+    @Override
+    public void close() throws IOException {
+      if (!finished) {
+        try {
+          out.close();
+        }
+        finally {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the hashes of a run, in order.
+   */
+  private static class RunReader
+      implements Closeable
+  {
+    private final DataInputStream in;
+
+    private long remaining;
+
+    private long hi;
+
+    private long lo;
+
+    private RunReader(final Run run) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file), 65536));
+      this.remaining = run.count;
+      next();
+    }
+
+    private boolean hasNext() {
+      return remaining >= 0;
+    }
+
+    /**
+     * Moves to the next hash; {@link #hasNext()} is {@code false} once all hashes were read.
+     */
+    private void next() throws IOException {
+      if (remaining-- > 0) {
+        hi = in.readLong();
+        lo = in.readLong();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private static void bloomAdd(final long[] bloom, final long hi, final long lo) {
+    long mask = (long) bloom.length * 64 - 1;
+    for (int i = 0; i < BLOOM_PROBES; i++) {
+      long bit = (hi + i * lo) & mask;
+      bloom[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  private static boolean bloomContains(final long[] bloom, final long hi, final long lo) {
+    long mask = (long) bloom.length * 64 - 1;
+    for (int i = 0; i < BLOOM_PROBES; i++) {
+      long bit = (hi + i * lo) & mask;
+      if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int compare(final long hi1, final long lo1, final long hi2, final long lo2) {
+    int c = Long.compare(hi1, hi2);
+    return c != 0 ? c : Long.compare(lo1, lo2);
+  }
+
+  /**
+   * Sorts the hashes with indexes in the given range, each stored as two consecutive halves.
+   */
+  private static void sort(final long[] hashes, final int from, final int to) {
+    int low = from;
+    int high = to;
+    while (high - low > 16) {
+      int pivot = partition(hashes, low, high);
+      // recurse into the smaller part, loop on the larger one
+      if (pivot - low < high - pivot) {
+        sort(hashes, low, pivot);
+        low = pivot + 1;
+      }
+      else {
+        sort(hashes, pivot + 1, high);
+        high = pivot;
+      }
+    }
+    for (int i = low + 1; i < high; i++) {
+      for (int j = i; j > low && compare(hashes[j * 2 - 2], hashes[j * 2 - 1], hashes[j * 2], hashes[j * 2 + 1]) > 0;
+           j--) {
+        swap(hashes, j - 1, j);
+      }
+    }
+  }
+
+  private static int partition(final long[] hashes, final int from, final int to) {
+    int last = to - 1;
+    swap(hashes, (from + to) >>> 1, last);
+    int store = from;
+    for (int i = from; i < last; i++) {
+      if (compare(hashes[i * 2], hashes[i * 2 + 1], hashes[last * 2], hashes[last * 2 + 1]) < 0) {
+        swap(hashes, i, store++);
+      }
+    }
+    swap(hashes, store, last);
+    return store;
+  }
+
+  private static void swap(final long[] hashes, final int i, final int j) {
+    long hi = hashes[i * 2];
+    long lo = hashes[i * 2 + 1];
+    hashes[i * 2] = hashes[j * 2];
+    hashes[i * 2 + 1] = hashes[j * 2 + 1];
+    hashes[j * 2] = hi;
+    hashes[j * 2 + 1] = lo;
+  }
+}
@@ -13,15 +13,20 @@
 package org.sonatype.nexus.repository.maven.internal.group;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.repository.Facet;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.Type;
@@ -33,23 +38,32 @@ import org.sonatype.nexus.repository.maven.MavenFacet;
 import org.sonatype.nexus.repository.maven.MavenPath;
 import org.sonatype.nexus.repository.maven.internal.Constants;
 import org.sonatype.nexus.repository.maven.internal.MavenFacetUtils;
-import org.sonatype.nexus.repository.storage.AssetEvent;
-import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.maven.internal.MavenMimeRulesSource;
+import org.sonatype.nexus.repository.maven.internal.MavenModels;
 import org.sonatype.nexus.repository.types.GroupType;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Response;
-import org.sonatype.nexus.transaction.UnitOfWork;
 import org.sonatype.nexus.validation.ConstraintViolationFactory;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
-import com.google.common.eventbus.AllowConcurrentEvents;
-import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+import org.apache.maven.artifact.repository.metadata.Metadata;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Maven2 specific implementation of {@link GroupFacetImpl}: metadata merge and archetype catalog merge is handled.
  *
+ * Merged content is stored in the group, but it is not evicted when members change. Instead every merge request
+ * compares the SHA1 checksums of the member content against those the stored content was merged from, kept in a
+ * bounded in-memory cache along with the merged {@link Metadata}. Only when they differ is the content merged again,
+ * and the merged content is only written when it differs from the stored one.
+ *
  * @since 3.0
  */
 @Named
@@ -57,10 +71,22 @@ import static com.google.common.base.Preconditions.checkArgument;
 public class MavenGroupFacet
     extends GroupFacetImpl
 {
+  /**
+   * Maximum number of paths to remember merge results of.
+   */
+  private static final int MERGE_CACHE_SIZE = SystemPropertiesHelper
+      .getInteger(MavenGroupFacet.class.getName() + ".mergeCacheSize", 1000);
+
   private final RepositoryMetadataMerger repositoryMetadataMerger;
 
   private final ArchetypeCatalogMerger archetypeCatalogMerger;
 
+  private final Cache<String, Merged> mergeCache;
+
+  private final AtomicLong mergeCount = new AtomicLong();
+
+  private final AtomicLong writeCount = new AtomicLong();
+
   private MavenFacet mavenFacet;
 
   @Inject
@@ -71,6 +97,7 @@ public class MavenGroupFacet
     super(repositoryManager, constraintViolationFactory, groupType);
     this.repositoryMetadataMerger = new RepositoryMetadataMerger();
     this.archetypeCatalogMerger = new ArchetypeCatalogMerger();
+    this.mergeCache = CacheBuilder.newBuilder().maximumSize(MERGE_CACHE_SIZE).build();
   }
 
   @Override
@@ -79,8 +106,15 @@ public class MavenGroupFacet
     this.mavenFacet = facet(MavenFacet.class);
   }
 
+  @Override
+  protected void doDestroy() throws Exception {
+    mergeCache.invalidateAll();
+    super.doDestroy();
+  }
+
   /**
-   * Fetches cached content if exists, or {@code null}.
+   * Fetches cached content if exists, or {@code null}. As members are not consulted, the content may be outdated,
+   * hence this is meant for the hashes of merged content, which always match the content last served.
    */
   @Nullable
   public Content getCached(final MavenPath mavenPath) throws IOException
@@ -95,7 +129,8 @@ public class MavenGroupFacet
 
   /**
    * Merges and caches and returns the merged metadata. Returns {@code null} if no usable response was in passed in
-   * map.
+   * map. Cached content is returned as is when merged from the same member content, and rewritten only if the merge
+   * outcome changed.
    */
   @Nullable
   public Content mergeAndCache(final MavenPath mavenPath,
@@ -114,31 +149,79 @@ public class MavenGroupFacet
       }
     }
 
+    Content cached = mavenFacet.get(mavenPath);
     if (contents.isEmpty()) {
       log.trace("No 200 OK responses to merge");
+      mergeCache.invalidate(mavenPath.getPath());
+      if (cached != null) {
+        evictCache(mavenPath);
+      }
       return null;
     }
-    final Path path = Files.createTempFile("group-merged-content", "tmp");
-    Content content = null;
-    try {
-      if (mavenFacet.getMavenPathParser().isRepositoryMetadata(mavenPath)) {
-        content = repositoryMetadataMerger.merge(path, mavenPath, contents);
+
+    List<String> memberChecksums = memberChecksums(contents);
+    Merged merged = mergeCache.getIfPresent(mavenPath.getPath());
+    if (merged != null && merged.memberChecksums.equals(memberChecksums)) {
+      if (!isStale(cached) && merged.sha1.equals(sha1(cached))) {
+        log.trace("Members unchanged since last merge");
+        return cached;
       }
-      else if (mavenPath.getFileName().equals(Constants.ARCHETYPE_CATALOG_FILENAME)) {
-        content = archetypeCatalogMerger.merge(path, mavenPath, contents);
+    }
+    else {
+      merged = null;
+    }
+
+    if (mavenFacet.getMavenPathParser().isRepositoryMetadata(mavenPath)) {
+      Metadata metadata = merged != null ? merged.metadata : mergeMetadata(mavenPath, contents);
+      if (metadata == null) {
+        log.trace("No content resulted out of merge");
+        return null;
       }
+      return cache(mavenPath, memberChecksums, metadata, MavenFacetUtils.createContent(
+          MavenMimeRulesSource.METADATA_TYPE,
+          (OutputStream outputStream) -> MavenModels.writeMetadata(outputStream, metadata)
+      ), cached);
+    }
+
+    final Path path = Files.createTempFile("group-merged-content", "tmp");
+    try {
+      mergeCount.incrementAndGet();
+      Content content = archetypeCatalogMerger.merge(path, mavenPath, contents);
       if (content == null) {
         log.trace("No content resulted out of merge");
         return null;
       }
-      log.trace("Caching merged content");
-      return cache(mavenPath, content);
+      return cache(mavenPath, memberChecksums, null, content, cached);
     }
     finally {
       Files.delete(path);
     }
   }
 
+  @Nullable
+  private Metadata mergeMetadata(final MavenPath mavenPath, final Map<Repository, Content> contents)
+      throws IOException
+  {
+    mergeCount.incrementAndGet();
+    return repositoryMetadataMerger.merge(mavenPath, contents);
+  }
+
+  /**
+   * Number of merges performed, not counting those served from the merge cache.
+   */
+  @VisibleForTesting
+  long getMergeCount() {
+    return mergeCount.get();
+  }
+
+  /**
+   * Number of merged contents written to storage.
+   */
+  @VisibleForTesting
+  long getWriteCount() {
+    return writeCount.get();
+  }
+
   /**
    * Verifies that merge is handled.
    */
@@ -152,10 +235,33 @@ public class MavenGroupFacet
   }
 
   /**
-   * Caches the merged content and it's Maven2 format required sha1/md5 hashes along.
+   * Caches the merged content and it's Maven2 format required sha1/md5 hashes along, unless the already cached
+   * content is identical, and remembers what it was merged from.
    */
-  private Content cache(final MavenPath mavenPath, final Content content) throws IOException {
-    return MavenFacetUtils.putWithHashes(mavenFacet, mavenPath, maintainCacheInfo(content));
+  private Content cache(final MavenPath mavenPath,
+                        @Nullable final List<String> memberChecksums,
+                        @Nullable final Metadata metadata,
+                        final Content content,
+                        @Nullable final Content cached) throws IOException
+  {
+    HashCode sha1 = checkNotNull(sha1(content));
+    Content result;
+    if (!isStale(cached) && sha1.equals(sha1(cached))) {
+      log.trace("Merged content unchanged");
+      result = cached;
+    }
+    else {
+      log.trace("Caching merged content");
+      writeCount.incrementAndGet();
+      result = MavenFacetUtils.putWithHashes(mavenFacet, mavenPath, maintainCacheInfo(content));
+    }
+    if (memberChecksums != null) {
+      mergeCache.put(mavenPath.getPath(), new Merged(memberChecksums, sha1, metadata));
+    }
+    else {
+      mergeCache.invalidate(mavenPath.getPath());
+    }
+    return result;
   }
 
   /**
@@ -165,26 +271,52 @@ public class MavenGroupFacet
     MavenFacetUtils.deleteWithHashes(mavenFacet, mavenPath);
   }
 
-  @Subscribe
-  @AllowConcurrentEvents
-  public void on(final AssetEvent event) {
-    if (member(event.getRepositoryName()) && event.getComponentId() == null) {
-      final String path = event.getAsset().name();
-      final MavenPath mavenPath = mavenFacet.getMavenPathParser().parsePath(path);
-      // group deletes path + path.hashes, but it should do only on content change in member
-      if (!mavenPath.isHash()) {
-        UnitOfWork.begin(getRepository().facet(StorageFacet.class).txSupplier());
-        try {
-          evictCache(mavenPath);
-        }
-        catch (IOException e) {
-          log.warn("Could not evict merged content from {} cache at {}", getRepository().getName(),
-              mavenPath.getPath(), e);
-        }
-        finally {
-          UnitOfWork.end();
-        }
+  /**
+   * Returns the member names paired with the SHA1 checksum of their content, in member order, or {@code null} if any
+   * member content lacks a checksum.
+   */
+  @Nullable
+  private static List<String> memberChecksums(final Map<Repository, Content> contents) {
+    ImmutableList.Builder<String> checksums = ImmutableList.builder();
+    for (Map.Entry<Repository, Content> entry : contents.entrySet()) {
+      HashCode sha1 = sha1(entry.getValue());
+      if (sha1 == null) {
+        return null;
       }
+      checksums.add(entry.getKey().getName() + "@" + sha1);
+    }
+    return checksums.build();
+  }
+
+  @Nullable
+  private static HashCode sha1(@Nullable final Content content) {
+    if (content == null) {
+      return null;
+    }
+    Map<HashAlgorithm, HashCode> hashCodes = content.getAttributes()
+        .get(Content.CONTENT_HASH_CODES_MAP, Content.T_CONTENT_HASH_CODES_MAP);
+    return hashCodes != null ? hashCodes.get(HashAlgorithm.SHA1) : null;
+  }
+
+  /**
+   * Outcome of a merge, along with the member content it was merged from.
+   */
+  private static class Merged
+  {
+    private final List<String> memberChecksums;
+
+    private final HashCode sha1;
+
+    /**
+     * The merged repository metadata, or {@code null} for other merged content.
+     */
+    @Nullable
+    private final Metadata metadata;
+
+    private Merged(final List<String> memberChecksums, final HashCode sha1, @Nullable final Metadata metadata) {
+      this.memberChecksums = checkNotNull(memberChecksums);
+      this.sha1 = checkNotNull(sha1);
+      this.metadata = metadata;
     }
   }
 }
@@ -66,6 +66,28 @@ public class RepositoryMetadataMerger
       final MavenPath mavenPath,
       final Map<Repository, Content> contents) throws IOException
   {
+    final Metadata mergedMetadata = merge(mavenPath, contents);
+    if (mergedMetadata == null) {
+      return null;
+    }
+    return MavenFacetUtils.createTempContent(
+        path,
+        MavenMimeRulesSource.METADATA_TYPE,
+        (OutputStream outputStream) -> {
+          MavenModels.writeMetadata(outputStream, mergedMetadata);
+        }
+    );
+  }
+
+  /**
+   * Merges the contents of passed in metadata and returns the resulting {@link Metadata}. Each content is pull-parsed
+   * straight off its stream, without being buffered first.
+   *
+   * @return {@code null} if no merge possible for various reasons (ie. corrupted metadata).
+   * @since 3.1
+   */
+  @Nullable
+  public Metadata merge(final MavenPath mavenPath, final Map<Repository, Content> contents) throws IOException {
     log.debug("Merge metadata for {}", mavenPath.getPath());
     ArrayList<Envelope> metadatas = new ArrayList<>(contents.size());
     for (Map.Entry<Repository, Content> entry : contents.entrySet()) {
@@ -77,18 +99,7 @@ public class RepositoryMetadataMerger
       }
       metadatas.add(new Envelope(origin, metadata));
     }
-
-    final Metadata mergedMetadata = merge(metadatas);
-    if (mergedMetadata == null) {
-      return null;
-    }
-    return MavenFacetUtils.createTempContent(
-        path,
-        MavenMimeRulesSource.METADATA_TYPE,
-        (OutputStream outputStream) -> {
-          MavenModels.writeMetadata(outputStream, mergedMetadata);
-        }
-    );
+    return merge(metadatas);
   }
 
   /**
@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -110,6 +111,12 @@ public class MavenHostedFacetImpl
     metadataRebuilder.rebuild(getRepository(), update, groupId, artifactId, baseVersion);
   }
 
+  @Override
+  public void rebuildChangedMetadata() {
+    log.debug("Rebuilding changed Maven2 hosted repository metadata: repository={}", getRepository().getName());
+    metadataRebuilder.rebuildChanged(getRepository());
+  }
+
   @Override
   public int rebuildArchetypeCatalog() throws IOException {
     log.debug("Rebuilding hosted archetype catalog for {}", getRepository().getName());
@@ -123,6 +130,13 @@ public class MavenHostedFacetImpl
     metadataRebuilder.deleteAndRebuild(getRepository(), groupId, artifactId, baseVersion);
   }
 
+  @Override
+  public void deleteMetadata(final String groupId, final String artifactId, final Collection<String> baseVersions) {
+    log.debug("Deleting Maven2 hosted repository metadata: repository={}, g={}, a={}, bVs={}",
+        getRepository().getName(), groupId, artifactId, baseVersions);
+    metadataRebuilder.deleteAndRebuild(getRepository(), groupId, artifactId, baseVersions);
+  }
+
   @Transactional
   protected int doRebuildArchetypeCatalog() throws IOException {
     final Path path = Files.createTempFile("hosted-archetype-catalog", "xml");
@@ -13,32 +13,126 @@
 package org.sonatype.nexus.repository.maven.internal.hosted;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Named;
 
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.repository.attributes.AttributesFacet;
 import org.sonatype.nexus.repository.maven.MavenIndexFacet;
 import org.sonatype.nexus.repository.maven.internal.MavenIndexFacetSupport;
 import org.sonatype.nexus.repository.maven.internal.MavenIndexPublisher;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
 import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+
 /**
  * Hosted implementation of {@link MavenIndexFacet}.
  *
+ * Index is published incrementally, and consolidated once it has the maximum number of incremental chunks, or when
+ * artifacts were deleted since it was last published, as incremental chunks only add or update artifacts. Whether
+ * artifacts were deleted is kept in the repository attributes, so a restart does not lose it.
+ *
  * @since 3.0
  */
 @Named
 public class MavenHostedIndexFacet
     extends MavenIndexFacetSupport
 {
+  /**
+   * Maximum number of incremental chunks, before the index is consolidated.
+   */
+  private static final int MAX_CHUNKS = SystemPropertiesHelper
+      .getInteger(MavenHostedIndexFacet.class.getName() + ".maxChunks", 30);
+
+  @VisibleForTesting
+  static final String P_MAVEN_INDEX = "maven_index";
+
+  @VisibleForTesting
+  static final String P_CONSOLIDATE = "consolidate";
+
+  /**
+   * Whether artifacts were deleted since the index was last published, so that the persisted flag is written once per
+   * publish rather than once per deletion.
+   */
+  private final AtomicBoolean consolidate = new AtomicBoolean();
+
   @Override
   public void publishIndex() throws IOException {
+    boolean full = consolidate.getAndSet(false) || isConsolidationPersisted();
     UnitOfWork.begin(getRepository().facet(StorageFacet.class).txSupplier());
     try {
-      MavenIndexPublisher.publishHostedIndex(getRepository());
+      if (full) {
+        log.debug("Artifacts deleted from {}, consolidating index", getRepository().getName());
+        MavenIndexPublisher.publishHostedIndex(getRepository(), getTemporaryDirectory());
+      }
+      else {
+        MavenIndexPublisher.publishHostedIndex(getRepository(), MAX_CHUNKS, getTemporaryDirectory());
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      if (full) {
+        consolidate.set(true);
+      }
+      throw e;
     }
     finally {
       UnitOfWork.end();
     }
+    if (full) {
+      clearConsolidation();
+    }
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  public void on(final AssetDeletedEvent event) {
+    if (event.getComponentId() != null && getRepository().getName().equals(event.getRepositoryName())) {
+      requireConsolidation();
+    }
+  }
+
+  /**
+   * Flags the index to be consolidated by the next publish, persisting the flag on its first deletion.
+   */
+  private void requireConsolidation() {
+    synchronized (consolidate) {
+      if (consolidate.compareAndSet(false, true)) {
+        persistConsolidation(true);
+      }
+    }
+  }
+
+  /**
+   * Clears the persisted flag after a consolidation, unless artifacts were deleted meanwhile.
+   */
+  private void clearConsolidation() {
+    synchronized (consolidate) {
+      if (!consolidate.get()) {
+        persistConsolidation(false);
+      }
+    }
+  }
+
+  private boolean isConsolidationPersisted() {
+    return Boolean.TRUE.equals(
+        facet(AttributesFacet.class).getAttributes().child(P_MAVEN_INDEX).get(P_CONSOLIDATE, Boolean.class));
+  }
+
+  private void persistConsolidation(final boolean value) {
+    // the unit-of-work of the deletion may still be set when its events are received
+    UnitOfWork work = UnitOfWork.pause();
+    try {
+      facet(AttributesFacet.class).modifyAttributes(
+          attributes -> attributes.child(P_MAVEN_INDEX).set(P_CONSOLIDATE, value)
+      );
+    }
+    finally {
+      UnitOfWork.resume(work);
+    }
   }
 }
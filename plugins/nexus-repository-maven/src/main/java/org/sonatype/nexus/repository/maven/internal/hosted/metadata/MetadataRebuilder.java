@@ -14,9 +14,19 @@ package org.sonatype.nexus.repository.maven.internal.hosted.metadata;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -25,6 +35,7 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.orient.entity.AttachedEntityHelper;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.maven.MavenFacet;
@@ -36,6 +47,7 @@ import org.sonatype.nexus.repository.maven.internal.Constants;
 import org.sonatype.nexus.repository.maven.internal.DigestExtractor;
 import org.sonatype.nexus.repository.maven.internal.Maven2Format;
 import org.sonatype.nexus.repository.maven.internal.MavenModels;
+import org.sonatype.nexus.repository.maven.internal.hosted.metadata.Maven2Metadata.Plugin;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.Component;
@@ -43,6 +55,8 @@ import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.storage.StorageTx;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.payloads.StringPayload;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
 import com.google.common.base.Strings;
@@ -69,6 +83,11 @@ import static org.sonatype.nexus.transaction.Operations.transactional;
 /**
  * Maven 2 repository metadata re-builder.
  *
+ * The GAs to rebuild are streamed from the database and, when rebuilding a whole repository, rebuilt in partitions by a
+ * pool of workers, each GA in its own transactions. Rebuilds scoped to a group or GA run on the calling thread.
+ * Metadata whose content did not change is not written again. Group level metadata, collecting the plugins of all
+ * artifacts of a group, is written once all GAs of the group are rebuilt.
+ *
  * @since 3.0
  */
 @Singleton
@@ -76,6 +95,23 @@ import static org.sonatype.nexus.transaction.Operations.transactional;
 public class MetadataRebuilder
     extends ComponentSupport
 {
+  /**
+   * Number of workers rebuilding metadata of a whole repository.
+   */
+  private static final int THREADS = SystemPropertiesHelper
+      .getInteger(MetadataRebuilder.class.getName() + ".threads", 4);
+
+  /**
+   * Number of GAs handed to a worker at once.
+   */
+  private static final int PARTITION_SIZE = SystemPropertiesHelper
+      .getInteger(MetadataRebuilder.class.getName() + ".partitionSize", 100);
+
+  /**
+   * Bucket attribute recording when the last complete rebuild of all metadata started.
+   */
+  private static final String P_LAST_REBUILD = "lastMetadataRebuild";
+
   /**
    * Rebuilds/updates Maven metadata.
    *
@@ -93,16 +129,79 @@ public class MetadataRebuilder
                       @Nullable final String baseVersion)
   {
     checkNotNull(repository);
+    rebuild(repository, update, groupId, artifactId, baseVersion, null);
+  }
+
+  /**
+   * Updates Maven metadata of the GAs with assets updated since the last complete rebuild of the repository's
+   * metadata. If there was no complete rebuild yet, rebuilds all metadata.
+   *
+   * GAs whose components were all deleted have no updated assets, so their metadata is not updated; hence this does
+   * not count as a complete rebuild, and later calls keep updating everything changed since the last complete one.
+   *
+   * @param repository The repository whose metadata needs rebuild (Maven2 format, Hosted type only).
+   * @since 3.1
+   */
+  public void rebuildChanged(final Repository repository) {
+    checkNotNull(repository);
+    final Date lastRebuild = lastRebuild(repository);
+    if (lastRebuild == null) {
+      log.info("No complete metadata rebuild of {} recorded, rebuilding all metadata", repository.getName());
+      rebuild(repository, false, null, null, null, null);
+    }
+    else {
+      log.debug("Rebuilding metadata of {} changed since {}", repository.getName(), lastRebuild);
+      rebuild(repository, true, null, null, null, lastRebuild);
+    }
+  }
+
+  private void rebuild(final Repository repository,
+                       final boolean update,
+                       @Nullable final String groupId,
+                       @Nullable final String artifactId,
+                       @Nullable final String baseVersion,
+                       @Nullable final Date since)
+  {
+    final Date started = new Date();
+    final StorageTx tx = repository.facet(StorageFacet.class).txSupplier().get();
+    UnitOfWork.beginBatch(tx);
+    try {
+      final boolean complete = new Rebuild(repository, update, groupId, artifactId, baseVersion, since).run();
+      if (complete && since == null && Strings.isNullOrEmpty(groupId)) {
+        recordRebuild(repository, started);
+      }
+    }
+    finally {
+      UnitOfWork.end();
+    }
+  }
+
+  /**
+   * Returns when the last complete rebuild of the repository's metadata started, or {@code null}.
+   */
+  @Nullable
+  private Date lastRebuild(final Repository repository) {
     final StorageTx tx = repository.facet(StorageFacet.class).txSupplier().get();
     UnitOfWork.beginBatch(tx);
     try {
-      new Worker(repository, update, groupId, artifactId, baseVersion).rebuildMetadata();
+      return transactional().call(() -> UnitOfWork.currentTx().findBucket(repository).attributes()
+          .child(Maven2Format.NAME).get(P_LAST_REBUILD, Date.class));
     }
     finally {
       UnitOfWork.end();
     }
   }
 
+  private void recordRebuild(final Repository repository, final Date started) {
+    transactional().retryOn(ONeedRetryException.class).call(() -> {
+      final StorageTx tx = UnitOfWork.currentTx();
+      final Bucket bucket = tx.findBucket(repository);
+      bucket.attributes().child(Maven2Format.NAME).set(P_LAST_REBUILD, started);
+      tx.saveBucket(bucket);
+      return null;
+    });
+  }
+
   /**
    * Delete metadata for the given GAbV and rebuild metadata for the GA. If Group level metadata is present, rebuild
    * at that level to account for plugin deletion.
@@ -114,18 +213,37 @@ public class MetadataRebuilder
    */
   public void deleteAndRebuild(final Repository repository, final String groupId, final String artifactId,
                                final String baseVersion)
+  {
+    checkNotNull(baseVersion);
+    deleteAndRebuild(repository, groupId, artifactId, Collections.singleton(baseVersion));
+  }
+
+  /**
+   * Delete metadata for the given GAbVs and rebuild metadata for their GA once. If Group level metadata is present,
+   * rebuild at that level to account for plugin deletion.
+   *
+   * @param repository   The repository whose metadata needs rebuild (Maven2 format, Hosted type only).
+   * @param groupId      scope the work to given groupId.
+   * @param artifactId   scope the work to given artifactId (groupId must be given).
+   * @param baseVersions the baseVersions whose metadata to delete.
+   * @since 3.1
+   */
+  public void deleteAndRebuild(final Repository repository, final String groupId, final String artifactId,
+                               final Collection<String> baseVersions)
   {
     checkNotNull(repository);
     checkNotNull(groupId);
     checkNotNull(artifactId);
-    checkNotNull(baseVersion);
+    checkNotNull(baseVersions);
 
     final StorageTx tx = repository.facet(StorageFacet.class).txSupplier().get();
     UnitOfWork.beginBatch(tx);
     boolean groupChange = false;
     try {
-      // Delete the specific GAV
-      MetadataUtils.delete(repository, metadataPath(groupId, artifactId, baseVersion));
+      // Delete the specific GAVs
+      for (String baseVersion : baseVersions) {
+        MetadataUtils.delete(repository, metadataPath(groupId, artifactId, baseVersion));
+      }
       // Delete the GA; will be rebuilt as necessary but may hold the last GAV in which case rebuild would ignore it
       MetadataUtils.delete(repository, metadataPath(groupId, artifactId, null));
 
@@ -154,38 +272,40 @@ public class MetadataRebuilder
   }
 
   /**
-   * Inner class that encapsulates the work, as metadata builder is stateful.
+   * Inner class that encapsulates a rebuild: streams the GAs on the calling thread, and dispatches them in partitions
+   * to the workers, or rebuilds them right away when the rebuild is scoped to a group or GA.
    */
-  private static class Worker
+  private static class Rebuild
       extends ComponentSupport
   {
     private final Repository repository;
 
-    private final MavenFacet mavenFacet;
+    private final boolean update;
 
-    private final MavenPathParser mavenPathParser;
-
-    private final MetadataBuilder metadataBuilder;
-
-    private final MetadataUpdater metadataUpdater;
+    private final boolean parallel;
 
     private final Map<String, Object> sqlParams;
 
     private final String sql;
 
-    public Worker(final Repository repository,
-                  final boolean update,
-                  @Nullable final String groupId,
-                  @Nullable final String artifactId,
-                  @Nullable final String baseVersion)
+    private final AtomicLong artifactCount = new AtomicLong();
+
+    private final AtomicLong writeCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    public Rebuild(final Repository repository,
+                   final boolean update,
+                   @Nullable final String groupId,
+                   @Nullable final String artifactId,
+                   @Nullable final String baseVersion,
+                   @Nullable final Date since)
     {
       this.repository = repository;
-      this.mavenFacet = repository.facet(MavenFacet.class);
-      this.mavenPathParser = mavenFacet.getMavenPathParser();
-      this.metadataBuilder = new MetadataBuilder();
-      this.metadataUpdater = new MetadataUpdater(update, repository);
+      this.update = update;
+      this.parallel = Strings.isNullOrEmpty(groupId);
       this.sqlParams = Maps.newHashMap();
-      this.sql = buildSql(groupId, artifactId, baseVersion);
+      this.sql = since != null ? buildChangedSql(since) : buildSql(groupId, artifactId, baseVersion);
     }
 
     /**
@@ -233,6 +353,33 @@ public class MetadataRebuilder
       return builder.toString();
     }
 
+    /**
+     * Builds up SQL selecting the GAs and baseVersions with assets updated since given date, populating the {@link
+     * #sqlParams} map too.
+     */
+    private String buildChangedSql(final Date since) {
+      sqlParams.put("bucket", findBucketORID(repository));
+      sqlParams.put("since", since);
+      final String attributes = P_ATTRIBUTES + "." + Maven2Format.NAME + ".";
+      return String.format(
+          "SELECT " +
+              "%s as groupId, " +
+              "%s as artifactId, " +
+              "set(%s) as baseVersions " +
+              "FROM %s WHERE %s=:bucket AND %s > :since AND %s IS NOT NULL " +
+              "GROUP BY %s, %s",
+          attributes + Attributes.P_GROUP_ID,
+          attributes + Attributes.P_ARTIFACT_ID,
+          attributes + Attributes.P_BASE_VERSION,
+          "asset", // Asset DB class name
+          P_BUCKET,
+          "last_updated",
+          attributes + Attributes.P_BASE_VERSION,
+          attributes + Attributes.P_GROUP_ID,
+          attributes + Attributes.P_ARTIFACT_ID
+      );
+    }
+
     /**
      * Finds the {@link Bucket}\s {@link ORID} for passed in {@link Repository}.
      */
@@ -244,9 +391,9 @@ public class MetadataRebuilder
     }
 
     /**
-     * Returns {@link Iterable} with Orient documents for GAVs.
+     * Returns {@link Iterable} with Orient documents for GAs.
      */
-    private Iterable<ODocument> browseGAVs() {
+    private Iterable<ODocument> browseGAs() {
       return transactional().call(() -> {
         final StorageTx tx = UnitOfWork.currentTx();
         return tx.browse(sql, sqlParams);
@@ -254,53 +401,296 @@ public class MetadataRebuilder
     }
 
     /**
-     * Method rebuilding metadata that performs the group level processing. It uses memory conservative "async" SQL
-     * approach, and calls {@link #rebuildMetadataInner(String, String, Set)} method as results are arriving.
+     * Streams the GAs using memory conservative "async" SQL approach, handing them in partitions to the workers as
+     * results are arriving. Returns {@code true} if metadata of all GAs was rebuilt.
+     */
+    public boolean run() {
+      final long start = System.currentTimeMillis();
+      final ExecutorService executor = parallel ? NexusExecutorService.forCurrentSubject(Executors.newFixedThreadPool(
+          THREADS, new NexusThreadFactory("metadata-rebuild", repository.getName()))) : null;
+      // bounds the partitions waiting for a worker, as the GAs are streamed
+      final Semaphore permits = new Semaphore(THREADS * 2);
+      final Worker worker = new Worker(repository, update, writeCount);
+      try {
+        GroupRebuild group = null;
+        List<ArtifactRebuild> partition = new ArrayList<>(PARTITION_SIZE);
+        for (ODocument doc : browseGAs()) {
+          final String groupId = doc.field("groupId", OType.STRING);
+          final String artifactId = doc.field("artifactId", OType.STRING);
+          final Set<String> baseVersions = doc.field("baseVersions", OType.EMBEDDEDSET);
+
+          if (group == null || !Objects.equals(group.groupId, groupId)) {
+            if (group != null) {
+              group.close(worker);
+            }
+            group = new GroupRebuild(groupId);
+          }
+          group.add();
+          partition.add(new ArtifactRebuild(group, artifactId, baseVersions));
+          if (partition.size() >= PARTITION_SIZE) {
+            dispatch(executor, permits, partition, worker);
+            partition = new ArrayList<>(PARTITION_SIZE);
+          }
+        }
+        if (!partition.isEmpty()) {
+          dispatch(executor, permits, partition, worker);
+        }
+        if (group != null) {
+          group.close(worker);
+        }
+      }
+      finally {
+        if (executor != null) {
+          executor.shutdown();
+          awaitTermination(executor);
+        }
+      }
+      log.info("Rebuilt metadata of {} artifacts in {}, {} written, {} failed, in {} ms", artifactCount.get(),
+          repository.getName(), writeCount.get(), failureCount.get(), System.currentTimeMillis() - start);
+      return failureCount.get() == 0;
+    }
+
+    /**
+     * Hands the partition to a worker, or rebuilds it on the calling thread, in its unit of work, if there are none.
+     */
+    private void dispatch(@Nullable final ExecutorService executor,
+                          final Semaphore permits,
+                          final List<ArtifactRebuild> partition,
+                          final Worker worker)
+    {
+      if (executor == null) {
+        rebuildPartition(partition, worker);
+        return;
+      }
+      permits.acquireUninterruptibly();
+      try {
+        executor.execute(() -> {
+          try {
+            rebuildPartitionInBatch(partition);
+          }
+          finally {
+            permits.release();
+          }
+        });
+      }
+      catch (RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+    }
+
+    private void awaitTermination(final ExecutorService executor) {
+      boolean interrupted = false;
+      try {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          log.debug("Waiting for metadata rebuild of {} to finish", repository.getName());
+        }
+      }
+      catch (InterruptedException e) {
+        interrupted = true;
+        executor.shutdownNow();
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Rebuilds the partition of GAs on a worker thread, with its own DB connection. If that can not be set up, all GAs
+     * of the partition are failed.
+     */
+    private void rebuildPartitionInBatch(final List<ArtifactRebuild> partition) {
+      final Worker worker;
+      try {
+        worker = new Worker(repository, update, writeCount);
+        UnitOfWork.beginBatch(repository.facet(StorageFacet.class).txSupplier().get());
+      }
+      catch (Exception e) {
+        log.warn("Failed to rebuild metadata of {} GAs in {}", partition.size(), repository.getName(), e);
+        for (ArtifactRebuild artifact : partition) {
+          failureCount.incrementAndGet();
+          artifact.group.failed();
+        }
+        return;
+      }
+      try {
+        rebuildPartition(partition, worker);
+      }
+      finally {
+        UnitOfWork.end();
+      }
+    }
+
+    /**
+     * Rebuilds the partition of GAs in the current unit of work.
+     */
+    private void rebuildPartition(final List<ArtifactRebuild> partition, final Worker worker) {
+      for (ArtifactRebuild artifact : partition) {
+        List<Plugin> plugins;
+        try {
+          plugins = worker.rebuildMetadata(artifact.group.groupId, artifact.artifactId, artifact.baseVersions);
+          artifactCount.incrementAndGet();
+        }
+        catch (Exception e) {
+          failureCount.incrementAndGet();
+          log.warn("Failed to rebuild metadata of {}:{} in {}", artifact.group.groupId, artifact.artifactId,
+              repository.getName(), e);
+          artifact.group.failed();
+          continue;
+        }
+        artifact.group.done(plugins, worker);
+      }
+    }
+
+    /**
+     * A GA to rebuild.
+     */
+    private static class ArtifactRebuild
+    {
+      private final GroupRebuild group;
+
+      private final String artifactId;
+
+      private final Set<String> baseVersions;
+
+      private ArtifactRebuild(final GroupRebuild group, final String artifactId, final Set<String> baseVersions) {
+        this.group = group;
+        this.artifactId = artifactId;
+        this.baseVersions = baseVersions;
+      }
+    }
+
+    /**
+     * Collects the plugins of a group's GAs, as they are rebuilt, and writes the group level metadata once all of
+     * them were rebuilt, on the thread that completed the last one.
      */
-    public void rebuildMetadata()
+    private class GroupRebuild
     {
-      String currentGroupId = null;
-      for (ODocument doc : browseGAVs()) {
-        final String groupId = doc.field("groupId", OType.STRING);
-        final String artifactId = doc.field("artifactId", OType.STRING);
-        final Set<String> baseVersions = doc.field("baseVersions", OType.EMBEDDEDSET);
-
-        final boolean groupChange = !Objects.equals(currentGroupId, groupId);
-        if (groupChange) {
-          if (currentGroupId != null) {
-            rebuildMetadataExitGroup(currentGroupId);
+      private final String groupId;
+
+      private final List<Plugin> plugins = new ArrayList<>();
+
+      private int pending;
+
+      private boolean closed;
+
+      private boolean failed;
+
+      private GroupRebuild(final String groupId) {
+        this.groupId = groupId;
+      }
+
+      /**
+       * Adds a GA of the group to be rebuilt.
+       */
+      private synchronized void add() {
+        pending++;
+      }
+
+      /**
+       * Marks that all GAs of the group were added.
+       */
+      private void close(final Worker worker) {
+        synchronized (this) {
+          closed = true;
+          if (pending > 0) {
+            return;
+          }
+        }
+        rebuildGroup(worker);
+      }
+
+      /**
+       * Marks a GA of the group as rebuilt, with its plugins.
+       */
+      private void done(final List<Plugin> artifactPlugins, final Worker worker) {
+        synchronized (this) {
+          plugins.addAll(artifactPlugins);
+          if (--pending > 0 || !closed) {
+            return;
+          }
+        }
+        rebuildGroup(worker);
+      }
+
+      /**
+       * Marks a GA of the group as failed, so group level metadata is left as it is.
+       */
+      private void failed() {
+        synchronized (this) {
+          failed = true;
+          if (--pending > 0 || !closed) {
+            return;
           }
-          currentGroupId = groupId;
-          metadataBuilder.onEnterGroupId(groupId);
         }
-        rebuildMetadataInner(groupId, artifactId, baseVersions);
+        rebuildGroup(null);
       }
-      if (currentGroupId != null) {
-        rebuildMetadataExitGroup(currentGroupId);
+
+      private void rebuildGroup(@Nullable final Worker worker) {
+        if (failed) {
+          // plugins of failed GAs are unknown, leave it as it is
+          log.warn("Not rebuilding group level metadata of {} in {}", groupId, repository.getName());
+          return;
+        }
+        try {
+          worker.rebuildMetadata(groupId, plugins);
+        }
+        catch (Exception e) {
+          failureCount.incrementAndGet();
+          log.warn("Failed to rebuild group level metadata of {} in {}", groupId, repository.getName(), e);
+        }
       }
     }
+  }
+
+  /**
+   * Inner class that encapsulates the work of one thread, as metadata builder is stateful.
+   */
+  private static class Worker
+      extends ComponentSupport
+  {
+    private final Repository repository;
+
+    private final MavenFacet mavenFacet;
+
+    private final MavenPathParser mavenPathParser;
+
+    private final MetadataUpdater metadataUpdater;
+
+    private final AtomicLong writeCount;
+
+    public Worker(final Repository repository, final boolean update, final AtomicLong writeCount) {
+      this.repository = repository;
+      this.mavenFacet = repository.facet(MavenFacet.class);
+      this.mavenPathParser = mavenFacet.getMavenPathParser();
+      this.metadataUpdater = new MetadataUpdater(update, repository);
+      this.writeCount = writeCount;
+    }
 
     /**
-     * Process exits from group level, executed in isolation.
+     * Rebuilds group level metadata from the plugins of the group's GAs.
      */
-    private void rebuildMetadataExitGroup(final String currentGroupId) {
-      metadataUpdater.processMetadata(
-          MetadataUtils.metadataPath(currentGroupId, null, null),
-          metadataBuilder.onExitGroupId()
-      );
+    public void rebuildMetadata(final String groupId, final List<Plugin> plugins) {
+      final MetadataBuilder metadataBuilder = new MetadataBuilder();
+      metadataBuilder.onEnterGroupId(groupId);
+      for (Plugin plugin : plugins) {
+        metadataBuilder.addPlugin(plugin.getPrefix(), plugin.getArtifactId(), plugin.getName());
+      }
+      processMetadata(MetadataUtils.metadataPath(groupId, null, null), metadataBuilder.onExitGroupId());
     }
 
     /**
-     * Method rebuilding metadata that performs artifact and baseVersion processing. While it is called from {@link
-     * #rebuildMetadata()} method, it will use a separate TX/DB to perform writes, it does NOT
-     * accept the TX from caller. Executed in isolation.
+     * Rebuilds metadata of a GA, performing artifact and baseVersion processing, each baseVersion in its own
+     * transaction. Returns the plugins found, to be added to group level metadata.
      */
-    private void rebuildMetadataInner(final String groupId,
-                                      final String artifactId,
-                                      final Set<String> baseVersions)
+    public List<Plugin> rebuildMetadata(final String groupId,
+                                        final String artifactId,
+                                        final Set<String> baseVersions)
     {
       final StorageTx tx = UnitOfWork.currentTx();
 
+      final MetadataBuilder metadataBuilder = new MetadataBuilder();
+      metadataBuilder.onEnterGroupId(groupId);
       metadataBuilder.onEnterArtifactId(artifactId);
       for (final String baseVersion : baseVersions) {
         metadataBuilder.onEnterBaseVersion(baseVersion);
@@ -336,7 +726,7 @@ public class MetadataRebuilder
             }
           }
 
-          metadataUpdater.processMetadata(
+          processMetadata(
               MetadataUtils.metadataPath(groupId, artifactId, baseVersion),
               metadataBuilder.onExitBaseVersion()
           );
@@ -345,10 +735,19 @@ public class MetadataRebuilder
         });
       }
 
-      metadataUpdater.processMetadata(
+      processMetadata(
           MetadataUtils.metadataPath(groupId, artifactId, null),
           metadataBuilder.onExitArtifactId()
       );
+
+      final Maven2Metadata groupMetadata = metadataBuilder.onExitGroupId();
+      return groupMetadata != null ? groupMetadata.getPlugins() : Collections.<Plugin>emptyList();
+    }
+
+    private void processMetadata(final MavenPath metadataPath, @Nullable final Maven2Metadata metadata) {
+      if (metadataUpdater.processMetadata(metadataPath, metadata)) {
+        writeCount.incrementAndGet();
+      }
     }
 
     /**
@@ -14,6 +14,7 @@ package org.sonatype.nexus.repository.maven.internal.hosted.metadata;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +27,7 @@ import org.sonatype.nexus.repository.maven.MavenFacet;
 import org.sonatype.nexus.repository.maven.MavenPath;
 import org.sonatype.nexus.repository.maven.MavenPath.HashType;
 import org.sonatype.nexus.repository.maven.internal.Constants;
+import org.sonatype.nexus.repository.maven.internal.DigestExtractor;
 import org.sonatype.nexus.repository.maven.internal.MavenFacetUtils;
 import org.sonatype.nexus.repository.maven.internal.MavenMimeRulesSource;
 import org.sonatype.nexus.repository.maven.internal.MavenModels;
@@ -82,36 +84,40 @@ public class MetadataUpdater
   /**
    * Processes metadata, depending on {@link #update} value and input value of metadata parameter. If input is
    * non-null, will update or replace depending on value of {@link #update}. If input is null, will delete if {@link
-   * #update} is {@code false}.
+   * #update} is {@code false}. Returns {@code true} if the stored metadata was modified.
    */
-  public void processMetadata(final MavenPath metadataPath, final Maven2Metadata metadata) {
+  public boolean processMetadata(final MavenPath metadataPath, final Maven2Metadata metadata) {
     if (metadata != null) {
       if (update) {
-        update(metadataPath, metadata);
+        return update(metadataPath, metadata);
       }
       else {
-        replace(metadataPath, metadata);
+        return replace(metadataPath, metadata);
       }
     }
     else if (!update) {
       delete(metadataPath);
+      return true;
     }
+    return false;
   }
 
   /**
    * Writes/updates metadata, merges existing one, if any.
    */
   @VisibleForTesting
-  void update(final MavenPath mavenPath, final Maven2Metadata metadata) {
+  boolean update(final MavenPath mavenPath, final Maven2Metadata metadata) {
     try {
-      transactional().retryOn(ONeedRetryException.class).throwing(IOException.class).call(() -> {
+      return transactional().retryOn(ONeedRetryException.class).throwing(IOException.class).call(() -> {
         checkNotNull(mavenPath);
         checkNotNull(metadata);
 
-        final Metadata oldMetadata = MetadataUtils.read(repository, mavenPath);
+        final Content content = mavenFacet.get(mavenPath);
+        final Metadata oldMetadata = MetadataUtils.read(repository, mavenPath, content);
         if (oldMetadata == null) {
           // old does not exists, just write it
           write(mavenPath, toMetadata(metadata));
+          return true;
         }
         else {
           final Metadata updated = repositoryMetadataMerger.merge(
@@ -120,9 +126,8 @@ public class MetadataUpdater
                   new Envelope("new:" + mavenPath.getPath(), toMetadata(metadata))
               )
           );
-          write(mavenPath, updated);
+          return writeIfChanged(mavenPath, content, oldMetadata, updated);
         }
-        return null;
       });
     }
     catch (IOException e) {
@@ -134,11 +139,13 @@ public class MetadataUpdater
    * Writes/overwrites metadata, replacing existing one, if any.
    */
   @VisibleForTesting
-  void replace(final MavenPath mavenPath, final Maven2Metadata metadata) {
+  boolean replace(final MavenPath mavenPath, final Maven2Metadata metadata) {
     checkNotNull(mavenPath);
     checkNotNull(metadata);
     try {
-      write(mavenPath, toMetadata(metadata));
+      final Content content = mavenFacet.get(mavenPath);
+      final Metadata oldMetadata = sha1(content) != null ? MetadataUtils.read(repository, mavenPath, content) : null;
+      return writeIfChanged(mavenPath, content, oldMetadata, toMetadata(metadata));
     }
     catch (IOException e) {
       throw Throwables.propagate(e);
@@ -153,6 +160,86 @@ public class MetadataUpdater
     MetadataUtils.delete(repository, mavenPath);
   }
 
+  /**
+   * Writes the metadata, unless it has the same content as the stored one, apart from its last updated timestamp.
+   * Checksums of unchanged metadata are still verified, and rewritten if missing or wrong. Returns {@code true} if
+   * anything was written.
+   */
+  private boolean writeIfChanged(final MavenPath mavenPath,
+                                 @Nullable final Content content,
+                                 @Nullable final Metadata oldMetadata,
+                                 final Metadata metadata)
+      throws IOException
+  {
+    final HashCode sha1 = sha1(content);
+    if (sha1 != null && oldMetadata != null && sha1.equals(sha1(metadata, oldMetadata))) {
+      log.debug("Metadata unchanged: {} @ {}", repository.getName(), mavenPath.getPath());
+      return mayUpdateChecksums(mavenPath, content);
+    }
+    write(mavenPath, metadata);
+    return true;
+  }
+
+  /**
+   * Returns the stored SHA1 of content, or {@code null}.
+   */
+  @Nullable
+  private HashCode sha1(@Nullable final Content content) {
+    if (content == null) {
+      return null;
+    }
+    final Map<HashAlgorithm, HashCode> hashCodes = content.getAttributes()
+        .get(Content.CONTENT_HASH_CODES_MAP, Content.T_CONTENT_HASH_CODES_MAP);
+    return hashCodes != null ? hashCodes.get(HashAlgorithm.SHA1) : null;
+  }
+
+  /**
+   * Returns the SHA1 of metadata as it would be written with the last updated timestamp of the old metadata, as that
+   * timestamp is all that differs when metadata of unchanged content is generated again.
+   */
+  private HashCode sha1(final Metadata metadata, final Metadata oldMetadata) throws IOException {
+    final Versioning versioning = metadata.getVersioning();
+    final String lastUpdated = versioning != null ? versioning.getLastUpdated() : null;
+    if (versioning != null && oldMetadata.getVersioning() != null) {
+      versioning.setLastUpdated(oldMetadata.getVersioning().getLastUpdated());
+    }
+    try {
+      final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      MavenModels.writeMetadata(buffer, metadata);
+      return HashAlgorithm.SHA1.function().hashBytes(buffer.toByteArray());
+    }
+    finally {
+      if (versioning != null) {
+        versioning.setLastUpdated(lastUpdated);
+      }
+    }
+  }
+
+  /**
+   * Writes the checksums of stored content that are missing or do not match. Returns {@code true} if any was written.
+   */
+  private boolean mayUpdateChecksums(final MavenPath mavenPath, final Content content) throws IOException {
+    final Map<HashAlgorithm, HashCode> hashCodes = content.getAttributes()
+        .require(Content.CONTENT_HASH_CODES_MAP, Content.T_CONTENT_HASH_CODES_MAP);
+    boolean written = false;
+    for (HashType hashType : HashType.values()) {
+      final MavenPath checksumPath = mavenPath.hash(hashType);
+      final HashCode hashCode = hashCodes.get(hashType.getHashAlgorithm());
+      checkState(hashCode != null, "hashCode: type=%s", hashType);
+      final Content checksum = mavenFacet.get(checksumPath);
+      if (checksum != null) {
+        try (InputStream is = checksum.openInputStream()) {
+          if (hashCode.toString().equals(DigestExtractor.extract(is))) {
+            continue;
+          }
+        }
+      }
+      mavenFacet.put(checksumPath, new StringPayload(hashCode.toString(), Constants.CHECKSUM_CONTENT_TYPE));
+      written = true;
+    }
+    return written;
+  }
+
   /**
    * Converts NX VO into Apache Maven {@link Metadata}.
    */
@@ -76,7 +76,19 @@ public final class MetadataUtils
    */
   @Nullable
   public static Metadata read(final Repository repository, final MavenPath mavenPath) throws IOException {
-    final Content content = repository.facet(MavenFacet.class).get(mavenPath);
+    return read(repository, mavenPath, repository.facet(MavenFacet.class).get(mavenPath));
+  }
+
+  /**
+   * Reads already fetched content as {@link Metadata}. Returns null if the content does not exist.
+   *
+   * @since 3.1
+   */
+  @Nullable
+  public static Metadata read(final Repository repository,
+                              final MavenPath mavenPath,
+                              @Nullable final Content content) throws IOException
+  {
     if (content == null) {
       return null;
     }
@@ -80,7 +80,7 @@ public class MavenProxyIndexFacet
       if (!prefetchIndexFiles(getRepository())) {
         if (Boolean.TRUE.equals(config.cacheFallback)) {
           log.debug("No remote index found... generating partial index from caches");
-          publishHostedIndex(getRepository());
+          publishHostedIndex(getRepository(), getTemporaryDirectory());
         }
         else {
           log.debug("No remote index found... nothing to publish");
@@ -26,6 +26,7 @@ import org.sonatype.nexus.repository.types.HostedType;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.sonatype.nexus.repository.maven.tasks.RebuildMaven2MetadataTaskDescriptor.ARTIFACTID_FIELD_ID;
 import static org.sonatype.nexus.repository.maven.tasks.RebuildMaven2MetadataTaskDescriptor.BASEVERSION_FIELD_ID;
+import static org.sonatype.nexus.repository.maven.tasks.RebuildMaven2MetadataTaskDescriptor.CHANGED_ONLY_FIELD_ID;
 import static org.sonatype.nexus.repository.maven.tasks.RebuildMaven2MetadataTaskDescriptor.GROUPID_FIELD_ID;
 
 /**
@@ -54,6 +55,10 @@ public class RebuildMaven2MetadataTask
   @Override
   protected void execute(final Repository repository) {
     MavenHostedFacet mavenHostedFacet = repository.facet(MavenHostedFacet.class);
+    if (getConfiguration().getBoolean(CHANGED_ONLY_FIELD_ID, false)) {
+      mavenHostedFacet.rebuildChangedMetadata();
+      return;
+    }
     mavenHostedFacet.rebuildMetadata(
         getConfiguration().getString(GROUPID_FIELD_ID),
         getConfiguration().getString(ARTIFACTID_FIELD_ID),
@@ -15,6 +15,7 @@ package org.sonatype.nexus.repository.maven.tasks;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.sonatype.nexus.formfields.CheckboxFormField;
 import org.sonatype.nexus.formfields.RepositoryCombobox;
 import org.sonatype.nexus.formfields.StringTextFormField;
 import org.sonatype.nexus.repository.maven.internal.Maven2Format;
@@ -41,6 +42,11 @@ public class RebuildMaven2MetadataTaskDescriptor
 
   public static final String BASEVERSION_FIELD_ID = "baseVersion";
 
+  /**
+   * @since 3.1
+   */
+  public static final String CHANGED_ONLY_FIELD_ID = "changedOnly";
+
   public RebuildMaven2MetadataTaskDescriptor() {
     super(TYPE_ID,
         RebuildMaven2MetadataTask.class,
@@ -71,6 +77,12 @@ public class RebuildMaven2MetadataTaskDescriptor
             "Base Version (only if ArtifactId given)",
             "Maven base version to narrow operation (limit to given groupId:artifactId:baseVersion, used if groupId and artifactId set!)",
             false
+        ),
+        new CheckboxFormField(
+            CHANGED_ONLY_FIELD_ID,
+            "Changed artifacts only",
+            "Update metadata of artifacts changed since the last complete rebuild only (GroupId, ArtifactId and Base Version are ignored)",
+            false
         )
     );
   }
@@ -0,0 +1,366 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.orient.entity.AttachedEntityMetadata;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.maven.MavenFacet;
+import org.sonatype.nexus.repository.maven.MavenPath;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.nexus.transaction.UnitOfWork;
+
+import com.google.common.io.ByteStreams;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.apache.maven.index.reader.ChunkReader;
+import org.apache.maven.index.reader.Record;
+import org.apache.maven.index.reader.Record.Type;
+import org.apache.maven.index.reader.RecordExpander;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.maven.internal.MavenIndexPublisher.P_SINCE;
+import static org.sonatype.nexus.repository.maven.internal.MavenIndexPublisher.SELECT_UPDATED_HOSTED_ARTIFACTS;
+
+/**
+ * Tests for {@link MavenIndexPublisher} incremental publishing.
+ */
+public class MavenIndexPublisherTest
+    extends TestSupport
+{
+  private static final String PROPERTIES = ".index/nexus-maven-repository-index.properties";
+
+  private static final String MAIN_CHUNK = ".index/nexus-maven-repository-index.gz";
+
+  @Mock
+  private Repository hosted;
+
+  @Mock
+  private Repository group;
+
+  @Mock
+  private StorageTx tx;
+
+  @Mock
+  private Bucket bucket;
+
+  private final Maven2MavenPathParser pathParser = new Maven2MavenPathParser();
+
+  private final Map<String, Content> hostedStorage = new HashMap<>();
+
+  private final Map<String, Content> groupStorage = new HashMap<>();
+
+  private final List<ODocument> artifacts = new ArrayList<>();
+
+  private final List<ODocument> updatedArtifacts = new ArrayList<>();
+
+  private final List<String> groups = new ArrayList<>();
+
+  private final List<Map<String, Object>> artifactQueries = new ArrayList<>();
+
+  private Path temporaryDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    temporaryDirectory = util.createTempDir().toPath();
+
+    when(hosted.getName()).thenReturn("hosted");
+    MavenFacet hostedFacet = mavenFacet(hostedStorage);
+    when(hosted.facet(MavenFacet.class)).thenReturn(hostedFacet);
+    when(group.getName()).thenReturn("group");
+    MavenFacet groupFacet = mavenFacet(groupStorage);
+    when(group.facet(MavenFacet.class)).thenReturn(groupFacet);
+
+    when(tx.findBucket(hosted)).thenReturn(bucket);
+    AttachedEntityMetadata bucketMetadata = mock(AttachedEntityMetadata.class);
+    ODocument bucketDocument = mock(ODocument.class);
+    when(bucketDocument.getIdentity()).thenReturn(new ORecordId(1, 1));
+    when(bucketMetadata.getDocument()).thenReturn(bucketDocument);
+    when(bucket.getEntityMetadata()).thenReturn(bucketMetadata);
+
+    when(tx.browse(anyString(), anyMapOf(String.class, Object.class))).thenAnswer(invocation -> {
+      String sql = (String) invocation.getArguments()[0];
+      Map<String, Object> params = (Map<String, Object>) invocation.getArguments()[1];
+      if (sql.contains("DISTINCT")) {
+        List<ODocument> documents = new ArrayList<>();
+        for (String groupId : groups) {
+          documents.add(document(Collections.singletonMap("groupId", groupId)));
+        }
+        return documents;
+      }
+      if (sql.startsWith("SELECT name FROM asset")) {
+        return Collections.emptyList();
+      }
+      artifactQueries.add(params);
+      if (params.containsKey(P_SINCE)) {
+        assertThat(sql, is(SELECT_UPDATED_HOSTED_ARTIFACTS));
+        return new ArrayList<>(updatedArtifacts);
+      }
+      return new ArrayList<>(artifacts);
+    });
+
+    UnitOfWork.beginBatch(tx);
+  }
+
+  @After
+  public void tearDown() {
+    UnitOfWork.end();
+  }
+
+  @Test
+  public void publishesFromScratchWithoutIndex() throws Exception {
+    artifacts.add(artifact("org.example", "foo", "1.0", "1111"));
+    groups.add("org.example");
+
+    assertThat(MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory), is(false));
+
+    assertThat(MavenIndexPublisher.incrementalChunks(properties(hostedStorage)), is(Collections.emptyList()));
+    assertThat(sha1s(hostedStorage, MAIN_CHUNK), contains("org.example:foo:1.0:n/a:jar=1111"));
+  }
+
+  @Test
+  public void incrementalChunksAreNumberedNewestFirst() throws Exception {
+    artifacts.add(artifact("org.example", "foo", "1.0", "1111"));
+    groups.add("org.example");
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+    Content mainChunk = hostedStorage.get(MAIN_CHUNK);
+
+    updatedArtifacts.add(artifact("org.example", "bar", "1.0", "2222"));
+    assertThat(MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory), is(true));
+    updatedArtifacts.clear();
+    updatedArtifacts.add(artifact("org.example", "baz", "1.0", "3333"));
+    assertThat(MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory), is(true));
+
+    Properties properties = properties(hostedStorage);
+    assertThat(MavenIndexPublisher.incrementalChunks(properties), contains("2", "1"));
+    assertThat(properties.getProperty("nexus.index.last-incremental"), is("2"));
+    assertThat(sha1s(hostedStorage, ".index/nexus-maven-repository-index.1.gz"),
+        contains("org.example:bar:1.0:n/a:jar=2222"));
+    assertThat(sha1s(hostedStorage, ".index/nexus-maven-repository-index.2.gz"),
+        contains("org.example:baz:1.0:n/a:jar=3333"));
+
+    // main chunk is left as consolidated
+    assertThat(hostedStorage.get(MAIN_CHUNK), sameInstance(mainChunk));
+  }
+
+  @Test
+  public void incrementalChunkListsAllGroups() throws Exception {
+    artifacts.add(artifact("org.example", "foo", "1.0", "1111"));
+    groups.add("org.example");
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+
+    updatedArtifacts.add(artifact("com.example", "bar", "1.0", "2222"));
+    groups.add("com.example");
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+
+    List<Record> records = records(hostedStorage, ".index/nexus-maven-repository-index.1.gz");
+    Record allGroups = records.stream().filter(record -> record.getType() == Type.ALL_GROUPS).findFirst().get();
+    assertThat(Arrays.asList(allGroups.get(Record.ALL_GROUPS)), containsInAnyOrder("org.example", "com.example"));
+  }
+
+  @Test
+  public void selectsArtifactsUpdatedSinceLastPublish() throws Exception {
+    artifacts.add(artifact("org.example", "foo", "1.0", "1111"));
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+    Date published = timestamp(properties(hostedStorage));
+
+    updatedArtifacts.add(artifact("org.example", "bar", "1.0", "2222"));
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+
+    assertThat(artifactQueries.get(0).get(P_SINCE), is(nullValue()));
+    assertThat(artifactQueries.get(1).get(P_SINCE),
+        is(new Date(published.getTime() - TimeUnit.MINUTES.toMillis(1))));
+  }
+
+  @Test
+  public void noUpdatesPublishNoChunk() throws Exception {
+    artifacts.add(artifact("org.example", "foo", "1.0", "1111"));
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+    Content properties = hostedStorage.get(PROPERTIES);
+
+    assertThat(MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory), is(true));
+
+    assertThat(hostedStorage.get(".index/nexus-maven-repository-index.1.gz"), is(nullValue()));
+    assertThat(hostedStorage.get(PROPERTIES), sameInstance(properties));
+  }
+
+  @Test
+  public void consolidatesAtMaxChunks() throws Exception {
+    artifacts.add(artifact("org.example", "foo", "1.0", "1111"));
+    MavenIndexPublisher.publishHostedIndex(hosted, 1, temporaryDirectory);
+    String chainId = properties(hostedStorage).getProperty("nexus.index.chain-id");
+    updatedArtifacts.add(artifact("org.example", "foo", "1.0", "2222"));
+    MavenIndexPublisher.publishHostedIndex(hosted, 1, temporaryDirectory);
+    assertThat(hostedStorage.get(".index/nexus-maven-repository-index.1.gz"), is(notNullValue()));
+
+    artifacts.clear();
+    artifacts.add(artifact("org.example", "foo", "1.0", "2222"));
+    assertThat(MavenIndexPublisher.publishHostedIndex(hosted, 1, temporaryDirectory), is(false));
+
+    Properties properties = properties(hostedStorage);
+    assertThat(MavenIndexPublisher.incrementalChunks(properties), is(Collections.emptyList()));
+    assertThat(properties.getProperty("nexus.index.chain-id").equals(chainId), is(false));
+    assertThat(hostedStorage.get(".index/nexus-maven-repository-index.1.gz"), is(nullValue()));
+    assertThat(sha1s(hostedStorage, MAIN_CHUNK), contains("org.example:foo:1.0:n/a:jar=2222"));
+  }
+
+  @Test
+  public void mergedIndexPrefersNewestChunks() throws Exception {
+    artifacts.add(artifact("org.example", "foo", "1.0", "1111"));
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+    updatedArtifacts.add(artifact("org.example", "foo", "1.0", "2222"));
+    updatedArtifacts.add(artifact("org.example", "bar", "1.0", "3333"));
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+
+    MavenIndexPublisher.publishMergedIndex(group, Collections.singletonList(hosted), temporaryDirectory);
+
+    assertThat(sha1s(groupStorage, MAIN_CHUNK),
+        containsInAnyOrder("org.example:foo:1.0:n/a:jar=2222", "org.example:bar:1.0:n/a:jar=3333"));
+  }
+
+  @Test
+  public void mergedIndexFallsBackToMainChunk() throws Exception {
+    artifacts.add(artifact("org.example", "foo", "1.0", "1111"));
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+    updatedArtifacts.add(artifact("org.example", "foo", "1.0", "2222"));
+    MavenIndexPublisher.publishHostedIndex(hosted, 30, temporaryDirectory);
+
+    // as a proxy that cached the properties and main chunk only
+    hostedStorage.remove(".index/nexus-maven-repository-index.1.gz");
+    MavenIndexPublisher.publishMergedIndex(group, Collections.singletonList(hosted), temporaryDirectory);
+
+    assertThat(sha1s(groupStorage, MAIN_CHUNK), contains("org.example:foo:1.0:n/a:jar=1111"));
+  }
+
+  private MavenFacet mavenFacet(final Map<String, Content> storage) throws Exception {
+    MavenFacet mavenFacet = mock(MavenFacet.class);
+    when(mavenFacet.getMavenPathParser()).thenReturn(pathParser);
+    when(mavenFacet.get(any(MavenPath.class))).thenAnswer(
+        invocation -> storage.get(((MavenPath) invocation.getArguments()[0]).getPath()));
+    when(mavenFacet.put(any(MavenPath.class), any(Payload.class))).thenAnswer(invocation -> {
+      Payload payload = (Payload) invocation.getArguments()[1];
+      byte[] bytes;
+      try (InputStream in = payload.openInputStream()) {
+        bytes = ByteStreams.toByteArray(in);
+      }
+      Content content = new Content(new BytesPayload(bytes, payload.getContentType()));
+      storage.put(((MavenPath) invocation.getArguments()[0]).getPath(), content);
+      return content;
+    });
+    when(mavenFacet.delete(anyVararg())).thenAnswer(invocation -> {
+      boolean deleted = false;
+      for (Object path : invocation.getArguments()) {
+        deleted |= storage.remove(((MavenPath) path).getPath()) != null;
+      }
+      return deleted;
+    });
+    return mavenFacet;
+  }
+
+  private ODocument artifact(final String groupId, final String artifactId, final String version, final String sha1) {
+    Map<String, Object> fields = new HashMap<>();
+    fields.put("lastModified", 1L);
+    fields.put("groupId", groupId);
+    fields.put("artifactId", artifactId);
+    fields.put("version", version);
+    fields.put("packaging", "jar");
+    fields.put("path", groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version
+        + ".jar");
+    fields.put("contentLastModified", 1L);
+    fields.put("contentSize", 1L);
+    fields.put("sha1", sha1);
+    OIdentifiable componentId = mock(OIdentifiable.class);
+    when(componentId.getIdentity()).thenReturn(new ORecordId(2, artifacts.size() + updatedArtifacts.size()));
+    fields.put("componentId", componentId);
+    return document(fields);
+  }
+
+  private static ODocument document(final Map<String, Object> fields) {
+    ODocument document = mock(ODocument.class);
+    when(document.field(anyString(), any(Class.class))).thenAnswer(
+        invocation -> fields.get((String) invocation.getArguments()[0]));
+    return document;
+  }
+
+  private static Properties properties(final Map<String, Content> storage) throws Exception {
+    Properties properties = new Properties();
+    try (InputStream in = storage.get(PROPERTIES).openInputStream()) {
+      properties.load(in);
+    }
+    return properties;
+  }
+
+  private static Date timestamp(final Properties properties) throws Exception {
+    SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss.SSS Z", Locale.ENGLISH);
+    return format.parse(properties.getProperty("nexus.index.timestamp"));
+  }
+
+  private static List<Record> records(final Map<String, Content> storage, final String chunk) throws Exception {
+    RecordExpander expander = new RecordExpander();
+    List<Record> records = new ArrayList<>();
+    try (ChunkReader chunkReader = new ChunkReader(chunk, storage.get(chunk).openInputStream())) {
+      for (Map<String, String> record : chunkReader) {
+        records.add(expander.apply(record));
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Returns the artifacts of given chunk, as their unique key and SHA1.
+   */
+  private static List<String> sha1s(final Map<String, Content> storage, final String chunk) throws Exception {
+    List<String> sha1s = new ArrayList<>();
+    for (Record record : records(storage, chunk)) {
+      if (record.getType() == Type.ARTIFACT_ADD) {
+        sha1s.add(MavenIndexPublisher.uinfo(record) + "=" + record.get(Record.SHA1));
+      }
+    }
+    return sha1s;
+  }
+}
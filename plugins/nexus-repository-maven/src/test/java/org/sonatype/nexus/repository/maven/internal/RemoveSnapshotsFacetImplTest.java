@@ -0,0 +1,267 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.common.entity.DetachedEntityId;
+import org.sonatype.nexus.common.entity.DetachedEntityMetadata;
+import org.sonatype.nexus.common.entity.DetachedEntityVersion;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.orient.entity.AttachedEntityMetadata;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.maven.MavenHostedFacet;
+import org.sonatype.nexus.repository.maven.tasks.RemoveSnapshotsConfig;
+import org.sonatype.nexus.repository.proxy.ProxyFacet;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.ComponentEntityAdapter;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.types.GroupType;
+import org.sonatype.nexus.repository.types.HostedType;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link RemoveSnapshotsFacetImpl}.
+ */
+public class RemoveSnapshotsFacetImplTest
+    extends TestSupport
+{
+  private static final Pattern LIMIT = Pattern.compile("LIMIT (\\d+)$");
+
+  private static final Comparator<Component> INDEX_ORDER = Comparator.comparing(Component::group)
+      .thenComparing(Component::name)
+      .thenComparing(Component::version);
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private StorageFacet storageFacet;
+
+  @Mock
+  private MavenHostedFacet mavenHostedFacet;
+
+  @Mock
+  private StorageTx tx;
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private ComponentEntityAdapter componentEntityAdapter;
+
+  private final List<Component> components = new ArrayList<>();
+
+  private final List<String> releases = new ArrayList<>();
+
+  private final Map<ODocument, Component> documents = new HashMap<>();
+
+  private final DateTime old = DateTime.now().minusDays(60);
+
+  private final List<String> queries = new ArrayList<>();
+
+  @Before
+  public void setUp() throws Exception {
+    when(repository.getName()).thenReturn("snapshots");
+    when(repository.getType()).thenReturn(new HostedType());
+    when(repository.facet(StorageFacet.class)).thenReturn(storageFacet);
+    when(repository.facet(MavenHostedFacet.class)).thenReturn(mavenHostedFacet);
+    when(repository.optionalFacet(MavenHostedFacet.class)).thenReturn(Optional.of(mavenHostedFacet));
+    when(repository.optionalFacet(ProxyFacet.class)).thenReturn(Optional.empty());
+    when(storageFacet.txSupplier()).thenReturn(() -> tx);
+    when(tx.findBucket(repository)).thenReturn(bucket);
+    AttachedEntityMetadata bucketMetadata = mock(AttachedEntityMetadata.class);
+    ODocument bucketDocument = mock(ODocument.class);
+    when(bucketDocument.getIdentity()).thenReturn(new ORecordId(1, 1));
+    when(bucketMetadata.getDocument()).thenReturn(bucketDocument);
+    when(bucket.getEntityMetadata()).thenReturn(bucketMetadata);
+
+    when(tx.browse(anyString(), anyMapOf(String.class, Object.class))).thenAnswer(invocation -> {
+      String sql = (String) invocation.getArguments()[0];
+      Map<String, Object> params = (Map<String, Object>) invocation.getArguments()[1];
+      queries.add(sql);
+      return sql.contains("version IN") ? findReleases(params) : findSnapshots(sql, params);
+    });
+    when(componentEntityAdapter.readEntity(any(ODocument.class)))
+        .thenAnswer(invocation -> documents.get(invocation.getArguments()[0]));
+    when(tx.findComponent(any(EntityId.class), any(Bucket.class))).thenAnswer(invocation -> components.stream()
+        .filter(component -> component.getEntityMetadata().getId().equals(invocation.getArguments()[0]))
+        .findFirst().orElse(null));
+    doAnswer(invocation -> components.remove(invocation.getArguments()[0]))
+        .when(tx).deleteComponent(any(Component.class));
+  }
+
+  @Test
+  public void keepsMinimumRetainedAndDeletesInBatches() throws Exception {
+    for (int i = 1; i <= 7; i++) {
+      snapshot("org.foo", "bar", "1.0-SNAPSHOT", "1.0-20160101.000000-" + i);
+    }
+    Component onlyOne = snapshot("org.foo", "baz", "1.0-SNAPSHOT", "1.0-20160101.000000-1");
+
+    underTest(3, 2).removeSnapshots(new RemoveSnapshotsConfig(2, 30, false, -1));
+
+    assertThat(components.stream().map(Component::version).collect(Collectors.toList()),
+        containsInAnyOrder("1.0-20160101.000000-6", "1.0-20160101.000000-7", "1.0-20160101.000000-1"));
+    assertThat(components.contains(onlyOne), is(true));
+    verify(tx, times(5)).deleteComponent(any(Component.class));
+    // metadata rebuilt once per batch of deletions
+    verify(mavenHostedFacet, times(3)).deleteMetadata("org.foo", "bar", Collections.singleton("1.0-SNAPSHOT"));
+    verify(mavenHostedFacet, never()).deleteMetadata(eq("org.foo"), eq("baz"), any(Collection.class));
+  }
+
+  @Test
+  public void pagesAcrossGroupsAndNamesWithSingleRangeQueries() throws Exception {
+    for (String ga : new String[]{"org.bar:alpha", "org.bar:beta", "org.foo:alpha"}) {
+      for (int i = 1; i <= 3; i++) {
+        snapshot(ga.split(":")[0], ga.split(":")[1], "1.0-SNAPSHOT", "1.0-20160101.000000-" + i);
+      }
+    }
+
+    underTest(2, 10).removeSnapshots(new RemoveSnapshotsConfig(1, 30, false, -1));
+
+    assertThat(components.stream().map(c -> c.group() + ":" + c.name() + ":" + c.version())
+            .collect(Collectors.toList()),
+        containsInAnyOrder("org.bar:alpha:1.0-20160101.000000-3", "org.bar:beta:1.0-20160101.000000-3",
+            "org.foo:alpha:1.0-20160101.000000-3"));
+    assertThat(queries.stream().anyMatch(sql -> sql.contains(" OR ")), is(false));
+  }
+
+  @Test
+  public void removesReleasedSnapshots() throws Exception {
+    snapshot("org.foo", "bar", "1.0-SNAPSHOT", "1.0-20160101.000000-1");
+    snapshot("org.foo", "bar", "1.0-SNAPSHOT", "1.0-20160101.000000-2");
+    Component unreleased = snapshot("org.foo", "bar", "2.0-SNAPSHOT", "2.0-20160101.000000-1");
+    releases.add("1.0");
+
+    underTest(10, 10).removeSnapshots(new RemoveSnapshotsConfig(-1, 30, true, 0));
+
+    assertThat(components, contains(unreleased));
+    verify(mavenHostedFacet).deleteMetadata("org.foo", "bar", Collections.singleton("1.0-SNAPSHOT"));
+  }
+
+  @Test
+  public void skipsMetadataOnProxy() throws Exception {
+    when(repository.optionalFacet(ProxyFacet.class)).thenReturn(Optional.of(mock(ProxyFacet.class)));
+    for (int i = 1; i <= 3; i++) {
+      snapshot("org.foo", "bar", "1.0-SNAPSHOT", "1.0-20160101.000000-" + i);
+    }
+
+    underTest(10, 10).removeSnapshots(new RemoveSnapshotsConfig(1, 30, false, -1));
+
+    assertThat(components.size(), is(1));
+    verify(mavenHostedFacet, never()).deleteMetadata(anyString(), anyString(), any(Collection.class));
+  }
+
+  private RemoveSnapshotsFacetImpl underTest(final int pageSize, final int batchSize) throws Exception {
+    RemoveSnapshotsFacetImpl underTest = new RemoveSnapshotsFacetImpl(componentEntityAdapter, new GroupType(),
+        pageSize, batchSize);
+    underTest.attach(repository);
+    return underTest;
+  }
+
+  private Component snapshot(final String group, final String name, final String baseVersion, final String version) {
+    Component component = mock(Component.class);
+    when(component.group()).thenReturn(group);
+    when(component.name()).thenReturn(name);
+    when(component.version()).thenReturn(version);
+    when(component.lastUpdated()).thenReturn(old);
+    NestedAttributesMap attributes = new NestedAttributesMap("attributes", new HashMap<>());
+    attributes.child(Maven2Format.NAME).set(Attributes.P_BASE_VERSION, baseVersion);
+    when(component.attributes()).thenReturn(attributes);
+    when(component.getEntityMetadata()).thenReturn(new DetachedEntityMetadata(
+        new DetachedEntityId(group + ":" + name + ":" + version), new DetachedEntityVersion("1")));
+    components.add(component);
+    documents.put(mock(ODocument.class), component);
+    return component;
+  }
+
+  /**
+   * Snapshots in the range the query asks for, in the order of the bucket/group/name/version index, limited as the
+   * query asks.
+   */
+  private List<ODocument> findSnapshots(final String sql, final Map<String, Object> params) {
+    Matcher limit = LIMIT.matcher(sql);
+    limit.find();
+    return documents.entrySet().stream()
+        .filter(entry -> components.contains(entry.getValue()))
+        .filter(entry -> inRange(sql, params, entry.getValue()))
+        .sorted((a, b) -> INDEX_ORDER.compare(a.getValue(), b.getValue()))
+        .limit(Long.parseLong(limit.group(1)))
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toList());
+  }
+
+  private boolean inRange(final String sql, final Map<String, Object> params, final Component component) {
+    if (sql.contains("group > :group")) {
+      return component.group().compareTo((String) params.get("group")) > 0;
+    }
+    if (!sql.contains("group = :group")) {
+      return true;
+    }
+    if (!component.group().equals(params.get("group"))) {
+      return false;
+    }
+    if (sql.contains("name > :name")) {
+      return component.name().compareTo((String) params.get("name")) > 0;
+    }
+    return component.name().equals(params.get("name"))
+        && component.version().compareTo((String) params.get("version")) > 0;
+  }
+
+  private List<ODocument> findReleases(final Map<String, Object> params) {
+    Collection<String> versions = (Collection<String>) params.get("versions");
+    return releases.stream()
+        .filter(versions::contains)
+        .map(version -> {
+          ODocument document = mock(ODocument.class);
+          when(document.field("version", String.class)).thenReturn(version);
+          return document;
+        })
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.maven.MavenFacet;
+import org.sonatype.nexus.repository.maven.MavenPath;
+import org.sonatype.nexus.repository.maven.internal.MavenIndexPublisher.Maven2WritableResourceHandler;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.payloads.StreamPayload;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.ByteStreams;
+import org.apache.maven.index.reader.ChunkReader;
+import org.apache.maven.index.reader.IndexWriter;
+import org.apache.maven.index.reader.Record;
+import org.apache.maven.index.reader.Record.Type;
+import org.apache.maven.index.reader.RecordCompactor;
+import org.apache.maven.index.reader.RecordExpander;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SpillingKeySet}.
+ */
+public class SpillingKeySetTest
+    extends TestSupport
+{
+  private Path directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = util.createTempDir().toPath();
+  }
+
+  @Test
+  public void behavesAsSet() throws Exception {
+    Random random = new Random(42);
+    Set<String> expected = new HashSet<>();
+    try (SpillingKeySet underTest = new SpillingKeySet(directory, 1000)) {
+      for (int i = 0; i < 50000; i++) {
+        String key = "org.example|artifact-" + random.nextInt(20000) + "|1.0|NA|jar";
+        assertThat(key, underTest.add(key), is(expected.add(key)));
+      }
+      assertThat(underTest.size(), is((long) expected.size()));
+      assertThat(underTest.getSpillCount(), greaterThan(1));
+    }
+  }
+
+  @Test
+  public void closeDeletesSpilledKeys() throws Exception {
+    try (SpillingKeySet underTest = new SpillingKeySet(directory, 10)) {
+      for (int i = 0; i < 100; i++) {
+        underTest.add(Integer.toString(i));
+      }
+      // ten spills of ten keys, merged lazily into runs of eighty and twenty keys
+      assertThat(underTest.getSpillCount(), is(10));
+      assertThat(directory.toFile().list().length, is(2));
+    }
+    assertThat(directory.toFile().list().length, is(0));
+  }
+
+  /**
+   * Publishes the merged index of two synthetic member indexes of a million artifacts each, overlapping by half a
+   * million, in a JVM whose heap could not hold the keys of the merged index.
+   */
+  @Test
+  public void mergesLargeIndexesWithinCappedHeap() throws Exception {
+    Process process = new ProcessBuilder(
+        Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+        "-Xmx32m",
+        "-D" + MavenIndexPublisher.class.getName() + ".uniqueKeysInMemory=100000",
+        "-cp", System.getProperty("java.class.path"),
+        Merge.class.getName(),
+        directory.toString(),
+        "1000000",
+        "500000"
+    ).redirectErrorStream(true).start();
+    String output = new String(ByteStreams.toByteArray(process.getInputStream()), StandardCharsets.UTF_8);
+    log(output);
+    assertThat(process.waitFor(), is(0));
+    Matcher result = Pattern.compile("merged (\\d+) artifacts").matcher(output);
+    assertThat(output, result.find(), is(true));
+    assertThat(Long.parseLong(result.group(1)), is(1500000L));
+  }
+
+  /**
+   * Publishes the merged index of two synthetic member indexes into a group, all backed by files, with
+   * {@link MavenIndexPublisher#publishMergedIndex(Repository, List, Path)}, and reports the artifacts of the merged
+   * index.
+   */
+  public static class Merge
+  {
+    public static void main(final String[] args) throws Exception {
+      Path directory = new File(args[0]).toPath();
+      int records = Integer.parseInt(args[1]);
+      int overlap = Integer.parseInt(args[2]);
+
+      List<Repository> members = new ArrayList<>();
+      for (int member = 0; member < 2; member++) {
+        Repository repository = repository(directory, "member" + member);
+        int first = member * (records - overlap);
+        try (Maven2WritableResourceHandler resourceHandler =
+                 new Maven2WritableResourceHandler(repository, directory)) {
+          try (IndexWriter indexWriter = new IndexWriter(resourceHandler, repository.getName(), false)) {
+            indexWriter.writeChunk(artifacts(first, first + records));
+          }
+        }
+        members.add(repository);
+      }
+      Repository group = repository(directory, "group");
+
+      long start = System.currentTimeMillis();
+      MavenIndexPublisher.publishMergedIndex(group, members, directory);
+      long elapsed = System.currentTimeMillis() - start;
+
+      long artifacts = 0;
+      RecordExpander recordExpander = new RecordExpander();
+      try (ChunkReader chunkReader = new ChunkReader("merged", Files.newInputStream(
+          storage(directory, group.getName()).resolve(".index/nexus-maven-repository-index.gz")))) {
+        for (Map<String, String> data : chunkReader) {
+          if (recordExpander.apply(data).getType() == Type.ARTIFACT_ADD) {
+            artifacts++;
+          }
+        }
+      }
+      System.out.println("merged " + artifacts + " artifacts in " + elapsed + " ms");
+    }
+
+    private static Iterator<Map<String, String>> artifacts(final int first, final int last) {
+      RecordCompactor recordCompactor = new RecordCompactor();
+      return new AbstractIterator<Map<String, String>>()
+      {
+        private int i = first;
+
+        @Override
+        protected Map<String, String> computeNext() {
+          if (i == last) {
+            return endOfData();
+          }
+          Record record = new Record(Type.ARTIFACT_ADD, new HashMap<>());
+          record.put(Record.REC_MODIFIED, 1L);
+          record.put(Record.GROUP_ID, "org.example.group" + (i % 1000));
+          record.put(Record.ARTIFACT_ID, "artifact-" + i);
+          record.put(Record.VERSION, "1." + (i % 10));
+          record.put(Record.PACKAGING, "jar");
+          record.put(Record.NAME, "");
+          record.put(Record.DESCRIPTION, "");
+          record.put(Record.HAS_SOURCES, false);
+          record.put(Record.HAS_JAVADOC, false);
+          record.put(Record.HAS_SIGNATURE, false);
+          record.put(Record.FILE_EXTENSION, "jar");
+          record.put(Record.FILE_MODIFIED, 1L);
+          record.put(Record.FILE_SIZE, 1L);
+          record.put(Record.SHA1, String.format("%040x", i));
+          i++;
+          return recordCompactor.apply(record);
+        }
+      };
+    }
+
+    private static Path storage(final Path directory, final String name) {
+      return directory.resolve(name);
+    }
+
+    /**
+     * Mocks a repository whose {@link MavenFacet} stores content in files, so that neither the member indexes nor the
+     * merged one are held on heap.
+     */
+    private static Repository repository(final Path directory, final String name) throws Exception {
+      Path storage = storage(directory, name);
+      MavenFacet mavenFacet = mock(MavenFacet.class);
+      when(mavenFacet.getMavenPathParser()).thenReturn(new Maven2MavenPathParser());
+      when(mavenFacet.get(any(MavenPath.class))).thenAnswer(invocation -> {
+        Path file = storage.resolve(((MavenPath) invocation.getArguments()[0]).getPath());
+        if (!Files.exists(file)) {
+          return null;
+        }
+        return new Content(new StreamPayload(() -> Files.newInputStream(file), Files.size(file), null));
+      });
+      when(mavenFacet.put(any(MavenPath.class), any(Payload.class))).thenAnswer(invocation -> {
+        Path file = storage.resolve(((MavenPath) invocation.getArguments()[0]).getPath());
+        Payload payload = (Payload) invocation.getArguments()[1];
+        Files.createDirectories(file.getParent());
+        try (InputStream in = payload.openInputStream()) {
+          Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new Content(new StreamPayload(() -> Files.newInputStream(file), Files.size(file), null));
+      });
+      Repository repository = mock(Repository.class);
+      when(repository.getName()).thenReturn(name);
+      when(repository.facet(MavenFacet.class)).thenReturn(mavenFacet);
+      return repository;
+    }
+  }
+}
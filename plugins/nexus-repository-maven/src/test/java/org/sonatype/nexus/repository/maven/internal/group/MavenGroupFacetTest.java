@@ -0,0 +1,221 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.group;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.http.HttpResponses;
+import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.maven.MavenFacet;
+import org.sonatype.nexus.repository.maven.MavenPath;
+import org.sonatype.nexus.repository.maven.internal.Maven2MavenPathParser;
+import org.sonatype.nexus.repository.maven.internal.MavenModels;
+import org.sonatype.nexus.repository.types.GroupType;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.nexus.validation.ConstraintViolationFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link MavenGroupFacet} merge caching.
+ */
+public class MavenGroupFacetTest
+    extends TestSupport
+{
+  private static final String PATH = "org/example/foo/maven-metadata.xml";
+
+  @Mock
+  private Repository group;
+
+  @Mock
+  private Repository hosted1;
+
+  @Mock
+  private Repository hosted2;
+
+  @Mock
+  private MavenFacet mavenFacet;
+
+  private final Maven2MavenPathParser pathParser = new Maven2MavenPathParser();
+
+  private final Map<String, Content> stored = new HashMap<>();
+
+  private MavenGroupFacet underTest;
+
+  private MavenPath mavenPath;
+
+  @Before
+  public void setUp() throws Exception {
+    when(hosted1.getName()).thenReturn("hosted1");
+    when(hosted2.getName()).thenReturn("hosted2");
+
+    // group configuration is package private, its defaults will do
+    ConfigurationFacet configurationFacet = mock(ConfigurationFacet.class);
+    when(configurationFacet.readSection(any(Configuration.class), anyString(), any(Class.class)))
+        .thenAnswer(invocation -> mock((Class<?>) invocation.getArguments()[2]));
+    when(group.getConfiguration()).thenReturn(mock(Configuration.class));
+    when(group.facet(ConfigurationFacet.class)).thenReturn(configurationFacet);
+    when(group.facet(MavenFacet.class)).thenReturn(mavenFacet);
+
+    when(mavenFacet.getMavenPathParser()).thenReturn(pathParser);
+    when(mavenFacet.get(any(MavenPath.class))).thenAnswer(
+        invocation -> stored.get(((MavenPath) invocation.getArguments()[0]).getPath()));
+    when(mavenFacet.put(any(MavenPath.class), any(Payload.class))).thenAnswer(invocation -> {
+      Content content = (Content) invocation.getArguments()[1];
+      stored.put(((MavenPath) invocation.getArguments()[0]).getPath(), content);
+      return content;
+    });
+
+    underTest = new MavenGroupFacet(mock(RepositoryManager.class), mock(ConstraintViolationFactory.class),
+        new GroupType());
+    underTest.attach(group);
+    underTest.init();
+
+    mavenPath = pathParser.parsePath(PATH);
+  }
+
+  @Test
+  public void unchangedMembersAreNotMergedAgain() throws Exception {
+    Map<Repository, Response> responses = responses(
+        metadata("20160101000000", "1.0", "1.1"),
+        metadata("20150101000000", "1.0"));
+
+    Content merged = underTest.mergeAndCache(mavenPath, responses);
+    assertThat(versions(merged), contains("1.0", "1.1"));
+    assertThat(underTest.getMergeCount(), is(1L));
+    assertThat(underTest.getWriteCount(), is(1L));
+
+    Content cached = underTest.mergeAndCache(mavenPath, responses(
+        metadata("20160101000000", "1.0", "1.1"),
+        metadata("20150101000000", "1.0")));
+    assertThat(cached, sameInstance(merged));
+    assertThat(underTest.getMergeCount(), is(1L));
+    assertThat(underTest.getWriteCount(), is(1L));
+  }
+
+  @Test
+  public void unchangedMergeOutcomeIsNotWritten() throws Exception {
+    underTest.mergeAndCache(mavenPath, responses(
+        metadata("20160101000000", "1.0", "1.1"),
+        metadata("20150101000000", "1.0")));
+
+    // second member changed, but only by a version the first one already has
+    Content merged = underTest.mergeAndCache(mavenPath, responses(
+        metadata("20160101000000", "1.0", "1.1"),
+        metadata("20150101000000", "1.0", "1.1")));
+    assertThat(versions(merged), contains("1.0", "1.1"));
+    assertThat(underTest.getMergeCount(), is(2L));
+    assertThat(underTest.getWriteCount(), is(1L));
+  }
+
+  @Test
+  public void changedMergeOutcomeIsWritten() throws Exception {
+    underTest.mergeAndCache(mavenPath, responses(
+        metadata("20160101000000", "1.0", "1.1"),
+        metadata("20150101000000", "1.0")));
+
+    Content merged = underTest.mergeAndCache(mavenPath, responses(
+        metadata("20160101000000", "1.0", "1.1"),
+        metadata("20170101000000", "1.0", "2.0")));
+    assertThat(versions(merged), contains("1.0", "1.1", "2.0"));
+    assertThat(underTest.getMergeCount(), is(2L));
+    assertThat(underTest.getWriteCount(), is(2L));
+    // hashes are rewritten along
+    String sha1 = new String(ByteStreams.toByteArray(stored.get(PATH + ".sha1").openInputStream()), UTF_8);
+    assertThat(sha1, is(merged.getAttributes().require(Content.CONTENT_HASH_CODES_MAP, Content.T_CONTENT_HASH_CODES_MAP)
+        .get(HashAlgorithm.SHA1).toString()));
+  }
+
+  @Test
+  public void noResponsesEvictsMergedContent() throws Exception {
+    underTest.mergeAndCache(mavenPath, responses(
+        metadata("20160101000000", "1.0", "1.1"),
+        metadata("20150101000000", "1.0")));
+
+    Content merged = underTest.mergeAndCache(mavenPath, ImmutableMap.of(hosted1, HttpResponses.notFound()));
+    assertThat(merged, nullValue());
+    verify(mavenFacet).delete((MavenPath[]) anyVararg());
+  }
+
+  @Test
+  public void noResponsesWithoutMergedContentDeletesNothing() throws Exception {
+    Content merged = underTest.mergeAndCache(mavenPath, ImmutableMap.of(hosted1, HttpResponses.notFound()));
+    assertThat(merged, nullValue());
+    verify(mavenFacet, never()).delete((MavenPath[]) anyVararg());
+  }
+
+  private Map<Repository, Response> responses(final byte[] hosted1Metadata, final byte[] hosted2Metadata) {
+    Map<Repository, Response> responses = new LinkedHashMap<>();
+    responses.put(hosted1, HttpResponses.ok(content(hosted1Metadata)));
+    responses.put(hosted2, HttpResponses.ok(content(hosted2Metadata)));
+    return responses;
+  }
+
+  private static byte[] metadata(final String lastUpdated, final String... versions) throws Exception {
+    Metadata metadata = new Metadata();
+    metadata.setGroupId("org.example");
+    metadata.setArtifactId("foo");
+    metadata.setVersioning(new Versioning());
+    metadata.getVersioning().setLastUpdated(lastUpdated);
+    metadata.getVersioning().setVersions(Arrays.asList(versions));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MavenModels.writeMetadata(out, metadata);
+    return out.toByteArray();
+  }
+
+  /**
+   * Member content as served from storage, carrying its checksums.
+   */
+  private static Content content(final byte[] bytes) {
+    Content content = new Content(new BytesPayload(bytes, "application/xml"));
+    content.getAttributes().set(Content.CONTENT_HASH_CODES_MAP,
+        ImmutableMap.of(HashAlgorithm.SHA1, HashAlgorithm.SHA1.function().hashBytes(bytes)));
+    return content;
+  }
+
+  private static Iterable<String> versions(final Content content) throws Exception {
+    return MavenModels.readMetadata(content.openInputStream()).getVersioning().getVersions();
+  }
+}
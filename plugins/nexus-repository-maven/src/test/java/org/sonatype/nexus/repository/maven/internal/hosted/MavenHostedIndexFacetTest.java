@@ -0,0 +1,88 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.hosted;
+
+import java.util.HashMap;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.entity.EntityMetadata;
+import org.sonatype.nexus.repository.AttributeChange;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.attributes.AttributesFacet;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.maven.internal.hosted.MavenHostedIndexFacet.P_CONSOLIDATE;
+import static org.sonatype.nexus.repository.maven.internal.hosted.MavenHostedIndexFacet.P_MAVEN_INDEX;
+
+/**
+ * Tests for {@link MavenHostedIndexFacet} consolidation trigger.
+ */
+public class MavenHostedIndexFacetTest
+    extends TestSupport
+{
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private AttributesFacet attributesFacet;
+
+  private MavenHostedIndexFacet underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    when(repository.getName()).thenReturn("hosted");
+    when(repository.facet(AttributesFacet.class)).thenReturn(attributesFacet);
+
+    underTest = new MavenHostedIndexFacet();
+    underTest.attach(repository);
+  }
+
+  @Test
+  public void deletedArtifactsPersistConsolidationOnce() {
+    underTest.on(deleted("hosted", mock(EntityId.class)));
+    underTest.on(deleted("hosted", mock(EntityId.class)));
+
+    ArgumentCaptor<AttributeChange> change = ArgumentCaptor.forClass(AttributeChange.class);
+    verify(attributesFacet, times(1)).modifyAttributes(change.capture());
+    NestedAttributesMap attributes = new NestedAttributesMap("attributes", new HashMap<>());
+    change.getValue().apply(attributes);
+    assertThat(attributes.child(P_MAVEN_INDEX).get(P_CONSOLIDATE, Boolean.class), is(true));
+  }
+
+  @Test
+  public void otherDeletionsAreIgnored() {
+    underTest.on(deleted("other", mock(EntityId.class)));
+    underTest.on(deleted("hosted", null));
+
+    verify(attributesFacet, never()).modifyAttributes(any(AttributeChange.class));
+  }
+
+  private static AssetDeletedEvent deleted(final String repositoryName, final EntityId componentId) {
+    return new AssetDeletedEvent(mock(EntityMetadata.class), repositoryName, componentId);
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.hosted.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.orient.entity.AttachedEntityMetadata;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.maven.MavenFacet;
+import org.sonatype.nexus.repository.maven.internal.Maven2Format;
+import org.sonatype.nexus.repository.maven.internal.Maven2MavenPathParser;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link MetadataRebuilder}.
+ */
+public class MetadataRebuilderTest
+    extends TestSupport
+{
+  private static final String P_LAST_REBUILD = "lastMetadataRebuild";
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private StorageFacet storageFacet;
+
+  @Mock
+  private MavenFacet mavenFacet;
+
+  @Mock
+  private StorageTx tx;
+
+  @Mock
+  private Bucket bucket;
+
+  private final NestedAttributesMap bucketAttributes = new NestedAttributesMap("attributes", new HashMap<>());
+
+  private final List<ODocument> gas = new ArrayList<>();
+
+  private String browsedSql;
+
+  private Map<String, Object> browsedParams;
+
+  /**
+   * Threads each GA was rebuilt on, by artifactId.
+   */
+  private final Map<String, String> rebuiltOn = new ConcurrentHashMap<>();
+
+  private final MetadataRebuilder underTest = new MetadataRebuilder();
+
+  @Before
+  public void setUp() throws Exception {
+    when(repository.getName()).thenReturn("releases");
+    when(repository.facet(StorageFacet.class)).thenReturn(storageFacet);
+    when(repository.facet(MavenFacet.class)).thenReturn(mavenFacet);
+    when(mavenFacet.getMavenPathParser()).thenReturn(new Maven2MavenPathParser());
+    when(storageFacet.txSupplier()).thenReturn(() -> tx);
+    when(tx.findBucket(repository)).thenReturn(bucket);
+    when(bucket.attributes()).thenReturn(bucketAttributes);
+    AttachedEntityMetadata bucketMetadata = mock(AttachedEntityMetadata.class);
+    ODocument bucketDocument = mock(ODocument.class);
+    when(bucketDocument.getIdentity()).thenReturn(new ORecordId(1, 1));
+    when(bucketMetadata.getDocument()).thenReturn(bucketDocument);
+    when(bucket.getEntityMetadata()).thenReturn(bucketMetadata);
+
+    when(tx.browse(anyString(), anyMapOf(String.class, Object.class))).thenAnswer(invocation -> {
+      browsedSql = (String) invocation.getArguments()[0];
+      browsedParams = (Map<String, Object>) invocation.getArguments()[1];
+      return gas;
+    });
+    when(tx.findComponents(anyString(), anyMapOf(String.class, Object.class), Matchers.<Iterable<Repository>>any(),
+        Matchers.<String>any())).thenAnswer(invocation -> {
+      Map<String, Object> params = (Map<String, Object>) invocation.getArguments()[1];
+      rebuiltOn.put((String) params.get("artifactId"), Thread.currentThread().getName());
+      return Collections.<Component>emptyList();
+    });
+  }
+
+  @Test
+  public void rebuildsRepositoryInParallel() {
+    for (int i = 0; i < 250; i++) {
+      addGA("org.example.group" + (i / 50), "artifact-" + i);
+    }
+
+    underTest.rebuildChanged(repository);
+
+    assertThat(browsedSql, containsString("FROM component"));
+    assertThat(rebuiltOn.size(), is(250));
+    assertThat(rebuiltOn.values(), everyItem(startsWith("metadata-rebuild")));
+    assertThat(lastRebuild(), notNullValue());
+    verify(tx).saveBucket(bucket);
+  }
+
+  @Test
+  public void failedPartitionsAreNotRecordedAsComplete() {
+    for (int i = 0; i < 250; i++) {
+      addGA("org.example", "artifact-" + i);
+    }
+    Thread caller = Thread.currentThread();
+    when(storageFacet.txSupplier()).thenReturn(() -> {
+      if (Thread.currentThread() != caller) {
+        throw new IllegalStateException("No connection");
+      }
+      return tx;
+    });
+
+    underTest.rebuildChanged(repository);
+
+    assertThat(rebuiltOn.isEmpty(), is(true));
+    assertThat(lastRebuild(), nullValue());
+    verify(tx, never()).saveBucket(any(Bucket.class));
+  }
+
+  @Test
+  public void rebuildsGAOnCallingThread() {
+    addGA("org.example", "artifact");
+
+    underTest.rebuild(repository, true, "org.example", "artifact", null);
+
+    assertThat(rebuiltOn.get("artifact"), is(Thread.currentThread().getName()));
+    verify(tx, never()).saveBucket(any(Bucket.class));
+  }
+
+  @Test
+  public void rebuildsChangedSinceLastCompleteRebuild() {
+    Date lastRebuild = new Date(System.currentTimeMillis() - 60000L);
+    bucketAttributes.child(Maven2Format.NAME).set(P_LAST_REBUILD, lastRebuild);
+    addGA("org.example", "changed");
+
+    underTest.rebuildChanged(repository);
+
+    assertThat(browsedSql, containsString("FROM asset"));
+    assertThat(browsedSql, containsString("last_updated > :since"));
+    assertThat(browsedParams.get("since"), is(lastRebuild));
+    assertThat(rebuiltOn.keySet(), hasItem("changed"));
+    // deletions are not seen, so the last complete rebuild stays as it is
+    assertThat(lastRebuild(), is(lastRebuild));
+    verify(tx, never()).saveBucket(any(Bucket.class));
+  }
+
+  private void addGA(final String groupId, final String artifactId) {
+    ODocument doc = mock(ODocument.class);
+    when(doc.<String>field("groupId", OType.STRING)).thenReturn(groupId);
+    when(doc.<String>field("artifactId", OType.STRING)).thenReturn(artifactId);
+    when(doc.<Set<String>>field("baseVersions", OType.EMBEDDEDSET)).thenReturn(Collections.singleton("1.0"));
+    gas.add(doc);
+  }
+
+  private Date lastRebuild() {
+    return bucketAttributes.child(Maven2Format.NAME).get(P_LAST_REBUILD, Date.class);
+  }
+}
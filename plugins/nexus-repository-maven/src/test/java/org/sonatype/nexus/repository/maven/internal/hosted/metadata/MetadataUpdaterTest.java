@@ -12,8 +12,10 @@
  */
 package org.sonatype.nexus.repository.maven.internal.hosted.metadata;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.sonatype.goodies.testsupport.TestSupport;
@@ -24,23 +26,30 @@ import org.sonatype.nexus.repository.maven.MavenFacet;
 import org.sonatype.nexus.repository.maven.MavenPath;
 import org.sonatype.nexus.repository.maven.MavenPath.HashType;
 import org.sonatype.nexus.repository.maven.internal.Maven2MavenPathParser;
+import org.sonatype.nexus.repository.maven.internal.MavenModels;
 import org.sonatype.nexus.repository.maven.internal.hosted.metadata.Maven2Metadata.Plugin;
 import org.sonatype.nexus.repository.storage.StorageTx;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
 import org.sonatype.nexus.repository.view.payloads.StringPayload;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Versioning;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -141,10 +150,46 @@ public class MetadataUpdaterTest
     when(mavenFacet.get(mavenPath)).thenReturn(content);
     testSubject.replace(mavenPath, Maven2Metadata.newGroupLevel(DateTime.now(), "group", new ArrayList<Plugin>()));
     verify(tx, times(0)).commit();
-    verify(mavenFacet, times(1)).get(eq(mavenPath));
+    verify(mavenFacet, times(2)).get(eq(mavenPath));
     verify(mavenFacet, times(1)).put(eq(mavenPath), any(Payload.class));
   }
 
+  @Test
+  public void replaceUnchanged() throws IOException {
+    store(true, "1.0", "1.1");
+    assertThat(testSubject.replace(mavenPath, artifactLevel("1.0", "1.1")), is(false));
+    verify(mavenFacet, never()).put(any(MavenPath.class), any(Payload.class));
+  }
+
+  @Test
+  public void replaceUnchangedWithMissingChecksum() throws IOException {
+    store(false, "1.0", "1.1");
+    assertThat(testSubject.replace(mavenPath, artifactLevel("1.0", "1.1")), is(true));
+    verify(mavenFacet, never()).put(eq(mavenPath), any(Payload.class));
+    verify(mavenFacet, never()).put(eq(mavenPath.hash(HashType.SHA1)), any(Payload.class));
+    verify(mavenFacet, times(1)).put(eq(mavenPath.hash(HashType.MD5)), any(Payload.class));
+  }
+
+  @Test
+  public void replaceChanged() throws IOException {
+    store(true, "1.0");
+    assertThat(testSubject.replace(mavenPath, artifactLevel("1.0", "1.1")), is(true));
+    verify(mavenFacet, times(1)).put(eq(mavenPath), any(Payload.class));
+  }
+
+  @Test
+  public void updateUnchanged() throws IOException {
+    store(true, "1.0", "1.1");
+    UnitOfWork.beginBatch(tx);
+    try {
+      assertThat(testSubject.update(mavenPath, artifactLevel("1.1")), is(false));
+    }
+    finally {
+      UnitOfWork.end();
+    }
+    verify(mavenFacet, never()).put(any(MavenPath.class), any(Payload.class));
+  }
+
   @Test
   public void delete() throws IOException {
     testSubject.delete(mavenPath);
@@ -154,4 +199,42 @@ public class MetadataUpdaterTest
     verify(mavenFacet, times(1))
         .delete(eq(mavenPath), eq(mavenPath.hash(HashType.SHA1)), eq(mavenPath.hash(HashType.MD5)));
   }
+
+  private Maven2Metadata artifactLevel(final String... versions) {
+    return Maven2Metadata.newArtifactLevel(DateTime.now(), "group", "artifact", "1.1", "1.1", Arrays.asList(versions));
+  }
+
+  /**
+   * Stores artifact level metadata, as if it was generated a long time ago.
+   */
+  private void store(final boolean withChecksums, final String... versions) throws IOException {
+    Versioning versioning = new Versioning();
+    versioning.setLatest("1.1");
+    versioning.setRelease("1.1");
+    versioning.setVersions(Arrays.asList(versions));
+    versioning.setLastUpdated("20000101000000");
+    Metadata metadata = new Metadata();
+    metadata.setModelVersion("1.1.0");
+    metadata.setGroupId("group");
+    metadata.setArtifactId("artifact");
+    metadata.setVersioning(versioning);
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    MavenModels.writeMetadata(buffer, metadata);
+    byte[] bytes = buffer.toByteArray();
+
+    HashCode sha1 = HashAlgorithm.SHA1.function().hashBytes(bytes);
+    HashCode md5 = HashAlgorithm.MD5.function().hashBytes(bytes);
+    Content stored = new Content(new BytesPayload(bytes, "text/xml"));
+    stored.getAttributes().set(Content.CONTENT_HASH_CODES_MAP, ImmutableMap.of(
+        HashAlgorithm.SHA1, sha1,
+        HashAlgorithm.MD5, md5
+    ));
+    when(mavenFacet.get(mavenPath)).thenReturn(stored, content);
+    when(mavenFacet.get(mavenPath.hash(HashType.SHA1))).thenReturn(new Content(new StringPayload(sha1.toString(),
+        "text/plain")));
+    if (withChecksums) {
+      when(mavenFacet.get(mavenPath.hash(HashType.MD5))).thenReturn(new Content(new StringPayload(md5.toString(),
+          "text/plain")));
+    }
+  }
 }
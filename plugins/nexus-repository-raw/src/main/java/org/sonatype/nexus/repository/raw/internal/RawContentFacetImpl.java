@@ -23,7 +23,6 @@ import javax.inject.Named;
 import org.sonatype.nexus.blobstore.api.Blob;
 import org.sonatype.nexus.common.collect.AttributesMap;
 import org.sonatype.nexus.common.hash.HashAlgorithm;
-import org.sonatype.nexus.common.io.TempStreamSupplier;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.cache.CacheInfo;
@@ -32,6 +31,7 @@ import org.sonatype.nexus.repository.raw.RawContentFacet;
 import org.sonatype.nexus.repository.raw.RawCoordinatesHelper;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.AssetBlob;
+import org.sonatype.nexus.repository.storage.BlobStreamSupplier;
 import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.Component;
 import org.sonatype.nexus.repository.storage.StorageFacet;
@@ -80,9 +80,7 @@ public class RawContentFacetImpl
     if (asset == null) {
       return null;
     }
-    if (asset.markAsAccessed()) {
-      tx.saveAsset(asset);
-    }
+    facet(StorageFacet.class).markAsAccessed(asset);
 
     final Blob blob = tx.requireBlob(asset.requireBlobRef());
     return toContent(asset, blob);
@@ -90,7 +88,7 @@ public class RawContentFacetImpl
 
   @Override
   public Content put(final String path, final Payload content) throws IOException {
-    try (final TempStreamSupplier streamSupplier = new TempStreamSupplier(content.openInputStream())) {
+    try (final BlobStreamSupplier streamSupplier = new BlobStreamSupplier(content.openInputStream())) {
       return doPutContent(path, streamSupplier, content);
     }
   }